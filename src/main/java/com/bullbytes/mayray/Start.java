@@ -3,15 +3,33 @@ package com.bullbytes.mayray;
 import com.bullbytes.mayray.config.CommandLineArgsParser;
 import com.bullbytes.mayray.config.ServerConfig;
 import com.bullbytes.mayray.config.ServerConfigParser;
+import com.bullbytes.mayray.fileaccess.DirectoryAccess;
+import com.bullbytes.mayray.fileaccess.DownloadTokens;
+import com.bullbytes.mayray.fileaccess.HotFileTier;
+import com.bullbytes.mayray.fileaccess.IncomingFile;
+import com.bullbytes.mayray.fileaccess.OpenFileCache;
+import com.bullbytes.mayray.fileaccess.UploadQuota;
+import com.bullbytes.mayray.fileindex.FileTreeIndex;
+import com.bullbytes.mayray.fileindex.TrigramIndex;
 import com.bullbytes.mayray.http.Route;
+import com.bullbytes.mayray.http.RouteClass;
 import com.bullbytes.mayray.http.requests.Request;
 import com.bullbytes.mayray.http.requests.Requests;
 import com.bullbytes.mayray.http.responses.FileResponses;
+import com.bullbytes.mayray.http.responses.ListingResponses;
 import com.bullbytes.mayray.http.responses.PersonResponses;
+import com.bullbytes.mayray.http.responses.Response;
+import com.bullbytes.mayray.http.responses.ResponseCache;
 import com.bullbytes.mayray.http.responses.Responses;
+import com.bullbytes.mayray.http.responses.SearchResponses;
+import com.bullbytes.mayray.http.responses.StaticResponse;
 import com.bullbytes.mayray.http.responses.StatusCode;
+import com.bullbytes.mayray.http.responses.UploadResponses;
+import com.bullbytes.mayray.http.server.Bulkhead;
 import com.bullbytes.mayray.http.server.WebServer;
+import com.bullbytes.mayray.metrics.Metrics;
 import com.bullbytes.mayray.tls.TlsStatus;
+import com.bullbytes.mayray.utils.BlobStore;
 import com.bullbytes.mayray.utils.FormattingUtil;
 import com.bullbytes.mayray.utils.SysUtil;
 import com.bullbytes.mayray.utils.log.LogConfigurator;
@@ -23,6 +41,7 @@ import org.slf4j.LoggerFactory;
 
 import java.lang.management.ManagementFactory;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.function.Function;
 import java.util.logging.Level;
@@ -39,6 +58,14 @@ import static com.bullbytes.mayray.http.requests.RequestMethod.POST;
 public enum Start {
     ;
     private static final Logger log = LoggerFactory.getLogger(Start.class);
+    private static final int KIBIBYTE = 1024;
+    private static final int MEBIBYTE = 1024 * KIBIBYTE;
+    private static final long GIBIBYTE = 1024L * MEBIBYTE;
+    // Listings can be a few seconds out of date
+    private static final Duration SEARCH_CACHE_TIME = Duration.ofSeconds(5);
+    private static final Duration PERSON_CACHE_TIME = Duration.ofHours(1);
+    private static final Duration OPEN_FILE_REVALIDATION_TIME = Duration.ofSeconds(2);
+    private static final StaticResponse GREETING = StaticResponse.plainText("The server says hi 👋");
 
     /**
      * Logs information such as the classpath, JVM arguments, and available heap space.
@@ -90,31 +117,76 @@ public enum Start {
     }
 
     private static void startServer(ServerConfig config, TlsStatus tlsStatus) {
+        // Keeps track of the files users can list and download, so we don't have to walk the directories for each request
+        var fileIndex = FileTreeIndex.watch(DirectoryAccess.DOWNLOAD_ROOT_DIR, Path.of("fileIndex/downloadable.idx"));
+        var trigramIndex = TrigramIndex.of(fileIndex);
+        // Signs the links for downloading directories, so they don't have to contain the password
+        var downloadTokens = DownloadTokens.withRandomKey();
+        // Listing and downloading files have their own threads, so they can't slow down the other routes
+        var listingBulkhead = Bulkhead.create("listing", 8, 64);
+        var downloadBulkhead = Bulkhead.create("download", 2, 16);
+        // Sending a single file is cheaper than zipping a directory, so more of them can run at once
+        var fileBulkhead = Bulkhead.create("file", 8, 64);
+        // Popular files stay open. We check every few seconds whether they have changed
+        var openFiles = OpenFileCache.create("download", 256, OPEN_FILE_REVALIDATION_TIME);
+        // The most popular small files are mapped into memory
+        var hotFiles = HotFileTier.create("download", 256 * MEBIBYTE, 4 * MEBIBYTE, 10_000);
+        // Uploads are written to disk while we receive them, each one keeps a thread busy until it's done
+        var uploadBulkhead = Bulkhead.create("upload", 4, 16);
+        var uploadQuota = UploadQuota.create(4 * GIBIBYTE, GIBIBYTE);
+        IncomingFile.prepareStagingDir(IncomingFile.STAGING_DIR, DirectoryAccess.DOWNLOAD_ROOT_DIR);
+        // Clients often search for the same text several times in a row, for example while refining the search
+        var searchCache = ResponseCache.create("search", 64 * MEBIBYTE, MEBIBYTE);
+        // We get the images of the people from other servers. They don't change, so we keep them outside the heap
+        var personCache = ResponseCache.create("person", MEBIBYTE, 8 * MEBIBYTE,
+                BlobStore.create("person", 64 * KIBIBYTE, 1024));
+
         WebServer.go(config, tlsStatus,
-                route("Root response", "/", Start::getRootResponse),
-                route("Coffee response", "/coffee", request ->
-                        Responses.plainText("Can't give you coffee, but here's some tea: 🍵", StatusCode.TEAPOT)),
-                route("List files", "/list\\?.+", FileResponses::listFiles),
-                route("Get directory", "/get\\?.+", FileResponses::zipDir),
-                route("Ada responses", "/ada.*", PersonResponses::ada),
-                route("Simon Peyton Jones responses", "/spj.*", PersonResponses::simonPeytonJones),
-                route("Linus Torvalds responses", "/linus.*", PersonResponses::linus),
-                route("Grace Hopper responses", "/grace.*", PersonResponses::graceHopper),
+                streamingRoute("Root response", "/", Start::getRootResponse),
+                staticRoute("Coffee response", "/coffee",
+                        StaticResponse.plainText("Can't give you coffee, but here's some tea: 🍵", StatusCode.TEAPOT)),
+                streamingRoute("List files", "/list\\?.+", request -> FileResponses.listFiles(request, fileIndex, downloadTokens))
+                        .inClass(RouteClass.LISTING).inBulkhead(listingBulkhead),
+                streamingRoute("List files for programs", "/api/list\\?.+", request -> ListingResponses.listFiles(request, fileIndex))
+                        .inClass(RouteClass.LISTING).inBulkhead(listingBulkhead),
+                streamingRoute("Search files", "/search\\?.+",
+                        request -> SearchResponses.search(request, trigramIndex, fileIndex, searchCache, SEARCH_CACHE_TIME))
+                        .inClass(RouteClass.LISTING).inBulkhead(listingBulkhead),
+                streamingRoute("Get directory", "/get\\?.+", request -> FileResponses.zipDir(request, downloadTokens))
+                        .inClass(RouteClass.DOWNLOAD).inBulkhead(downloadBulkhead),
+                streamingRoute("Get file", "/file\\?.+", request -> FileResponses.sendFile(request, downloadTokens, openFiles, hotFiles))
+                        .inClass(RouteClass.FILE).inBulkhead(fileBulkhead),
+                streamingRoute("Upload files", "/upload\\?.+", request -> UploadResponses.upload(request, uploadQuota))
+                        .inClass(RouteClass.UPLOAD).inBulkhead(uploadBulkhead).streamingBody(),
+                // The other responses about a person are prebuilt already, only the images come from elsewhere
+                streamingRoute("Ada image", "/ada/img\\.jpg", PersonResponses::ada)
+                        .cached(personCache, PERSON_CACHE_TIME),
+                streamingRoute("Ada responses", "/ada(/.*)?", PersonResponses::ada),
+                streamingRoute("Simon Peyton Jones image", "/spj/img\\.jpg", PersonResponses::simonPeytonJones)
+                        .cached(personCache, PERSON_CACHE_TIME),
+                streamingRoute("Simon Peyton Jones responses", "/spj(/.*)?", PersonResponses::simonPeytonJones),
+                streamingRoute("Linus Torvalds image", "/linus/img\\.jpg", PersonResponses::linus)
+                        .cached(personCache, PERSON_CACHE_TIME),
+                streamingRoute("Linus Torvalds responses", "/linus(/.*)?", PersonResponses::linus),
+                streamingRoute("Grace Hopper image", "/grace/img\\.jpg", PersonResponses::graceHopper)
+                        .cached(personCache, PERSON_CACHE_TIME),
+                streamingRoute("Grace Hopper responses", "/grace(/.*)?", PersonResponses::graceHopper),
                 route("Log system resources", "/stats.*", request -> {
                     SysUtil.logSystemStats();
                     return Responses.plainText("📊 Now logging system stats on the server");
-                })
+                }),
+                route("Show metrics", "/metrics", request -> Responses.plainText(Metrics.toText()))
         );
     }
 
-    private static byte[] getRootResponse(Request request) {
+    private static Response getRootResponse(Request request) {
         return switch (request.getMethod()) {
-            case GET -> Responses.plainText("The server says hi 👋");
-            case POST -> Requests.getBody(request)
+            case GET -> GREETING.respond(request);
+            case POST -> Response.of(Requests.getBody(request)
                     .fold(error -> Responses.plainText(error.toString(), StatusCode.BAD_REQUEST),
                             body -> Responses.plainText("The server thanks you for your post message: " + body)
-                    );
-            default -> Responses.unsupportedMethod(List.of(GET, POST));
+                    ));
+            default -> Response.of(Responses.unsupportedMethod(List.of(GET, POST)));
         };
     }
 
@@ -125,6 +197,23 @@ public enum Start {
         return Route.create(Pattern.compile(resourceRegex), routeName, requestHandler);
     }
 
+    /**
+     * Creates a {@link Route} that sends the same {@link StaticResponse} for every request.
+     */
+    private static Route staticRoute(String routeName,
+                                     String resourceRegex,
+                                     StaticResponse response) {
+
+        return Route.streaming(Pattern.compile(resourceRegex), routeName, response::respond);
+    }
+
+    private static Route streamingRoute(String routeName,
+                                        String resourceRegex,
+                                        Function<Request, Response> requestHandler) {
+
+        return Route.streaming(Pattern.compile(resourceRegex), routeName, requestHandler);
+    }
+
     private static void configureLogging(String appName) {
         // Note that we can set the log level on both the logger and the log handlers
         Level logLevel = Level.INFO;
@@ -0,0 +1,77 @@
+package com.bullbytes.mayray.config;
+
+import com.bullbytes.mayray.http.RouteClass;
+import io.vavr.collection.Map;
+import io.vavr.control.Option;
+
+/**
+ * How often a client, identified by its IP address, may connect to the server and make requests.
+ * <p>
+ * Each limit is a rate and a burst: A client can make up to {@code burst} requests at once and after that
+ * {@code perSecond} requests per second. Limits that aren't configured get default values, a rate of zero turns a
+ * limit off.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class RateLimitConfig {
+
+    private final Option<Rate> connectionRate;
+    private final Map<RouteClass, Rate> requestRates;
+    private final int maxClients;
+
+    RateLimitConfig(Option<Rate> connectionRate, Map<RouteClass, Rate> requestRates, int maxClients) {
+        this.connectionRate = connectionRate;
+        this.requestRates = requestRates;
+        this.maxClients = maxClients;
+    }
+
+    /**
+     * @return how often a client may open a new connection or {@link Option#none()} if that's not limited
+     */
+    public Option<Rate> getConnectionRate() {
+        return connectionRate;
+    }
+
+    /**
+     * @param routeClass the {@link RouteClass} of the requested route
+     * @return how often a client may request routes of the {@code routeClass} or {@link Option#none()} if that's not
+     * limited
+     */
+    public Option<Rate> getRequestRate(RouteClass routeClass) {
+        return requestRates.get(routeClass);
+    }
+
+    /**
+     * @return for how many clients we keep track of their rate per limit. When there are more clients, we forget
+     * about the ones that were idle the longest
+     */
+    public int getMaxClients() {
+        return maxClients;
+    }
+
+    /**
+     * A rate with a burst, such as "two requests per second and up to ten at once".
+     */
+    public static final class Rate {
+        private final int perSecond;
+        private final int burst;
+
+        Rate(int perSecond, int burst) {
+            this.perSecond = perSecond;
+            this.burst = burst;
+        }
+
+        public int getPerSecond() {
+            return perSecond;
+        }
+
+        public int getBurst() {
+            return burst;
+        }
+
+        @Override
+        public String toString() {
+            return perSecond + " per second, burst of " + burst;
+        }
+    }
+}
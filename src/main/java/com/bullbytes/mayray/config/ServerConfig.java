@@ -15,13 +15,22 @@ public final class ServerConfig {
     private final String host;
     private final int port;
     private final Path keyStorePath;
+    private final RateLimitConfig rateLimits;
+    private final long memoryBudgetBytes;
     private Option<char[]> keyStorePassword;
 
-    ServerConfig(String host, int port, Path keyStorePath, char[] keyStorePassword) {
+    ServerConfig(String host,
+                 int port,
+                 Path keyStorePath,
+                 char[] keyStorePassword,
+                 RateLimitConfig rateLimits,
+                 long memoryBudgetBytes) {
         this.host = host;
         this.port = port;
         this.keyStorePath = keyStorePath;
         this.keyStorePassword = Option.of(keyStorePassword);
+        this.rateLimits = rateLimits;
+        this.memoryBudgetBytes = memoryBudgetBytes;
     }
 
     public String getHost() {
@@ -57,4 +66,15 @@ public final class ServerConfig {
     public Path getKeyStorePath() {
         return keyStorePath;
     }
+
+    public RateLimitConfig getRateLimits() {
+        return rateLimits;
+    }
+
+    /**
+     * @return how many bytes the server may keep in memory for request bodies and responses at the same time
+     */
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
 }
@@ -1,12 +1,16 @@
 package com.bullbytes.mayray.config;
 
+import com.bullbytes.mayray.http.RouteClass;
 import com.bullbytes.mayray.utils.FailMessage;
 import com.bullbytes.mayray.utils.ParseUtil;
 import com.bullbytes.mayray.utils.PropertiesUtil;
 import io.vavr.API;
 import io.vavr.Tuple2;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
 import io.vavr.collection.Map;
 import io.vavr.collection.Seq;
+import io.vavr.control.Option;
 import io.vavr.control.Validation;
 
 import java.nio.file.Path;
@@ -27,6 +31,30 @@ public enum ServerConfigParser {
     private static final String KEY_STORE_PASSWORD_KEY = "keystorePassword";
     private static final String KEY_STORE_PATH_KEY = "keystorePath";
 
+    // Rate limits are optional. For example, "rateLimit.download.perSecond=1" and "rateLimit.download.burst=5" let
+    // each client download one directory per second and five at once
+    private static final String RATE_LIMIT_PREFIX = "rateLimit.";
+    private static final String CONNECTIONS_KEY = "connections";
+    private static final String PER_SECOND_SUFFIX = ".perSecond";
+    private static final String BURST_SUFFIX = ".burst";
+    private static final String MAX_CLIENTS_KEY = RATE_LIMIT_PREFIX + "maxClients";
+    private static final int DEFAULT_MAX_CLIENTS = 1 << 16;
+    private static final int MAX_PER_SECOND = 1_000_000;
+    private static final int MAX_BURST = 10_000;
+    private static final RateLimitConfig.Rate DEFAULT_CONNECTION_RATE = new RateLimitConfig.Rate(20, 50);
+    private static final Map<RouteClass, RateLimitConfig.Rate> DEFAULT_REQUEST_RATES = HashMap.of(
+            RouteClass.LIGHT, new RateLimitConfig.Rate(50, 100),
+            RouteClass.LISTING, new RateLimitConfig.Rate(10, 30),
+            // Zipping directories keeps the disks busy
+            RouteClass.DOWNLOAD, new RateLimitConfig.Rate(1, 5),
+            // Seeking in a video or downloading a file in segments takes a request per range
+            RouteClass.FILE, new RateLimitConfig.Rate(20, 50),
+            RouteClass.UPLOAD, new RateLimitConfig.Rate(1, 5));
+
+    // Optional. Without it, requests and responses may use a quarter of the heap
+    private static final String MEMORY_BUDGET_KEY = "memoryBudgetMegabytes";
+    private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
     /**
      * Parses the {@link ServerConfig} from the {@link java.util.Properties} file whose path is expected to be the
      * first element of {@code args}.
@@ -50,10 +78,69 @@ public enum ServerConfigParser {
                 validateHost(propMap),
                 validatePort(propMap),
                 validateKeyStorePath(propMap),
-                validateKeyStorePassword(propMap))
+                validateKeyStorePassword(propMap),
+                validateRateLimits(propMap),
+                validateMemoryBudget(propMap))
                 .ap(ServerConfig::new);
     }
 
+    private static Validation<FailMessage, Long> validateMemoryBudget(Map<String, String> propMap) {
+        int defaultMegabytes = (int) (Runtime.getRuntime().maxMemory() / 4 / BYTES_PER_MEGABYTE);
+        return validateOptionalInt(propMap, MEMORY_BUDGET_KEY, defaultMegabytes, 1, Integer.MAX_VALUE)
+                .map(megabytes -> megabytes * BYTES_PER_MEGABYTE);
+    }
+
+    private static Validation<FailMessage, RateLimitConfig> validateRateLimits(Map<String, String> propMap) {
+        var requestRates = List.of(RouteClass.values())
+                .map(routeClass -> validateRate(propMap, routeClass.getKey(), DEFAULT_REQUEST_RATES.get(routeClass).get())
+                        .map(rate -> Tuple(routeClass, rate)));
+
+        return Validation.combine(
+                validateRate(propMap, CONNECTIONS_KEY, DEFAULT_CONNECTION_RATE),
+                Validation.sequence(requestRates.map(rate -> rate.mapError(List::of)))
+                        .mapError(Seq::head),
+                validateOptionalInt(propMap, MAX_CLIENTS_KEY, DEFAULT_MAX_CLIENTS, 1, Integer.MAX_VALUE))
+                .ap((connectionRate, rates, maxClients) -> new RateLimitConfig(connectionRate,
+                        rates.flatMap(routeClassAndRate -> routeClassAndRate._2
+                                .map(rate -> Tuple(routeClassAndRate._1, rate)))
+                                .toMap(tuple -> tuple),
+                        maxClients))
+                .mapError(Seq::head);
+    }
+
+    /**
+     * @return the {@link RateLimitConfig.Rate} of the limit with the {@code name} or {@link Option#none()} if the
+     * limit is turned off with a rate of zero
+     */
+    private static Validation<FailMessage, Option<RateLimitConfig.Rate>> validateRate(Map<String, String> propMap,
+                                                                                       String name,
+                                                                                       RateLimitConfig.Rate defaultRate) {
+        String perSecondKey = RATE_LIMIT_PREFIX + name + PER_SECOND_SUFFIX;
+        String burstKey = RATE_LIMIT_PREFIX + name + BURST_SUFFIX;
+        return validateOptionalInt(propMap, perSecondKey, defaultRate.getPerSecond(), 0, MAX_PER_SECOND)
+                .flatMap(perSecond -> validateOptionalInt(propMap, burstKey,
+                        // Without a configured burst, clients can make at least one second's worth of requests at
+                        // once, as far as the token buckets allow
+                        Math.min(MAX_BURST, Math.max(defaultRate.getBurst(), perSecond)), 1, MAX_BURST)
+                        .map(burst -> perSecond == 0 ?
+                                Option.<RateLimitConfig.Rate>none() :
+                                Option.of(new RateLimitConfig.Rate(perSecond, burst))));
+    }
+
+    private static Validation<FailMessage, Integer> validateOptionalInt(Map<String, String> propMap,
+                                                                       String key,
+                                                                       int defaultValue,
+                                                                       int min,
+                                                                       int max) {
+        return propMap.get(key)
+                .fold(() -> Validation.<FailMessage, Integer>valid(defaultValue),
+                        str -> Validation.fromEither(ParseUtil.parseInt(str.trim())))
+                .flatMap(value -> value >= min && value <= max ?
+                        Validation.valid(value) :
+                        Invalid(FailMessage.formatted("Value %d of key %s is not between %d and %d",
+                                value, key, min, max)));
+    }
+
     private static Validation<FailMessage, Path> validateKeyStorePath(Map<String, String> propMap) {
         return getValue(propMap, KEY_STORE_PATH_KEY)
                 .map(Path::of);
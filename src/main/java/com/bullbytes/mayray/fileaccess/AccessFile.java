@@ -19,13 +19,14 @@ import java.nio.file.Paths;
  * Person of contact: Matthias Braun
  */
 final class AccessFile {
+    static final String FILE_NAME = "access";
     private static final Logger log = LoggerFactory.getLogger(AccessFile.class);
     private final Map<Path, String> dirsAndPasswords;
 
     private AccessFile(Map<Path, String> dirsAndPasswords) {this.dirsAndPasswords = dirsAndPasswords;}
 
     static Try<AccessFile> readFromDir(Path dirPath) {
-        Path accessFilePath = Paths.get(dirPath.toString(), "access");
+        Path accessFilePath = Paths.get(dirPath.toString(), FILE_NAME);
 
         return Try.of(() -> List.ofAll(Files.readAllLines(accessFilePath, StandardCharsets.UTF_8)))
                 .map(AccessFile::parseToMap)
@@ -34,7 +35,7 @@ final class AccessFile {
 
     private static Map<Path, String> parseToMap(List<String> lines) {
         return ParseUtil.getKeyValueMap(lines, "=",
-                // We normalize the path of the file (and later the path provided in #passwordIs) to
+                // We normalize the path of the file (and later the path provided in AccessIndex#passwordMatches) to
                 // treat paths of different representations ("the_dir" and "./the_dir") as the same
                 path -> Path.of(path.strip()).normalize(),
                 String::strip,
@@ -42,22 +43,9 @@ final class AccessFile {
     }
 
     /**
-     * Checks if a given {@code password} for accessing a {@code desiredDirectory} is correct. It does so by looking
-     * up the password for the {@code desiredDirectory} in the {@link AccessFile} and comparing this password with the
-     * provided {@code password}.
-     * <p>
-     * Since we normalize the directories in the {@link AccessFile} as well as the given {@code desiredDirectory}, the
-     * representation of a directory in the {@link AccessFile} and the passed {@code desiredDirectory} can differ:
-     * {@link AccessFile} sees {@code ./the_dir} and {@code the_dir} as the same directory {@link Path} and
-     * {@link #passwordIs} will return true for this directory if the password matches.
-     *
-     * @param password         check if this string is the correct password for accessing the {@code desiredDirectory}
-     * @param desiredDirectory the {@link Path} of the directory whose password we compare with the given {@code password}
-     * @return whether the given {@code password} is correct for accessing the {@code desiredDirectory}
+     * @return the directories in the {@link AccessFile} with their passwords. The directories are normalized
      */
-    boolean passwordIs(String password, Path desiredDirectory) {
-        return dirsAndPasswords.get(desiredDirectory.normalize())
-                .map(passwordFromFile -> passwordFromFile.equals(password))
-                .getOrElse(false);
+    Map<Path, String> getDirsAndPasswords() {
+        return dirsAndPasswords;
     }
 }
@@ -0,0 +1,190 @@
+package com.bullbytes.mayray.fileaccess;
+
+import io.vavr.collection.Map;
+import io.vavr.control.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.util.HashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Keeps the directory passwords of an {@link AccessFile} in memory, so checking a password doesn't read from disk.
+ * <p>
+ * The passwords are stored in a trie of directory names: "photos/2019" is the child "2019" of the child "photos" of
+ * the root. A password applies to its directory and all subdirectories, unless a subdirectory has a password of its
+ * own. Finding the password of a directory takes one step per directory name in its path.
+ * <p>
+ * A {@link WatchService} tells us when the access file changes and we read it again.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class AccessIndex {
+    private static final Logger log = LoggerFactory.getLogger(AccessIndex.class);
+
+    private final Path accessFileDir;
+    private volatile Node root = new Node();
+
+    private AccessIndex(Path accessFileDir) {
+        this.accessFileDir = accessFileDir;
+    }
+
+    /**
+     * Reads the {@link AccessFile} in {@code accessFileDir} and starts a daemon thread that reads it again whenever
+     * it changes.
+     *
+     * @param accessFileDir the directory containing the {@link AccessFile}
+     * @return an {@link AccessIndex} with the passwords of the {@link AccessFile}
+     */
+    static AccessIndex watch(Path accessFileDir) {
+        var index = new AccessIndex(accessFileDir);
+        try {
+            var watchService = accessFileDir.getFileSystem().newWatchService();
+            accessFileDir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+
+            var watcherThread = new Thread(() -> index.processEvents(watchService), "access-index-watcher");
+            watcherThread.setDaemon(true);
+            watcherThread.start();
+        } catch (IOException e) {
+            log.warn("Could not watch directory {}. Changes to the access file won't take effect until restart",
+                    accessFileDir, e);
+        }
+        // Read the file after registering the watch service, so we don't miss changes in between
+        index.reload();
+        return index;
+    }
+
+    /**
+     * Checks whether the {@code password} grants access to the {@code dir}.
+     *
+     * @param dir      the directory relative to the download root directory, such as "photos/2019"
+     * @param password the password the user has provided
+     * @return true if the {@code password} is the password of the {@code dir} or, if the {@code dir} has no password
+     * of its own, of the closest parent directory that has one
+     */
+    boolean passwordMatches(Path dir, String password) {
+        return passwordOf(dir)
+                // Compare in constant time, so the response time doesn't reveal how much of the password is correct
+                .map(expected -> MessageDigest.isEqual(expected.getBytes(UTF_8), password.getBytes(UTF_8)))
+                .getOrElse(false);
+    }
+
+    /**
+     * @param dir the directory relative to the download root directory
+     * @return the password that applies to the {@code dir} or {@link Option#none()} if no password applies to it,
+     * which means nobody can access it
+     */
+    Option<String> passwordOf(Path dir) {
+        var normalized = dir.normalize();
+        if (normalized.isAbsolute() || normalized.startsWith("..")) {
+            // Paths outside the root directory have no password
+            return Option.none();
+        }
+        var node = root;
+        String password = node.password;
+        for (Path name : normalized) {
+            if (name.toString().isEmpty()) {
+                // The empty path stands for the root directory
+                continue;
+            }
+            node = node.children.get(name.toString());
+            if (node == null) {
+                break;
+            }
+            if (node.password != null) {
+                password = node.password;
+            }
+        }
+        return Option.of(password);
+    }
+
+    /**
+     * @param dir the directory relative to the download root directory
+     * @return the directory whose password applies to the {@code dir}: the {@code dir} itself or its closest parent
+     * directory with a password. {@link Option#none()} if no password applies to the {@code dir}
+     */
+    Option<Path> passwordOwnerOf(Path dir) {
+        var normalized = dir.normalize();
+        if (normalized.isAbsolute() || normalized.startsWith("..")) {
+            return Option.none();
+        }
+        var node = root;
+        var current = Path.of("");
+        Path owner = node.password == null ? null : current;
+        for (Path name : normalized) {
+            if (name.toString().isEmpty()) {
+                continue;
+            }
+            node = node.children.get(name.toString());
+            if (node == null) {
+                break;
+            }
+            current = current.resolve(name);
+            if (node.password != null) {
+                owner = current;
+            }
+        }
+        return Option.of(owner);
+    }
+
+    private void reload() {
+        root = AccessFile.readFromDir(accessFileDir)
+                .map(accessFile -> toTrie(accessFile.getDirsAndPasswords()))
+                .onSuccess(newRoot -> log.info("Read access file in {}", accessFileDir))
+                .onFailure(error -> log.warn("Could not read access file in {}. Denying access to all directories",
+                        accessFileDir, error))
+                .getOrElse(Node::new);
+    }
+
+    private static Node toTrie(Map<Path, String> dirsAndPasswords) {
+        var newRoot = new Node();
+        dirsAndPasswords.forEach((dir, password) -> {
+            if (dir.isAbsolute() || dir.startsWith("..")) {
+                log.warn("Ignoring password of directory {} since it's outside the download directory", dir);
+                return;
+            }
+            var node = newRoot;
+            for (Path name : dir) {
+                if (!name.toString().isEmpty()) {
+                    node = node.children.computeIfAbsent(name.toString(), key -> new Node());
+                }
+            }
+            node.password = password;
+        });
+        return newRoot;
+    }
+
+    private void processEvents(WatchService watchService) {
+        try {
+            while (true) {
+                var key = watchService.take();
+                boolean accessFileChanged = key.pollEvents().stream()
+                        .anyMatch(event -> AccessFile.FILE_NAME.equals(String.valueOf(event.context())));
+                key.reset();
+                if (accessFileChanged) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.info("Stopped watching access file in {}", accessFileDir);
+        }
+    }
+
+    /**
+     * A directory in the trie. Nodes are only changed while creating a new trie, afterwards they are read-only.
+     */
+    private static final class Node {
+        private final java.util.Map<String, Node> children = new HashMap<>();
+        // The password of this directory, null if it inherits the password of its parent
+        private String password;
+    }
+}
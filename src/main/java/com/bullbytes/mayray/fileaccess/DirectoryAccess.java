@@ -38,6 +38,56 @@ public final class DirectoryAccess {
         return desiredDirIsSubdirOfRoot && isDirectory;
     }
 
+    /**
+     * Checks whether downloading a single file of the directory is allowed. It's allowed if the file is directly
+     * inside the directory, which is inside the download root directory. We never allow downloading the access files
+     * since they contain the passwords.
+     * <p>
+     * This only looks at the path and doesn't read from disk. Whoever opens the file has to make sure it exists and
+     * is a regular file.
+     *
+     * @param fileName the name of the file inside the desired directory
+     * @return whether the user can download the file
+     */
+    public boolean isFileDownloadAllowed(String fileName) {
+        Path dir = getNormalizedPathFromRoot();
+        Path file = getNormalizedFilePathFromRoot(fileName);
+
+        return dir.startsWith(DOWNLOAD_ROOT_DIR.normalize()) && dir.equals(file.getParent()) &&
+                !file.getFileName().toString().equals(AccessFile.FILE_NAME);
+    }
+
+    /**
+     * Checks whether uploading a file to the directory is allowed. The rules for downloading a file apply and the
+     * directory has to exist. File names starting with a dot are reserved for files being uploaded.
+     * <p>
+     * The name must be a plain file name: Control characters such as line breaks, path separators, and the '"' and
+     * ';' that delimit parameters in headers like Content-Disposition aren't allowed.
+     *
+     * @param fileName the name of the file inside the desired directory
+     * @return whether the user can upload the file
+     */
+    public boolean isFileUploadAllowed(String fileName) {
+        return isPlainFileName(fileName) && !fileName.startsWith(".") && isFileDownloadAllowed(fileName) &&
+                isDownloadAllowed();
+    }
+
+    private static boolean isPlainFileName(String fileName) {
+        return !fileName.isEmpty() &&
+                fileName.chars().noneMatch(c -> c < ' ' || c == 0x7F || "\"/;\\".indexOf(c) != -1);
+    }
+
+    /**
+     * Gets the normalized path of a file in the directory to download. Check with
+     * {@link #isFileDownloadAllowed(String)} whether the user may download it.
+     *
+     * @param fileName the name of the file inside the desired directory
+     * @return the path of the file inside the root download directory, normalized (no "..", or ".")
+     */
+    public Path getNormalizedFilePathFromRoot(String fileName) {
+        return getNormalizedPathFromRoot().resolve(fileName).normalize();
+    }
+
     /**
      * Gets the normalized path of the directory to download.
      *
@@ -51,13 +101,36 @@ public final class DirectoryAccess {
         return desiredDirectory;
     }
 
+    /**
+     * Checks the password against the passwords in the access file of the download root directory. We keep these
+     * passwords in memory, so this doesn't read from disk.
+     *
+     * @return whether the password grants access to the desired directory
+     */
     public boolean passwordMatches() {
-        return AccessFile.readFromDir(DOWNLOAD_ROOT_DIR)
-                .map(accessFile -> accessFile.passwordIs(password, desiredDirectory))
-                .getOrElse(() -> false);
+        return AccessIndexHolder.INDEX.passwordMatches(desiredDirectory, password);
+    }
+
+    /**
+     * Checks whether the desired directory and {@code otherDir} are protected by the same password. They are not if
+     * one of them is inside a subdirectory that has a password of its own.
+     *
+     * @param otherDir a directory relative to the download root directory, such as the one of a download token
+     * @return true if the same entry of the access file applies to both directories
+     */
+    public boolean hasSamePasswordAs(Path otherDir) {
+        var owner = AccessIndexHolder.INDEX.passwordOwnerOf(desiredDirectory);
+        return owner.isDefined() && owner.equals(AccessIndexHolder.INDEX.passwordOwnerOf(otherDir));
     }
 
     public String getPassword() {
         return password;
     }
+
+    /**
+     * Creates the {@link AccessIndex} when it's first needed.
+     */
+    private static final class AccessIndexHolder {
+        private static final AccessIndex INDEX = AccessIndex.watch(DOWNLOAD_ROOT_DIR);
+    }
 }
@@ -0,0 +1,150 @@
+package com.bullbytes.mayray.fileaccess;
+
+import com.bullbytes.mayray.utils.FailMessage;
+import io.vavr.control.Either;
+import io.vavr.control.Try;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Issues and verifies tokens that let their holder download a directory and its subdirectories for a limited time.
+ * <p>
+ * A token contains the directory and when the token expires, signed with an HMAC. Verifying a token only needs the
+ * secret key: We don't have to store the issued tokens or look up the directory's password. This also means that a
+ * token can be used for any number of requests until it expires, for example by download managers that fetch parts of
+ * a file in parallel.
+ * <p>
+ * The tokens are in the format {@code payload.signature} where both parts are Base64 encoded, suitable for URLs.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class DownloadTokens {
+    /**
+     * How long a token is valid if not specified otherwise.
+     */
+    public static final Duration DEFAULT_VALIDITY = Duration.ofHours(1);
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int KEY_LENGTH_IN_BYTES = 32;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    // Creating a Mac is expensive and a Mac can't be used by multiple threads at once
+    private final ThreadLocal<Mac> macs;
+
+    private DownloadTokens(byte[] key) {
+        this.key = new SecretKeySpec(key, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::createMac);
+    }
+
+    /**
+     * Creates {@link DownloadTokens} with a random key. Tokens issued before the server restarts become invalid.
+     *
+     * @return {@link DownloadTokens} with a new random key
+     */
+    public static DownloadTokens withRandomKey() {
+        var key = new byte[KEY_LENGTH_IN_BYTES];
+        new SecureRandom().nextBytes(key);
+        return new DownloadTokens(key);
+    }
+
+    /**
+     * Creates {@link DownloadTokens} with a given {@code key}. Servers sharing the key accept each other's tokens.
+     *
+     * @param key the secret key used to sign the tokens
+     * @return {@link DownloadTokens} using the {@code key}
+     */
+    public static DownloadTokens withKey(byte[] key) {
+        return new DownloadTokens(key.clone());
+    }
+
+    private Mac createMac() {
+        try {
+            var mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            // Every Java platform has to support HmacSHA256
+            throw new IllegalStateException("Could not create " + ALGORITHM, e);
+        }
+    }
+
+    /**
+     * Issues a token for downloading a directory.
+     *
+     * @param dir       the directory relative to the download root directory. The token grants access to this
+     *                  directory and its subdirectories
+     * @param expiresAt the token is valid until this {@link Instant}
+     * @return the token, which can be used in URLs without encoding it
+     */
+    public String issue(Path dir, Instant expiresAt) {
+        byte[] payload = (expiresAt.getEpochSecond() + ":" + dir.normalize()).getBytes(UTF_8);
+        return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    /**
+     * Issues a token for downloading a directory that is valid for {@link #DEFAULT_VALIDITY}.
+     *
+     * @param dir the directory relative to the download root directory
+     * @return the token, which can be used in URLs without encoding it
+     */
+    public String issue(Path dir) {
+        return issue(dir, Instant.now().plus(DEFAULT_VALIDITY));
+    }
+
+    /**
+     * Verifies a token and gets the directory it grants access to.
+     *
+     * @param token the token issued by {@link #issue}
+     * @param now   the current time, to check whether the token has expired
+     * @return the directory the token grants access to, together with its subdirectories, or a {@link FailMessage}
+     * if the token is malformed, its signature is wrong, or it has expired
+     */
+    public Either<FailMessage, Path> verify(String token, Instant now) {
+        int separator = token.indexOf('.');
+        if (separator < 0) {
+            return Either.left(FailMessage.create("Token has no signature"));
+        }
+        return Try.of(() -> DECODER.decode(token.substring(0, separator)))
+                .flatMap(payload -> Try.of(() -> DECODER.decode(token.substring(separator + 1)))
+                        .map(signature -> MessageDigest.isEqual(sign(payload), signature) ?
+                                Either.<FailMessage, byte[]>right(payload) :
+                                Either.<FailMessage, byte[]>left(FailMessage.create("Token has an invalid signature"))))
+                .getOrElse(() -> Either.left(FailMessage.create("Token is not in Base64")))
+                // We only parse payloads that we have signed ourselves
+                .flatMap(payload -> parsePayload(new String(payload, UTF_8), now));
+    }
+
+    /**
+     * Verifies a token at the current time.
+     *
+     * @param token the token issued by {@link #issue}
+     * @return the directory the token grants access to or a {@link FailMessage} if the token is invalid
+     */
+    public Either<FailMessage, Path> verify(String token) {
+        return verify(token, Instant.now());
+    }
+
+    private static Either<FailMessage, Path> parsePayload(String payload, Instant now) {
+        int separator = payload.indexOf(':');
+        long expiresAt = Long.parseLong(payload.substring(0, separator));
+        return now.getEpochSecond() <= expiresAt ?
+                Either.right(Path.of(payload.substring(separator + 1))) :
+                Either.left(FailMessage.formatted("Token expired at %s", Instant.ofEpochSecond(expiresAt)));
+    }
+
+    private byte[] sign(byte[] payload) {
+        return macs.get().doFinal(payload);
+    }
+}
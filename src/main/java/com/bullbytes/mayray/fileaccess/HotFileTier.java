@@ -0,0 +1,233 @@
+package com.bullbytes.mayray.fileaccess;
+
+import com.bullbytes.mayray.metrics.Counter;
+import com.bullbytes.mayray.metrics.Metrics;
+import com.bullbytes.mayray.utils.BufferPool;
+import com.bullbytes.mayray.utils.CancellationToken;
+import com.bullbytes.mayray.utils.FrequencySketch;
+import io.vavr.control.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Maps the small files that are requested most often into memory. Sending them copies from memory instead of reading
+ * from the file with a system call for each chunk.
+ * <p>
+ * A {@link FrequencySketch} counts how often each file is requested. A file becomes hot once it was requested a few
+ * times recently. If the mapped files would exceed their budget, the new file replaces mapped files that were
+ * requested less often. If all mapped files are at least as popular, the new file stays unmapped.
+ * <p>
+ * We map the file of an {@link OpenFileCache.OpenFile}. When the {@link OpenFileCache} notices that a file has
+ * changed, the next request brings a different {@link OpenFileCache.OpenFile} and we map the file again.
+ * <p>
+ * Mapping a file and reading it into memory can take a while, so we do it without holding the lock. Before that, we
+ * reserve the file's bytes in the budget, and requests for the same file read it from disk until it's mapped.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class HotFileTier {
+    private static final Logger log = LoggerFactory.getLogger(HotFileTier.class);
+    // A file needs at least this many recent requests to be mapped
+    private static final int MIN_FREQUENCY = 3;
+
+    private final long maxMappedBytes;
+    private final long maxFileBytes;
+    private final FrequencySketch sketch;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by the lock
+    private final HashMap<Path, MappedFile> mappedFiles = new HashMap<>();
+    // The files we're mapping right now. Guarded by the lock
+    private final HashSet<Path> filesBeingMapped = new HashSet<>();
+    // The bytes of the mapped files and of the files we're mapping. Guarded by the lock
+    private long mappedBytes = 0;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    private HotFileTier(String name, long maxMappedBytes, long maxFileBytes, FrequencySketch sketch) {
+        this.maxMappedBytes = maxMappedBytes;
+        // A MappedByteBuffer has an int index
+        this.maxFileBytes = Math.min(maxFileBytes, Integer.MAX_VALUE);
+        this.sketch = sketch;
+        hits = Metrics.counter("hot_files." + name + ".hits");
+        misses = Metrics.counter("hot_files." + name + ".misses");
+        evictions = Metrics.counter("hot_files." + name + ".evictions");
+    }
+
+    /**
+     * Creates a {@link HotFileTier} and registers its metrics.
+     *
+     * @param name           the name of the tier in the metrics, such as "downloads"
+     * @param maxMappedBytes the mapped files have at most this many bytes together
+     * @param maxFileBytes   we only map files with at most this many bytes
+     * @param expectedFiles  about how many different files clients request
+     * @return a new {@link HotFileTier} without any mapped files
+     */
+    public static HotFileTier create(String name, long maxMappedBytes, long maxFileBytes, int expectedFiles) {
+        var tier = new HotFileTier(name, maxMappedBytes, maxFileBytes, FrequencySketch.create(expectedFiles));
+        Metrics.gauge("hot_files." + name + ".mapped_bytes", tier::getMappedBytes);
+        Metrics.gauge("hot_files." + name + ".capacity_bytes", () -> maxMappedBytes);
+        return tier;
+    }
+
+    /**
+     * Records a request for the {@code file} and gets its {@link MappedFile} if the file is hot.
+     *
+     * @param file the requested {@link OpenFileCache.OpenFile}. It must be retained
+     * @return the {@link MappedFile} to send or {@link Option#none()} if we should read the {@code file} instead
+     */
+    public Option<MappedFile> get(OpenFileCache.OpenFile file) {
+        var path = file.getPath();
+        sketch.increment(path);
+        lock.lock();
+        try {
+            var mappedFile = mappedFiles.get(path);
+            if (mappedFile != null && mappedFile.source.hasSameContentAs(file)) {
+                hits.increment();
+                return Option.of(mappedFile);
+            }
+            misses.increment();
+            if (mappedFile != null) {
+                // The file has changed since we mapped it
+                unmap(mappedFile);
+            }
+            if (filesBeingMapped.contains(path) || !isSmall(file) || !makeRoom(file)) {
+                return Option.none();
+            }
+            filesBeingMapped.add(path);
+            mappedBytes += file.getSize();
+        } finally {
+            lock.unlock();
+        }
+        var newMappedFile = map(file);
+
+        lock.lock();
+        try {
+            filesBeingMapped.remove(path);
+            if (newMappedFile.isDefined()) {
+                mappedFiles.put(path, newMappedFile.get());
+            } else {
+                mappedBytes -= file.getSize();
+            }
+            return newMappedFile;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isSmall(OpenFileCache.OpenFile file) {
+        return file.getSize() > 0 && file.getSize() <= maxFileBytes;
+    }
+
+    /**
+     * Unmaps files that are less popular than the {@code candidate} until it fits into the budget. Call this only
+     * while holding the lock.
+     *
+     * @return whether the {@code candidate} is hot and fits into the budget now
+     */
+    private boolean makeRoom(OpenFileCache.OpenFile candidate) {
+        int frequency = sketch.estimate(candidate.getPath());
+        if (frequency < MIN_FREQUENCY) {
+            return false;
+        }
+        while (mappedBytes + candidate.getSize() > maxMappedBytes) {
+            // There are few hot files, so looking at all of them is cheap
+            MappedFile leastPopular = null;
+            int lowestFrequency = Integer.MAX_VALUE;
+            for (var mappedFile : mappedFiles.values()) {
+                int mappedFrequency = sketch.estimate(mappedFile.getPath());
+                if (mappedFrequency < lowestFrequency) {
+                    leastPopular = mappedFile;
+                    lowestFrequency = mappedFrequency;
+                }
+            }
+            if (leastPopular == null || lowestFrequency >= frequency) {
+                return false;
+            }
+            evictions.increment();
+            unmap(leastPopular);
+        }
+        return true;
+    }
+
+    private static Option<MappedFile> map(OpenFileCache.OpenFile file) {
+        try {
+            var buffer = file.map();
+            // Read the file into memory now, so sending it doesn't wait for the disk
+            buffer.load();
+            log.info("Mapped hot file {} into memory", file.getPath());
+            return Option.of(new MappedFile(file, buffer));
+        } catch (IOException e) {
+            log.warn("Could not map file {} into memory", file.getPath(), e);
+            return Option.none();
+        }
+    }
+
+    private void unmap(MappedFile mappedFile) {
+        mappedFiles.remove(mappedFile.getPath());
+        // Java unmaps the memory once the garbage collector has collected the buffer. Until then, requests that
+        // still send the file can read it
+        mappedBytes -= mappedFile.buffer.capacity();
+    }
+
+    private long getMappedBytes() {
+        lock.lock();
+        try {
+            return mappedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A file whose bytes are mapped into memory.
+     */
+    public static final class MappedFile {
+        private final OpenFileCache.OpenFile source;
+        private final MappedByteBuffer buffer;
+
+        private MappedFile(OpenFileCache.OpenFile source, MappedByteBuffer buffer) {
+            this.source = source;
+            this.buffer = buffer;
+        }
+
+        private Path getPath() {
+            return source.getPath();
+        }
+
+        /**
+         * Writes the bytes of the file from {@code start} to {@code end} to the {@code out} stream.
+         *
+         * @param out          we write the bytes to this {@link OutputStream}
+         * @param start        the index of the first byte to write
+         * @param end          the index after the last byte to write
+         * @param cancellation we stop writing when this is cancelled
+         * @throws IOException if we can't write to {@code out}
+         */
+        public void writeTo(OutputStream out, long start, long end, CancellationToken cancellation) throws IOException {
+            // Output streams only take byte arrays, so we copy the mapped bytes into a pooled buffer chunk by chunk
+            try (var pooledBuffer = BufferPool.SHARED.acquire(BufferPool.getLargeBufferSize())) {
+                var chunk = pooledBuffer.array();
+                // Each request needs its own position in the buffer
+                var bytes = buffer.duplicate().position((int) start);
+                int remaining = (int) (end - start);
+                while (remaining > 0) {
+                    cancellation.throwIfCancelled();
+                    int count = Math.min(chunk.length, remaining);
+                    bytes.get(chunk, 0, count);
+                    out.write(chunk, 0, count);
+                    remaining -= count;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.bullbytes.mayray.fileaccess;
+
+import com.bullbytes.mayray.utils.CancellationToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A file a client uploads. We write it to a temporary file in a staging directory and move it to its destination
+ * once it's complete. The staging directory is outside the downloadable directories, so files that are still
+ * arriving don't show up in listings, searches, or downloads. It has to be on the same file system as the
+ * destination, so the move is atomic and nobody sees a partially uploaded file.
+ * <p>
+ * While receiving the file, we compute its SHA-256 checksum, so the client can check that it arrived unchanged.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class IncomingFile implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(IncomingFile.class);
+    // We check for cancellation after transferring this many bytes
+    private static final long TRANSFER_CHUNK_BYTES = 1024 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final String TEMP_FILE_PREFIX = "upload-";
+    private static final String TEMP_FILE_SUFFIX = ".part";
+
+    /**
+     * Where we write uploaded files while we receive them.
+     */
+    public static final Path STAGING_DIR = Path.of("incomingFiles");
+
+    private final Path tempFile;
+    private final Path destination;
+    private final long size;
+    private final String sha256;
+    private boolean isCommitted = false;
+
+    private IncomingFile(Path tempFile, Path destination, long size, String sha256) {
+        this.tempFile = tempFile;
+        this.destination = destination;
+        this.size = size;
+        this.sha256 = sha256;
+    }
+
+    /**
+     * Deletes the files of uploads that were interrupted by a crash and checks that we can move files from the
+     * staging directory to the destinations atomically. Call this when the server starts.
+     *
+     * @param stagingDir      where we write uploaded files while we receive them
+     * @param destinationRoot the directory that contains the destinations of uploaded files
+     */
+    public static void prepareStagingDir(Path stagingDir, Path destinationRoot) {
+        try {
+            Files.createDirectories(stagingDir);
+            try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(stagingDir,
+                    TEMP_FILE_PREFIX + "*" + TEMP_FILE_SUFFIX)) {
+                for (var leftover : leftovers) {
+                    log.info("Deleting file of interrupted upload: {}", leftover);
+                    deleteQuietly(leftover);
+                }
+            }
+            if (Files.isDirectory(destinationRoot) &&
+                    !Files.getFileStore(stagingDir).equals(Files.getFileStore(destinationRoot))) {
+                log.warn("Staging directory {} is on a different file system than {}. Uploads will fail",
+                        stagingDir.toAbsolutePath(), destinationRoot.toAbsolutePath());
+            }
+        } catch (IOException e) {
+            log.warn("Could not prepare staging directory {} for uploads", stagingDir, e);
+        }
+    }
+
+    /**
+     * Receives a file from the {@code in} stream. Call {@link #commit(boolean)} to move it to its
+     * {@code destination} and {@link #close()} in any case to delete it if it's not committed.
+     *
+     * @param in           we read the file's bytes from this stream until it ends or we have {@code maxBytes}
+     * @param destination  where the file should end up
+     * @param stagingDir   where we write the file while we receive it. On the same file system as the
+     *                     {@code destination}
+     * @param maxBytes     the file may have at most this many bytes
+     * @param cancellation we stop receiving the file when this is cancelled
+     * @return the received {@link IncomingFile}
+     * @throws FileTooLargeException if the stream has more than {@code maxBytes}
+     * @throws IOException           if we can't read the stream or write the file
+     */
+    public static IncomingFile receive(InputStream in,
+                                       Path destination,
+                                       Path stagingDir,
+                                       long maxBytes,
+                                       CancellationToken cancellation) throws IOException {
+        var digest = sha256Digest();
+        Files.createDirectories(stagingDir);
+        var tempFile = Files.createTempFile(stagingDir, TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
+        try (var channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            var source = Channels.newChannel(new DigestInputStream(in, digest));
+            long size = 0;
+            long transferred;
+            // We transfer one byte more than allowed to notice files that are too large
+            do {
+                cancellation.throwIfCancelled();
+                long count = Math.min(TRANSFER_CHUNK_BYTES, maxBytes + 1 - size);
+                transferred = channel.transferFrom(source, size, count);
+                size += transferred;
+            } while (transferred > 0 && size <= maxBytes);
+
+            if (size > maxBytes) {
+                throw new FileTooLargeException(maxBytes);
+            }
+            // Write the file to disk before it appears at its destination
+            channel.force(false);
+            return new IncomingFile(tempFile, destination, size, toHex(digest.digest()));
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(tempFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Moves the file to its destination.
+     *
+     * @param overwrite whether to replace the file that's at the destination already
+     * @return the destination of the file
+     * @throws java.nio.file.FileAlreadyExistsException if there's a file at the destination and we may not
+     *                                                  {@code overwrite} it
+     * @throws IOException                              if we can't move the file
+     */
+    public Path commit(boolean overwrite) throws IOException {
+        if (overwrite) {
+            Files.move(tempFile, destination, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            try {
+                // Unlike moving, creating a link fails if the destination exists, even if it appears meanwhile
+                Files.createLink(destination, tempFile);
+                deleteQuietly(tempFile);
+            } catch (UnsupportedOperationException e) {
+                // The file system has no links. Moving without replacing checks for the destination first
+                Files.move(tempFile, destination);
+            }
+        }
+        isCommitted = true;
+        return destination;
+    }
+
+    /**
+     * @return where the file ends up once it's committed
+     */
+    public Path getDestination() {
+        return destination;
+    }
+
+    /**
+     * Deletes the file unless it's committed.
+     */
+    @Override
+    public void close() {
+        if (!isCommitted) {
+            deleteQuietly(tempFile);
+        }
+    }
+
+    /**
+     * @return the number of bytes in the file
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the SHA-256 checksum of the file in lower-case hexadecimal digits
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has to support SHA-256
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        var hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete {}", file, e);
+        }
+    }
+
+    /**
+     * Thrown when an uploaded file is larger than allowed.
+     */
+    public static final class FileTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private FileTooLargeException(long maxBytes) {
+            super("File is larger than " + maxBytes + " bytes", null);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.bullbytes.mayray.fileaccess;
+
+import com.bullbytes.mayray.metrics.Counter;
+import com.bullbytes.mayray.metrics.Metrics;
+import com.bullbytes.mayray.utils.BufferPool;
+import com.bullbytes.mayray.utils.CancellationToken;
+import io.vavr.control.Try;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the most recently sent files open, together with their size and modification time. Sending a popular file
+ * again then needs neither an {@code open} nor a {@code stat} system call.
+ * <p>
+ * We look at the file's attributes again once they're older than a configurable time. If the file has changed or was
+ * replaced, we open it anew. Several requests can read the same {@link OpenFile} at once since we read at explicit
+ * positions and never move the channel's position. When we evict a file that's being read, we close its channel
+ * once the reading is done.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class OpenFileCache {
+    private static final Logger log = LoggerFactory.getLogger(OpenFileCache.class);
+
+    private final int maxOpenFiles;
+    private final long revalidateAfterNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by the lock. The least recently used file comes first
+    private final LinkedHashMap<Path, OpenFile> openFiles = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    private OpenFileCache(String name, int maxOpenFiles, Duration revalidateAfter) {
+        this.maxOpenFiles = maxOpenFiles;
+        this.revalidateAfterNanos = revalidateAfter.toNanos();
+        hits = Metrics.counter("files." + name + ".hits");
+        misses = Metrics.counter("files." + name + ".misses");
+        evictions = Metrics.counter("files." + name + ".evictions");
+    }
+
+    /**
+     * Creates an {@link OpenFileCache} and registers its metrics.
+     *
+     * @param name            the name of the cache in the metrics, such as "downloads"
+     * @param maxOpenFiles    the cache keeps at most this many files open
+     * @param revalidateAfter we check whether a file has changed when we last did so longer ago than this
+     * @return a new and empty {@link OpenFileCache}
+     */
+    public static OpenFileCache create(String name, int maxOpenFiles, Duration revalidateAfter) {
+        var cache = new OpenFileCache(name, maxOpenFiles, revalidateAfter);
+        Metrics.gauge("files." + name + ".open", cache::getOpenFileCount);
+        return cache;
+    }
+
+    /**
+     * Gets the open {@link OpenFile} at the {@code path}, opening it if it's not in the cache. Call
+     * {@link OpenFile#release()} when you're done reading it.
+     *
+     * @param path the {@link Path} of a regular file
+     * @return the {@link OpenFile} or a failed {@link Try} if we couldn't open it or it's not a regular file
+     */
+    public Try<OpenFile> open(Path path) {
+        var cachedFile = getFresh(path);
+        if (cachedFile != null) {
+            hits.increment();
+            return Try.success(cachedFile);
+        }
+        misses.increment();
+        return Try.of(() -> openAndCache(path));
+    }
+
+    /**
+     * Gets the cached file at the {@code path} if it hasn't changed since we opened it. The returned file is
+     * retained.
+     */
+    private OpenFile getFresh(Path path) {
+        OpenFile file;
+        lock.lock();
+        try {
+            file = openFiles.get(path);
+            if (file == null) {
+                return null;
+            }
+            if (System.nanoTime() - file.checkedAt < revalidateAfterNanos) {
+                file.readers++;
+                return file;
+            }
+        } finally {
+            lock.unlock();
+        }
+        // Get the file's attributes without holding the lock
+        var attributes = Try.of(() -> Files.readAttributes(path, BasicFileAttributes.class));
+        boolean isUnchanged = attributes.map(file::hasAttributes).getOrElse(false);
+
+        lock.lock();
+        try {
+            if (isUnchanged && !file.isEvicted) {
+                file.checkedAt = System.nanoTime();
+                file.readers++;
+                return file;
+            }
+            if (openFiles.remove(path, file)) {
+                log.info("File {} has changed, opening it again", path);
+                file.evict();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private OpenFile openAndCache(Path path) throws IOException {
+        var channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            // We get the attributes after opening: If the file is replaced in between, we notice on revalidation
+            var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                throw new IOException("Not a regular file: " + path);
+            }
+            var file = new OpenFile(path, channel, attributes);
+            lock.lock();
+            try {
+                var previous = openFiles.put(path, file);
+                if (previous != null) {
+                    // Another request opened the file at the same time
+                    previous.evict();
+                }
+                var iterator = openFiles.values().iterator();
+                while (openFiles.size() > maxOpenFiles) {
+                    var leastRecentlyUsed = iterator.next();
+                    iterator.remove();
+                    evictions.increment();
+                    leastRecentlyUsed.evict();
+                }
+                file.readers++;
+            } finally {
+                lock.unlock();
+            }
+            return file;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private long getOpenFileCount() {
+        lock.lock();
+        try {
+            return openFiles.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A file we keep open. Read it with {@link #writeTo(OutputStream, long, long, CancellationToken)} and call
+     * {@link #release()} afterwards.
+     */
+    public final class OpenFile {
+        private final Path path;
+        private final FileChannel channel;
+        private final long size;
+        private final Instant lastModified;
+        private final Object fileKey;
+        // Guarded by the cache's lock
+        private long checkedAt = System.nanoTime();
+        private int readers = 0;
+        private boolean isEvicted = false;
+
+        private OpenFile(Path path, FileChannel channel, BasicFileAttributes attributes) {
+            this.path = path;
+            this.channel = channel;
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toInstant();
+            // Identifies the file on the disk, such as its inode. A different key means the file was replaced
+            this.fileKey = attributes.fileKey();
+        }
+
+        private boolean hasAttributes(BasicFileAttributes attributes) {
+            return attributes.size() == size &&
+                    attributes.lastModifiedTime().toInstant().equals(lastModified) &&
+                    Objects.equals(attributes.fileKey(), fileKey);
+        }
+
+        /**
+         * @return whether the {@code other} file is the same file on disk, unchanged since we opened this one
+         */
+        boolean hasSameContentAs(OpenFile other) {
+            return path.equals(other.path) &&
+                    size == other.size &&
+                    lastModified.equals(other.lastModified) &&
+                    Objects.equals(fileKey, other.fileKey);
+        }
+
+        /**
+         * Maps the whole file into memory. The mapping stays valid after we close the channel.
+         */
+        MappedByteBuffer map() throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return the number of bytes in the file when we opened it
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public Instant getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Writes the bytes of the file from {@code start} to {@code end} to the {@code out} stream.
+         *
+         * @param out          we write the bytes to this {@link OutputStream}
+         * @param start        the index of the first byte to write
+         * @param end          the index after the last byte to write
+         * @param cancellation we stop writing when this is cancelled
+         * @throws IOException if we can't read the file or write to {@code out}
+         */
+        public void writeTo(OutputStream out, long start, long end, CancellationToken cancellation) throws IOException {
+            try (var pooledBuffer = BufferPool.SHARED.acquire(BufferPool.getLargeBufferSize())) {
+                ByteBuffer buffer = pooledBuffer.buffer();
+                long position = start;
+                while (position < end) {
+                    cancellation.throwIfCancelled();
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                    // Reading at a position doesn't change the channel's position, which other readers share
+                    int count = channel.read(buffer, position);
+                    if (count < 0) {
+                        throw new IOException("File got shorter while sending it: " + path);
+                    }
+                    out.write(buffer.array(), buffer.arrayOffset(), count);
+                    position += count;
+                }
+            }
+        }
+
+        /**
+         * We're done reading the file for now.
+         */
+        public void release() {
+            lock.lock();
+            try {
+                readers--;
+                if (isEvicted && readers == 0) {
+                    close();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Call this only while holding the lock and after removing the file from the cache
+        private void evict() {
+            isEvicted = true;
+            if (readers == 0) {
+                close();
+            }
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Could not close file {}", path, e);
+            }
+        }
+    }
+}
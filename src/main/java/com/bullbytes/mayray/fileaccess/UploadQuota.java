@@ -0,0 +1,123 @@
+package com.bullbytes.mayray.fileaccess;
+
+import com.bullbytes.mayray.metrics.Counter;
+import com.bullbytes.mayray.metrics.Metrics;
+import io.vavr.control.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how large uploaded files can be and makes sure uploads leave enough free space on the disk.
+ * <p>
+ * Before receiving an upload, we reserve its size. Uploads that are still being received count against the free
+ * space, so several large uploads at once can't fill up the disk together.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class UploadQuota {
+    private static final Logger log = LoggerFactory.getLogger(UploadQuota.class);
+
+    private final long maxFileBytes;
+    private final long minFreeBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Counter denials = Metrics.counter("uploads.quota.denials");
+    // Guarded by the lock
+    private long reservedBytes = 0;
+
+    private UploadQuota(long maxFileBytes, long minFreeBytes) {
+        this.maxFileBytes = maxFileBytes;
+        this.minFreeBytes = minFreeBytes;
+    }
+
+    /**
+     * Creates an {@link UploadQuota} and registers its metrics.
+     *
+     * @param maxFileBytes uploads can have at most this many bytes
+     * @param minFreeBytes after all uploads in progress, at least this many bytes have to be free on the disk
+     * @return a new {@link UploadQuota}
+     */
+    public static UploadQuota create(long maxFileBytes, long minFreeBytes) {
+        var quota = new UploadQuota(maxFileBytes, minFreeBytes);
+        Metrics.gauge("uploads.quota.reserved_bytes", quota::getReservedBytes);
+        return quota;
+    }
+
+    /**
+     * @return the maximum number of bytes of an uploaded file
+     */
+    public long getMaxFileBytes() {
+        return maxFileBytes;
+    }
+
+    /**
+     * Reserves room on the disk for an upload.
+     *
+     * @param dir   the directory we upload to
+     * @param bytes how many bytes the upload has at most
+     * @return the {@link Reservation} to close once the upload is done or {@link Option#none()} if there's not
+     * enough room on the disk
+     */
+    public Option<Reservation> reserve(Path dir, long bytes) {
+        long usableBytes;
+        try {
+            usableBytes = Files.getFileStore(dir).getUsableSpace();
+        } catch (IOException e) {
+            log.warn("Could not get free space of the disk with directory {}", dir, e);
+            usableBytes = 0;
+        }
+        lock.lock();
+        try {
+            if (usableBytes - reservedBytes - bytes < minFreeBytes) {
+                denials.increment();
+                return Option.none();
+            }
+            reservedBytes += bytes;
+            return Option.of(new Reservation(bytes));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long bytes) {
+        lock.lock();
+        try {
+            reservedBytes -= bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long getReservedBytes() {
+        lock.lock();
+        try {
+            return reservedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Room on the disk for an upload in progress. Closing it more than once has no further effect.
+     */
+    public final class Reservation implements AutoCloseable {
+        private final long bytes;
+        private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+        private Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            if (isClosed.compareAndSet(false, true)) {
+                release(bytes);
+            }
+        }
+    }
+}
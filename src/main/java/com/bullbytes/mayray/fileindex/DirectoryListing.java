@@ -0,0 +1,207 @@
+package com.bullbytes.mayray.fileindex;
+
+import io.vavr.control.Option;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+import java.util.function.IntToLongFunction;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * One page of the files in a directory, sorted by a {@link ListingOrder}.
+ * <p>
+ * A page only holds the positions of its files in the {@link FileTreeSnapshot}. We create the {@link FileEntry}s one
+ * after the other while the page is rendered, so the memory needed for listing a directory depends on the page size,
+ * not on how many files the directory contains.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class DirectoryListing {
+    private final FileTreeSnapshot snapshot;
+    // The positions of the page's entries in the snapshot, in the order they should be shown
+    private final int[] indices;
+    private final Option<ListingCursor> nextCursor;
+
+    private DirectoryListing(FileTreeSnapshot snapshot, int[] indices, Option<ListingCursor> nextCursor) {
+        this.snapshot = snapshot;
+        this.indices = indices;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Gets a page of the files in a directory.
+     *
+     * @param snapshot    the {@link FileTreeSnapshot} containing the directory
+     * @param relativeDir the directory relative to the root of the {@code snapshot}. The listing contains the files
+     *                    in its subdirectories as well
+     * @param query       the {@link ListingQuery} defines the order of the files and where the page starts. Files
+     *                    with the same size or modification time are sorted by path
+     * @return a page of the files in the {@code relativeDir}
+     */
+    public static DirectoryListing page(FileTreeSnapshot snapshot, String relativeDir, ListingQuery query) {
+        return page(snapshot, relativeDir, query, ListingFilter.none());
+    }
+
+    /**
+     * Gets a page of the files in a directory that pass a {@link ListingFilter}.
+     *
+     * @param snapshot    the {@link FileTreeSnapshot} containing the directory
+     * @param relativeDir the directory relative to the root of the {@code snapshot}
+     * @param query       the {@link ListingQuery} defines the order of the files and where the page starts
+     * @param filter      only files passing this {@link ListingFilter} are on the page
+     * @return a page of the files in the {@code relativeDir} that pass the {@code filter}
+     */
+    public static DirectoryListing page(FileTreeSnapshot snapshot,
+                                        String relativeDir,
+                                        ListingQuery query,
+                                        ListingFilter filter) {
+        var order = query.getOrder();
+        boolean descending = query.isDescending();
+        var after = query.getCursor();
+        int limit = query.getLimit();
+
+        String dirPrefix = relativeDir.isEmpty() ? "" : relativeDir + "/";
+        // The entries starting with the prefix are next to each other, so we don't have to look at the other entries
+        // of the directory at all
+        int[] range = filter.getPrefix().isEmpty() ?
+                snapshot.rangeOfDir(relativeDir) :
+                snapshot.rangeOfPrefix(dirPrefix + filter.getPrefix());
+        var passesFilter = filter.toPredicate(snapshot, dirPrefix.getBytes(UTF_8).length);
+
+        // Get one more entry than requested to know whether there is a next page
+        int[] indices = order == ListingOrder.NAME ?
+                pageByPath(snapshot, range, descending, after, passesFilter, limit + 1) :
+                pageByValue(snapshot, range, order, descending, after, passesFilter, limit + 1);
+
+        if (indices.length > limit) {
+            int[] pageIndices = Arrays.copyOf(indices, limit);
+            var nextCursor = limit == 0 ?
+                    Option.<ListingCursor>none() :
+                    Option.of(cursorAt(snapshot, pageIndices[limit - 1], order));
+            return new DirectoryListing(snapshot, pageIndices, nextCursor);
+        } else {
+            return new DirectoryListing(snapshot, indices, Option.none());
+        }
+    }
+
+    /**
+     * The entries of the snapshot are already sorted by path, so we only have to find where the page starts.
+     */
+    private static int[] pageByPath(FileTreeSnapshot snapshot,
+                                    int[] range,
+                                    boolean descending,
+                                    Option<ListingCursor> after,
+                                    IntPredicate passesFilter,
+                                    int limit) {
+        var paths = snapshot.getPaths();
+        Option<byte[]> cursorPath = after.map(cursor -> cursor.getPath().getBytes(UTF_8));
+        var indices = new int[Math.max(0, Math.min(limit, range[1] - range[0]))];
+        int count = 0;
+        if (descending) {
+            int end = cursorPath.map(path -> Math.min(range[1], paths.lowerBound(path))).getOrElse(range[1]);
+            for (int i = end - 1; i >= range[0] && count < indices.length; i--) {
+                if (passesFilter.test(i)) {
+                    indices[count++] = i;
+                }
+            }
+        } else {
+            int start = cursorPath.map(path -> Math.max(range[0], paths.upperBound(path))).getOrElse(range[0]);
+            for (int i = start; i < range[1] && count < indices.length; i++) {
+                if (passesFilter.test(i)) {
+                    indices[count++] = i;
+                }
+            }
+        }
+        return Arrays.copyOf(indices, count);
+    }
+
+    /**
+     * Selects the {@code limit} entries that come first in the order after the cursor. We keep only {@code limit}
+     * entries in a heap while going through the directory instead of sorting all of the directory's entries.
+     */
+    private static int[] pageByValue(FileTreeSnapshot snapshot,
+                                     int[] range,
+                                     ListingOrder order,
+                                     boolean descending,
+                                     Option<ListingCursor> after,
+                                     IntPredicate passesFilter,
+                                     int limit) {
+        IntToLongFunction valueAt = order == ListingOrder.SIZE ? snapshot::sizeAt : snapshot::lastModifiedAt;
+        var paths = snapshot.getPaths();
+
+        Comparator<Integer> ascendingOrder = Comparator.<Integer>comparingLong(valueAt::applyAsLong)
+                .thenComparing((index, otherIndex) -> paths.compare(index, otherIndex));
+        Comparator<Integer> pageOrder = descending ? ascendingOrder.reversed() : ascendingOrder;
+
+        // The head of the heap is the entry that comes last in the page order, that's the one we drop when the heap
+        // has more than limit entries
+        var heap = new PriorityQueue<Integer>(limit + 1, pageOrder.reversed());
+        IntPredicate isAfterCursor = after
+                .map(cursor -> isAfterCursor(snapshot, valueAt, cursor, descending))
+                .getOrElse(() -> index -> true);
+        for (int i = range[0]; i < range[1]; i++) {
+            if (isAfterCursor.test(i) && passesFilter.test(i)) {
+                heap.add(i);
+                if (heap.size() > limit) {
+                    heap.poll();
+                }
+            }
+        }
+        return heap.stream()
+                .sorted(pageOrder)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private static IntPredicate isAfterCursor(FileTreeSnapshot snapshot,
+                                              IntToLongFunction valueAt,
+                                              ListingCursor cursor,
+                                              boolean descending) {
+        byte[] cursorPath = cursor.getPath().getBytes(UTF_8);
+        return index -> {
+            int comparison = Long.compare(valueAt.applyAsLong(index), cursor.getSortValue());
+            if (comparison == 0) {
+                comparison = snapshot.getPaths().compareAt(index, cursorPath);
+            }
+            return descending ? comparison < 0 : comparison > 0;
+        };
+    }
+
+    private static ListingCursor cursorAt(FileTreeSnapshot snapshot, int index, ListingOrder order) {
+        long sortValue = switch (order) {
+            case SIZE -> snapshot.sizeAt(index);
+            case MODIFIED -> snapshot.lastModifiedAt(index);
+            // The path is enough to know where a page sorted by name ends
+            case NAME -> 0;
+        };
+        return ListingCursor.create(order, sortValue, snapshot.pathAt(index));
+    }
+
+    /**
+     * @return how many files are on this page
+     */
+    public int size() {
+        return indices.length;
+    }
+
+    /**
+     * Creates the {@link FileEntry} at a {@code position} on this page. Each call creates a new {@link FileEntry}, so
+     * callers shouldn't hold on to them longer than needed.
+     *
+     * @param position the position of the entry on the page, starting at zero
+     * @return the {@link FileEntry} at the {@code position}
+     */
+    public FileEntry get(int position) {
+        return snapshot.entryAt(indices[position]);
+    }
+
+    /**
+     * @return the {@link ListingCursor} to get the next page or {@link Option#none()} if this is the last page
+     */
+    public Option<ListingCursor> getNextCursor() {
+        return nextCursor;
+    }
+}
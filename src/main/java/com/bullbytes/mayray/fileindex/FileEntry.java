@@ -0,0 +1,67 @@
+package com.bullbytes.mayray.fileindex;
+
+/**
+ * A regular file in the {@link FileTreeIndex} together with its size and modification time.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class FileEntry {
+    private final String relativePath;
+    private final long size;
+    private final long lastModified;
+
+    private FileEntry(String relativePath, long size, long lastModified) {
+        this.relativePath = relativePath;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Creates a new {@link FileEntry}.
+     *
+     * @param relativePath the path of the file relative to the root directory of the index, using '/' as the
+     *                     separator. For example: "photos/2019/beach.jpg"
+     * @param size         the size of the file in bytes
+     * @param lastModified when the file was last modified, in milliseconds since the epoch
+     * @return a new {@link FileEntry}
+     */
+    public static FileEntry create(String relativePath, long size, long lastModified) {
+        return new FileEntry(relativePath, size, lastModified);
+    }
+
+    /**
+     * @return the path of the file relative to the index's root directory, such as "photos/2019/beach.jpg"
+     */
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    /**
+     * @return the size of the file in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return when the file was last modified, in milliseconds since the epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Gets a tag that changes when the file's content changes, like an HTTP entity tag. We derive it from the
+     * modification time and the size of the file, so we don't have to read the file to get it.
+     *
+     * @return a tag such as "16e4f5a2c10-2a0f"
+     */
+    public String getContentTag() {
+        return Long.toHexString(lastModified) + "-" + Long.toHexString(size);
+    }
+
+    @Override
+    public String toString() {
+        return relativePath + " (" + size + " bytes)";
+    }
+}
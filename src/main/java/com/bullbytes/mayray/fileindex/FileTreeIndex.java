@@ -0,0 +1,347 @@
+package com.bullbytes.mayray.fileindex;
+
+import com.bullbytes.mayray.utils.ParallelFileWalker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Keeps a {@link FileTreeSnapshot} of all regular files below a root directory in memory.
+ * <p>
+ * We walk the directory tree once when creating the index. Afterwards, a {@link WatchService} tells us which files
+ * were created, modified, or deleted and we update the snapshot incrementally. This way, listing a directory or getting
+ * the sizes of its files doesn't touch the file system.
+ * <p>
+ * The index is saved to an index file using {@link FileTreeStore}. When the server starts and there is an index file
+ * already, we serve the snapshot mapped from this file right away and reconcile it with the file system in the
+ * background. This spares us walking huge directory trees before we can answer the first request.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class FileTreeIndex {
+    private static final Logger log = LoggerFactory.getLogger(FileTreeIndex.class);
+
+    // After receiving a file system event, we wait this long for more events and apply them all at once. This avoids
+    // creating a new snapshot for every file when, for example, a directory with many files is copied
+    private static final long COALESCE_MILLIS = 100;
+    // We write changes of the index to the index file at most this often
+    private static final long PERSIST_INTERVAL_MILLIS = 60_000;
+
+    private final Path rootDir;
+    private final Path indexFile;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+    // We also hold this lock while replacing the snapshot, so listeners see the changes in order
+    private final java.util.List<ChangeListener> listeners = new ArrayList<>();
+    private volatile FileTreeSnapshot snapshot = FileTreeSnapshot.empty();
+    // Whether the snapshot has changes that aren't in the index file yet. Only used by the watcher thread
+    private boolean hasUnsavedChanges = false;
+    private long lastPersistTime = 0;
+
+    private FileTreeIndex(Path rootDir, Path indexFile) {
+        this.rootDir = rootDir.normalize();
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Gets notified when the files in the index change. The methods are called from the thread that updates the
+     * index, one after the other.
+     */
+    public interface ChangeListener {
+
+        /**
+         * Called with the current snapshot when the listener is added and each time we create the snapshot from
+         * scratch, for example after walking the directory tree again.
+         */
+        void rebuilt(FileTreeSnapshot snapshot);
+
+        /**
+         * Called after we applied changes of single files to the snapshot.
+         *
+         * @param previous     the snapshot before the changes
+         * @param current      the snapshot with the changes applied
+         * @param upserts      the relative paths of the files that were added or modified
+         * @param removedPaths the relative paths of the removed files and directories. If a directory was removed,
+         *                     all files of {@code previous} inside of it were removed as well
+         */
+        void changed(FileTreeSnapshot previous,
+                     FileTreeSnapshot current,
+                     Collection<String> upserts,
+                     Collection<String> removedPaths);
+    }
+
+    /**
+     * Creates a {@link FileTreeIndex} of the {@code rootDir} and starts a daemon thread that keeps the index up to
+     * date with the file system.
+     * <p>
+     * If the {@code indexFile} exists, we return immediately with the snapshot read from it and reconcile the index
+     * with the file system in the background. Otherwise, we walk the {@code rootDir} before returning.
+     *
+     * @param rootDir   the directory whose files we index, including the files in its subdirectories
+     * @param indexFile we save the index in this file and read it from there when the server starts
+     * @return the {@link FileTreeIndex}, ready to be queried
+     */
+    public static FileTreeIndex watch(Path rootDir, Path indexFile) {
+        var index = new FileTreeIndex(rootDir, indexFile);
+        try {
+            var watchService = rootDir.getFileSystem().newWatchService();
+
+            boolean readIndexFile = FileTreeStore.read(indexFile)
+                    .onSuccess(storedSnapshot -> {
+                        index.snapshot = storedSnapshot;
+                        log.info("Read {} files of {} from index file {}", storedSnapshot.size(), index.rootDir, indexFile);
+                    })
+                    .onFailure(error -> log.info("Could not read index file {} ({}). Walking {} instead", indexFile, error.toString(), rootDir))
+                    .isSuccess();
+
+            if (!readIndexFile) {
+                index.rebuild(watchService);
+            }
+
+            var watcherThread = new Thread(() -> {
+                if (readIndexFile) {
+                    // The index file may be outdated. Walking the tree also registers the directories with the
+                    // watch service. Changes that happen while we walk are applied once we process the events
+                    index.reconcile(watchService);
+                }
+                index.processEvents(watchService);
+            }, "file-tree-index-watcher");
+            watcherThread.setDaemon(true);
+            watcherThread.start();
+        } catch (IOException e) {
+            log.warn("Could not watch directory {}. The file index stays empty", rootDir, e);
+        }
+        return index;
+    }
+
+    /**
+     * @return the most recent {@link FileTreeSnapshot} of the files below the root directory
+     */
+    public FileTreeSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Adds a {@link ChangeListener} that is notified about changes from now on. We call
+     * {@link ChangeListener#rebuilt} with the current snapshot right away.
+     *
+     * @param listener the {@link ChangeListener} to add
+     */
+    public void addListener(ChangeListener listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+            listener.rebuilt(snapshot);
+        }
+    }
+
+    /**
+     * Replaces the current snapshot and tells the listeners about it.
+     */
+    private void publish(FileTreeSnapshot newSnapshot, Consumer<ChangeListener> notification) {
+        synchronized (listeners) {
+            snapshot = newSnapshot;
+            listeners.forEach(listener -> {
+                try {
+                    notification.accept(listener);
+                } catch (RuntimeException e) {
+                    log.warn("File index listener {} failed", listener, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the normalized directory whose files are in this index
+     */
+    public Path getRootDir() {
+        return rootDir;
+    }
+
+    /**
+     * Converts a {@code path} into the format used by the {@link FileTreeSnapshot}: relative to the root directory of
+     * the index and separated by '/'.
+     *
+     * @param path a path inside the root directory, such as "downloadable/photos/2019"
+     * @return the path relative to the index's root directory, such as "photos/2019". The root directory itself
+     * becomes the empty string
+     */
+    public String relativePathOf(Path path) {
+        var relative = rootDir.relativize(path.normalize());
+        var segments = new ArrayList<String>(relative.getNameCount());
+        relative.forEach(segment -> segments.add(segment.toString()));
+        return String.join("/", segments);
+    }
+
+    /**
+     * Walks the directory tree starting at {@code dir}, registers each directory with the {@code watchService}, and
+     * returns the regular files in it.
+     */
+    private Collection<FileEntry> walkAndRegister(Path dir, WatchService watchService) {
+        var entries = new ConcurrentLinkedQueue<FileEntry>();
+        ParallelFileWalker.walk(dir, new ParallelFileWalker.Visitor() {
+            @Override
+            public void visitDirectory(Path subDir, BasicFileAttributes attrs) {
+                try {
+                    var key = subDir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                    synchronized (watchedDirs) {
+                        watchedDirs.put(key, subDir);
+                    }
+                } catch (IOException e) {
+                    log.warn("Could not watch directory {}. Changes inside it won't be in the index", subDir, e);
+                }
+            }
+
+            @Override
+            public void visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    entries.add(FileEntry.create(relativePathOf(file), attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+            }
+
+            @Override
+            public void visitFailed(Path path, IOException e) {
+                log.info("Could not index {}", path, e);
+            }
+        });
+        return entries;
+    }
+
+    private void rebuild(WatchService watchService) {
+        var newSnapshot = FileTreeSnapshot.of(walkAndRegister(rootDir, watchService));
+        publish(newSnapshot, listener -> listener.rebuilt(newSnapshot));
+        log.info("Indexed {} files in {}", snapshot.size(), rootDir);
+        persist();
+    }
+
+    private void reconcile(WatchService watchService) {
+        var startTime = System.nanoTime();
+        rebuild(watchService);
+        log.info("Reconciled index file with {} in {} ms", rootDir,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    private void persist() {
+        FileTreeStore.write(snapshot, indexFile)
+                .onSuccess(file -> hasUnsavedChanges = false)
+                .onFailure(error -> log.warn("Could not write index file {}", indexFile, error));
+        lastPersistTime = System.currentTimeMillis();
+    }
+
+    private void persistIfDue() {
+        if (hasUnsavedChanges && System.currentTimeMillis() - lastPersistTime >= PERSIST_INTERVAL_MILLIS) {
+            persist();
+        }
+    }
+
+    private void processEvents(WatchService watchService) {
+        try {
+            while (true) {
+                var firstKey = watchService.poll(PERSIST_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (firstKey == null) {
+                    // Nothing changed for a while, a good moment to save changes we received before
+                    persistIfDue();
+                    continue;
+                }
+                var changedPaths = new HashSet<Path>();
+                boolean overflowed = collectEvents(firstKey, changedPaths);
+
+                // Wait a bit to collect events that belong together before creating a new snapshot
+                var nextKey = watchService.poll(COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+                while (nextKey != null) {
+                    overflowed |= collectEvents(nextKey, changedPaths);
+                    nextKey = watchService.poll(COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+
+                if (overflowed) {
+                    log.info("Too many file system events in {}. Rebuilding file index", rootDir);
+                    rebuild(watchService);
+                } else {
+                    applyChanges(changedPaths, watchService);
+                    hasUnsavedChanges = true;
+                    persistIfDue();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.info("Stopped watching {}", rootDir);
+        }
+    }
+
+    /**
+     * Adds the paths that were changed according to the events of the {@code key} to {@code changedPaths}.
+     *
+     * @return whether events were lost, meaning we have to rebuild the whole index
+     */
+    private boolean collectEvents(WatchKey key, Set<Path> changedPaths) {
+        boolean overflowed = false;
+        Path dir;
+        synchronized (watchedDirs) {
+            dir = watchedDirs.get(key);
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflowed = true;
+            } else if (dir != null) {
+                changedPaths.add(dir.resolve((Path) event.context()));
+            }
+        }
+        boolean isStillValid = key.reset();
+        if (!isStillValid) {
+            // The directory was deleted or is inaccessible now
+            synchronized (watchedDirs) {
+                watchedDirs.remove(key);
+            }
+        }
+        return overflowed;
+    }
+
+    private void applyChanges(Set<Path> changedPaths, WatchService watchService) {
+        var upserts = new HashMap<String, FileEntry>();
+        var removed = new HashSet<String>();
+
+        for (Path changedPath : changedPaths) {
+            String relativePath = relativePathOf(changedPath);
+            try {
+                var attrs = Files.readAttributes(changedPath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attrs.isDirectory()) {
+                    // A new directory: Watch it and add its files, which may have been created before we watched it
+                    walkAndRegister(changedPath, watchService)
+                            .forEach(entry -> upserts.put(entry.getRelativePath(), entry));
+                } else if (attrs.isRegularFile()) {
+                    upserts.put(relativePath, FileEntry.create(relativePath, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+            } catch (NoSuchFileException e) {
+                // The file or directory was deleted
+                removed.add(relativePath);
+            } catch (IOException e) {
+                log.info("Could not read attributes of {}", changedPath, e);
+            }
+        }
+        var previous = snapshot;
+        var current = previous.withChanges(upserts, removed);
+        publish(current, listener -> listener.changed(previous, current, upserts.keySet(), removed));
+        log.debug("Updated file index: {} upserts, {} removals", upserts.size(), removed.size());
+    }
+}
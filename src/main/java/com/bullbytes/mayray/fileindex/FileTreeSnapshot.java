@@ -0,0 +1,439 @@
+package com.bullbytes.mayray.fileindex;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * An immutable view of all regular files below a directory, sorted by their relative path.
+ * <p>
+ * To keep the snapshot compact even for millions of files, we don't store an object per file. Instead, the UTF-8
+ * encoded paths are concatenated in a single buffer and the sizes and modification times are kept in buffers of
+ * primitives. Entries are sorted by the unsigned bytes of their paths, which means all files inside a directory are
+ * next to each other and we can find them with a binary search.
+ * <p>
+ * The buffers either wrap arrays on the heap or are mapped from an index file written by {@link FileTreeStore}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class FileTreeSnapshot {
+
+    private static final FileTreeSnapshot EMPTY = new FileTreeSnapshot(PathTable.EMPTY,
+            LongBuffer.allocate(0), LongBuffer.allocate(0), Option.none());
+
+    private final PathTable paths;
+    private final LongBuffer sizes;
+    private final LongBuffer lastModifiedTimes;
+    // Snapshots read from an index file know where each directory's entries start and end
+    private final Option<DirectoryTable> directories;
+    // Snapshots don't change, so we compute the fingerprint of a directory at most once per snapshot
+    private final Map<String, Long> fingerprints = new ConcurrentHashMap<>();
+
+    private FileTreeSnapshot(PathTable paths,
+                             LongBuffer sizes,
+                             LongBuffer lastModifiedTimes,
+                             Option<DirectoryTable> directories) {
+        this.paths = paths;
+        this.sizes = sizes;
+        this.lastModifiedTimes = lastModifiedTimes;
+        this.directories = directories;
+    }
+
+    /**
+     * @return a {@link FileTreeSnapshot} without any entries
+     */
+    public static FileTreeSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Creates a {@link FileTreeSnapshot} from the {@code entries}. They don't have to be sorted.
+     *
+     * @param entries the {@link FileEntry}s the snapshot should contain. If there are multiple entries with the
+     *                same path, we keep the last one
+     * @return a new {@link FileTreeSnapshot} containing the {@code entries}
+     */
+    public static FileTreeSnapshot of(Collection<FileEntry> entries) {
+        var encoded = new ArrayList<EncodedEntry>(entries.size());
+        entries.forEach(entry -> encoded.add(new EncodedEntry(entry)));
+        // The sort is stable, so among entries with the same path the last one is still last
+        encoded.sort(Comparator.naturalOrder());
+
+        var builder = new Builder(encoded.size());
+        for (int i = 0; i < encoded.size(); i++) {
+            boolean isOverwrittenByNext = i + 1 < encoded.size() &&
+                    encoded.get(i).compareTo(encoded.get(i + 1)) == 0;
+            if (!isOverwrittenByNext) {
+                builder.add(encoded.get(i));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates a {@link FileTreeSnapshot} that reads its entries from buffers, for example from a memory-mapped file.
+     * The buffers must contain entries sorted by their paths.
+     */
+    static FileTreeSnapshot of(PathTable paths,
+                               LongBuffer sizes,
+                               LongBuffer lastModifiedTimes,
+                               Option<DirectoryTable> directories) {
+        return new FileTreeSnapshot(paths, sizes, lastModifiedTimes, directories);
+    }
+
+    /**
+     * @return how many files are in this snapshot
+     */
+    public int size() {
+        return paths.size();
+    }
+
+    public String pathAt(int index) {
+        return paths.pathAt(index);
+    }
+
+    public long sizeAt(int index) {
+        return sizes.get(index);
+    }
+
+    public long lastModifiedAt(int index) {
+        return lastModifiedTimes.get(index);
+    }
+
+    public FileEntry entryAt(int index) {
+        return FileEntry.create(pathAt(index), sizeAt(index), lastModifiedAt(index));
+    }
+
+    PathTable getPaths() {
+        return paths;
+    }
+
+    LongBuffer getSizes() {
+        return sizes;
+    }
+
+    LongBuffer getLastModifiedTimes() {
+        return lastModifiedTimes;
+    }
+
+    /**
+     * Gets the index of the first entry whose path is equal to or sorts after the {@code path}.
+     *
+     * @param path the relative path we search for, such as "photos/2019"
+     * @return the index of the first entry not sorting before {@code path}. This is {@link #size()} if all entries
+     * sort before the {@code path}
+     */
+    public int lowerBound(String path) {
+        return paths.lowerBound(path.getBytes(UTF_8));
+    }
+
+    /**
+     * Gets the range of entries that are inside a directory, including files in subdirectories.
+     *
+     * @param relativeDir the directory relative to the root of the snapshot, such as "photos/2019". The empty string
+     *                    stands for the root directory
+     * @return the start (inclusive) and end (exclusive) index of the files inside the {@code relativeDir}
+     */
+    public int[] rangeOfDir(String relativeDir) {
+        if (relativeDir.isEmpty()) {
+            return new int[]{0, size()};
+        }
+        return directories
+                .flatMap(dirs -> dirs.rangeOf(relativeDir))
+                .getOrElse(() -> {
+                    // Since the entries are sorted, all paths starting with "dir/" come before "dir0": '0' is the
+                    // character after '/'
+                    int start = lowerBound(relativeDir + "/");
+                    int end = lowerBound(relativeDir + "0");
+                    return new int[]{start, end};
+                });
+    }
+
+    /**
+     * Gets the range of entries whose paths start with a {@code prefix}.
+     *
+     * @param prefix the start of the paths, such as "photos/2019/IMG_". The empty string matches all entries
+     * @return the start (inclusive) and end (exclusive) index of the entries starting with {@code prefix}
+     */
+    public int[] rangeOfPrefix(String prefix) {
+        byte[] prefixBytes = prefix.getBytes(UTF_8);
+        return new int[]{paths.lowerBound(prefixBytes), paths.prefixEnd(prefixBytes)};
+    }
+
+    /**
+     * Gets all files inside a directory and its subdirectories.
+     *
+     * @param relativeDir the directory relative to the root of the snapshot. The empty string stands for the root
+     *                    directory
+     * @return the {@link FileEntry}s in the {@code relativeDir}, sorted by path
+     */
+    public List<FileEntry> entriesIn(String relativeDir) {
+        int[] range = rangeOfDir(relativeDir);
+        var entries = new ArrayList<FileEntry>(range[1] - range[0]);
+        for (int i = range[0]; i < range[1]; i++) {
+            entries.add(entryAt(i));
+        }
+        return List.ofAll(entries);
+    }
+
+    /**
+     * @param relativeDir the directory relative to the root of the snapshot
+     * @return the sum of the sizes of all files in the {@code relativeDir} and its subdirectories, in bytes
+     */
+    public long totalSizeOf(String relativeDir) {
+        int[] range = rangeOfDir(relativeDir);
+        long total = 0;
+        for (int i = range[0]; i < range[1]; i++) {
+            total += sizes.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Computes a fingerprint of the contents of a directory. The fingerprint changes when a file in the directory
+     * or one of its subdirectories is added, removed, resized, or modified.
+     *
+     * @param relativeDir the directory relative to the root of the snapshot
+     * @return a 64 bit hash of the paths, sizes, and modification times of the files in the {@code relativeDir}
+     */
+    public long fingerprintOf(String relativeDir) {
+        return fingerprints.computeIfAbsent(relativeDir, this::computeFingerprint);
+    }
+
+    private long computeFingerprint(String relativeDir) {
+        int[] range = rangeOfDir(relativeDir);
+        // FNV-1a: https://en.wikipedia.org/wiki/Fowler%E2%80%93Noll%E2%80%93Vo_hash_function
+        long hash = 0xcbf29ce484222325L;
+        long prime = 0x100000001b3L;
+        for (int i = range[0]; i < range[1]; i++) {
+            for (int b = paths.start(i); b < paths.end(i); b++) {
+                hash = (hash ^ paths.byteAt(b)) * prime;
+            }
+            hash = (hash ^ sizes.get(i)) * prime;
+            hash = (hash ^ lastModifiedTimes.get(i)) * prime;
+        }
+        return hash;
+    }
+
+    /**
+     * Creates a new {@link FileTreeSnapshot} that has the changes applied to this one. This snapshot stays unchanged.
+     *
+     * @param upserts      entries that are added to the snapshot or replace existing entries of the same path
+     * @param removedPaths we remove entries with these paths. If a path is a directory, we remove all the
+     *                     entries inside it
+     * @return a new {@link FileTreeSnapshot} with the changes applied
+     */
+    FileTreeSnapshot withChanges(Map<String, FileEntry> upserts, Set<String> removedPaths) {
+        var sortedUpserts = new ArrayList<EncodedEntry>(upserts.size());
+        upserts.values().forEach(entry -> sortedUpserts.add(new EncodedEntry(entry)));
+        sortedUpserts.sort(Comparator.naturalOrder());
+
+        var removed = new RemovedPaths(removedPaths);
+
+        var builder = new Builder(size() + sortedUpserts.size());
+        int upsertIndex = 0;
+        for (int i = 0; i < size(); i++) {
+            // Add the upserts that come before the current entry
+            while (upsertIndex < sortedUpserts.size() && paths.compareAt(i, sortedUpserts.get(upsertIndex).path) > 0) {
+                builder.add(sortedUpserts.get(upsertIndex++));
+            }
+            boolean isReplaced = upsertIndex < sortedUpserts.size() &&
+                    paths.compareAt(i, sortedUpserts.get(upsertIndex).path) == 0;
+            if (!isReplaced && !removed.contains(paths, i)) {
+                builder.add(paths, i, sizes.get(i), lastModifiedTimes.get(i));
+            }
+        }
+        while (upsertIndex < sortedUpserts.size()) {
+            builder.add(sortedUpserts.get(upsertIndex++));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Maps each directory that contains files to the range of entries inside it.
+     */
+    static final class DirectoryTable {
+        private final PathTable dirPaths;
+        private final IntBuffer starts;
+        private final IntBuffer ends;
+
+        DirectoryTable(PathTable dirPaths, IntBuffer starts, IntBuffer ends) {
+            this.dirPaths = dirPaths;
+            this.starts = starts;
+            this.ends = ends;
+        }
+
+        Option<int[]> rangeOf(String relativeDir) {
+            int index = dirPaths.indexOf(relativeDir.getBytes(UTF_8));
+            return index == -1 ?
+                    Option.none() :
+                    Option.of(new int[]{starts.get(index), ends.get(index)});
+        }
+    }
+
+    /**
+     * A {@link FileEntry} whose path is already encoded to UTF-8 so we can sort it the same way as the entries of
+     * the snapshot.
+     */
+    private static final class EncodedEntry implements Comparable<EncodedEntry> {
+        private final byte[] path;
+        private final long size;
+        private final long lastModified;
+
+        EncodedEntry(FileEntry entry) {
+            this.path = entry.getRelativePath().getBytes(UTF_8);
+            this.size = entry.getSize();
+            this.lastModified = entry.getLastModified();
+        }
+
+        @Override
+        public int compareTo(EncodedEntry other) {
+            return Arrays.compareUnsigned(path, other.path);
+        }
+    }
+
+    /**
+     * The paths removed from a snapshot, sorted so we can check the snapshot's entries in order with a single pass
+     * instead of comparing each entry with each removed path.
+     */
+    private static final class RemovedPaths {
+        // An entry with one of these paths is removed
+        private final byte[][] paths;
+        // The removed paths followed by a slash. An entry whose path starts with one of these is in a removed directory
+        private final byte[][] dirPrefixes;
+        private int pathIndex = 0;
+        private int dirPrefixIndex = 0;
+
+        RemovedPaths(Set<String> removedPaths) {
+            paths = removedPaths.stream()
+                    .map(path -> path.getBytes(UTF_8))
+                    .sorted(Arrays::compareUnsigned)
+                    .toArray(byte[][]::new);
+
+            var prefixes = Arrays.stream(paths)
+                    .map(RemovedPaths::withSlash)
+                    .sorted(Arrays::compareUnsigned)
+                    .toArray(byte[][]::new);
+            // Directories inside other removed directories are redundant. Without them, the entries of each removed
+            // directory come after those of the removed directory before it
+            var outermostPrefixes = new ArrayList<byte[]>(prefixes.length);
+            for (byte[] prefix : prefixes) {
+                boolean isNested = !outermostPrefixes.isEmpty() &&
+                        startsWith(prefix, outermostPrefixes.get(outermostPrefixes.size() - 1));
+                if (!isNested) {
+                    outermostPrefixes.add(prefix);
+                }
+            }
+            dirPrefixes = outermostPrefixes.toArray(byte[][]::new);
+        }
+
+        /**
+         * Checks whether the entry at {@code index} is removed. The entries must be checked in sorted order.
+         */
+        boolean contains(PathTable entries, int index) {
+            while (pathIndex < paths.length && entries.compareAt(index, paths[pathIndex]) > 0) {
+                pathIndex++;
+            }
+            boolean isSamePath = pathIndex < paths.length && entries.compareAt(index, paths[pathIndex]) == 0;
+
+            // Skip the removed directories whose entries all come before this one
+            while (dirPrefixIndex < dirPrefixes.length &&
+                    entries.compareAt(index, dirPrefixes[dirPrefixIndex]) > 0 &&
+                    !entries.startsWith(index, dirPrefixes[dirPrefixIndex])) {
+                dirPrefixIndex++;
+            }
+            boolean isInRemovedDir = dirPrefixIndex < dirPrefixes.length &&
+                    entries.startsWith(index, dirPrefixes[dirPrefixIndex]);
+
+            return isSamePath || isInRemovedDir;
+        }
+
+        private static byte[] withSlash(byte[] path) {
+            byte[] withSlash = Arrays.copyOf(path, path.length + 1);
+            withSlash[path.length] = '/';
+            return withSlash;
+        }
+
+        private static boolean startsWith(byte[] bytes, byte[] prefix) {
+            return bytes.length >= prefix.length &&
+                    Arrays.equals(bytes, 0, prefix.length, prefix, 0, prefix.length);
+        }
+    }
+
+    /**
+     * Collects entries, which must be added in sorted order, into the arrays of a {@link FileTreeSnapshot}.
+     */
+    private static final class Builder {
+        // Some virtual machines can't allocate arrays quite as large as Integer.MAX_VALUE
+        private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+        private byte[] pathBytes;
+        private int[] pathOffsets;
+        private long[] sizes;
+        private long[] lastModifiedTimes;
+        private int count = 0;
+
+        Builder(int expectedEntries) {
+            pathBytes = new byte[(int) Math.min(MAX_ARRAY_SIZE, Math.max(16, expectedEntries * 32L))];
+            pathOffsets = new int[expectedEntries + 1];
+            sizes = new long[expectedEntries];
+            lastModifiedTimes = new long[expectedEntries];
+        }
+
+        void add(EncodedEntry entry) {
+            int offset = reserve(entry.path.length, entry.size, entry.lastModified);
+            System.arraycopy(entry.path, 0, pathBytes, offset, entry.path.length);
+        }
+
+        void add(PathTable source, int index, long size, long lastModified) {
+            int start = source.start(index);
+            int length = source.end(index) - start;
+            int offset = reserve(length, size, lastModified);
+            source.getBytes().get(start, pathBytes, offset, length);
+        }
+
+        /**
+         * Makes room for an entry and returns where its path should be copied to.
+         */
+        private int reserve(int pathLength, long size, long lastModified) {
+            int offset = pathOffsets[count];
+            if (offset + pathLength > pathBytes.length) {
+                long newLength = Math.max(pathBytes.length * 2L, (long) offset + pathLength);
+                pathBytes = Arrays.copyOf(pathBytes, (int) Math.min(MAX_ARRAY_SIZE, newLength));
+            }
+            if (count == sizes.length) {
+                int newCapacity = Math.max(8, count * 2);
+                pathOffsets = Arrays.copyOf(pathOffsets, newCapacity + 1);
+                sizes = Arrays.copyOf(sizes, newCapacity);
+                lastModifiedTimes = Arrays.copyOf(lastModifiedTimes, newCapacity);
+            }
+            sizes[count] = size;
+            lastModifiedTimes[count] = lastModified;
+            pathOffsets[++count] = offset + pathLength;
+            return offset;
+        }
+
+        FileTreeSnapshot build() {
+            // Trim the arrays so the snapshot doesn't hold on to unused capacity
+            var paths = PathTable.of(
+                    ByteBuffer.wrap(Arrays.copyOf(pathBytes, pathOffsets[count])),
+                    IntBuffer.wrap(Arrays.copyOf(pathOffsets, count + 1)));
+            return new FileTreeSnapshot(paths,
+                    LongBuffer.wrap(Arrays.copyOf(sizes, count)),
+                    LongBuffer.wrap(Arrays.copyOf(lastModifiedTimes, count)),
+                    Option.none());
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.bullbytes.mayray.fileindex;
+
+import com.bullbytes.mayray.utils.DirectoryUtil;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes a {@link FileTreeSnapshot} to an index file and maps it back into memory.
+ * <p>
+ * Mapping the file means opening the index takes milliseconds, no matter how many files it contains: The operating
+ * system only reads the pages of the file that we actually access.
+ * <p>
+ * The file starts with a header of {@value #HEADER_SIZE} bytes, followed by these sections:
+ * <ol>
+ *     <li>the file sizes as longs</li>
+ *     <li>the modification times as longs</li>
+ *     <li>the offsets of the file paths as ints</li>
+ *     <li>the first entry of each directory, the end of each directory's entries, and the offsets of the directory
+ *     paths, all as ints</li>
+ *     <li>the UTF-8 bytes of the file paths</li>
+ *     <li>the UTF-8 bytes of the directory paths</li>
+ * </ol>
+ * Since the longs come first, they are aligned in the mapped buffer. All numbers are big-endian.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public enum FileTreeStore {
+    ;
+
+    // "MAYRAYIX" in ASCII
+    private static final long MAGIC = 0x4d415952_41594958L;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    /**
+     * Writes the {@code snapshot} to the {@code indexFile}. We first write to a temporary file and then move it
+     * to the {@code indexFile} so readers never see an incomplete index.
+     *
+     * @param snapshot  the {@link FileTreeSnapshot} we write to disk
+     * @param indexFile where to put the index file. The parent directories are created if necessary
+     * @return the {@code indexFile} wrapped in a {@link Try} in case writing failed
+     */
+    public static Try<Path> write(FileTreeSnapshot snapshot, Path indexFile) {
+        return Try.of(() -> {
+            DirectoryUtil.createParentDirs(indexFile);
+            var tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+
+            var dirs = DirectoryRanges.of(snapshot.getPaths());
+            int entryCount = snapshot.size();
+            var paths = snapshot.getPaths();
+            // The last offset is where the last path ends
+            int pathBytesLength = paths.getOffsets().get(entryCount);
+
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entryCount);
+                out.writeInt(dirs.paths.length);
+                out.writeInt(pathBytesLength);
+                out.writeInt(dirs.pathBytesLength);
+                out.writeInt(0);
+                out.writeLong(System.currentTimeMillis());
+                // Reserved for future use
+                out.write(new byte[HEADER_SIZE - out.size()]);
+
+                for (int i = 0; i < entryCount; i++) {
+                    out.writeLong(snapshot.sizeAt(i));
+                }
+                for (int i = 0; i < entryCount; i++) {
+                    out.writeLong(snapshot.lastModifiedAt(i));
+                }
+                for (int i = 0; i <= entryCount; i++) {
+                    out.writeInt(paths.getOffsets().get(i));
+                }
+                for (int start : dirs.starts) {
+                    out.writeInt(start);
+                }
+                for (int end : dirs.ends) {
+                    out.writeInt(end);
+                }
+                int dirPathOffset = 0;
+                out.writeInt(dirPathOffset);
+                for (byte[] dirPath : dirs.paths) {
+                    dirPathOffset += dirPath.length;
+                    out.writeInt(dirPathOffset);
+                }
+                // Copy the paths in chunks to avoid duplicating all of them in memory
+                var chunk = new byte[1 << 16];
+                for (int written = 0; written < pathBytesLength; written += chunk.length) {
+                    int length = Math.min(chunk.length, pathBytesLength - written);
+                    paths.getBytes().get(written, chunk, 0, length);
+                    out.write(chunk, 0, length);
+                }
+                for (byte[] dirPath : dirs.paths) {
+                    out.write(dirPath);
+                }
+            }
+            return Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        });
+    }
+
+    /**
+     * Maps an index file created by {@link #write} into memory.
+     *
+     * @param indexFile the index file to read
+     * @return a {@link FileTreeSnapshot} that reads its entries from the mapped file, wrapped in a {@link Try} in
+     * case the file doesn't exist or isn't a valid index
+     */
+    public static Try<FileTreeSnapshot> read(Path indexFile) {
+        return Try.of(() -> {
+            ByteBuffer mapped;
+            try (var channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException(format("Index file %s is too large to be mapped", indexFile));
+                }
+                // The mapping stays valid after closing the channel
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (mapped.limit() < HEADER_SIZE || mapped.getLong(0) != MAGIC || mapped.getInt(8) != VERSION) {
+                throw new IOException(format("%s is not an index file of version %d", indexFile, VERSION));
+            }
+            int entryCount = mapped.getInt(12);
+            int dirCount = mapped.getInt(16);
+            int pathBytesLength = mapped.getInt(20);
+            int dirPathBytesLength = mapped.getInt(24);
+
+            long expectedLength = HEADER_SIZE +
+                    16L * entryCount +
+                    4L * (entryCount + 1) +
+                    4L * (3 * dirCount + 1) +
+                    pathBytesLength +
+                    dirPathBytesLength;
+            if (expectedLength != mapped.limit()) {
+                throw new IOException(format("Index file %s is truncated or corrupt. Expected %d bytes but it has %d",
+                        indexFile, expectedLength, mapped.limit()));
+            }
+
+            int position = HEADER_SIZE;
+            var sizes = mapped.slice(position, 8 * entryCount).asLongBuffer();
+            position += 8 * entryCount;
+            var lastModifiedTimes = mapped.slice(position, 8 * entryCount).asLongBuffer();
+            position += 8 * entryCount;
+            var pathOffsets = mapped.slice(position, 4 * (entryCount + 1)).asIntBuffer();
+            position += 4 * (entryCount + 1);
+            var dirStarts = mapped.slice(position, 4 * dirCount).asIntBuffer();
+            position += 4 * dirCount;
+            var dirEnds = mapped.slice(position, 4 * dirCount).asIntBuffer();
+            position += 4 * dirCount;
+            var dirPathOffsets = mapped.slice(position, 4 * (dirCount + 1)).asIntBuffer();
+            position += 4 * (dirCount + 1);
+            var pathBytes = mapped.slice(position, pathBytesLength);
+            position += pathBytesLength;
+            var dirPathBytes = mapped.slice(position, dirPathBytesLength);
+
+            var directories = new FileTreeSnapshot.DirectoryTable(
+                    PathTable.of(dirPathBytes, dirPathOffsets), dirStarts, dirEnds);
+
+            return FileTreeSnapshot.of(PathTable.of(pathBytes, pathOffsets),
+                    sizes, lastModifiedTimes, Option.of(directories));
+        });
+    }
+
+    /**
+     * The directories containing the entries of a {@link PathTable}, sorted by their paths, and where each
+     * directory's entries start and end.
+     */
+    private static final class DirectoryRanges {
+        private final byte[][] paths;
+        private final int[] starts;
+        private final int[] ends;
+        private final int pathBytesLength;
+
+        private DirectoryRanges(byte[][] paths, int[] starts, int[] ends) {
+            this.paths = paths;
+            this.starts = starts;
+            this.ends = ends;
+            this.pathBytesLength = Arrays.stream(paths).mapToInt(path -> path.length).sum();
+        }
+
+        static DirectoryRanges of(PathTable filePaths) {
+            // Maps each directory to the range of its entries. Since the entries are sorted, the entries of a
+            // directory are contiguous and we only have to extend the range while we go through the entries
+            var ranges = new HashMap<String, int[]>();
+            for (int i = 0; i < filePaths.size(); i++) {
+                String path = filePaths.pathAt(i);
+                int slash = path.indexOf('/');
+                while (slash != -1) {
+                    int entryIndex = i;
+                    ranges.computeIfAbsent(path.substring(0, slash), dir -> new int[]{entryIndex, entryIndex})[1] = i + 1;
+                    slash = path.indexOf('/', slash + 1);
+                }
+            }
+            var dirs = new ArrayList<byte[]>(ranges.size());
+            ranges.keySet().forEach(dir -> dirs.add(dir.getBytes(UTF_8)));
+            dirs.sort(Arrays::compareUnsigned);
+
+            var starts = new int[dirs.size()];
+            var ends = new int[dirs.size()];
+            for (int i = 0; i < dirs.size(); i++) {
+                int[] range = ranges.get(new String(dirs.get(i), UTF_8));
+                starts[i] = range[0];
+                ends[i] = range[1];
+            }
+            return new DirectoryRanges(dirs.toArray(byte[][]::new), starts, ends);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.bullbytes.mayray.fileindex;
+
+import com.bullbytes.mayray.utils.FailMessage;
+import com.bullbytes.mayray.utils.Strings;
+import io.vavr.control.Either;
+import io.vavr.control.Try;
+
+import java.util.Base64;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Marks where a page of a directory listing ended, so the next page can start after it.
+ * <p>
+ * A cursor consists of the sort value and the path of the last file on a page. Unlike a page number, a cursor stays
+ * valid when files are added or removed before it: The next page still starts right after the last file the client
+ * has seen.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class ListingCursor {
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final ListingOrder order;
+    // The size or modification time of the last file on the page, depending on the order
+    private final long sortValue;
+    private final String path;
+
+    private ListingCursor(ListingOrder order, long sortValue, String path) {
+        this.order = order;
+        this.sortValue = sortValue;
+        this.path = path;
+    }
+
+    static ListingCursor create(ListingOrder order, long sortValue, String path) {
+        return new ListingCursor(order, sortValue, path);
+    }
+
+    /**
+     * Parses a cursor created by {@link #encode}.
+     *
+     * @param encoded the cursor as it appears in a URL
+     * @param order   the {@link ListingOrder} of the listing the cursor is used for
+     * @return the {@link ListingCursor} or a {@link FailMessage} if the cursor is invalid or was created for a listing
+     * with a different {@link ListingOrder}
+     */
+    public static Either<FailMessage, ListingCursor> decode(String encoded, ListingOrder order) {
+        return Try.of(() -> new String(DECODER.decode(encoded), UTF_8))
+                .toEither(FailMessage.formatted("Cursor '%s' is not valid Base64", encoded))
+                // The decoded cursor looks like this: "size:1024:photos/beach.jpg"
+                .flatMap(decoded -> Strings.splitAtFirst(":", decoded))
+                .flatMap(orderAndRest -> ListingOrder.parse(orderAndRest._1)
+                        .filterOrElse(order::equals, cursorOrder ->
+                                FailMessage.formatted("Cursor is for order '%s' but the listing has order '%s'", cursorOrder, order))
+                        .flatMap(cursorOrder -> Strings.splitAtFirst(":", orderAndRest._2))
+                        .flatMap(valueAndPath -> Try.of(() -> Long.parseLong(valueAndPath._1))
+                                .toEither(FailMessage.formatted("Invalid sort value in cursor: '%s'", valueAndPath._1))
+                                .map(sortValue -> new ListingCursor(order, sortValue, valueAndPath._2))));
+    }
+
+    /**
+     * @return this cursor as a string that can be put into a URL without escaping
+     */
+    public String encode() {
+        return ENCODER.encodeToString((order + ":" + sortValue + ":" + path).getBytes(UTF_8));
+    }
+
+    long getSortValue() {
+        return sortValue;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return order + ":" + sortValue + ":" + path;
+    }
+}
@@ -0,0 +1,76 @@
+package com.bullbytes.mayray.fileindex;
+
+import io.vavr.control.Option;
+
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+
+/**
+ * Restricts which files of a directory are in a {@link DirectoryListing}.
+ * <p>
+ * All conditions apply to the path of a file relative to the listed directory: For the file
+ * "photos/2019/beach.jpg" in directory "photos", that's "2019/beach.jpg".
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class ListingFilter {
+    private static final ListingFilter NONE = new ListingFilter("", Option.none(), Option.none());
+
+    private final String prefix;
+    private final Option<Pattern> glob;
+    private final Option<Integer> maxDepth;
+
+    private ListingFilter(String prefix, Option<Pattern> glob, Option<Integer> maxDepth) {
+        this.prefix = prefix;
+        this.glob = glob;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @return a {@link ListingFilter} that lets all files of the directory pass
+     */
+    public static ListingFilter none() {
+        return NONE;
+    }
+
+    /**
+     * Creates a new {@link ListingFilter}.
+     *
+     * @param prefix   only files whose path starts with this prefix pass the filter, such as "2019/IMG_"
+     * @param glob     if defined, only files whose path matches this {@link Pattern} pass the filter
+     * @param maxDepth if defined, only files at most this many levels below the directory pass the filter: With a
+     *                 maximum depth of 1, we only get the files directly inside the directory, with 2 also the files
+     *                 in its subdirectories, and so on
+     * @return a new {@link ListingFilter}
+     */
+    public static ListingFilter create(String prefix, Option<Pattern> glob, Option<Integer> maxDepth) {
+        return new ListingFilter(prefix, glob, maxDepth);
+    }
+
+    String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Creates a predicate that tests whether the entry at an index of the {@code snapshot} passes this filter. The
+     * prefix is not tested since {@link DirectoryListing} only looks at the entries starting with it anyway.
+     *
+     * @param snapshot        the {@link FileTreeSnapshot} whose entries we test
+     * @param dirPrefixLength the number of bytes of the listed directory at the start of each path, including the
+     *                        '/' after the directory
+     * @return an {@link IntPredicate} for indices of the {@code snapshot}
+     */
+    IntPredicate toPredicate(FileTreeSnapshot snapshot, int dirPrefixLength) {
+        var paths = snapshot.getPaths();
+        IntPredicate isShallowEnough = maxDepth
+                .<IntPredicate>map(depth -> index -> paths.count(index, dirPrefixLength, (byte) '/') < depth)
+                .getOrElse(() -> index -> true);
+
+        return glob.<IntPredicate>map(pattern -> index -> {
+            if (!isShallowEnough.test(index)) {
+                return false;
+            }
+            return pattern.matcher(paths.pathAt(index, dirPrefixLength)).matches();
+        }).getOrElse(isShallowEnough);
+    }
+}
@@ -0,0 +1,33 @@
+package com.bullbytes.mayray.fileindex;
+
+import com.bullbytes.mayray.utils.FailMessage;
+import io.vavr.collection.List;
+import io.vavr.control.Either;
+
+import java.util.Locale;
+
+/**
+ * How the files of a directory listing are sorted.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public enum ListingOrder {
+    NAME, SIZE, MODIFIED;
+
+    /**
+     * Parses a {@link ListingOrder} from a string such as "name" or "SIZE".
+     *
+     * @param orderStr the name of the order, ignoring case
+     * @return the {@link ListingOrder} or a {@link FailMessage} if there's no order with this name
+     */
+    public static Either<FailMessage, ListingOrder> parse(String orderStr) {
+        return List.of(values())
+                .find(order -> order.name().equalsIgnoreCase(orderStr.strip()))
+                .toEither(() -> FailMessage.formatted("Unknown listing order '%s'. Use one of %s", orderStr, List.of(values())));
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
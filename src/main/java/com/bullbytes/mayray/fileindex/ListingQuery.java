@@ -0,0 +1,67 @@
+package com.bullbytes.mayray.fileindex;
+
+import io.vavr.control.Option;
+
+/**
+ * Describes which page of a directory listing a client wants and how the files should be sorted.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class ListingQuery {
+    /**
+     * How many files are on a page if the client doesn't say otherwise.
+     */
+    public static final int DEFAULT_LIMIT = 1000;
+    /**
+     * The most files we put on a single page.
+     */
+    public static final int MAX_LIMIT = 10_000;
+
+    private final ListingOrder order;
+    private final boolean descending;
+    private final Option<ListingCursor> cursor;
+    private final int limit;
+
+    private ListingQuery(ListingOrder order, boolean descending, Option<ListingCursor> cursor, int limit) {
+        this.order = order;
+        this.descending = descending;
+        this.cursor = cursor;
+        this.limit = limit;
+    }
+
+    /**
+     * Creates a new {@link ListingQuery}.
+     *
+     * @param order      how the files are sorted
+     * @param descending whether the files are sorted from largest to smallest
+     * @param cursor     if defined, the page starts after this {@link ListingCursor}
+     * @param limit      the maximum number of files on the page. We use at most {@link #MAX_LIMIT}
+     * @return a new {@link ListingQuery}
+     */
+    public static ListingQuery create(ListingOrder order, boolean descending, Option<ListingCursor> cursor, int limit) {
+        return new ListingQuery(order, descending, cursor, Math.max(0, Math.min(limit, MAX_LIMIT)));
+    }
+
+    /**
+     * @return a {@link ListingQuery} for the first page of files sorted by name
+     */
+    public static ListingQuery firstPage() {
+        return create(ListingOrder.NAME, false, Option.none(), DEFAULT_LIMIT);
+    }
+
+    public ListingOrder getOrder() {
+        return order;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public Option<ListingCursor> getCursor() {
+        return cursor;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
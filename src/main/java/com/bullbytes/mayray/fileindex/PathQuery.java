@@ -0,0 +1,130 @@
+package com.bullbytes.mayray.fileindex;
+
+import com.bullbytes.mayray.utils.FailMessage;
+import com.bullbytes.mayray.utils.GlobUtil;
+import io.vavr.collection.List;
+import io.vavr.control.Either;
+
+import java.util.Locale;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * What a user searches for in the paths of the {@link TrigramIndex}. Queries ignore case.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class PathQuery {
+    private final List<String> requiredParts;
+    private final Predicate<String> matcher;
+
+    private PathQuery(List<String> requiredParts, Predicate<String> matcher) {
+        this.requiredParts = requiredParts;
+        this.matcher = matcher;
+    }
+
+    /**
+     * How the text of a {@link PathQuery} is matched against paths.
+     */
+    public enum Mode {
+        /**
+         * The path contains the text anywhere.
+         */
+        SUBSTRING,
+        /**
+         * The file name, without the directories before it, starts with the text.
+         */
+        PREFIX,
+        /**
+         * The whole path matches the text as a glob, see {@link GlobUtil#toPattern(String)}.
+         */
+        GLOB;
+
+        /**
+         * Parses a {@link Mode} from a string such as "substring" or "GLOB".
+         *
+         * @param modeStr the name of the mode, ignoring case
+         * @return the {@link Mode} or a {@link FailMessage} if there's no mode with this name
+         */
+        public static Either<FailMessage, Mode> parse(String modeStr) {
+            return List.of(values())
+                    .find(mode -> mode.name().equalsIgnoreCase(modeStr))
+                    .toEither(() -> FailMessage.formatted("Unknown search mode '%s'. Use one of %s", modeStr,
+                            List.of(values()).map(mode -> mode.name().toLowerCase(Locale.ROOT)).mkString(", ")));
+        }
+    }
+
+    /**
+     * Creates a {@link PathQuery}.
+     *
+     * @param mode how the {@code text} is matched against paths
+     * @param text what we search for
+     * @return the {@link PathQuery} or a {@link FailMessage} if the {@code text} is empty or an invalid glob
+     */
+    public static Either<FailMessage, PathQuery> create(Mode mode, String text) {
+        if (text.isEmpty()) {
+            return Either.left(FailMessage.create("The search text must not be empty"));
+        }
+        String lowerCaseText = text.toLowerCase(Locale.ROOT);
+        return switch (mode) {
+            case SUBSTRING -> Either.right(new PathQuery(List.of(text),
+                    path -> path.toLowerCase(Locale.ROOT).contains(lowerCaseText)));
+            case PREFIX -> Either.right(new PathQuery(List.of(text),
+                    path -> fileNameOf(path).toLowerCase(Locale.ROOT).startsWith(lowerCaseText)));
+            case GLOB -> GlobUtil.toPattern(text)
+                    .map(pattern -> Pattern.compile(pattern.pattern(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE))
+                    .map(pattern -> new PathQuery(literalPartsOf(text), path -> pattern.matcher(path).matches()));
+        };
+    }
+
+    private static String fileNameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Gets the parts of a glob that every matching path contains literally. For "2019/**&#47;IMG_*.{jpg,png}", these
+     * are "2019/", "/IMG_", and ".". Alternatives in braces and characters in brackets aren't required.
+     */
+    private static List<String> literalPartsOf(String glob) {
+        var parts = new java.util.ArrayList<String>();
+        var currentPart = new StringBuilder();
+        // Greater than zero while we're inside brackets or braces
+        int nesting = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            boolean isSpecial = "*?[]{}".indexOf(c) >= 0;
+            if (c == '[' || c == '{') {
+                nesting++;
+            } else if ((c == ']' || c == '}') && nesting > 0) {
+                nesting--;
+            }
+            if (isSpecial || nesting > 0) {
+                if (currentPart.length() > 0) {
+                    parts.add(currentPart.toString());
+                    currentPart.setLength(0);
+                }
+            } else {
+                currentPart.append(c);
+            }
+        }
+        if (currentPart.length() > 0) {
+            parts.add(currentPart.toString());
+        }
+        return List.ofAll(parts);
+    }
+
+    /**
+     * @return strings that every matching path contains, ignoring case
+     */
+    public List<String> getRequiredParts() {
+        return requiredParts;
+    }
+
+    /**
+     * @param path the path to check, relative to the searched directory
+     * @return whether the {@code path} matches this query
+     */
+    public boolean matches(String path) {
+        return matcher.test(path);
+    }
+}
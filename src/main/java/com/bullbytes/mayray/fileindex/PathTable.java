@@ -0,0 +1,199 @@
+package com.bullbytes.mayray.fileindex;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A sorted sequence of UTF-8 encoded paths, stored back to back in a {@link ByteBuffer}.
+ * <p>
+ * The buffers can either wrap arrays on the heap or be slices of a memory-mapped index file. We only use absolute
+ * gets on them, which makes a {@link PathTable} safe to read from multiple threads.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class PathTable {
+    static final PathTable EMPTY = new PathTable(ByteBuffer.allocate(0), IntBuffer.wrap(new int[]{0}));
+
+    // The paths, one after the other
+    private final ByteBuffer bytes;
+    // Path i starts at offsets[i] and ends at offsets[i + 1]
+    private final IntBuffer offsets;
+
+    private PathTable(ByteBuffer bytes, IntBuffer offsets) {
+        this.bytes = bytes;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @param bytes   the concatenated paths
+     * @param offsets the start of each path in {@code bytes} followed by the end of the last path
+     * @return a {@link PathTable} reading from the buffers
+     */
+    static PathTable of(ByteBuffer bytes, IntBuffer offsets) {
+        return new PathTable(bytes, offsets);
+    }
+
+    int size() {
+        return offsets.limit() - 1;
+    }
+
+    ByteBuffer getBytes() {
+        return bytes;
+    }
+
+    IntBuffer getOffsets() {
+        return offsets;
+    }
+
+    int start(int index) {
+        return offsets.get(index);
+    }
+
+    int end(int index) {
+        return offsets.get(index + 1);
+    }
+
+    byte byteAt(int position) {
+        return bytes.get(position);
+    }
+
+    String pathAt(int index) {
+        return pathAt(index, 0);
+    }
+
+    /**
+     * @return the path at {@code index} without its first {@code from} bytes
+     */
+    String pathAt(int index, int from) {
+        int start = start(index) + from;
+        var pathBytes = new byte[end(index) - start];
+        bytes.get(start, pathBytes);
+        return new String(pathBytes, UTF_8);
+    }
+
+    /**
+     * Compares the path at {@code index} with the {@code path} by their unsigned bytes.
+     *
+     * @return a negative number, zero, or a positive number if the path at {@code index} is less than, equal to, or
+     * greater than the {@code path}
+     */
+    int compareAt(int index, byte[] path) {
+        return compareAt(index, path, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #compareAt(int, byte[])} but only compares the first {@code maxLength} bytes of the path at
+     * {@code index}.
+     */
+    private int compareAt(int index, byte[] path, int maxLength) {
+        int start = start(index);
+        int length = Math.min(end(index) - start, maxLength);
+        int commonLength = Math.min(length, path.length);
+        for (int i = 0; i < commonLength; i++) {
+            int comparison = Byte.compareUnsigned(bytes.get(start + i), path[i]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length, path.length);
+    }
+
+    /**
+     * Compares the paths at {@code index} and {@code otherIndex} by their unsigned bytes.
+     */
+    int compare(int index, int otherIndex) {
+        int start = start(index);
+        int length = end(index) - start;
+        int otherStart = start(otherIndex);
+        int otherLength = end(otherIndex) - otherStart;
+        int commonLength = Math.min(length, otherLength);
+        for (int i = 0; i < commonLength; i++) {
+            int comparison = Byte.compareUnsigned(bytes.get(start + i), bytes.get(otherStart + i));
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length, otherLength);
+    }
+
+    boolean startsWith(int index, byte[] prefix) {
+        int start = start(index);
+        if (end(index) - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes.get(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the first path that doesn't sort before {@code path}, or {@link #size()} if there is none
+     */
+    int lowerBound(byte[] path) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareAt(mid, path) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first path that sorts after {@code path}, or {@link #size()} if there is none
+     */
+    int upperBound(byte[] path) {
+        int index = lowerBound(path);
+        return index < size() && compareAt(index, path) == 0 ? index + 1 : index;
+    }
+
+    /**
+     * @return the index of the first path that sorts after all paths starting with {@code prefix}, or
+     * {@link #size()} if there is none
+     */
+    int prefixEnd(byte[] prefix) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            // Paths starting with the prefix compare as equal, so we end up behind the last of them
+            if (compareAt(mid, prefix, prefix.length) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Counts how often {@code character} occurs in the path at {@code index}, starting at {@code from} bytes into
+     * the path.
+     */
+    int count(int index, int from, byte character) {
+        int count = 0;
+        for (int position = start(index) + from; position < end(index); position++) {
+            if (bytes.get(position) == character) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the index of the {@code path} or -1 if it's not in this table
+     */
+    int indexOf(byte[] path) {
+        int index = lowerBound(path);
+        return index < size() && compareAt(index, path) == 0 ? index : -1;
+    }
+}
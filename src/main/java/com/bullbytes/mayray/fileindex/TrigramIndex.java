@@ -0,0 +1,293 @@
+package com.bullbytes.mayray.fileindex;
+
+import io.vavr.control.Option;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Finds files by parts of their paths.
+ * <p>
+ * For each sequence of three characters (a trigram) in the paths of the {@link FileTreeIndex}, we keep a sorted list
+ * of the IDs of the paths containing it. To find the paths containing "beach", we intersect the lists of "bea",
+ * "eac", and "ach", which is much faster than looking at every path. The candidates are then checked against the
+ * actual query. Trigrams are case-insensitive.
+ * <p>
+ * The index is updated incrementally as a {@link FileTreeIndex.ChangeListener}: New paths get new IDs, which are
+ * larger than all previous IDs, so appending them keeps the lists sorted. Removed paths only leave a gap in the path
+ * table. When there are more gaps than paths, we create the index anew.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class TrigramIndex implements FileTreeIndex.ChangeListener {
+
+    // When the number of removed paths exceeds this and the number of remaining paths, we compact the index
+    private static final int MIN_REMOVED_BEFORE_COMPACTION = 10_000;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // The paths by their ID. Removed paths are null
+    private final List<String> paths = new ArrayList<>();
+    private final Map<String, Integer> idsByPath = new HashMap<>();
+    private final TrigramTable idsByTrigram = new TrigramTable();
+    private int removedCount = 0;
+
+    TrigramIndex() {}
+
+    /**
+     * Creates a {@link TrigramIndex} of the files in the {@code fileIndex} that stays up to date with it.
+     *
+     * @param fileIndex the {@link FileTreeIndex} whose paths we index
+     * @return a new {@link TrigramIndex}
+     */
+    public static TrigramIndex of(FileTreeIndex fileIndex) {
+        var index = new TrigramIndex();
+        fileIndex.addListener(index);
+        return index;
+    }
+
+    @Override
+    public void rebuilt(FileTreeSnapshot snapshot) {
+        lock.writeLock().lock();
+        try {
+            paths.clear();
+            idsByPath.clear();
+            idsByTrigram.clear();
+            removedCount = 0;
+            for (int i = 0; i < snapshot.size(); i++) {
+                add(snapshot.pathAt(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void changed(FileTreeSnapshot previous,
+                        FileTreeSnapshot current,
+                        Collection<String> upserts,
+                        Collection<String> removedPaths) {
+        lock.writeLock().lock();
+        try {
+            for (String removedPath : removedPaths) {
+                if (!remove(removedPath)) {
+                    // The removed path is a directory: Remove all files that were inside it
+                    int[] range = previous.rangeOfDir(removedPath);
+                    for (int i = range[0]; i < range[1]; i++) {
+                        remove(previous.pathAt(i));
+                    }
+                }
+            }
+            // Modified files keep their ID since their path and thus their trigrams are the same
+            upserts.stream()
+                    .filter(path -> !idsByPath.containsKey(path))
+                    .forEach(this::add);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (removedCount > MIN_REMOVED_BEFORE_COMPACTION && removedCount > idsByPath.size()) {
+            rebuilt(current);
+        }
+    }
+
+    private void add(String path) {
+        int id = paths.size();
+        paths.add(path);
+        idsByPath.put(path, id);
+        String lowerCasePath = path.toLowerCase(Locale.ROOT);
+        for (int i = 0; i + 3 <= lowerCasePath.length(); i++) {
+            idsByTrigram.getOrCreate(trigramAt(lowerCasePath, i)).addIfLast(id);
+        }
+    }
+
+    private boolean remove(String path) {
+        Integer id = idsByPath.remove(path);
+        if (id != null) {
+            paths.set(id, null);
+            removedCount++;
+        }
+        return id != null;
+    }
+
+    /**
+     * Finds paths that contain all {@code requiredParts} and match the {@code filter}.
+     *
+     * @param requiredParts the paths we find contain each of these strings, ignoring case. Use the longest literal
+     *                      parts of the query: The longer they are, the fewer candidates we have to check
+     * @param filter        each candidate path is checked with this {@link Predicate}
+     * @param limit         the maximum number of paths we return
+     * @return at most {@code limit} matching paths, sorted
+     */
+    public List<String> search(Iterable<String> requiredParts, Predicate<String> filter, int limit) {
+        var results = new ArrayList<String>();
+        lock.readLock().lock();
+        try {
+            var candidates = getCandidates(requiredParts);
+            if (candidates.isEmpty()) {
+                // The query doesn't have three literal characters in a row. Check all paths
+                for (int id = 0; id < paths.size() && results.size() < limit; id++) {
+                    addIfMatches(paths.get(id), filter, results);
+                }
+            } else {
+                var lists = candidates.get();
+                // Go through the shortest list and check that the other lists contain its IDs, too
+                Arrays.sort(lists, (list, other) -> Integer.compare(list.size, other.size));
+                var shortest = lists[0];
+                for (int i = 0; i < shortest.size && results.size() < limit; i++) {
+                    int id = shortest.ids[i];
+                    if (isInAll(id, lists)) {
+                        addIfMatches(paths.get(id), filter, results);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        results.sort(null);
+        return results;
+    }
+
+    /**
+     * @return the lists of IDs for the trigrams in the {@code requiredParts} or {@link Option#none()} if the parts
+     * don't contain any trigrams. If a trigram isn't in the index, the array contains an empty list
+     */
+    private Option<IdList[]> getCandidates(Iterable<String> requiredParts) {
+        var lists = new ArrayList<IdList>();
+        for (String part : requiredParts) {
+            String lowerCasePart = part.toLowerCase(Locale.ROOT);
+            for (int i = 0; i + 3 <= lowerCasePart.length(); i++) {
+                lists.add(idsByTrigram.get(trigramAt(lowerCasePart, i)));
+            }
+        }
+        return lists.isEmpty() ? Option.none() : Option.of(lists.toArray(IdList[]::new));
+    }
+
+    private static boolean isInAll(int id, IdList[] lists) {
+        for (int i = 1; i < lists.length; i++) {
+            if (!lists[i].contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addIfMatches(String path, Predicate<String> filter, List<String> results) {
+        // Removed paths are null
+        if (path != null && filter.test(path)) {
+            results.add(path);
+        }
+    }
+
+    /**
+     * @return the number of paths in the index
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return idsByPath.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static long trigramAt(String str, int index) {
+        return ((long) str.charAt(index) << 32) | ((long) str.charAt(index + 1) << 16) | str.charAt(index + 2);
+    }
+
+    /**
+     * A growing, sorted list of path IDs.
+     */
+    private static final class IdList {
+        static final IdList EMPTY = new IdList();
+
+        private int[] ids = new int[4];
+        private int size = 0;
+
+        void addIfLast(int id) {
+            // Paths such as "aaaa/aaaa" contain the same trigram more than once
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+    }
+
+    /**
+     * Maps trigrams to their {@link IdList}s. There are hundreds of thousands of different trigrams in large trees,
+     * so we use open addressing with primitive keys instead of a {@link HashMap} that boxes every key.
+     */
+    private static final class TrigramTable {
+        // No trigram is zero since paths don't contain the null character
+        private static final long NO_KEY = 0;
+
+        private long[] keys = new long[1 << 12];
+        private IdList[] values = new IdList[keys.length];
+        private int size = 0;
+
+        IdList get(long trigram) {
+            int slot = find(trigram);
+            return keys[slot] == trigram ? values[slot] : IdList.EMPTY;
+        }
+
+        IdList getOrCreate(long trigram) {
+            int slot = find(trigram);
+            if (keys[slot] != trigram) {
+                if (2 * (size + 1) > keys.length) {
+                    grow();
+                    slot = find(trigram);
+                }
+                keys[slot] = trigram;
+                values[slot] = new IdList();
+                size++;
+            }
+            return values[slot];
+        }
+
+        void clear() {
+            Arrays.fill(keys, NO_KEY);
+            Arrays.fill(values, null);
+            size = 0;
+        }
+
+        /**
+         * @return the slot containing the {@code trigram} or the empty slot where it belongs
+         */
+        private int find(long trigram) {
+            int mask = keys.length - 1;
+            // Spread the bits of the characters, which are mostly in the lower bits of each 16 bit part
+            int slot = (int) ((trigram * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+            while (keys[slot] != NO_KEY && keys[slot] != trigram) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            var oldKeys = keys;
+            var oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new IdList[keys.length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != NO_KEY) {
+                    int slot = find(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.bullbytes.mayray.html;
+
+import com.bullbytes.mayray.utils.BufferPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Collects the UTF-8 bytes of an HTML page in a buffer from the {@link BufferPool}.
+ * <p>
+ * The output either keeps the whole page in memory or, for large pages, sends the buffer to a stream whenever it's
+ * full. Text that is not HTML gets escaped while we encode it, so we never create an escaped copy of a string.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class HtmlOutput implements AutoCloseable {
+    // An escaped char takes at most six bytes, like "&quot;". A char encoded as UTF-8 takes at most three bytes, or
+    // four bytes for the two chars of a surrogate pair
+    private static final int MAX_BYTES_PER_CHAR = 6;
+    private static final byte[][] ESCAPES = createEscapes();
+
+    // Null if we keep the page in memory
+    private final OutputStream out;
+    private BufferPool.PooledBuffer pooledBuffer;
+    private byte[] buffer;
+    private int position = 0;
+
+    private HtmlOutput(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.pooledBuffer = BufferPool.SHARED.acquire(bufferSize);
+        this.buffer = pooledBuffer.array();
+    }
+
+    /**
+     * Creates an {@link HtmlOutput} that keeps the page in memory. Close it to give back its buffer.
+     *
+     * @return a new {@link HtmlOutput}
+     */
+    public static HtmlOutput inMemory() {
+        return new HtmlOutput(null, BufferPool.getSmallBufferSize());
+    }
+
+    /**
+     * Creates an {@link HtmlOutput} that writes the page to the {@code out} stream in chunks. Close it to give back
+     * its buffer, which doesn't close the stream.
+     *
+     * @param out we write the page to this stream
+     * @return a new {@link HtmlOutput}
+     */
+    public static HtmlOutput toStream(OutputStream out) {
+        return new HtmlOutput(out, BufferPool.getLargeBufferSize());
+    }
+
+    /**
+     * Adds bytes of HTML, such as a fragment of an {@link HtmlTemplate}.
+     *
+     * @param html UTF-8 encoded HTML, which we add as it is
+     * @throws IOException if we can't write to the stream
+     */
+    public void writeHtml(byte[] html) throws IOException {
+        if (html.length > buffer.length - position) {
+            makeRoom(html.length);
+        }
+        System.arraycopy(html, 0, buffer, position, html.length);
+        position += html.length;
+    }
+
+    /**
+     * Adds text, escaping the characters that have a meaning in HTML. The text can be the content of an element or
+     * the value of an attribute in quotes.
+     *
+     * @param text the text to add
+     * @throws IOException if we can't write to the stream
+     */
+    public void writeText(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            if (buffer.length - position < MAX_BYTES_PER_CHAR) {
+                makeRoom(MAX_BYTES_PER_CHAR);
+            }
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                var escape = ESCAPES[c];
+                if (escape == null) {
+                    buffer[position++] = (byte) c;
+                } else {
+                    System.arraycopy(escape, 0, buffer, position, escape.length);
+                    position += escape.length;
+                }
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | c >> 6);
+                buffer[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() &&
+                    Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | codePoint >> 18);
+                buffer[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                buffer[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                buffer[position++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // Like String.getBytes, we replace a surrogate without its partner with a question mark
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | c >> 12);
+                buffer[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    /**
+     * Sends what's in the buffer to the stream and flushes the stream. Does nothing if we keep the page in memory.
+     *
+     * @throws IOException if we can't write to the stream
+     */
+    public void flush() throws IOException {
+        if (out != null) {
+            out.write(buffer, 0, position);
+            position = 0;
+            out.flush();
+        }
+    }
+
+    /**
+     * @return the buffer with the page at its start, if we keep the page in memory. Valid until we close the output
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the number of bytes of the page in the {@link #getBuffer() buffer}
+     */
+    public int getLength() {
+        return position;
+    }
+
+    /**
+     * Gives back the buffer. Call {@link #flush()} before to send the rest of a streamed page.
+     */
+    @Override
+    public void close() {
+        pooledBuffer.close();
+    }
+
+    private void makeRoom(int byteCount) throws IOException {
+        if (out != null) {
+            out.write(buffer, 0, position);
+            position = 0;
+            if (byteCount <= buffer.length) {
+                return;
+            }
+        }
+        var larger = BufferPool.SHARED.acquire(Math.max(2 * buffer.length, position + byteCount));
+        System.arraycopy(buffer, 0, larger.array(), 0, position);
+        pooledBuffer.close();
+        pooledBuffer = larger;
+        buffer = larger.array();
+    }
+
+    private static byte[][] createEscapes() {
+        var escapes = new byte[0x80][];
+        escapes['&'] = "&amp;".getBytes(US_ASCII);
+        escapes['<'] = "&lt;".getBytes(US_ASCII);
+        escapes['>'] = "&gt;".getBytes(US_ASCII);
+        escapes['"'] = "&quot;".getBytes(US_ASCII);
+        escapes['\''] = "&#x27;".getBytes(US_ASCII);
+        return escapes;
+    }
+}
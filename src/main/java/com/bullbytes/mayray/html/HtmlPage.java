@@ -0,0 +1,20 @@
+package com.bullbytes.mayray.html;
+
+import java.io.IOException;
+
+/**
+ * An HTML page that we write when we send it, usually from {@link HtmlTemplate}s.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+@FunctionalInterface
+public interface HtmlPage {
+
+    /**
+     * Writes the page.
+     *
+     * @param out the {@link HtmlOutput} we write the page to
+     * @throws IOException if we can't write to the {@code out} stream
+     */
+    void writeTo(HtmlOutput out) throws IOException;
+}
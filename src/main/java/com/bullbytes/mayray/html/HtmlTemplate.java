@@ -0,0 +1,72 @@
+package com.bullbytes.mayray.html;
+
+import java.io.IOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * HTML with slots for text, such as {@code <p>Files of {}</p>}.
+ * <p>
+ * We encode the HTML between the slots to UTF-8 once when compiling the template. Writing the template copies these
+ * fragments into the {@link HtmlOutput} and escapes the text for the slots in between.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class HtmlTemplate {
+    private static final String SLOT = "{}";
+
+    // One fragment more than there are slots. Fragments can be empty
+    private final byte[][] fragments;
+
+    private HtmlTemplate(byte[][] fragments) {
+        this.fragments = fragments;
+    }
+
+    /**
+     * Compiles HTML where each "{}" is a slot for text.
+     *
+     * @param html the HTML of the template
+     * @return a new {@link HtmlTemplate}
+     */
+    public static HtmlTemplate compile(String html) {
+        int slotCount = 0;
+        for (int i = html.indexOf(SLOT); i >= 0; i = html.indexOf(SLOT, i + SLOT.length())) {
+            slotCount++;
+        }
+        var fragments = new byte[slotCount + 1][];
+        int fragmentStart = 0;
+        for (int i = 0; i < slotCount; i++) {
+            int slotStart = html.indexOf(SLOT, fragmentStart);
+            fragments[i] = html.substring(fragmentStart, slotStart).getBytes(UTF_8);
+            fragmentStart = slotStart + SLOT.length();
+        }
+        fragments[slotCount] = html.substring(fragmentStart).getBytes(UTF_8);
+        return new HtmlTemplate(fragments);
+    }
+
+    /**
+     * @return the number of slots in the template
+     */
+    public int getSlotCount() {
+        return fragments.length - 1;
+    }
+
+    /**
+     * Writes the template with the {@code texts} in its slots.
+     *
+     * @param out   we write the HTML to this {@link HtmlOutput}
+     * @param texts one text per slot, in the order of the slots. We escape them
+     * @throws IOException if we can't write to the {@code out} stream
+     */
+    public void write(HtmlOutput out, String... texts) throws IOException {
+        if (texts.length != getSlotCount()) {
+            throw new IllegalArgumentException("Template has " + getSlotCount() + " slots, got " + texts.length +
+                    " texts");
+        }
+        for (int i = 0; i < texts.length; i++) {
+            out.writeHtml(fragments[i]);
+            out.writeText(texts[i]);
+        }
+        out.writeHtml(fragments[texts.length]);
+    }
+}
@@ -1,23 +1,28 @@
 package com.bullbytes.mayray.html;
 
 import com.bullbytes.mayray.fileaccess.DirectoryAccess;
-import com.bullbytes.mayray.utils.FormattingUtil;
+import com.bullbytes.mayray.fileindex.DirectoryListing;
+import com.bullbytes.mayray.fileindex.FileEntry;
+import com.bullbytes.mayray.fileindex.FileTreeIndex;
+import com.bullbytes.mayray.fileindex.ListingQuery;
 import com.bullbytes.mayray.http.responses.FileResponses;
-import com.bullbytes.mayray.utils.FileUtil;
-import j2html.tags.ContainerTag;
-import j2html.tags.EmptyTag;
-import j2html.tags.Renderable;
+import com.bullbytes.mayray.utils.FormattingUtil;
+import io.vavr.collection.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.URLEncoder;
 import java.nio.file.Path;
 
-import static j2html.TagCreator.*;
 import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Creates HTML pages for this application.
  * <p>
+ * The pages are {@link HtmlTemplate}s that we compile when this class is loaded. Creating a page only remembers the
+ * texts for its slots, we write it when sending it.
+ * <p>
  * Person of contact: Matthias Braun
  */
 public enum Pages {
@@ -25,107 +30,166 @@ public enum Pages {
 
     private static final Logger log = LoggerFactory.getLogger(Pages.class);
 
-    private static EmptyTag passwordInput(String name) {
-        return input()
-                .withType("password")
-                .withName(name)
-                .isRequired();
+    // The slots are the "for" attribute of the label and the name of the input, both the name of the password input
+    private static final String PASSWORD_FORM = "<form method=\"post\">" +
+            "<label for=\"{}\">Password: </label>" +
+            "<input type=\"password\" name=\"{}\" required>" +
+            "<button type=\"submit\">log in</button>" +
+            "</form>";
+
+    private static final HtmlTemplate LOGIN = compilePage("Authentication",
+            "<h2>🗝</h2><p>You're about to access directory '{}'</p>" + PASSWORD_FORM);
+
+    private static final HtmlTemplate NEED_DIR_TO_DOWNLOAD = compilePage("Which directory?",
+            "<h2>Which directory do you want to download?</h2><p>Specify in the URL with <i>?{}=yourDirectory</i></p>");
+
+    private static final HtmlTemplate DIR_CONTENTS_START = HtmlTemplate.compile(
+            pageStart("Files of {}") + "<h1>Contents of {}</h1><ul>");
+    private static final HtmlTemplate FILE_ITEM = HtmlTemplate.compile("<li>{} {}</li>");
+    private static final HtmlTemplate NEXT_PAGE_LINK = HtmlTemplate.compile(
+            "</ul><p><a href=\"{}\">Next page</a></p>");
+    private static final HtmlTemplate LAST_PAGE = HtmlTemplate.compile("</ul>");
+    private static final HtmlTemplate DIR_CONTENTS_END = HtmlTemplate.compile(
+            "<p><a href=\"get?{}={}\">Download files</a></p>" + pageEnd());
+    private static final HtmlTemplate ACCESS_DENIED = compilePage("Access denied",
+            "<h1>Denied accessing {}</h1>" +
+                    "<p>Either the directory doesn't exist on the server or the provided password is incorrect</p>");
+
+    private static final HtmlTemplate SEARCH_RESULTS_START = HtmlTemplate.compile(
+            pageStart("Search results") + "<h1>{}</h1><ul>");
+    private static final HtmlTemplate SEARCH_RESULT = HtmlTemplate.compile("<li>{}</li>");
+    private static final HtmlTemplate MORE_SEARCH_RESULTS = HtmlTemplate.compile(
+            "</ul><p>There are more results. Refine your search to see them.</p>" + pageEnd());
+    private static final HtmlTemplate ALL_SEARCH_RESULTS = HtmlTemplate.compile("</ul>" + pageEnd());
+
+    private static final HtmlTemplate WRONG_PASSWORD = compilePage("Directory password incorrect",
+            "The directory password is incorrect. Try entering the password again in case this was an error." +
+                    PASSWORD_FORM);
+
+    private static final HtmlTemplate DIRECTORY_CANNOT_BE_DOWNLOADED = compilePage("Can't download directory",
+            "<h2>Can't download files from directory '{}'</h2><p>Maybe the directory does not exist.</p>");
+
+    private static final HtmlTemplate COULD_NOT_GET_PASSWORD_FROM_BODY = compilePage("Couldn't get password from body",
+            "<h2>Something went wrong</h2>" +
+                    "<p>Couldn't get password from body. It should be something like '{}=directoryPassword'</p>");
+
+    private static HtmlTemplate compilePage(String pageTitle, String body) {
+        return HtmlTemplate.compile(pageStart(pageTitle) + body + pageEnd());
     }
 
-    public static Renderable login(String dirToGet, String passwordInputName) {
-
-        return withHead("Authentication",
-                body(
-                        h2("🗝"),
-                        p(format("You're about to access directory '%s'", dirToGet)),
-                        getPasswordForm(passwordInputName)
-                ));
+    private static String pageStart(String pageTitle) {
+        return "<!DOCTYPE html><html><head><meta charset=\"UTF-8\"><title>" + pageTitle + "</title></head><body>";
     }
 
-    private static ContainerTag getPasswordForm(String passwordInputName) {
-        return form(
-                label("Password: ").attr("for", passwordInputName),
-                passwordInput(passwordInputName),
-                button("log in").withType("submit")
-        ).withMethod("post");
+    private static String pageEnd() {
+        return "</body></html>";
     }
 
-    private static Renderable withHead(String pageTitle, ContainerTag body) {
-
-        return html(
-                head(
-                        meta().withCharset("UTF-8"),
-                        title(pageTitle)),
-                body
-        );
+    public static HtmlPage login(String dirToGet, String passwordInputName) {
+        return out -> LOGIN.write(out, dirToGet, passwordInputName, passwordInputName);
     }
 
-    public static Renderable needDirToDownload(String dirKey) {
-        return withHead("Which directory?", body(
-                p(join(h2("Which directory do you want to download?"),
-                        "Specify in the URL with "), i(" ?" + dirKey + "=yourDirectory")))
-        );
+    public static HtmlPage needDirToDownload(String dirKey) {
+        return out -> NEED_DIR_TO_DOWNLOAD.write(out, dirKey);
     }
 
-    public static Renderable dirContents(DirectoryAccess directoryAccess) {
-        Renderable page;
-
-        if (directoryAccess.isDownloadAllowed() && directoryAccess.passwordMatches()) {
+    /**
+     * Creates a page listing the files in a directory. The page is meant to be streamed to the client: We write the
+     * files one after the other, so it's fine if the page contains thousands of them.
+     * <p>
+     * The caller has checked the user's password or token already.
+     *
+     * @param directoryAccess the directory whose files we list
+     * @param fileIndex       contains the files of the directory
+     * @param query           which page of files we show and how they are sorted
+     * @param downloadToken   the download link and the link to the next page contain this token to grant access to
+     *                        the directory
+     * @return a page with the files of the directory and a link to the next page if there are more files
+     */
+    public static HtmlPage dirContents(DirectoryAccess directoryAccess,
+                                       FileTreeIndex fileIndex,
+                                       ListingQuery query,
+                                       String downloadToken) {
+        HtmlPage page;
+
+        if (directoryAccess.isDownloadAllowed()) {
             Path dirPath = directoryAccess.getNormalizedPathFromRoot();
-            var filesInDir = FileUtil.getFilesRecursively(dirPath).toJavaList();
-
-            var fileList = ul(each(filesInDir, f -> li(trimDownloadRootDir(f) + " " + getSize(f))));
-
-            var dirKey = FileResponses.DIR_KEY;
-            var passKey = FileResponses.PASSWORD_KEY;
-            var downloadLink = p(a("Download files")
-                    .withHref(format("get?%s=%s&%s=%s",
-                            dirKey,
-                            directoryAccess.getDesiredDir(),
-                            passKey,
-                            directoryAccess.getPassword())));
-
-            page = withHead("Files of " + dirPath,
-                    body(join(h1(
-                            "Contents of " + trimDownloadRootDir(dirPath)),
-                            fileList,
-                            downloadLink
-                    )));
+            // The index already knows the files and their sizes, no need to walk the directory tree
+            var listing = DirectoryListing.page(fileIndex.getSnapshot(), fileIndex.relativePathOf(dirPath), query);
+
+            var nextPageUrl = listing.getNextCursor()
+                    .map(cursor -> format("list?%s=%s&%s=%s&%s=%s&%s=%s&%s=%d&%s=%s",
+                            // The server decodes the parameters, so names with '&' or '%' survive the round trip
+                            FileResponses.DIR_KEY, URLEncoder.encode(directoryAccess.getDesiredDir().toString(), UTF_8),
+                            FileResponses.TOKEN_KEY, downloadToken,
+                            FileResponses.SORT_KEY, query.getOrder(),
+                            FileResponses.ORDER_KEY, query.isDescending() ? "desc" : "asc",
+                            FileResponses.LIMIT_KEY, query.getLimit(),
+                            FileResponses.CURSOR_KEY, cursor.encode()));
+
+            page = out -> {
+                DIR_CONTENTS_START.write(out, dirPath.toString(), trimDownloadRootDir(dirPath));
+                // We write the list item of a file right when we get it from the listing
+                for (int i = 0; i < listing.size(); i++) {
+                    var file = listing.get(i);
+                    FILE_ITEM.write(out, file.getRelativePath(), getSize(file));
+                }
+                if (nextPageUrl.isDefined()) {
+                    NEXT_PAGE_LINK.write(out, nextPageUrl.get());
+                } else {
+                    LAST_PAGE.write(out);
+                }
+                DIR_CONTENTS_END.write(out, FileResponses.TOKEN_KEY, downloadToken);
+            };
         } else {
             Path desiredDir = directoryAccess.getDesiredDir();
-            log.warn("This method shouldn't be called if the directory to download doesn't exist ('{}') or if the password is incorrect", desiredDir);
+            log.warn("This method shouldn't be called if the directory to download doesn't exist ('{}')", desiredDir);
 
-            page = withHead("Access denied", body(join(h1("Denied accessing " + desiredDir),
-                    p("Either the directory doesn't exist on the server or the provided password is incorrect"))));
+            page = out -> ACCESS_DENIED.write(out, desiredDir.toString());
         }
         return page;
     }
 
-    private static String getSize(Path f) {
-        return FormattingUtil.humanReadableBytes(f.toFile().length());
+    /**
+     * Shows the paths of files found by a search.
+     *
+     * @param searchedDir the directory we searched in
+     * @param searchText  what the user searched for
+     * @param paths       the paths of the found files
+     * @param hasMore     whether there are more results than the {@code paths}
+     * @return a page listing the found files
+     */
+    public static HtmlPage searchResults(Path searchedDir, String searchText, List<String> paths, boolean hasMore) {
+        var heading = paths.isEmpty() ?
+                format("No files matching '%s' in %s", searchText, searchedDir) :
+                format("Files matching '%s' in %s", searchText, searchedDir);
+
+        return out -> {
+            SEARCH_RESULTS_START.write(out, heading);
+            for (var path : paths) {
+                SEARCH_RESULT.write(out, path);
+            }
+            (hasMore ? MORE_SEARCH_RESULTS : ALL_SEARCH_RESULTS).write(out);
+        };
+    }
+
+    private static String getSize(FileEntry f) {
+        return FormattingUtil.humanReadableBytes(f.getSize());
     }
 
     private static String trimDownloadRootDir(Path path) {
         return path.subpath(1, path.getNameCount()).toString();
     }
 
-    public static Renderable wrongPassword(String passwordInputName) {
-        return withHead("Directory password incorrect",
-                body(join("The directory password is incorrect. Try entering the password again in case this was an error.",
-                        getPasswordForm(passwordInputName))));
+    public static HtmlPage wrongPassword(String passwordInputName) {
+        return out -> WRONG_PASSWORD.write(out, passwordInputName, passwordInputName);
     }
 
-    public static Renderable directoryCannotBeDownloaded(Path dirToGet) {
-        return withHead("Can't download directory", body(
-                h2(format("Can't download files from directory '%s'", dirToGet)),
-                p("Maybe the directory does not exist.")
-        ));
+    public static HtmlPage directoryCannotBeDownloaded(Path dirToGet) {
+        return out -> DIRECTORY_CANNOT_BE_DOWNLOADED.write(out, dirToGet.toString());
     }
 
-    public static Renderable couldNotGetPasswordFromBody(String passwordKey) {
-        return withHead("Couldn't get password from body", body(
-                h2("Something went wrong"),
-                p(format("Couldn't get password from body. It should be something like '%s=directoryPassword'", passwordKey))
-        ));
+    public static HtmlPage couldNotGetPasswordFromBody(String passwordKey) {
+        return out -> COULD_NOT_GET_PASSWORD_FROM_BODY.write(out, passwordKey);
     }
 }
@@ -1,7 +1,13 @@
 package com.bullbytes.mayray.http;
 
+import com.bullbytes.mayray.http.headers.HttpHeader;
 import com.bullbytes.mayray.http.requests.Request;
+import com.bullbytes.mayray.http.requests.RequestMethod;
+import com.bullbytes.mayray.http.responses.Response;
+import com.bullbytes.mayray.http.responses.ResponseCache;
+import com.bullbytes.mayray.http.server.Bulkhead;
 
+import java.time.Duration;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 
@@ -12,13 +18,24 @@ import java.util.regex.Pattern;
  */
 public final class Route {
     private final String routeName;
-    private final Function<Request, byte[]> handleRequest;
+    private final Function<Request, Response> handleRequest;
     private final Pattern resourcePath;
+    private final RouteClass routeClass;
+    private final Bulkhead bulkhead;
+    private final boolean readsBodyIntoMemory;
 
-    private Route(Pattern resourcePath, String routeName, Function<Request, byte[]> handleRequest) {
+    private Route(Pattern resourcePath,
+                  String routeName,
+                  Function<Request, Response> handleRequest,
+                  RouteClass routeClass,
+                  Bulkhead bulkhead,
+                  boolean readsBodyIntoMemory) {
         this.resourcePath = resourcePath;
         this.routeName = routeName;
         this.handleRequest = handleRequest;
+        this.routeClass = routeClass;
+        this.bulkhead = bulkhead;
+        this.readsBodyIntoMemory = readsBodyIntoMemory;
     }
 
     /**
@@ -33,18 +50,106 @@ public final class Route {
     public static Route create(Pattern resourcePath,
                                String routeName,
                                Function<Request, byte[]> handleRequest) {
-        return new Route(resourcePath, routeName, handleRequest);
+        return new Route(resourcePath, routeName, handleRequest.andThen(Response::of), RouteClass.LIGHT,
+                Bulkhead.inline(), true);
+    }
+
+    /**
+     * Creates a new {@link Route} whose handler can create responses that are written to the client while they're
+     * being created.
+     *
+     * @param resourcePath  if this {@link Pattern} matches the resource the client has requested, this {@link Route}
+     *                      will create a response to the request
+     * @param routeName     the name of this {@link Route}
+     * @param handleRequest a {@link Function} that turns the client's {@link Request} into a {@link Response}
+     * @return an initialized {@link Route}
+     */
+    public static Route streaming(Pattern resourcePath,
+                                  String routeName,
+                                  Function<Request, Response> handleRequest) {
+        return new Route(resourcePath, routeName, handleRequest, RouteClass.LIGHT, Bulkhead.inline(), true);
+    }
+
+    /**
+     * Routes are {@link RouteClass#LIGHT} unless they're put into another {@link RouteClass} with this method.
+     *
+     * @param routeClass the {@link RouteClass} whose limits apply to the requests of the route
+     * @return a copy of this {@link Route} in the {@code routeClass}
+     */
+    public Route inClass(RouteClass routeClass) {
+        return new Route(resourcePath, routeName, handleRequest, routeClass, bulkhead, readsBodyIntoMemory);
+    }
+
+    /**
+     * Routes run in the {@link Bulkhead#inline()} bulkhead unless they're put into another {@link Bulkhead} with
+     * this method. Routes that take longer than a few milliseconds should have their own bulkhead, so they don't
+     * keep the threads busy that read requests.
+     *
+     * @param bulkhead the {@link Bulkhead} that runs the handler of the route
+     * @return a copy of this {@link Route} running in the {@code bulkhead}
+     */
+    public Route inBulkhead(Bulkhead bulkhead) {
+        return new Route(resourcePath, routeName, handleRequest, routeClass, bulkhead, readsBodyIntoMemory);
+    }
+
+    /**
+     * Marks the route as one that streams the request body somewhere else, such as to a file, instead of reading it
+     * into memory. Then the body doesn't need room in the server's memory budget, no matter how large it is.
+     *
+     * @return a copy of this {@link Route} that streams request bodies
+     */
+    public Route streamingBody() {
+        return new Route(resourcePath, routeName, handleRequest, routeClass, bulkhead, false);
+    }
+
+    /**
+     * Caches the successful responses to GET requests of this route. Use this only for routes whose response depends
+     * on nothing but the requested resource and the {@code keyHeaders}, not on the request body or the time.
+     *
+     * @param cache      the {@link ResponseCache} that keeps the responses
+     * @param timeToLive how long we send a cached response before creating a new one
+     * @param keyHeaders requests with different values for these headers get different responses
+     * @return a copy of this {@link Route} that caches its responses
+     */
+    public Route cached(ResponseCache cache, Duration timeToLive, HttpHeader... keyHeaders) {
+        Function<Request, Response> cachingHandler = request -> request.getMethod() == RequestMethod.GET ?
+                cache.get(cacheKey(request, keyHeaders), timeToLive, () -> handleRequest.apply(request)) :
+                handleRequest.apply(request);
+        return new Route(resourcePath, routeName, cachingHandler, routeClass, bulkhead, readsBodyIntoMemory);
+    }
+
+    private String cacheKey(Request request, HttpHeader... keyHeaders) {
+        var key = new StringBuilder(routeName).append('\n').append(request.getResource());
+        for (var header : keyHeaders) {
+            key.append('\n').append(request.getHeaders().get(header).getOrElse(""));
+        }
+        return key.toString();
     }
 
     public boolean matches(String resource) {
         return resourcePath.asMatchPredicate().test(resource);
     }
 
-    public byte[] getResponse(Request request) {
+    public Response getResponse(Request request) {
         return handleRequest.apply(request);
     }
 
     public String getName() {
         return routeName;
     }
+
+    public RouteClass getRouteClass() {
+        return routeClass;
+    }
+
+    public Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    /**
+     * @return whether the route reads the request body into memory, as opposed to streaming it somewhere else
+     */
+    public boolean readsBodyIntoMemory() {
+        return readsBodyIntoMemory;
+    }
 }
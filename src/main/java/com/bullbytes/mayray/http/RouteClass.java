@@ -0,0 +1,41 @@
+package com.bullbytes.mayray.http;
+
+import java.util.Locale;
+
+/**
+ * Groups {@link Route}s by how much work their requests cause, so that limits can be set per group instead of per
+ * route.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public enum RouteClass {
+    /**
+     * Requests that are cheap to answer, like constant texts.
+     */
+    LIGHT,
+    /**
+     * Listing and searching files, which goes through the file index.
+     */
+    LISTING,
+    /**
+     * Downloading directories as zip archives, which reads a whole directory from the disk and keeps the connection
+     * busy for a while.
+     */
+    DOWNLOAD,
+    /**
+     * Downloading single files. Video players and download managers request many ranges of a file, so clients send
+     * these requests more often than {@link #DOWNLOAD} requests.
+     */
+    FILE,
+    /**
+     * Uploading files, which writes to the disk and keeps the connection busy for a while.
+     */
+    UPLOAD;
+
+    /**
+     * @return the name of this {@link RouteClass} as it's used in the configuration and metrics, such as "download"
+     */
+    public String getKey() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
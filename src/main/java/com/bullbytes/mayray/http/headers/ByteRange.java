@@ -0,0 +1,137 @@
+package com.bullbytes.mayray.http.headers;
+
+import com.bullbytes.mayray.utils.FailMessage;
+import io.vavr.control.Either;
+import io.vavr.control.Option;
+
+/**
+ * The part of a file that a client requests with the Range header, for example to resume a download.
+ * <p>
+ * We support a single range of bytes like "bytes=0-499", "bytes=500-", or "bytes=-500". For requests with several
+ * ranges or a Range header we don't understand, we send the whole file, which the HTTP standard allows.
+ * <p>
+ * Person of contact: Matthias Braun
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc7233">RFC 7233: Range Requests</a>
+ */
+public final class ByteRange {
+    private static final String BYTES_PREFIX = "bytes=";
+
+    // The index of the first byte in the range
+    private final long start;
+    // The index after the last byte in the range
+    private final long end;
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parses the value of a Range header.
+     *
+     * @param rangeHeader the value of the Range header, such as "bytes=0-499"
+     * @param fileSize    the number of bytes in the requested file
+     * @return the requested {@link ByteRange} or {@link Option#none()} if we should send the whole file. A
+     * {@link FailMessage} if the range lies outside the file, which we answer with status code 416
+     */
+    public static Either<FailMessage, Option<ByteRange>> parse(String rangeHeader, long fileSize) {
+        var value = rangeHeader.strip();
+        if (!value.regionMatches(true, 0, BYTES_PREFIX, 0, BYTES_PREFIX.length()) || value.indexOf(',') >= 0) {
+            return Either.right(Option.none());
+        }
+        var range = value.substring(BYTES_PREFIX.length()).strip();
+        int dashIndex = range.indexOf('-');
+        if (dashIndex < 0) {
+            return Either.right(Option.none());
+        }
+        var first = parseNonNegative(range.substring(0, dashIndex).strip());
+        var last = parseNonNegative(range.substring(dashIndex + 1).strip());
+
+        Either<FailMessage, Option<ByteRange>> result;
+        if (first.isEmpty() && last.isDefined()) {
+            // "bytes=-500" means the last 500 bytes
+            long suffixLength = last.get();
+            result = suffixLength == 0 || fileSize == 0 ?
+                    unsatisfiable(rangeHeader, fileSize) :
+                    Either.right(Option.of(new ByteRange(Math.max(0, fileSize - suffixLength), fileSize)));
+        } else if (first.isDefined()) {
+            long start = first.get();
+            // "bytes=500-" means everything from byte 500. The last byte may lie beyond the end of the file
+            long end = last.map(lastByte -> Math.min(lastByte + 1, fileSize)).getOrElse(fileSize);
+            if (last.exists(lastByte -> lastByte < start)) {
+                // Syntactically invalid, we ignore the header
+                result = Either.right(Option.none());
+            } else {
+                result = start >= fileSize ?
+                        unsatisfiable(rangeHeader, fileSize) :
+                        Either.right(Option.of(new ByteRange(start, end)));
+            }
+        } else {
+            result = Either.right(Option.none());
+        }
+        return result;
+    }
+
+    private static Either<FailMessage, Option<ByteRange>> unsatisfiable(String rangeHeader, long fileSize) {
+        return Either.left(FailMessage.formatted("Range '%s' is outside the file of %d bytes", rangeHeader, fileSize));
+    }
+
+    private static Option<Long> parseNonNegative(String digits) {
+        if (digits.isEmpty() || digits.length() > 18) {
+            return Option.none();
+        }
+        for (int i = 0; i < digits.length(); i++) {
+            if (digits.charAt(i) < '0' || digits.charAt(i) > '9') {
+                return Option.none();
+            }
+        }
+        return Option.of(Long.parseLong(digits));
+    }
+
+    /**
+     * Gets the value of the Content-Range header for a response that has status code 416.
+     *
+     * @param fileSize the number of bytes in the requested file
+     * @return the value of the Content-Range header, such as "bytes *&#47;1000"
+     */
+    public static String unsatisfiedContentRange(long fileSize) {
+        return "bytes */" + fileSize;
+    }
+
+    /**
+     * Gets the value of the Content-Range header for a response that contains this range of the file.
+     *
+     * @param fileSize the number of bytes in the requested file
+     * @return the value of the Content-Range header, such as "bytes 0-499/1000"
+     */
+    public String toContentRange(long fileSize) {
+        return "bytes " + start + "-" + (end - 1) + "/" + fileSize;
+    }
+
+    /**
+     * @return the index of the first byte in the range
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the index after the last byte in the range
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start;
+    }
+
+    @Override
+    public String toString() {
+        return "ByteRange{" +
+                "start=" + start +
+                ", end=" + end +
+                '}';
+    }
+}
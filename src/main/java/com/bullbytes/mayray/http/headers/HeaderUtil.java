@@ -2,10 +2,8 @@ package com.bullbytes.mayray.http.headers;
 
 import com.bullbytes.mayray.utils.FailMessage;
 import com.bullbytes.mayray.utils.ParseUtil;
-import com.bullbytes.mayray.utils.Strings;
-import io.vavr.collection.Map;
+import io.vavr.collection.List;
 import io.vavr.control.Either;
-import io.vavr.control.Option;
 
 /**
  * Helps with HTTP headers.
@@ -15,14 +13,45 @@ import io.vavr.control.Option;
 public enum HeaderUtil {
     ;
 
-    public static Option<String> getValueOf(HttpHeader header, Map<String, String> headers) {
-        var mapWitUpperCaseKeys = headers.mapKeys(Strings::stripAndUpperCase);
-        return mapWitUpperCaseKeys.get(Strings.stripAndUpperCase(header.toString()));
+    public static Either<FailMessage, Integer> getContentLength(Headers headers) {
+        return headers.get(HttpHeader.CONTENT_LENGTH)
+                .map(ParseUtil::parseInt)
+                .getOrElse(() -> Either.left(FailMessage.create("Did not find Content-Length header among headers")));
     }
 
-    public static Either<FailMessage, Integer> getContentLength(Map<String, String> headers) {
-        return getValueOf(HttpHeader.CONTENT_LENGTH, headers)
-                .map(ParseUtil::parseInt)
+    /**
+     * Gets the Content-Length of a request whose body may be larger than two gigabytes, such as an upload.
+     *
+     * @param headers the headers of the request
+     * @return the number of bytes in the request's body or a {@link FailMessage} if the header is missing or invalid
+     */
+    public static Either<FailMessage, Long> getLongContentLength(Headers headers) {
+        return headers.get(HttpHeader.CONTENT_LENGTH)
+                .map(ParseUtil::parseLong)
                 .getOrElse(() -> Either.left(FailMessage.create("Did not find Content-Length header among headers")));
     }
+
+    /**
+     * Checks whether the client can decode a body with the {@code encoding}, according to its Accept-Encoding header.
+     * An encoding with a quality value of zero, like "gzip;q=0", is one the client doesn't accept.
+     *
+     * @param encoding the name of an encoding, such as "gzip"
+     * @param headers  the headers of the client's request
+     * @return whether the client accepts the {@code encoding}
+     */
+    public static boolean acceptsEncoding(String encoding, Headers headers) {
+        return headers.get(HttpHeader.ACCEPT_ENCODING)
+                .map(value -> List.of(value.split(","))
+                        .map(codingAndParams -> codingAndParams.split(";"))
+                        .exists(codingAndParams -> codingAndParams[0].strip().equalsIgnoreCase(encoding) &&
+                                !hasZeroQuality(codingAndParams)))
+                .getOrElse(false);
+    }
+
+    private static boolean hasZeroQuality(String[] codingAndParams) {
+        return List.of(codingAndParams)
+                .tail()
+                .map(String::strip)
+                .exists(param -> param.matches("[qQ]\\s*=\\s*0(\\.0{0,3})?"));
+    }
 }
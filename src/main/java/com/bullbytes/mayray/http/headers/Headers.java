@@ -0,0 +1,233 @@
+package com.bullbytes.mayray.http.headers;
+
+import com.bullbytes.mayray.utils.FailMessage;
+import io.vavr.control.Option;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * The headers of a request, whose names are case-insensitive.
+ * <p>
+ * The value of each header in {@link HttpHeader} has a slot at the header's ordinal, so getting it is an array
+ * access. We keep other headers in a small hash table with open addressing, hashing their names without regard to
+ * ASCII case. Neither lookup creates a lower-case or upper-case copy of the name.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class Headers {
+    private static final Headers EMPTY = new Headers(new String[HttpHeader.values().length], new String[0],
+            new String[0]);
+    private static final HttpHeader[] WELL_KNOWN = HttpHeader.values();
+    // The well-known headers by the hash of their names, so we can recognize them while parsing
+    private static final HttpHeader[] WELL_KNOWN_BY_HASH = createWellKnownTable();
+    private static final int MIN_TABLE_SIZE = 8;
+
+    // The values of the well-known headers by their ordinal. Null if the request doesn't have the header
+    private final String[] wellKnownValues;
+    // The names and values of the other headers. The table size is a power of two and null marks an empty slot
+    private final String[] otherNames;
+    private final String[] otherValues;
+
+    private Headers(String[] wellKnownValues, String[] otherNames, String[] otherValues) {
+        this.wellKnownValues = wellKnownValues;
+        this.otherNames = otherNames;
+        this.otherValues = otherValues;
+    }
+
+    /**
+     * Puts the other headers into a table that's large enough for them.
+     */
+    private Headers(String[] wellKnownValues, String[] otherLines, int otherCount) {
+        this(wellKnownValues, new String[tableSize(otherCount)], new String[tableSize(otherCount)]);
+        for (int i = 0; i < otherCount; i++) {
+            var line = otherLines[i];
+            int colon = line.indexOf(':');
+            int nameStart = skipWhitespace(line, 0, colon);
+            int nameEnd = trimWhitespace(line, nameStart, colon);
+            int slot = findSlot(line, nameStart, nameEnd);
+            if (otherNames[slot] == null) {
+                otherNames[slot] = line.substring(nameStart, nameEnd);
+            }
+            otherValues[slot] = join(otherValues[slot], getValue(line, colon));
+        }
+    }
+
+    /**
+     * @return {@link Headers} without any headers
+     */
+    public static Headers empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Parses header lines like "Content-Type: text/html". If a header occurs more than once, its values are joined
+     * with commas, as RFC 7230 allows.
+     *
+     * @param headerLines  the lines of the header, without the request line
+     * @param onParseError called with a {@link FailMessage} for each line that isn't a header
+     * @return the parsed {@link Headers}
+     */
+    public static Headers parse(Iterable<String> headerLines, Consumer<FailMessage> onParseError) {
+        var wellKnownValues = new String[WELL_KNOWN.length];
+        String[] otherLines = null;
+        int otherCount = 0;
+        for (var line : headerLines) {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                onParseError.accept(FailMessage.formatted("Header line '%s' doesn't contain ':'", line));
+                continue;
+            }
+            int nameStart = skipWhitespace(line, 0, colon);
+            int nameEnd = trimWhitespace(line, nameStart, colon);
+            var wellKnown = findWellKnown(line, nameStart, nameEnd);
+            if (wellKnown == null) {
+                // We parse the other headers again once we know how many there are
+                if (otherLines == null) {
+                    otherLines = new String[MIN_TABLE_SIZE];
+                } else if (otherCount == otherLines.length) {
+                    otherLines = Arrays.copyOf(otherLines, otherCount * 2);
+                }
+                otherLines[otherCount++] = line;
+            } else {
+                int ordinal = wellKnown.ordinal();
+                wellKnownValues[ordinal] = join(wellKnownValues[ordinal], getValue(line, colon));
+            }
+        }
+        return otherCount == 0 ?
+                new Headers(wellKnownValues, EMPTY.otherNames, EMPTY.otherValues) :
+                new Headers(wellKnownValues, otherLines, otherCount);
+    }
+
+    /**
+     * @param header a well-known header
+     * @return the value of the {@code header} or {@link Option#none()} if the request doesn't have it
+     */
+    public Option<String> get(HttpHeader header) {
+        return Option.of(wellKnownValues[header.ordinal()]);
+    }
+
+    /**
+     * @param name the name of any header, in any case
+     * @return the value of the header or {@link Option#none()} if the request doesn't have it
+     */
+    public Option<String> get(String name) {
+        int nameStart = skipWhitespace(name, 0, name.length());
+        int nameEnd = trimWhitespace(name, nameStart, name.length());
+        var wellKnown = findWellKnown(name, nameStart, nameEnd);
+        if (wellKnown != null) {
+            return get(wellKnown);
+        }
+        return otherNames.length == 0 ?
+                Option.none() :
+                Option.of(otherValues[findSlot(name, nameStart, nameEnd)]);
+    }
+
+    /**
+     * @param header a well-known header
+     * @return whether the request has the {@code header}
+     */
+    public boolean contains(HttpHeader header) {
+        return wellKnownValues[header.ordinal()] != null;
+    }
+
+    /**
+     * Finds the slot in the table of other headers that contains the header with the name or, if there's no such
+     * header, the empty slot where it belongs.
+     */
+    private int findSlot(String str, int nameStart, int nameEnd) {
+        int mask = otherNames.length - 1;
+        int slot = hash(str, nameStart, nameEnd) & mask;
+        while (otherNames[slot] != null && !equalsIgnoreCase(otherNames[slot], str, nameStart, nameEnd)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static HttpHeader findWellKnown(String str, int nameStart, int nameEnd) {
+        int mask = WELL_KNOWN_BY_HASH.length - 1;
+        int slot = hash(str, nameStart, nameEnd) & mask;
+        for (var header = WELL_KNOWN_BY_HASH[slot]; header != null; header = WELL_KNOWN_BY_HASH[slot]) {
+            if (equalsIgnoreCase(header.toString(), str, nameStart, nameEnd)) {
+                return header;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private static HttpHeader[] createWellKnownTable() {
+        var table = new HttpHeader[tableSize(WELL_KNOWN.length)];
+        int mask = table.length - 1;
+        for (var header : WELL_KNOWN) {
+            var name = header.toString();
+            int slot = hash(name, 0, name.length()) & mask;
+            while (table[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = header;
+        }
+        return table;
+    }
+
+    /**
+     * @return a power of two that leaves at least half of the table empty, so probes stay short
+     */
+    private static int tableSize(int entryCount) {
+        return Math.max(MIN_TABLE_SIZE, Integer.highestOneBit(entryCount * 2 - 1) * 2);
+    }
+
+    /**
+     * Hashes the chars of {@code str} between {@code start} and {@code end} as if they were in lower case.
+     */
+    private static int hash(String str, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + toLowerCase(str.charAt(i));
+        }
+        // Spread the bits, since we use only the lowest ones as the index
+        return hash ^ hash >>> 16;
+    }
+
+    private static boolean equalsIgnoreCase(String name, String str, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (toLowerCase(name.charAt(i)) != toLowerCase(str.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Header names are ASCII, so we don't need the Unicode rules of {@link Character#toLowerCase(char)}.
+     */
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static String getValue(String line, int colon) {
+        int valueStart = skipWhitespace(line, colon + 1, line.length());
+        return line.substring(valueStart, trimWhitespace(line, valueStart, line.length()));
+    }
+
+    private static String join(String previousValue, String value) {
+        return previousValue == null ? value : previousValue + ", " + value;
+    }
+
+    private static int skipWhitespace(String str, int start, int end) {
+        while (start < end && Character.isWhitespace(str.charAt(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimWhitespace(String str, int start, int end) {
+        while (end > start && Character.isWhitespace(str.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+}
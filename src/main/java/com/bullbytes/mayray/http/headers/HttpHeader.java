@@ -3,13 +3,41 @@ package com.bullbytes.mayray.http.headers;
 /**
  * Headers in HTTP requests and responses.
  * <p>
+ * {@link Headers} keeps the values of these headers in a slot per header, so we find them without hashing.
+ * <p>
  * Person of contact: Matthias Braun
  */
 public enum HttpHeader {
+    ACCEPT("Accept"),
+    ACCEPT_ENCODING("Accept-Encoding"),
+    ACCEPT_LANGUAGE("Accept-Language"),
+    ACCEPT_RANGES("Accept-Ranges"),
+    AUTHORIZATION("Authorization"),
+    CACHE_CONTROL("Cache-Control"),
     CONTENT_DISPOSITION("Content-Disposition"),
+    CONTENT_ENCODING("Content-Encoding"),
     ALLOW("Allow"),
+    CONNECTION("Connection"),
     CONTENT_LENGTH("Content-Length"),
-    CONTENT_TYPE("Content-Type");
+    CONTENT_RANGE("Content-Range"),
+    CONTENT_TYPE("Content-Type"),
+    COOKIE("Cookie"),
+    DATE("Date"),
+    ETAG("ETag"),
+    EXPECT("Expect"),
+    HOST("Host"),
+    IF_MODIFIED_SINCE("If-Modified-Since"),
+    IF_NONE_MATCH("If-None-Match"),
+    IF_RANGE("If-Range"),
+    LAST_MODIFIED("Last-Modified"),
+    ORIGIN("Origin"),
+    RANGE("Range"),
+    REFERER("Referer"),
+    RETRY_AFTER("Retry-After"),
+    TRANSFER_ENCODING("Transfer-Encoding"),
+    UPGRADE("Upgrade"),
+    USER_AGENT("User-Agent"),
+    VARY("Vary");
 
     private final String text;
 
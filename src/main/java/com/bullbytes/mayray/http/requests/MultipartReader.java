@@ -0,0 +1,286 @@
+package com.bullbytes.mayray.http.requests;
+
+import com.bullbytes.mayray.http.headers.Headers;
+import com.bullbytes.mayray.http.headers.HttpHeader;
+import com.bullbytes.mayray.utils.BufferPool;
+import com.bullbytes.mayray.utils.FailMessage;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.control.Either;
+import io.vavr.control.Option;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads the parts of a "multipart/form-data" request body, which is what browsers send when a form uploads files.
+ * <p>
+ * We read the body while the client sends it: Each {@link Part} has an {@link InputStream} that ends where the
+ * boundary of the next part starts. This way, uploaded files of any size pass through a single buffer.
+ * <p>
+ * Person of contact: Matthias Braun
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc7578">RFC 7578: Returning Values from Forms: multipart/form-data</a>
+ */
+public final class MultipartReader implements AutoCloseable {
+    private static final String MULTIPART_FORM_DATA = "multipart/form-data";
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final InputStream in;
+    // Comes before each part, including the line break that ends the previous part
+    private final byte[] delimiter;
+    private final BufferPool.PooledBuffer pooledBuffer;
+    private final byte[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    // We've searched the buffer up to here without finding the start of a delimiter
+    private int searchedUpTo = 0;
+    private boolean isEndOfStream = false;
+    private boolean isAfterLastPart = false;
+    private Part currentPart;
+
+    private MultipartReader(InputStream in, String boundary) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(UTF_8);
+        this.pooledBuffer = BufferPool.SHARED.acquire(BufferPool.getLargeBufferSize());
+        this.buffer = pooledBuffer.array();
+        // The first boundary isn't preceded by a line break. Adding one lets us find all boundaries the same way
+        System.arraycopy(CRLF, 0, buffer, 0, CRLF.length);
+        limit = CRLF.length;
+    }
+
+    /**
+     * Creates a {@link MultipartReader} for a request body. Close it when you're done, to give back its buffer.
+     *
+     * @param body    the request body
+     * @param headers the request headers. The Content-Type header contains the boundary between the parts
+     * @return a {@link MultipartReader} or a {@link FailMessage} if the body isn't "multipart/form-data"
+     */
+    public static Either<FailMessage, MultipartReader> create(InputStream body, Headers headers) {
+        return headers.get(HttpHeader.CONTENT_TYPE)
+                .filter(contentType -> contentType.toLowerCase(Locale.ROOT).startsWith(MULTIPART_FORM_DATA))
+                .flatMap(contentType -> getParameters(contentType).get("boundary"))
+                // RFC 2046 limits boundaries to 70 characters
+                .filter(boundary -> !boundary.isEmpty() && boundary.length() <= 70)
+                .map(boundary -> new MultipartReader(body, boundary))
+                .toEither(FailMessage.formatted("Request body is not '%s' with a boundary", MULTIPART_FORM_DATA));
+    }
+
+    /**
+     * Gets the next part of the body. Reading the next part skips what's left of the current one.
+     *
+     * @return the next {@link Part} or {@link Option#none()} after the last part
+     * @throws IOException if we can't read the body or it's not valid "multipart/form-data"
+     */
+    public Option<Part> nextPart() throws IOException {
+        if (currentPart == null) {
+            skipToDelimiter();
+        } else {
+            // Skip what the caller didn't read of the current part
+            currentPart.content.transferTo(OutputStream.nullOutputStream());
+        }
+        if (isAfterLastPart) {
+            return Option.none();
+        }
+        // After the delimiter comes "--" if this was the last part or a line break before the headers of the next
+        var afterDelimiter = readLine();
+        if (afterDelimiter.startsWith("--")) {
+            isAfterLastPart = true;
+            return Option.none();
+        }
+        if (!afterDelimiter.isBlank()) {
+            throw new IOException("Unexpected characters after multipart boundary: " + afterDelimiter);
+        }
+        var headerLines = List.<String>empty();
+        for (var line = readLine(); !line.isEmpty(); line = readLine()) {
+            headerLines = headerLines.append(line);
+        }
+        // We only need the Content-Disposition of a part and ignore lines that aren't headers
+        currentPart = new Part(Headers.parse(headerLines, ignored -> {}), new PartInputStream());
+        return Option.of(currentPart);
+    }
+
+    @Override
+    public void close() {
+        pooledBuffer.close();
+    }
+
+    private void skipToDelimiter() throws IOException {
+        // Clients may send text before the first part, which we ignore
+        new PartInputStream().transferTo(OutputStream.nullOutputStream());
+    }
+
+    /**
+     * Reads a line of a part's header. The line must fit into the buffer.
+     */
+    private String readLine() throws IOException {
+        while (true) {
+            for (int i = position; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    int end = i > position && buffer[i - 1] == '\r' ? i - 1 : i;
+                    var line = new String(buffer, position, end - position, UTF_8);
+                    position = i + 1;
+                    return line;
+                }
+            }
+            if (isEndOfStream) {
+                throw new IOException("Multipart body ended in the header of a part");
+            }
+            if (!fill(limit - position + 1)) {
+                throw new IOException("Header line of multipart body is too long");
+            }
+        }
+    }
+
+    /**
+     * Reads from the stream until the buffer has {@code minBytes} bytes after the position or the stream ends.
+     *
+     * @return false if the buffer is too small for {@code minBytes}
+     */
+    private boolean fill(int minBytes) throws IOException {
+        if (minBytes > buffer.length) {
+            return false;
+        }
+        if (position + minBytes > buffer.length) {
+            // Move the bytes we haven't read yet to the start of the buffer to make room
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            searchedUpTo = Math.max(0, searchedUpTo - position);
+            position = 0;
+        }
+        while (limit - position < minBytes && !isEndOfStream) {
+            int count = in.read(buffer, limit, buffer.length - limit);
+            if (count < 0) {
+                isEndOfStream = true;
+            } else {
+                limit += count;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the delimiter in the buffer between the position and the limit or -1 if it's not there
+     */
+    private int indexOfDelimiter() {
+        int lastStart = limit - delimiter.length;
+        for (int start = Math.max(position, searchedUpTo); start <= lastStart; start++) {
+            int i = 0;
+            while (i < delimiter.length && buffer[start + i] == delimiter[i]) {
+                i++;
+            }
+            if (i == delimiter.length) {
+                searchedUpTo = start;
+                return start;
+            }
+        }
+        searchedUpTo = Math.max(searchedUpTo, lastStart + 1);
+        return -1;
+    }
+
+    /**
+     * Gets the parameters of a header value like {@code form-data; name="file"; filename="cat.jpg"}.
+     */
+    private static Map<String, String> getParameters(String headerValue) {
+        Map<String, String> parameters = HashMap.empty();
+        for (var parameter : headerValue.split(";")) {
+            int equalsIndex = parameter.indexOf('=');
+            if (equalsIndex > 0) {
+                var name = parameter.substring(0, equalsIndex).strip().toLowerCase(Locale.ROOT);
+                var value = parameter.substring(equalsIndex + 1).strip();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                parameters = parameters.put(name, value);
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * A part of a "multipart/form-data" body, such as a form field or an uploaded file.
+     */
+    public static final class Part {
+        private final Headers headers;
+        private final InputStream content;
+
+        private Part(Headers headers, InputStream content) {
+            this.headers = headers;
+            this.content = content;
+        }
+
+        /**
+         * @return the name of the form field this part belongs to
+         */
+        public Option<String> getName() {
+            return getDispositionParameter("name");
+        }
+
+        /**
+         * Gets the name of the uploaded file without any directories, which some browsers include.
+         *
+         * @return the name of the file or {@link Option#none()} if the part isn't a file
+         */
+        public Option<String> getFileName() {
+            return getDispositionParameter("filename")
+                    .map(fileName -> fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1));
+        }
+
+        private Option<String> getDispositionParameter(String parameter) {
+            return headers.get(HttpHeader.CONTENT_DISPOSITION)
+                    .flatMap(disposition -> getParameters(disposition).get(parameter));
+        }
+
+        /**
+         * @return the content of the part, which ends before the next part
+         */
+        public InputStream getContent() {
+            return content;
+        }
+    }
+
+    /**
+     * Reads the bytes of a part until the delimiter of the next part.
+     */
+    private final class PartInputStream extends InputStream {
+        private boolean isEndOfPart = false;
+
+        @Override
+        public int read() throws IOException {
+            var single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (isEndOfPart) {
+                return -1;
+            }
+            fill(delimiter.length);
+            int delimiterIndex = indexOfDelimiter();
+            if (delimiterIndex == position) {
+                position += delimiter.length;
+                isEndOfPart = true;
+                return -1;
+            }
+            int available;
+            if (delimiterIndex >= 0) {
+                available = delimiterIndex - position;
+            } else if (isEndOfStream) {
+                throw new IOException("Multipart body ended without a closing boundary");
+            } else {
+                // The end of the buffer could be the start of the delimiter, so we keep it until we know
+                available = limit - position - (delimiter.length - 1);
+            }
+            int count = Math.min(length, available);
+            System.arraycopy(buffer, position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package com.bullbytes.mayray.http.requests;
+
+import com.bullbytes.mayray.utils.FailMessage;
+import com.bullbytes.mayray.utils.ParseUtil;
+import io.vavr.collection.List;
+import io.vavr.control.Either;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The parameters in the query of a URL or in an "application/x-www-form-urlencoded" request body, such as
+ * {@code dir=photos&pass=secret}.
+ * <p>
+ * While parsing, we only remember where each key and value starts and ends in the original text. A value is
+ * URL-decoded when a handler gets it, so parameters that nobody reads cost us nothing but their offsets. A key can
+ * occur more than once, {@link #getAll(String)} gets all of its values.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class Parameters {
+    public static final String FORM_URL_ENCODED = "application/x-www-form-urlencoded";
+    private static final Parameters EMPTY = new Parameters("", false, new int[0], 0);
+    private static final int INITIAL_BODY_BYTES = 256;
+
+    private final CharSequence source;
+    // Whether each char of the source is a byte of UTF-8 text, which is the case for request bodies
+    private final boolean isRawBytes;
+    // Three offsets per parameter: where its key starts, where its key ends, and where its value ends. The value
+    // starts one after the end of the key, unless the parameter has no '=' and thus no value
+    private final int[] offsets;
+    private final int count;
+
+    private Parameters(CharSequence source, boolean isRawBytes, int[] offsets, int count) {
+        this.source = source;
+        this.isRawBytes = isRawBytes;
+        this.offsets = offsets;
+        this.count = count;
+    }
+
+    /**
+     * @return {@link Parameters} without any parameters
+     */
+    public static Parameters empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Parses the query of a requested resource like "/list?dir=photos&pass=secret". The query ends at a '#'.
+     *
+     * @param resource the requested resource with or without a query
+     * @return the {@link Parameters} of the query, which are empty if the {@code resource} has no query
+     */
+    public static Parameters ofQuery(String resource) {
+        int queryStart = resource.indexOf('?') + 1;
+        if (queryStart == 0) {
+            return EMPTY;
+        }
+        int queryEnd = resource.indexOf('#', queryStart);
+        var scanner = new Scanner(queryStart);
+        if (queryEnd < 0) {
+            queryEnd = resource.length();
+        }
+        scanner.scan(resource, queryStart, queryEnd);
+        return scanner.finish(resource, queryEnd, false);
+    }
+
+    /**
+     * Parses an "application/x-www-form-urlencoded" request body while reading it, finding the parameters in each
+     * chunk as it arrives.
+     *
+     * @param body     we read the parameters from this stream until it ends
+     * @param maxBytes the body may have at most this many bytes
+     * @return the {@link Parameters} of the body or a {@link FailMessage} if we couldn't read it or it's too large
+     */
+    public static Either<FailMessage, Parameters> ofForm(InputStream body, int maxBytes) {
+        var bytes = new RawBytes(new byte[Math.min(INITIAL_BODY_BYTES, maxBytes + 1)]);
+        var scanner = new Scanner(0);
+        try {
+            int count;
+            // Reading one byte more than allowed tells us whether the body is too large
+            while ((count = body.read(bytes.array, bytes.length, bytes.array.length - bytes.length)) >= 0) {
+                scanner.scan(bytes, bytes.length, bytes.length + count);
+                bytes.length += count;
+                if (bytes.length > maxBytes) {
+                    return Either.left(FailMessage.formatted("Form has more than %d bytes", maxBytes));
+                }
+                if (bytes.length == bytes.array.length) {
+                    bytes.array = Arrays.copyOf(bytes.array, Math.min(bytes.array.length * 2, maxBytes + 1));
+                }
+            }
+        } catch (IOException e) {
+            return Either.left(FailMessage.formatted("Could not read form from request body: %s", e));
+        }
+        return Either.right(scanner.finish(bytes, bytes.length, true));
+    }
+
+    /**
+     * @return how many parameters there are, counting each occurrence of a key
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param key the decoded key of the parameter
+     * @return whether there's a parameter with the {@code key}
+     */
+    public boolean contains(String key) {
+        return indexOf(key, 0) >= 0;
+    }
+
+    /**
+     * Gets the decoded value of the first parameter with the {@code key}. A parameter without '=' has the empty
+     * string as its value.
+     *
+     * @param key the decoded key of the parameter
+     * @return the value of the parameter or {@link Option#none()} if there's no parameter with the {@code key}
+     */
+    public Option<String> get(String key) {
+        int index = indexOf(key, 0);
+        return index < 0 ? Option.none() : Option.of(getValue(index));
+    }
+
+    /**
+     * @param key the decoded key of the parameters
+     * @return the decoded values of all parameters with the {@code key} in the order they appear
+     */
+    public List<String> getAll(String key) {
+        var values = List.<String>empty();
+        for (int index = indexOf(key, 0); index >= 0; index = indexOf(key, index + 1)) {
+            values = values.prepend(getValue(index));
+        }
+        return values.reverse();
+    }
+
+    /**
+     * @param key the decoded key of the parameter
+     * @return the value of the parameter as an integer, {@link Option#none()} if there's no such parameter, or a
+     * {@link FailMessage} if the value is not an integer
+     */
+    public Either<FailMessage, Option<Integer>> getInt(String key) {
+        return parse(key, ParseUtil::parseInt);
+    }
+
+    /**
+     * @param key          the decoded key of the parameter
+     * @param defaultValue the integer we return if there's no parameter with the {@code key}
+     * @return the value of the parameter as an integer or a {@link FailMessage} if the value is not an integer
+     */
+    public Either<FailMessage, Integer> getInt(String key, int defaultValue) {
+        return getInt(key).map(value -> value.getOrElse(defaultValue));
+    }
+
+    /**
+     * @param key the decoded key of the parameter
+     * @return the value of the parameter as a long, {@link Option#none()} if there's no such parameter, or a
+     * {@link FailMessage} if the value is not a long
+     */
+    public Either<FailMessage, Option<Long>> getLong(String key) {
+        return parse(key, ParseUtil::parseLong);
+    }
+
+    /**
+     * @param key          the decoded key of the parameter
+     * @param defaultValue the long we return if there's no parameter with the {@code key}
+     * @return the value of the parameter as a long or a {@link FailMessage} if the value is not a long
+     */
+    public Either<FailMessage, Long> getLong(String key, long defaultValue) {
+        return getLong(key).map(value -> value.getOrElse(defaultValue));
+    }
+
+    /**
+     * @param key the decoded key of the parameter
+     * @return the value of the parameter as a {@link Path}, {@link Option#none()} if there's no such parameter, or
+     * a {@link FailMessage} if the value is not a valid path, for example because it contains a null character
+     */
+    public Either<FailMessage, Option<Path>> getPath(String key) {
+        return parse(key, value -> Try.of(() -> Path.of(value))
+                .toEither(() -> FailMessage.formatted("Parameter '%s' is not a valid path: '%s'", key, value)));
+    }
+
+    /**
+     * Gets the constant of the {@code enumType} whose name is the value of the parameter, ignoring case.
+     *
+     * @param key      the decoded key of the parameter
+     * @param enumType the {@link Class} of the enum
+     * @param <E>      the type of the enum
+     * @return the enum constant, {@link Option#none()} if there's no such parameter, or a {@link FailMessage} if
+     * the value is not the name of a constant
+     */
+    public <E extends Enum<E>> Either<FailMessage, Option<E>> getEnum(String key, Class<E> enumType) {
+        var constants = List.of(enumType.getEnumConstants());
+        return parse(key, value -> constants.find(constant -> constant.name().equalsIgnoreCase(value))
+                .toEither(() -> FailMessage.formatted("Parameter '%s' must be one of %s, not '%s'", key,
+                        constants.map(constant -> constant.name().toLowerCase(Locale.ROOT)).mkString(", "), value)));
+    }
+
+    private <T> Either<FailMessage, Option<T>> parse(String key,
+                                                     Function<String, Either<FailMessage, T>> parser) {
+        return get(key)
+                .map(value -> parser.apply(value).map(Option::of))
+                .getOrElse(Either.right(Option.none()));
+    }
+
+    /**
+     * @return the index of the first parameter at or after {@code fromIndex} whose key is {@code key} or -1
+     */
+    private int indexOf(String key, int fromIndex) {
+        for (int index = fromIndex; index < count; index++) {
+            int keyStart = offsets[3 * index];
+            int keyEnd = offsets[3 * index + 1];
+            if (needsDecoding(keyStart, keyEnd) ?
+                    decode(keyStart, keyEnd).equals(key) :
+                    regionEquals(keyStart, keyEnd, key)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private String getValue(int index) {
+        int keyEnd = offsets[3 * index + 1];
+        int valueEnd = offsets[3 * index + 2];
+        // Without '=', the key ends where the value ends
+        return keyEnd == valueEnd ? "" : decode(keyEnd + 1, valueEnd);
+    }
+
+    private boolean regionEquals(int start, int end, String str) {
+        if (end - start != str.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (source.charAt(i) != str.charAt(i - start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean needsDecoding(int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c == '%' || c == '+' || (isRawBytes && c > 0x7F)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * URL-decodes the source between {@code start} and {@code end}. Like browsers, we keep a '%' that isn't followed
+     * by two hexadecimal digits as it is.
+     */
+    private String decode(int start, int end) {
+        if (!needsDecoding(start, end)) {
+            return source.subSequence(start, end).toString();
+        }
+        var decoded = new StringBuilder(end - start);
+        // Consecutive bytes of UTF-8 text, decoded together since one char can have several bytes
+        var pendingBytes = new byte[end - start];
+        int pendingCount = 0;
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            int escapedByte = c == '%' ? hexByte(i + 1, end) : -1;
+            if (escapedByte >= 0) {
+                pendingBytes[pendingCount++] = (byte) escapedByte;
+                i += 2;
+            } else if (isRawBytes && c > 0x7F) {
+                pendingBytes[pendingCount++] = (byte) c;
+            } else {
+                if (pendingCount > 0) {
+                    decoded.append(new String(pendingBytes, 0, pendingCount, UTF_8));
+                    pendingCount = 0;
+                }
+                decoded.append(c == '+' ? ' ' : c);
+            }
+        }
+        if (pendingCount > 0) {
+            decoded.append(new String(pendingBytes, 0, pendingCount, UTF_8));
+        }
+        return decoded.toString();
+    }
+
+    /**
+     * @return the byte of the two hexadecimal digits at {@code index} or -1 if they aren't there
+     */
+    private int hexByte(int index, int end) {
+        if (index + 1 >= end) {
+            return -1;
+        }
+        int high = Character.digit(source.charAt(index), 16);
+        int low = Character.digit(source.charAt(index + 1), 16);
+        return high < 0 || low < 0 ? -1 : high << 4 | low;
+    }
+
+    /**
+     * Finds the offsets of the parameters in text that we may get in several chunks.
+     */
+    private static final class Scanner {
+        private int[] offsets = new int[3 * 8];
+        private int count = 0;
+        private int parameterStart;
+        // Where the key of the current parameter ends or -1 if we haven't seen its '=' yet
+        private int keyEnd = -1;
+
+        private Scanner(int start) {
+            this.parameterStart = start;
+        }
+
+        private void scan(CharSequence chars, int start, int end) {
+            for (int i = start; i < end; i++) {
+                char c = chars.charAt(i);
+                if (c == '&') {
+                    endParameter(i);
+                } else if (c == '=' && keyEnd < 0) {
+                    keyEnd = i;
+                }
+            }
+        }
+
+        private void endParameter(int end) {
+            // Skip empty parameters like the one between "&&"
+            if (end > parameterStart) {
+                if (3 * count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[3 * count] = parameterStart;
+                offsets[3 * count + 1] = keyEnd < 0 ? end : keyEnd;
+                offsets[3 * count + 2] = end;
+                count++;
+            }
+            parameterStart = end + 1;
+            keyEnd = -1;
+        }
+
+        private Parameters finish(CharSequence source, int end, boolean isRawBytes) {
+            endParameter(end);
+            return count == 0 ? EMPTY : new Parameters(source, isRawBytes, offsets, count);
+        }
+    }
+
+    /**
+     * Bytes of a request body as chars, without copying them into a string. Each byte becomes the char with the
+     * same value.
+     */
+    private static final class RawBytes implements CharSequence {
+        private byte[] array;
+        private int length = 0;
+
+        private RawBytes(byte[] array) {
+            this.array = array;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (array[index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(array, start, end - start, ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return new String(array, 0, length, ISO_8859_1);
+        }
+    }
+}
@@ -1,22 +1,28 @@
 package com.bullbytes.mayray.http.requests;
 
 
+import com.bullbytes.mayray.http.headers.HeaderUtil;
+import com.bullbytes.mayray.http.headers.Headers;
+import com.bullbytes.mayray.http.headers.HttpHeader;
+import com.bullbytes.mayray.utils.BoundedInputStream;
+import com.bullbytes.mayray.utils.CancellationToken;
 import com.bullbytes.mayray.utils.FailMessage;
 import com.bullbytes.mayray.utils.ParseUtil;
-import io.vavr.collection.Map;
 import io.vavr.collection.Seq;
-import io.vavr.collection.Traversable;
 import io.vavr.control.Either;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.Locale;
 import java.util.regex.Pattern;
 
 import static com.bullbytes.mayray.http.requests.RequestMethod.*;
 import static io.vavr.control.Either.left;
 import static io.vavr.control.Either.right;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * The request line, the headers, and the message body of a client request.
@@ -34,30 +40,50 @@ public final class Request {
     private final RequestMethod method;
     private final String resource;
     private final String httpVersion;
-    private final Map<String, String> headers;
+    private final Headers headers;
+    private final InputStream bodyStream;
     private final BufferedReader body;
+    private final CancellationToken cancellation;
 
     private Request(RequestMethod method,
                     String resource,
                     String httpVersion,
-                    Map<String, String> headers,
-                    BufferedReader body) {
+                    Headers headers,
+                    InputStream bodyStream,
+                    CancellationToken cancellation) {
 
         this.method = method;
         this.resource = resource;
         this.httpVersion = httpVersion;
         this.headers = headers;
-        this.body = body;
+        this.bodyStream = bodyStream;
+        // The reader doesn't read from the stream until a route reads the body as text
+        this.body = new BufferedReader(new InputStreamReader(bodyStream, UTF_8));
+        this.cancellation = cancellation;
     }
 
     /**
      * Creates a {@link Request} from the {@code headerLines} and the {@code bodyStream}.
      *
      * @param headerLines the lines of the header such as "GET /resource HTTP 1.1", "Host: ...", "User-Agent: ..."
-     * @param bodyStream  the body of the message, as a {@link BufferedReader}
+     * @param bodyStream  the body of the message
      * @return the parsed {@link Request} or a {@link FailMessage}
      */
-    public static Either<FailMessage, Request> create(Seq<String> headerLines, BufferedReader bodyStream) {
+    public static Either<FailMessage, Request> create(Seq<String> headerLines, InputStream bodyStream) {
+        return create(headerLines, bodyStream, CancellationToken.NONE);
+    }
+
+    /**
+     * Creates a {@link Request} whose handling can be cancelled, for example when the client disconnects.
+     *
+     * @param headerLines  the lines of the header such as "GET /resource HTTP 1.1", "Host: ...", "User-Agent: ..."
+     * @param bodyStream   the body of the message
+     * @param cancellation the {@link CancellationToken} that route handlers should check during long-running work
+     * @return the parsed {@link Request} or a {@link FailMessage}
+     */
+    public static Either<FailMessage, Request> create(Seq<String> headerLines,
+                                                      InputStream bodyStream,
+                                                      CancellationToken cancellation) {
         return headerLines.headOption()
                 .toEither(() -> FailMessage.create("Cannot parse request since there are no lines in the header"))
                 .flatMap(requestLine -> ParseUtil.getGroups3(REQUEST_LINE_REGEX, requestLine)
@@ -65,16 +91,32 @@ public final class Request {
                                 "HTTP version from request line. Request line is '%s'", requestLine))
                         .flatMap(methodResourceAndVersion -> methodResourceAndVersion.apply((methodStr, resource, httpVersion) ->
                                         parseRequestMethod(methodStr)
-                                                .map(method -> new Request(method,
-                                                        resource,
-                                                        httpVersion,
-                                                        // The headers come after the request line
-                                                        getHeaderMap(headerLines.tail()),
-                                                        bodyStream))
+                                                .map(method -> {
+                                                    // The headers come after the request line
+                                                    var headers = Headers.parse(headerLines.tail(),
+                                                            msg -> log.info(msg.toString()));
+                                                    return new Request(method,
+                                                            resource,
+                                                            httpVersion,
+                                                            headers,
+                                                            boundBody(bodyStream, headers),
+                                                            cancellation);
+                                                })
                                 )
                         ));
     }
 
+    /**
+     * Makes the body end after Content-Length bytes, so routes reading the whole body don't wait for bytes the client
+     * never sends. A request with neither Content-Length nor Transfer-Encoding has no body.
+     */
+    private static InputStream boundBody(InputStream bodyStream, Headers headers) {
+        boolean hasTransferEncoding = headers.contains(HttpHeader.TRANSFER_ENCODING);
+        return hasTransferEncoding ?
+                bodyStream :
+                BoundedInputStream.of(bodyStream, HeaderUtil.getLongContentLength(headers).getOrElse(0L));
+    }
+
     private static Either<FailMessage, RequestMethod> parseRequestMethod(String methodStr) {
 
         return switch (methodStr.strip().toUpperCase(Locale.ROOT)) {
@@ -91,14 +133,6 @@ public final class Request {
         };
     }
 
-    private static Map<String, String> getHeaderMap(Traversable<String> headerLines) {
-        return ParseUtil.getKeyValueMap(headerLines,
-                ":",
-                String::strip,
-                String::strip,
-                msg -> log.info(msg.toString()));
-    }
-
     /**
      * @return the {@link RequestMethod} of the {@link Request}
      */
@@ -114,16 +148,34 @@ public final class Request {
     }
 
     /**
-     * @return the request's body
+     * @return the request's body as UTF-8 encoded text
      */
     public BufferedReader getBody() {
         return body;
     }
 
+    /**
+     * Gets the request's body as bytes, for example to save an uploaded file. A route reads the body either from
+     * this stream or from {@link #getBody()}, not both.
+     *
+     * @return the request's body
+     */
+    public InputStream getBodyStream() {
+        return bodyStream;
+    }
+
+    /**
+     * @return the {@link CancellationToken} that tells whether anybody still waits for the response, for example
+     * because the client has disconnected. Handlers doing long-running work should check it
+     */
+    public CancellationToken getCancellation() {
+        return cancellation;
+    }
+
     /**
      * @return the headers of the request
      */
-    public Map<String, String> getHeaders() {
+    public Headers getHeaders() {
         return headers;
     }
 
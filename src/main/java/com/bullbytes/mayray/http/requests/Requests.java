@@ -1,12 +1,15 @@
 package com.bullbytes.mayray.http.requests;
 
 import com.bullbytes.mayray.http.headers.HeaderUtil;
+import com.bullbytes.mayray.http.headers.HttpHeader;
 import com.bullbytes.mayray.utils.FailMessage;
 import com.bullbytes.mayray.utils.ReaderUtil;
 import io.vavr.control.Either;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Locale;
+
 /**
  * Helps with processing client requests.
  * <p>
@@ -27,4 +30,19 @@ public enum Requests {
                                                 contentLength)));
     }
 
+    /**
+     * Parses the body of a request as an "application/x-www-form-urlencoded" form, which browsers send when the user
+     * submits a form. We assume that a body without Content-Type is such a form as well.
+     *
+     * @param request  the {@link Request} whose body we read
+     * @param maxBytes the body may have at most this many bytes
+     * @return the {@link Parameters} of the form or a {@link FailMessage} if the body is not a form or too large
+     */
+    public static Either<FailMessage, Parameters> getForm(Request request, int maxBytes) {
+        var contentType = request.getHeaders().get(HttpHeader.CONTENT_TYPE);
+        return contentType.exists(type -> !type.toLowerCase(Locale.ROOT).startsWith(Parameters.FORM_URL_ENCODED)) ?
+                Either.left(FailMessage.formatted("Request body is '%s', not '%s'", contentType.get(),
+                        Parameters.FORM_URL_ENCODED)) :
+                Parameters.ofForm(request.getBodyStream(), maxBytes);
+    }
 }
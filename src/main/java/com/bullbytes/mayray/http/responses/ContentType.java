@@ -1,5 +1,7 @@
 package com.bullbytes.mayray.http.responses;
 
+import java.util.Locale;
+
 /**
  * Lists different MIME types to classify the body of server responses.
  * <p>
@@ -8,8 +10,17 @@ package com.bullbytes.mayray.http.responses;
 public enum ContentType {
     ZIP("application/zip"),
     JPEG("image/jpeg"),
+    PNG("image/png"),
+    GIF("image/gif"),
+    SVG("image/svg+xml"),
+    PDF("application/pdf"),
     TEXT_PLAIN("text/plain"),
-    TEXT_HTML("text/html");
+    TEXT_HTML("text/html"),
+    CSS("text/css"),
+    JSON("application/json"),
+    MP3("audio/mpeg"),
+    MP4("video/mp4"),
+    OCTET_STREAM("application/octet-stream");
 
     private final String mimeString;
 
@@ -17,6 +28,32 @@ public enum ContentType {
         this.mimeString = mimeString;
     }
 
+    /**
+     * Gets the {@link ContentType} of a file from the extension of its name.
+     *
+     * @param fileName the name of the file, such as "holidays.jpg"
+     * @return the {@link ContentType} of the file or {@link #OCTET_STREAM} if we don't know the extension
+     */
+    public static ContentType ofFileName(String fileName) {
+        int dotIndex = fileName.lastIndexOf('.');
+        var extension = dotIndex < 0 ? "" : fileName.substring(dotIndex + 1).toLowerCase(Locale.ROOT);
+        return switch (extension) {
+            case "zip" -> ZIP;
+            case "jpg", "jpeg" -> JPEG;
+            case "png" -> PNG;
+            case "gif" -> GIF;
+            case "svg" -> SVG;
+            case "pdf" -> PDF;
+            case "txt", "md", "log" -> TEXT_PLAIN;
+            case "html", "htm" -> TEXT_HTML;
+            case "css" -> CSS;
+            case "json" -> JSON;
+            case "mp3" -> MP3;
+            case "mp4" -> MP4;
+            default -> OCTET_STREAM;
+        };
+    }
+
     @Override
     public String toString() {
         return mimeString;
@@ -1,27 +1,34 @@
 package com.bullbytes.mayray.http.responses;
 
 import com.bullbytes.mayray.fileaccess.DirectoryAccess;
+import com.bullbytes.mayray.fileaccess.DownloadTokens;
+import com.bullbytes.mayray.fileaccess.HotFileTier;
+import com.bullbytes.mayray.fileaccess.OpenFileCache;
+import com.bullbytes.mayray.fileindex.FileTreeIndex;
+import com.bullbytes.mayray.fileindex.ListingCursor;
+import com.bullbytes.mayray.fileindex.ListingOrder;
+import com.bullbytes.mayray.fileindex.ListingQuery;
 import com.bullbytes.mayray.html.Pages;
-import com.bullbytes.mayray.http.headers.HeaderUtil;
 import com.bullbytes.mayray.http.headers.HttpHeader;
+import com.bullbytes.mayray.http.requests.Parameters;
 import com.bullbytes.mayray.http.requests.Request;
 import com.bullbytes.mayray.http.requests.Requests;
+import com.bullbytes.mayray.utils.CancellationToken;
+import com.bullbytes.mayray.utils.FailMessage;
 import com.bullbytes.mayray.utils.FileUtil;
-import com.bullbytes.mayray.utils.ParseUtil;
 import com.bullbytes.mayray.utils.Strings;
 import io.vavr.API;
 import io.vavr.collection.List;
-import io.vavr.collection.Map;
+import io.vavr.control.Either;
 import io.vavr.control.Option;
 import io.vavr.control.Try;
-import j2html.tags.Renderable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URL;
-import java.net.URLDecoder;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
 
 import static com.bullbytes.mayray.http.headers.InlineOrAttachment.ATTACHMENT;
 import static com.bullbytes.mayray.http.requests.RequestMethod.GET;
@@ -39,135 +46,293 @@ public enum FileResponses {
     // Expected parameter names in the URL
     public static final String DIR_KEY = "dir";
     public static final String PASSWORD_KEY = "pass";
+    public static final String TOKEN_KEY = "token";
+    // The name of a single file to download from the directory
+    public static final String FILE_KEY = "file";
+    // Parameters for sorting and paging directory listings
+    public static final String SORT_KEY = "sort";
+    public static final String ORDER_KEY = "order";
+    public static final String LIMIT_KEY = "limit";
+    public static final String CURSOR_KEY = "cursor";
+    // Where we create the zip archives of directories
+    private static final Path ZIP_DIR = Path.of("zipFiles");
+    // Forms in request bodies only contain passwords, they are small
+    private static final int MAX_FORM_BYTES = 16 * 1024;
     private static final Logger log = LoggerFactory.getLogger(FileResponses.class);
 
-    public static byte[] listFiles(Request req) {
+    public static Response listFiles(Request req, FileTreeIndex fileIndex, DownloadTokens downloadTokens) {
 
         var passwordInputName = "passwordInput";
-        var queryMap = getQueryMap(req.getResource());
-        return switch (req.getMethod()) {
-            // The user wants to list the contents of a downloadable directory on the server
-            case GET -> {
-                Renderable pageToShow = queryMap.get(DIR_KEY)
-                        .map(dirToGet -> queryMap.get(PASSWORD_KEY)
-                                .map(password -> DirectoryAccess.create(Path.of(dirToGet), password))
-                                .map(dirAccess -> getPageListingDirContents(dirAccess, passwordInputName)
-                                        // The query contains which directory to get but not the password
-                                ).getOrElse(() -> Pages.login(dirToGet, passwordInputName)))
-                        // The query doesn't contain which directory to download
-                        .getOrElse(() -> Pages.needDirToDownload(DIR_KEY));
-
-                yield Responses.html(pageToShow);
-            }
-            // The user has entered the password via the password input element → Read the password from the request
-            // body, decode it if necessary and show a listing of the directory if the password matches
-            case POST -> Requests.getBody(req)
+        var query = Parameters.ofQuery(req.getResource());
+        return getListingQuery(query).flatMap(listingQuery -> query.getPath(DIR_KEY)
+                .map(dir -> Tuple(listingQuery, dir))).fold(error -> {
+            log.info("Invalid listing parameters: {}", error);
+            return Response.of(Responses.plainText(error.toString(), StatusCode.BAD_REQUEST));
+        }, queryAndDir -> queryAndDir.apply((listingQuery, dir) -> switch (req.getMethod()) {
+            // The user wants to list the contents of a downloadable directory on the server. The query contains
+            // either a token, like the link to a listing's next page, or the directory's password
+            case GET -> query.get(TOKEN_KEY).map(token -> getAuthorizedDir(query, downloadTokens).fold(error -> {
+                log.info("Not listing directory: {}", error);
+                return Response.of(Responses.plainText(error.toString(), StatusCode.FORBIDDEN));
+            }, authorizedDir -> getPageListingDirContents(authorizedDir, fileIndex, listingQuery, token))
+            ).getOrElse(() -> dir
+                    .map(dirToGet -> query.get(PASSWORD_KEY)
+                            .map(password -> DirectoryAccess.create(dirToGet, password))
+                            .map(dirAccess -> getPageListingDirContents(dirAccess, passwordInputName, fileIndex, downloadTokens, listingQuery)
+                                    // The query contains which directory to get but not the password
+                            ).getOrElse(() -> Response.of(Responses.html(Pages.login(dirToGet.toString(), passwordInputName)))))
+                    // The query doesn't contain which directory to download
+                    .getOrElse(() -> Response.of(Responses.html(Pages.needDirToDownload(DIR_KEY)))));
+
+            // The user has entered the password via the password input element → Read the password from the form in
+            // the request body and show a listing of the directory if the password matches
+            case POST -> Requests.getForm(req, MAX_FORM_BYTES)
                     .fold(error -> {
-                        var msg = "Could not read body of post message";
-                        log.warn(msg, error);
-                        return Responses.plainText(msg, StatusCode.BAD_REQUEST);
-                    }, reqBody -> {
-                        var pageToShow = getDecodedPassword(req.getHeaders(), passwordInputName, reqBody)
-                                .fold(
-                                        () -> Pages.couldNotGetPasswordFromBody(PASSWORD_KEY),
-                                        decodedPassword -> queryMap.get(DIR_KEY)
-                                                .map(dirToGet -> DirectoryAccess.create(Path.of(dirToGet), decodedPassword))
-                                                .map(dirAccess -> getPageListingDirContents(dirAccess, passwordInputName)
-                                                        // The query doesn't contain which directory to download
-                                                ).getOrElse(() -> Pages.needDirToDownload(DIR_KEY)));
-                        return Responses.html(pageToShow);
-                    });
-            default -> Responses.unsupportedMethod(List.of(GET, POST));
-        };
+                        log.info("Could not read form in body of post message: {}", error);
+                        return Response.of(Responses.plainText("Could not read form in body of post message",
+                                StatusCode.BAD_REQUEST));
+                    }, form -> form.get(passwordInputName)
+                            .fold(
+                                    () -> Response.of(Responses.html(Pages.couldNotGetPasswordFromBody(PASSWORD_KEY))),
+                                    password -> dir
+                                            .map(dirToGet -> DirectoryAccess.create(dirToGet, password))
+                                            .map(dirAccess -> getPageListingDirContents(dirAccess, passwordInputName, fileIndex, downloadTokens, listingQuery)
+                                                    // The query doesn't contain which directory to download
+                                            ).getOrElse(() -> Response.of(Responses.html(Pages.needDirToDownload(DIR_KEY))))));
+            default -> Response.of(Responses.unsupportedMethod(List.of(GET, POST)));
+        }));
+    }
+
+    /**
+     * Gets how the client wants the files of a directory listing sorted and which page of the listing it wants.
+     * Parameters missing from the query get their default values.
+     */
+    static Either<FailMessage, ListingQuery> getListingQuery(Parameters query) {
+        var orderEither = query.get(SORT_KEY)
+                .map(ListingOrder::parse)
+                .getOrElse(Either.right(ListingOrder.NAME));
+
+        var descendingEither = query.get(ORDER_KEY)
+                .map(FileResponses::parseIsDescending)
+                .getOrElse(Either.right(false));
+
+        var limitEither = query.getInt(LIMIT_KEY, ListingQuery.DEFAULT_LIMIT);
+
+        return orderEither.flatMap(order -> descendingEither.flatMap(descending -> limitEither.flatMap(limit ->
+                query.get(CURSOR_KEY)
+                        .map(cursor -> ListingCursor.decode(cursor, order).map(Option::of))
+                        .getOrElse(Either.right(Option.none()))
+                        .map(cursor -> ListingQuery.create(order, descending, cursor, limit)))));
     }
 
-    private static Option<String> getDecodedPassword(Map<String, String> headers,
-                                                     String passwordInputName,
-                                                     String reqBody) {
-        var bodyLines = List.of(reqBody.split("\r\n"));
-        // In the request body, the key to the password is the name of the input in the page's form
-        var parameterPrefix = passwordInputName + "=";
-        Option<String> encodedPassword = bodyLines.filter(bodyLine -> bodyLine.startsWith(parameterPrefix))
-                .headOption()
-                .map(lineWithParameter -> lineWithParameter.substring(parameterPrefix.length()));
-
-        return encodedPassword.map(password ->
-                isUrlEncoded(headers) ?
-                        URLDecoder.decode(password, StandardCharsets.UTF_8) :
-                        password);
+    private static Either<FailMessage, Boolean> parseIsDescending(String order) {
+        return switch (order) {
+            case "asc" -> Either.right(false);
+            case "desc" -> Either.right(true);
+            default -> Either.left(FailMessage.formatted("Order must be 'asc' or 'desc', not '%s'", order));
+        };
     }
 
-    private static Renderable getPageListingDirContents(DirectoryAccess dirAccess, String passwordInputName) {
-        Renderable page;
+    private static Response getPageListingDirContents(DirectoryAccess dirAccess,
+                                                      String passwordInputName,
+                                                      FileTreeIndex fileIndex,
+                                                      DownloadTokens downloadTokens,
+                                                      ListingQuery query) {
+        Response response;
         if (dirAccess.isDownloadAllowed()) {
-            page = dirAccess.passwordMatches() ?
-                    Pages.dirContents(dirAccess) :
-                    Pages.wrongPassword(passwordInputName);
+            // Instead of the password, the links on the page contain a token that grants access to the directory
+            response = dirAccess.passwordMatches() ?
+                    getPageListingDirContents(dirAccess.getDesiredDir(), fileIndex, query,
+                            downloadTokens.issue(dirAccess.getDesiredDir())) :
+                    Response.of(Responses.html(Pages.wrongPassword(passwordInputName)));
         } else {
-            page = Pages.directoryCannotBeDownloaded(dirAccess.getDesiredDir());
+            response = Response.of(Responses.html(Pages.directoryCannotBeDownloaded(dirAccess.getDesiredDir())));
         }
-        return page;
+        return response;
+    }
+
+    private static Response getPageListingDirContents(Path authorizedDir,
+                                                      FileTreeIndex fileIndex,
+                                                      ListingQuery query,
+                                                      String token) {
+        // We've checked the password or token already
+        var dirAccess = DirectoryAccess.create(authorizedDir, "");
+        // Directory listings can be long, that's why we send them while rendering them
+        return dirAccess.isDownloadAllowed() ?
+                Responses.streamedHtml(Pages.dirContents(dirAccess, fileIndex, query, token)) :
+                Response.of(Responses.html(Pages.directoryCannotBeDownloaded(authorizedDir)));
     }
 
-    private static Map<String, String> getQueryMap(String uriWithQuery) {
+    private static Try<Path> getZipFile(Path dirToZip, CancellationToken cancellation) {
 
-        // If the URI is "/resource?param1=value1&param2=value2" get the query part: "param1=value1&param2=value2"
-        String query = Strings.getStringAfter("?", uriWithQuery);
+        // We've checked the password or token already
+        var access = DirectoryAccess.create(dirToZip, "");
+        return access.isDownloadAllowed() ?
+                // Each request gets an archive of its own. Requests for the same directory, or for directories with
+                // the same name, don't overwrite each other's archive, and a cancelled request deletes only its own
+                createZipFile(dirToZip).flatMap(zipFile -> FileUtil.zipAllFiles(
+                        access.getNormalizedPathFromRoot(),
+                        zipFile,
+                        FileResponses::stripDownloadDir,
+                        cancellation)) :
+                Try.failure(new RuntimeException(format("Not zipping directory %s: It doesn't exist", dirToZip)));
+    }
 
-        String[] keyValuePairs = query.split("&");
-        return ParseUtil.getKeyValueMap(
-                List.of(keyValuePairs),
-                "=",
-                msg -> log.warn(msg.toString()));
+    private static Try<Path> createZipFile(Path dirToZip) {
+        return Try.of(() -> {
+            // Place the zipped files in a directory in the current working directory
+            Files.createDirectories(ZIP_DIR);
+            return Files.createTempFile(ZIP_DIR, dirToZip.getFileName() + "-", ".zip");
+        });
     }
 
-    private static boolean isUrlEncoded(Map<String, String> requestHeaders) {
-        return HeaderUtil.getValueOf(HttpHeader.CONTENT_TYPE, requestHeaders)
-                .map("application/x-www-form-urlencoded"::equals)
-                .getOrElse(false);
+    /**
+     * Gets the directory to download if the query contains a valid download token or the correct password for the
+     * directory.
+     */
+    static Either<FailMessage, Path> getAuthorizedDir(Parameters query,
+                                                    DownloadTokens downloadTokens) {
+        return query.getPath(DIR_KEY).flatMap(dir -> query.get(TOKEN_KEY)
+                .map(token -> downloadTokens.verify(token)
+                        // The token grants access to a directory and its subdirectories. Without a directory in the
+                        // query, the client wants the token's directory
+                        .flatMap(tokenDir -> {
+                            var desiredDir = dir.getOrElse(tokenDir).normalize();
+                            // A subdirectory with a password of its own needs a token of its own
+                            return isInside(desiredDir, tokenDir) &&
+                                    DirectoryAccess.create(desiredDir, "").hasSamePasswordAs(tokenDir) ?
+                                    Either.<FailMessage, Path>right(desiredDir) :
+                                    Either.<FailMessage, Path>left(FailMessage.formatted(
+                                            "Token doesn't grant access to directory '%s'", desiredDir));
+                        })
+                ).getOrElse(() -> checkPassword(query.get(PASSWORD_KEY), dir,
+                        FailMessage.formatted("Could not get token (key: '%s') or password (key: '%s') and directory (key: '%s') from request URL",
+                                TOKEN_KEY, PASSWORD_KEY, DIR_KEY))));
     }
 
-    private static Try<URL> getZipFile(String password, Path dirToZip) {
+    /**
+     * Gets the directory in the query if the query contains the correct password for it. Unlike
+     * {@link #getAuthorizedDir}, this doesn't accept download tokens: We hand those out to let others download a
+     * directory, which shouldn't let them change it.
+     */
+    static Either<FailMessage, Path> getDirWithPassword(Parameters query) {
+        return query.getPath(DIR_KEY).flatMap(dir -> checkPassword(query.get(PASSWORD_KEY), dir,
+                FailMessage.formatted("Could not get password (key: '%s') and directory (key: '%s') from request URL",
+                        PASSWORD_KEY, DIR_KEY)));
+    }
 
-        var access = DirectoryAccess.create(dirToZip, password);
-        // Place the zipped files in a directory in the current working directory
-        var archiveName = format("zipFiles/%s.zip", dirToZip.getFileName());
-        return access.isDownloadAllowed() && access.passwordMatches() ?
-                FileUtil.zipAllFiles(
-                        access.getNormalizedPathFromRoot(),
-                        Path.of(archiveName),
-                        FileResponses::stripDownloadDir)
-                        // Convert the path to a URL
-                        .mapTry(zipArchive -> zipArchive.toUri().toURL()) :
-                Try.failure(new RuntimeException(format("Not zipping directory %s: Access denied", dirToZip)));
+    private static Either<FailMessage, Path> checkPassword(Option<String> password,
+                                                           Option<Path> dir,
+                                                           FailMessage ifMissing) {
+        return Tuple(password, dir)
+                // Get at the two Options if they are both present
+                .apply(API::For)
+                .yield((pass, desiredDir) -> DirectoryAccess.create(desiredDir, pass))
+                .toEither(ifMissing)
+                .flatMap(access -> access.passwordMatches() ?
+                        Either.right(access.getDesiredDir()) :
+                        Either.left(FailMessage.formatted("Wrong password for directory '%s'", access.getDesiredDir())));
+    }
+
+    private static boolean isInside(Path dir, Path parentDir) {
+        // The empty path stands for the download root directory, which contains all directories
+        return dir.startsWith(parentDir) ||
+                (parentDir.toString().isEmpty() && !dir.isAbsolute() && !dir.startsWith(".."));
     }
 
     private static String stripDownloadDir(String filePath) {
         return Strings.getStringAfter(DirectoryAccess.DOWNLOAD_ROOT_DIR.normalize().toString(), filePath);
     }
 
-    public static byte[] zipDir(Request request) {
+    public static Response zipDir(Request request, DownloadTokens downloadTokens) {
+
+        Response response;
+
+        if (request.getMethod() == GET) {
+            var query = Parameters.ofQuery(request.getResource());
+            // Get the directory to zip from the URL, together with a token or password granting access to it
+            response = getAuthorizedDir(query, downloadTokens).fold(error -> {
+                log.info("Not zipping directory: {}", error);
+                return Response.of(Responses.plainText(error.toString(), StatusCode.FORBIDDEN));
+            }, dirToZip -> {
+                // Zipping a large directory takes a while. We do it when sending the response, where only the
+                // client's transfer rate counts and not the deadline of the handler
+                return Response.deferred(() -> getZipFile(dirToZip, request.getCancellation()).fold(error -> {
+                    String msg = "Could not zip directory";
+                    if (error instanceof CancellationException) {
+                        // Nobody will get the response anyway
+                        log.info("Stopped zipping directory {} since the request was cancelled", dirToZip);
+                    } else {
+                        log.warn(msg, error);
+                    }
+                    return Response.of(Responses.plainText(msg, StatusCode.SERVER_ERROR));
+                    // Archives can be larger than the heap, so we send them from the disk. The archive's file name is
+                    // unique, the client gets the directory's name
+                }, zipFile -> Responses.temporaryFile(zipFile, dirToZip.getFileName() + ".zip", ContentType.ZIP,
+                        ATTACHMENT, request.getCancellation())));
+            });
+        } else {
+            response = Response.of(Responses.unsupportedMethod(List.of(GET)));
+        }
+        return response;
+    }
+
+    /**
+     * Sends a single file of a directory. Like when zipping a directory, the query must contain a token or the
+     * password granting access to the directory. Clients can get a part of the file with the Range header.
+     *
+     * @param request        the client's {@link Request}
+     * @param downloadTokens verifies the token in the query
+     * @param openFiles      keeps recently sent files open
+     * @param hotFiles       keeps the most popular small files in memory
+     * @return a {@link Response} with the file or why we can't send it
+     */
+    public static Response sendFile(Request request,
+                                    DownloadTokens downloadTokens,
+                                    OpenFileCache openFiles,
+                                    HotFileTier hotFiles) {
 
-        byte[] response;
+        Response response;
 
         if (request.getMethod() == GET) {
-            var queryMap = getQueryMap(request.getResource());
-            // Get password and the directory to zip from the URL
-            Try<URL> zipUrlTry = Tuple(queryMap.get(PASSWORD_KEY), queryMap.get(DIR_KEY).map(Path::of))
-                    // Get at the two Options if they are both present
-                    .apply(API::For)
-                    // TODO: Avoid creating the zip file if we already have done so and there is a file in the zipFiles directory on disk
-                    .yield(FileResponses::getZipFile)
-                    .getOrElse(Try.failure(new RuntimeException(
-                            format("Could not get password (key: '%s') and directory (key: '%s') from request URL", PASSWORD_KEY, DIR_KEY))));
-
-            response = zipUrlTry.fold(error -> {
-                String msg = "Could not zip directory";
-                log.warn(msg, error);
-                return Responses.plainText(msg, StatusCode.SERVER_ERROR);
-            }, zipUrl -> Responses.file(zipUrl, ContentType.ZIP, ATTACHMENT));
+            var query = Parameters.ofQuery(request.getResource());
+            response = getAuthorizedDir(query, downloadTokens).fold(error -> {
+                log.info("Not sending file: {}", error);
+                return Response.of(Responses.plainText(error.toString(), StatusCode.FORBIDDEN));
+            }, dir -> query.get(FILE_KEY)
+                    // We've checked the password or token already
+                    .map(fileName -> sendFile(DirectoryAccess.create(dir, ""), fileName, request, openFiles, hotFiles))
+                    .getOrElse(() -> Response.of(Responses.plainText(
+                            format("Please specify the file to download with the key '%s'", FILE_KEY),
+                            StatusCode.BAD_REQUEST))));
+        } else {
+            response = Response.of(Responses.unsupportedMethod(List.of(GET)));
+        }
+        return response;
+    }
+
+    private static Response sendFile(DirectoryAccess access,
+                                     String fileName,
+                                     Request request,
+                                     OpenFileCache openFiles,
+                                     HotFileTier hotFiles) {
+        Response response;
+        if (access.isFileDownloadAllowed(fileName)) {
+            var file = access.getNormalizedFilePathFromRoot(fileName);
+            response = openFiles.open(file).fold(error -> {
+                log.info("Could not open file {}: {}", file, error.toString());
+                return Response.of(Responses.plainText(
+                        format("File '%s' doesn't exist in directory '%s'", fileName, access.getDesiredDir()),
+                        StatusCode.NOT_FOUND));
+            }, openFile -> Responses.openFile(openFile,
+                    hotFiles.get(openFile),
+                    request.getHeaders().get(HttpHeader.RANGE),
+                    ATTACHMENT,
+                    request.getCancellation()));
         } else {
-            response = Responses.unsupportedMethod(List.of(GET));
+            log.info("Not sending file '{}' of directory {}", fileName, access.getDesiredDir());
+            response = Response.of(Responses.plainText(format("Can't download file '%s'", fileName),
+                    StatusCode.FORBIDDEN));
         }
         return response;
     }
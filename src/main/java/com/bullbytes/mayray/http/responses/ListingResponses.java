@@ -0,0 +1,219 @@
+package com.bullbytes.mayray.http.responses;
+
+import com.bullbytes.mayray.fileaccess.DirectoryAccess;
+import com.bullbytes.mayray.fileindex.DirectoryListing;
+import com.bullbytes.mayray.fileindex.FileTreeIndex;
+import com.bullbytes.mayray.fileindex.ListingCursor;
+import com.bullbytes.mayray.fileindex.ListingFilter;
+import com.bullbytes.mayray.fileindex.ListingQuery;
+import com.bullbytes.mayray.http.headers.HttpHeader;
+import com.bullbytes.mayray.http.requests.Parameters;
+import com.bullbytes.mayray.http.requests.Request;
+import com.bullbytes.mayray.utils.FailMessage;
+import com.bullbytes.mayray.utils.GlobUtil;
+import com.bullbytes.mayray.utils.JsonUtil;
+import io.vavr.collection.List;
+import io.vavr.control.Either;
+import io.vavr.control.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.regex.Pattern;
+
+import static com.bullbytes.mayray.http.requests.RequestMethod.GET;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Lists the files of a directory in a format meant for programs instead of people: JSON or a compact binary format.
+ * <p>
+ * The listings come from the {@link FileTreeIndex}, we don't touch the file system to create them. Each response
+ * has an entity tag derived from the fingerprint of the directory. Clients that poll a directory can send this tag
+ * in an If-None-Match header and get an empty response with status 304 as long as nothing in the directory changed.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public enum ListingResponses {
+    ;
+    // Expected parameter names in the URL, in addition to the ones of FileResponses
+    public static final String FORMAT_KEY = "format";
+    public static final String PREFIX_KEY = "prefix";
+    public static final String GLOB_KEY = "glob";
+    public static final String DEPTH_KEY = "depth";
+
+    // Increase this when changing the binary format
+    private static final int BINARY_FORMAT_VERSION = 1;
+
+    private static final Logger log = LoggerFactory.getLogger(ListingResponses.class);
+
+    /**
+     * The formats in which we can send a listing.
+     */
+    private enum ListingFormat {
+        JSON, BINARY
+    }
+
+    /**
+     * Lists the files of the directory given in the request's query.
+     * <p>
+     * In addition to the directory and its password, the query can contain the parameters of
+     * {@link FileResponses#listFiles} for sorting and paging, and:
+     * <ul>
+     *     <li>{@value #FORMAT_KEY}: "json" (the default) or "binary"</li>
+     *     <li>{@value #PREFIX_KEY}: only list files whose path inside the directory starts with this</li>
+     *     <li>{@value #GLOB_KEY}: only list files whose path inside the directory matches this glob, see
+     *     {@link GlobUtil#toPattern(String)}</li>
+     *     <li>{@value #DEPTH_KEY}: only list files at most this many levels below the directory. 1 means only the
+     *     files directly inside the directory</li>
+     * </ul>
+     *
+     * @param request   the client's {@link Request}
+     * @param fileIndex contains the files of the directory
+     * @return a {@link Response} with the listing or an error message
+     */
+    public static Response listFiles(Request request, FileTreeIndex fileIndex) {
+        if (request.getMethod() != GET) {
+            return Response.of(Responses.unsupportedMethod(List.of(GET)));
+        }
+        var parameters = Parameters.ofQuery(request.getResource());
+
+        var dirAccessEither = parameters.getPath(FileResponses.DIR_KEY).flatMap(dir -> dir
+                .flatMap(desiredDir -> parameters.get(FileResponses.PASSWORD_KEY)
+                        .map(password -> DirectoryAccess.create(desiredDir, password)))
+                .toEither(() -> FailMessage.formatted("Query must contain directory (key: '%s') and password (key: '%s')",
+                        FileResponses.DIR_KEY, FileResponses.PASSWORD_KEY)));
+
+        return dirAccessEither.flatMap(dirAccess -> FileResponses.getListingQuery(parameters)
+                .flatMap(query -> getFilter(parameters)
+                        .flatMap(filter -> parameters.getEnum(FORMAT_KEY, ListingFormat.class)
+                                .map(format -> format.getOrElse(ListingFormat.JSON))
+                                .map(format -> respond(request, dirAccess, fileIndex, query, filter, format)))))
+                .getOrElseGet(error -> {
+                    log.info("Invalid listing request: {}", error);
+                    return Response.of(Responses.plainText(error.toString(), StatusCode.BAD_REQUEST));
+                });
+    }
+
+    private static Response respond(Request request,
+                                    DirectoryAccess dirAccess,
+                                    FileTreeIndex fileIndex,
+                                    ListingQuery query,
+                                    ListingFilter filter,
+                                    ListingFormat format) {
+
+        if (!dirAccess.isDownloadAllowed() || !dirAccess.passwordMatches()) {
+            return Response.of(Responses.plainText(
+                    format("Can't list directory '%s': It doesn't exist or the password is incorrect",
+                            dirAccess.getDesiredDir()), StatusCode.FORBIDDEN));
+        }
+        // Use the same snapshot for the entity tag and the listing, so they match even if the files change meanwhile
+        var snapshot = fileIndex.getSnapshot();
+        var relativeDir = fileIndex.relativePathOf(dirAccess.getNormalizedPathFromRoot());
+
+        // The fingerprint changes whenever a file in the directory changes. The resource distinguishes different
+        // pages, filters, and formats of the same directory
+        var entityTag = format("\"%016x\"", 31 * snapshot.fingerprintOf(relativeDir) + request.getResource().hashCode());
+
+        boolean clientHasCurrentListing = request.getHeaders().get(HttpHeader.IF_NONE_MATCH)
+                .map(entityTag::equals)
+                .getOrElse(false);
+        if (clientHasCurrentListing) {
+            return Response.of(Responses.notModified(entityTag));
+        }
+
+        var listing = DirectoryListing.page(snapshot, relativeDir, query, filter);
+        return format == ListingFormat.JSON ?
+                Responses.streamed(ContentType.JSON, entityTag, out -> writeJson(listing, out)) :
+                Responses.streamed(ContentType.OCTET_STREAM, entityTag, out -> writeBinary(listing, out));
+    }
+
+    /**
+     * Writes the listing as a JSON object such as
+     * <pre>
+     * {"files":[{"path":"photos/beach.jpg","size":2048,"modified":1577836800000,"tag":"16f5e66e800-800"}],
+     * "next":"bmFtZTow..."}
+     * </pre>
+     * Paths are relative to the download directory. The modification time is in milliseconds since the epoch.
+     * "next" is the cursor of the next page or null if this is the last page.
+     */
+    private static void writeJson(DirectoryListing listing, OutputStream out) throws IOException {
+        var writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+        writer.write("{\"files\":[");
+        for (int i = 0; i < listing.size(); i++) {
+            var file = listing.get(i);
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write("{\"path\":");
+            JsonUtil.appendString(file.getRelativePath(), writer);
+            writer.write(",\"size\":");
+            writer.write(Long.toString(file.getSize()));
+            writer.write(",\"modified\":");
+            writer.write(Long.toString(file.getLastModified()));
+            writer.write(",\"tag\":");
+            JsonUtil.appendString(file.getContentTag(), writer);
+            writer.write('}');
+        }
+        writer.write("],\"next\":");
+        var nextCursor = listing.getNextCursor();
+        if (nextCursor.isDefined()) {
+            JsonUtil.appendString(nextCursor.get().encode(), writer);
+        } else {
+            writer.write("null");
+        }
+        writer.write('}');
+        // Don't close the writer since that would close the client's output stream
+        writer.flush();
+    }
+
+    /**
+     * Writes the listing in a binary format. All numbers are big-endian, strings are UTF-8 and prefixed with their
+     * length in bytes as a four-byte integer:
+     * <pre>
+     * int    format version (1)
+     * int    number of files
+     * for each file:
+     *   string path
+     *   long   size in bytes
+     *   long   modification time in milliseconds since the epoch
+     *   string content tag
+     * string cursor of the next page, empty if this is the last page
+     * </pre>
+     */
+    private static void writeBinary(DirectoryListing listing, OutputStream out) throws IOException {
+        var data = new DataOutputStream(out);
+        data.writeInt(BINARY_FORMAT_VERSION);
+        data.writeInt(listing.size());
+        for (int i = 0; i < listing.size(); i++) {
+            var file = listing.get(i);
+            writeString(file.getRelativePath(), data);
+            data.writeLong(file.getSize());
+            data.writeLong(file.getLastModified());
+            writeString(file.getContentTag(), data);
+        }
+        writeString(listing.getNextCursor().map(ListingCursor::encode).getOrElse(""), data);
+        data.flush();
+    }
+
+    private static void writeString(String str, DataOutputStream data) throws IOException {
+        byte[] bytes = str.getBytes(UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static Either<FailMessage, ListingFilter> getFilter(Parameters parameters) {
+        String prefix = parameters.get(PREFIX_KEY).getOrElse("");
+
+        Either<FailMessage, Option<Pattern>> globEither = parameters.get(GLOB_KEY)
+                .map(glob -> GlobUtil.toPattern(glob).map(Option::of))
+                .getOrElse(Either.right(Option.none()));
+
+        return globEither.flatMap(glob -> parameters.getInt(DEPTH_KEY)
+                .map(depth -> ListingFilter.create(prefix, glob, depth)));
+    }
+}
@@ -25,74 +25,104 @@ public enum PersonResponses {
     private static final String IMG = "/img.jpg";
     private static final String INFO_ABOUT_PERSON_RESOURCES = "You can request the 'name', an 'img.jpg', a 'quote', or the 'role' of this person.";
 
-    public static byte[] graceHopper(Request req) {
-        var name = "Grace Hopper";
-        var imgUrl = "http://ww2.kqed.org/mindshift/wp-content/uploads/sites/23/2014/10/grace-hopper_custom-7e094af0ae451cd447568fd03d9c89ba6bf8b352.jpg";
-        var quote = "\"A ship in port is safe, but that's not what ships are built for.\"";
-        var role = "Computer engineering pioneer";
-
-        return getPersonResponse(name, imgUrl, quote, role, req);
+    private static final StaticResponse INFO_RESPONSE = StaticResponse.plainText(INFO_ABOUT_PERSON_RESOURCES);
+
+    private static final Person GRACE_HOPPER = Person.create("Grace Hopper",
+            "http://ww2.kqed.org/mindshift/wp-content/uploads/sites/23/2014/10/grace-hopper_custom-7e094af0ae451cd447568fd03d9c89ba6bf8b352.jpg",
+            "\"A ship in port is safe, but that's not what ships are built for.\"",
+            "Computer engineering pioneer");
+
+    private static final Person LINUS = Person.create("Linus Torvalds",
+            "http://cdn.facesofopensource.com/wp-content/uploads/2017/03/16181944/linustorvalds.faces22106.web_.jpg",
+            "\"Intelligence is the ability to avoid doing work, yet getting the work done.\"",
+            "Inventor of Linux");
+
+    private static final Person ADA = Person.create("Ada Lovelace",
+            "https://upload.wikimedia.org/wikipedia/commons/a/a4/Ada_Lovelace_portrait.jpg",
+            "\"The Analytical Engine has no pretensions whatever to originate anything. " +
+                    "It can do whatever we know how to order it to perform.\"",
+            "First programmer");
+
+    private static final Person SIMON_PEYTON_JONES = Person.create("Simon Peyton Jones",
+            "https://www.microsoft.com/en-us/research/wp-content/uploads/2016/08/TEDx-Mar14-1.jpg",
+            "\"When the limestone of imperative programming is worn away, the granite of functional programming will be observed.\"",
+            "Inventor of the Haskell programming language");
+
+    public static Response graceHopper(Request req) {
+        return GRACE_HOPPER.respond(req);
     }
 
-    public static byte[] linus(Request req) {
-        var name = "Linus Torvalds";
-        var imgUrl = "http://cdn.facesofopensource.com/wp-content/uploads/2017/03/16181944/linustorvalds.faces22106.web_.jpg";
-        var quote = "\"Intelligence is the ability to avoid doing work, yet getting the work done.\"";
-        var role = "Inventor of Linux";
-
-        return getPersonResponse(name, imgUrl, quote, role, req);
+    public static Response linus(Request req) {
+        return LINUS.respond(req);
     }
 
-    public static byte[] ada(Request req) {
-        var name = "Ada Lovelace";
-        var imgUrl = "https://upload.wikimedia.org/wikipedia/commons/a/a4/Ada_Lovelace_portrait.jpg";
-        var quote = "\"The Analytical Engine has no pretensions whatever to originate anything. " +
-                "It can do whatever we know how to order it to perform.\"";
-        var role = "First programmer";
-
-        return getPersonResponse(name, imgUrl, quote, role, req);
+    public static Response ada(Request req) {
+        return ADA.respond(req);
     }
 
-    public static byte[] simonPeytonJones(Request req) {
-        var name = "Simon Peyton Jones";
-        var imgUrl = "https://www.microsoft.com/en-us/research/wp-content/uploads/2016/08/TEDx-Mar14-1.jpg";
-        var quote = "\"When the limestone of imperative programming is worn away, the granite of functional programming will be observed.\"";
-        var role = "Inventor of the Haskell programming language";
-
-        return getPersonResponse(name, imgUrl, quote, role, req);
+    public static Response simonPeytonJones(Request req) {
+        return SIMON_PEYTON_JONES.respond(req);
     }
 
+    /**
+     * Gets the part of the requested resource after the person, like "/quote" for "/ada/quote". Resources with more
+     * parts, like "/ada/other/quote", stay unknown.
+     */
     private static String getRequestedResource(Request req) {
         String resource = req.getResource();
-        int lastIndexOfSlash = resource.lastIndexOf('/');
-        return lastIndexOfSlash == -1 ?
+        int secondSlash = resource.indexOf('/', 1);
+        return secondSlash == -1 ?
                 resource :
-                resource.substring(lastIndexOfSlash);
-    }
-
-    private static byte[] getPersonResource(Request req, String name, URL imgUrl, String quote, String role) {
-        String resource = getRequestedResource(req);
-        return switch (resource) {
-            case "/" -> Responses.plainText(INFO_ABOUT_PERSON_RESOURCES);
-            case IMG -> Responses.file(imgUrl, ContentType.JPEG, INLINE);
-            case QUOTE -> Responses.plainText(quote);
-            case NAME -> Responses.plainText(name);
-            case ROLE -> Responses.plainText(role);
-            default -> Responses.plainText(unknownResource(resource), NOT_FOUND);
-        };
+                resource.substring(secondSlash);
     }
 
     private static String unknownResource(String resource) {
         return format("Sorry, never heard of this %s thing before", resource);
     }
 
-    private static byte[] getPersonResponse(String name, String imgUrl, String quote, String role, Request req) {
-        return Try.of(() -> new URL(imgUrl))
-                .fold(
-                        error -> {
-                            log.warn("Invalid URL for person image: '{}'", imgUrl, error);
-                            return Responses.plainText("Could not get image of person", StatusCode.SERVER_ERROR);
-                        },
-                        url -> getPersonResource(req, name, url, quote, role));
+    /**
+     * A famous person. Except for the image, the responses about the person are the same for every request, so we
+     * create them once.
+     */
+    private static final class Person {
+        private final Try<URL> imgUrl;
+        private final StaticResponse quote;
+        private final StaticResponse name;
+        private final StaticResponse role;
+
+        private Person(Try<URL> imgUrl, StaticResponse quote, StaticResponse name, StaticResponse role) {
+            this.imgUrl = imgUrl;
+            this.quote = quote;
+            this.name = name;
+            this.role = role;
+        }
+
+        static Person create(String name, String imgUrl, String quote, String role) {
+            return new Person(Try.of(() -> new URL(imgUrl)),
+                    StaticResponse.plainText(quote),
+                    StaticResponse.plainText(name),
+                    StaticResponse.plainText(role));
+        }
+
+        Response respond(Request req) {
+            String resource = getRequestedResource(req);
+            return switch (resource) {
+                case "/" -> INFO_RESPONSE.respond(req);
+                case IMG -> Response.of(getImage());
+                case QUOTE -> quote.respond(req);
+                case NAME -> name.respond(req);
+                case ROLE -> role.respond(req);
+                default -> Response.of(Responses.plainText(unknownResource(resource), NOT_FOUND));
+            };
+        }
+
+        private byte[] getImage() {
+            return imgUrl.fold(
+                    error -> {
+                        log.warn("Invalid URL for person image", error);
+                        return Responses.plainText("Could not get image of person", StatusCode.SERVER_ERROR);
+                    },
+                    url -> Responses.file(url, ContentType.JPEG, INLINE));
+        }
     }
 }
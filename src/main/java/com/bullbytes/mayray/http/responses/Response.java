@@ -0,0 +1,193 @@
+package com.bullbytes.mayray.http.responses;
+
+import io.vavr.control.Option;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * The status line, the headers, and the body the server sends to the client.
+ * <p>
+ * A {@link Response} either consists of bytes that are completely in memory or it writes its body to the client
+ * while creating it. The latter lets us send large bodies, such as listings of huge directories, without keeping
+ * all of it in memory.
+ * <p>
+ * Streamed responses can hold resources, such as an open file. Sending the response releases them. If we don't send
+ * the response, we have to {@link #release()} it.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class Response {
+    private final byte[] head;
+    private final BodyWriter bodyWriter;
+    // The number of bytes of the whole response, if known in advance
+    private final Option<Long> length;
+    private final boolean isBuffered;
+    // Whether the response is only created while we send it
+    private final boolean isDeferred;
+    // Releases what the response holds, runs at most once
+    private final Runnable whenDone;
+    private final AtomicBoolean isReleased = new AtomicBoolean(false);
+
+    private Response(byte[] head, BodyWriter bodyWriter, Option<Long> length, boolean isBuffered) {
+        this(head, bodyWriter, length, isBuffered, false, () -> {});
+    }
+
+    private Response(byte[] head, BodyWriter bodyWriter, Option<Long> length, boolean isBuffered,
+                     Runnable whenDone) {
+        this(head, bodyWriter, length, isBuffered, false, whenDone);
+    }
+
+    private Response(byte[] head, BodyWriter bodyWriter, Option<Long> length, boolean isBuffered,
+                     boolean isDeferred, Runnable whenDone) {
+        this.head = head;
+        this.bodyWriter = bodyWriter;
+        this.length = length;
+        this.isBuffered = isBuffered;
+        this.isDeferred = isDeferred;
+        this.whenDone = whenDone;
+    }
+
+    /**
+     * Writes the body of a {@link Response} to the client.
+     */
+    @FunctionalInterface
+    public interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Creates a {@link Response} from bytes that already contain the status line, the headers, and the body.
+     *
+     * @param bytes the complete response
+     * @return a {@link Response} that sends the {@code bytes}
+     */
+    public static Response of(byte[] bytes) {
+        return new Response(bytes, out -> {}, Option.of((long) bytes.length), true);
+    }
+
+    /**
+     * Creates a {@link Response} whose body is created while we send it to the client.
+     *
+     * @param head       the status line and the headers, including the empty line that ends the headers
+     * @param bodyWriter writes the body of the response
+     * @return a {@link Response} that first sends the {@code head} and then the body produced by the
+     * {@code bodyWriter}
+     */
+    public static Response streamed(byte[] head, BodyWriter bodyWriter) {
+        return new Response(head, bodyWriter, Option.none(), false);
+    }
+
+    /**
+     * Creates a {@link Response} whose body is read from somewhere else, such as a file, while we send it to the
+     * client.
+     *
+     * @param head       the status line and the headers, including the empty line that ends the headers
+     * @param bodyLength the number of bytes the {@code bodyWriter} writes
+     * @param bodyWriter writes the body of the response
+     * @return a {@link Response} that first sends the {@code head} and then the body produced by the
+     * {@code bodyWriter}
+     */
+    public static Response streamed(byte[] head, long bodyLength, BodyWriter bodyWriter) {
+        return new Response(head, bodyWriter, Option.of(head.length + bodyLength), false);
+    }
+
+    /**
+     * Like {@link #streamed(byte[], long, BodyWriter)}, for bodies read from a resource that we have to release
+     * afterwards, such as an open file.
+     *
+     * @param head       the status line and the headers, including the empty line that ends the headers
+     * @param bodyLength the number of bytes the {@code bodyWriter} writes
+     * @param bodyWriter writes the body of the response
+     * @param whenDone   releases the resource. Runs once, after sending the response or when it's
+     *                   {@link #release() released} without sending it
+     * @return a {@link Response} that first sends the {@code head} and then the body produced by the
+     * {@code bodyWriter}
+     */
+    public static Response streamed(byte[] head, long bodyLength, BodyWriter bodyWriter, Runnable whenDone) {
+        return new Response(head, bodyWriter, Option.of(head.length + bodyLength), false, whenDone);
+    }
+
+    /**
+     * Creates a {@link Response} that we only create when we send it. This is for responses that take long to
+     * create, like zip archives of large directories: The deadline of the route's handler doesn't apply to them.
+     *
+     * @param createResponse creates the {@link Response} we send
+     * @return a {@link Response} that sends the {@link Response} of {@code createResponse}
+     */
+    public static Response deferred(Supplier<Response> createResponse) {
+        return new Response(new byte[0], out -> createResponse.get().writeTo(out), Option.none(), false, true,
+                () -> {});
+    }
+
+    /**
+     * Creates a {@link Response} from parts that stay in memory for as long as the server runs, such as responses
+     * that are the same for every request. Since they're not created for this response, they don't count as
+     * buffered.
+     *
+     * @param parts the bytes of the response, sent one after the other
+     * @return a {@link Response} that sends the {@code parts}
+     */
+    public static Response prebuilt(byte[]... parts) {
+        long length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        return new Response(parts[0], out -> {
+            for (int i = 1; i < parts.length; i++) {
+                out.write(parts[i]);
+            }
+        }, Option.of(length), false);
+    }
+
+    /**
+     * Writes this {@link Response} to the client.
+     *
+     * @param out the client's {@link OutputStream}
+     * @throws IOException if we can't write to the client, for example because it has closed the connection
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        try {
+            out.write(head);
+            bodyWriter.writeTo(out);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Releases the resources the response holds without sending it. Sending the response releases them as well.
+     * Calling this more than once has no further effect.
+     */
+    public void release() {
+        if (isReleased.compareAndSet(false, true)) {
+            whenDone.run();
+        }
+    }
+
+    /**
+     * @return whether all bytes of the response are in memory, as opposed to being created or read while we send
+     * them
+     */
+    public boolean isBuffered() {
+        return isBuffered;
+    }
+
+    /**
+     * @return whether the response is only created while we send it, which means most of the work for it happens
+     * while we write it to the client
+     */
+    public boolean isDeferred() {
+        return isDeferred;
+    }
+
+    /**
+     * @return the number of bytes of the whole response or {@link Option#none()} if the body is created while it's
+     * sent
+     */
+    public Option<Long> getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,486 @@
+package com.bullbytes.mayray.http.responses;
+
+import com.bullbytes.mayray.metrics.Counter;
+import com.bullbytes.mayray.metrics.Metrics;
+import com.bullbytes.mayray.utils.BlobStore;
+import io.vavr.control.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Keeps the responses of routes in memory for a while, so that requesting the same resource again doesn't have to
+ * create the response again.
+ * <p>
+ * We cache only successful responses whose bytes are in memory already, as {@link Response#isBuffered()} tells.
+ * Streamed responses, like listings of large directories, we pass on without copying them. We evict the least recently used ones once the cached responses take up more
+ * than a maximum number of bytes. If several requests miss the cache for the same key at once, only the first one
+ * creates the response, the others wait for it.
+ * <p>
+ * Cached responses get a fresh Date header each time we send them. If the cache has a {@link BlobStore}, large
+ * responses are kept there, outside the heap.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class ResponseCache {
+    private static final Logger log = LoggerFactory.getLogger(ResponseCache.class);
+
+    private static final byte[] SUCCESS_STATUS_LINE = ResponseWriter.getStatusLine(StatusCode.SUCCESS);
+    private static final byte[] DATE_PREFIX = "Date:".getBytes(US_ASCII);
+
+    private final long maxBytes;
+    private final int maxEntryBytes;
+    // Large responses are kept here instead of on the heap, if there's a blob store
+    private final Option<BlobStore> blobStore;
+    private final ReentrantLock lock = new ReentrantLock();
+    // The least recently used entry comes first. Guarded by the lock
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Guarded by the lock
+    private long usedBytes = 0;
+    // The responses being created right now. Requests for the same key wait for them
+    private final ConcurrentHashMap<String, CompletableFuture<Option<Entry>>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter collapsed;
+    private final Counter evictions;
+    private final Counter tooLarge;
+
+    private ResponseCache(String name, long maxBytes, int maxEntryBytes, Option<BlobStore> blobStore) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.blobStore = blobStore;
+        hits = Metrics.counter("cache." + name + ".hits");
+        misses = Metrics.counter("cache." + name + ".misses");
+        collapsed = Metrics.counter("cache." + name + ".collapsed");
+        evictions = Metrics.counter("cache." + name + ".evictions");
+        tooLarge = Metrics.counter("cache." + name + ".too_large");
+    }
+
+    /**
+     * Creates a {@link ResponseCache} and registers its metrics.
+     *
+     * @param name          the name of the cache in the metrics, such as "listing"
+     * @param maxBytes      the cached responses take up at most this many bytes together
+     * @param maxEntryBytes we don't cache responses larger than this
+     * @return a new and empty {@link ResponseCache}
+     */
+    public static ResponseCache create(String name, long maxBytes, int maxEntryBytes) {
+        return create(name, maxBytes, maxEntryBytes, Option.none());
+    }
+
+    /**
+     * Creates a {@link ResponseCache} that keeps large responses outside the heap.
+     *
+     * @param name          the name of the cache in the metrics, such as "images"
+     * @param maxBytes      the cached responses take up at most this many bytes of the heap together. Responses in
+     *                      the {@code blobStore} count only with their status line
+     * @param maxEntryBytes we don't cache responses larger than this
+     * @param blobStore     responses larger than a few kibibytes go into this {@link BlobStore}, which evicts them
+     *                      when it's full
+     * @return a new and empty {@link ResponseCache}
+     */
+    public static ResponseCache create(String name, long maxBytes, int maxEntryBytes, BlobStore blobStore) {
+        return create(name, maxBytes, maxEntryBytes, Option.of(blobStore));
+    }
+
+    private static ResponseCache create(String name, long maxBytes, int maxEntryBytes, Option<BlobStore> blobStore) {
+        var cache = new ResponseCache(name, maxBytes, maxEntryBytes, blobStore);
+        Metrics.gauge("cache." + name + ".bytes", cache::getUsedBytes);
+        Metrics.gauge("cache." + name + ".entries", cache::getEntryCount);
+        return cache;
+    }
+
+    /**
+     * Gets the cached response for the {@code key} or creates it and caches it if it's successful.
+     *
+     * @param key            identifies the response, for example by the requested resource
+     * @param timeToLive     how long we send the cached response before creating a new one
+     * @param createResponse creates the response if it's not in the cache
+     * @return the cached or the new {@link Response}
+     */
+    public Response get(String key, Duration timeToLive, Supplier<Response> createResponse) {
+        var cached = lookUp(key);
+        if (cached.isDefined()) {
+            var entry = cached.get();
+            if (entry.isTooLarge()) {
+                return createResponse.get();
+            }
+            var response = entry.toResponse();
+            if (response.isDefined()) {
+                hits.increment();
+                return response.get();
+            }
+            // The blob store evicted the entry's bytes
+            remove(key, entry);
+        }
+        misses.increment();
+
+        var future = new CompletableFuture<Option<Entry>>();
+        var otherFuture = inFlight.putIfAbsent(key, future);
+        if (otherFuture != null) {
+            // Another request is creating the response already
+            collapsed.increment();
+            return otherFuture.join()
+                    .filter(entry -> !entry.isTooLarge())
+                    .flatMap(Entry::toResponse)
+                    .getOrElse(createResponse);
+        }
+        Option<Entry> entry = Option.none();
+        try {
+            var response = createResponse.get();
+            var responseAndEntry = store(key, response, timeToLive);
+            entry = responseAndEntry.entry;
+            return responseAndEntry.response;
+        } finally {
+            inFlight.remove(key, future);
+            // If creating the response failed, the waiting requests try it themselves
+            future.complete(entry);
+        }
+    }
+
+    private Option<Entry> lookUp(String key) {
+        lock.lock();
+        try {
+            var entry = entries.get(key);
+            if (entry == null) {
+                return Option.none();
+            }
+            if (entry.isExpired(System.nanoTime())) {
+                removeLocked(key, entry);
+                return Option.none();
+            }
+            return Option.of(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ResponseAndEntry store(String key, Response response, Duration timeToLive) {
+        if (!response.isBuffered()) {
+            // Copying a streamed response would hold back its first bytes until we have them all
+            return new ResponseAndEntry(response, Option.none());
+        }
+        long expiresAt = System.nanoTime() + timeToLive.toNanos();
+        if (response.getLength().exists(length -> length > maxEntryBytes)) {
+            tooLarge.increment();
+            return new ResponseAndEntry(response, Option.of(put(key, Entry.tooLarge(expiresAt))));
+        }
+        var capture = new Capture(maxEntryBytes, blobStore);
+        try {
+            response.writeTo(capture);
+        } catch (LimitExceededException | BlobStore.StoreFullException e) {
+            capture.abort();
+            // The response's bytes are still in memory, we send them as they are
+            tooLarge.increment();
+            log.info("Response for '{}' is too large to cache", key);
+            return new ResponseAndEntry(response, Option.of(put(key, Entry.tooLarge(expiresAt))));
+        } catch (IOException e) {
+            capture.abort();
+            throw new UncheckedIOException("Could not create response for " + key, e);
+        } catch (RuntimeException e) {
+            capture.abort();
+            throw e;
+        }
+        var entry = capture.toEntry(expiresAt);
+        if (!entry.isSuccess()) {
+            // We only cache successful responses
+            entry.discard();
+            return new ResponseAndEntry(response, Option.none());
+        }
+        put(key, entry);
+        return new ResponseAndEntry(entry.toResponse().getOrElse(response), Option.of(entry));
+    }
+
+    private Entry put(String key, Entry entry) {
+        lock.lock();
+        try {
+            var previous = entries.put(key, entry);
+            if (previous != null) {
+                usedBytes -= previous.size();
+                previous.discard();
+            }
+            usedBytes += entry.size();
+            var leastRecentlyUsed = entries.entrySet().iterator();
+            while (usedBytes > maxBytes && leastRecentlyUsed.hasNext()) {
+                var evicted = leastRecentlyUsed.next().getValue();
+                leastRecentlyUsed.remove();
+                usedBytes -= evicted.size();
+                evicted.discard();
+                evictions.increment();
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        lock.lock();
+        try {
+            removeLocked(key, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Call this only while holding the lock
+    private void removeLocked(String key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            usedBytes -= entry.size();
+            entry.discard();
+        }
+    }
+
+    private long getUsedBytes() {
+        lock.lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long getEntryCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix, int offset) {
+        return bytes.length - offset >= prefix.length &&
+                Arrays.equals(bytes, offset, offset + prefix.length, prefix, 0, prefix.length);
+    }
+
+    private static int indexOfLineEnd(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length - 1; i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A cached response without its Date header or a marker that the response is too large to cache. The response's
+     * bytes are either on the heap or in a {@link BlobStore}.
+     */
+    private static final class Entry {
+        private final byte[] statusLine;
+        // The headers after the Date header and the body, if they're on the heap
+        private final byte[] rest;
+        // The whole response, if it's in the blob store
+        private final Option<BlobStore.Blob> blob;
+        // Where the Date header in the blob starts and ends
+        private final long dateLineStart;
+        private final long dateLineEnd;
+        private final long expiresAt;
+
+        private Entry(byte[] statusLine, byte[] rest, Option<BlobStore.Blob> blob,
+                      long dateLineStart, long dateLineEnd, long expiresAt) {
+            this.statusLine = statusLine;
+            this.rest = rest;
+            this.blob = blob;
+            this.dateLineStart = dateLineStart;
+            this.dateLineEnd = dateLineEnd;
+            this.expiresAt = expiresAt;
+        }
+
+        static Entry onHeap(byte[] response, long expiresAt) {
+            int statusLineEnd = getStatusLineEnd(response);
+            int dateLineEnd = getDateLineEnd(response, statusLineEnd);
+            if (dateLineEnd == -1) {
+                return new Entry(new byte[0], response, Option.none(), 0, 0, expiresAt);
+            }
+            return new Entry(Arrays.copyOf(response, statusLineEnd),
+                    Arrays.copyOfRange(response, dateLineEnd, response.length), Option.none(), 0, 0, expiresAt);
+        }
+
+        static Entry inBlob(BlobStore.Blob blob, byte[] head, long expiresAt) {
+            int statusLineEnd = getStatusLineEnd(head);
+            int dateLineEnd = getDateLineEnd(head, statusLineEnd);
+            return dateLineEnd == -1 ?
+                    new Entry(new byte[0], new byte[0], Option.of(blob), 0, 0, expiresAt) :
+                    new Entry(Arrays.copyOf(head, statusLineEnd), new byte[0], Option.of(blob),
+                            statusLineEnd, dateLineEnd, expiresAt);
+        }
+
+        static Entry tooLarge(long expiresAt) {
+            return new Entry(new byte[0], new byte[0], Option.none(), 0, 0, expiresAt);
+        }
+
+        // The index after the status line's line break
+        private static int getStatusLineEnd(byte[] response) {
+            return indexOfLineEnd(response, 0) + 2;
+        }
+
+        // The index after the Date header's line break or -1 if there's no Date header after the status line
+        private static int getDateLineEnd(byte[] response, int statusLineEnd) {
+            // The ResponseWriter puts the Date header right after the status line
+            int dateLineEnd = indexOfLineEnd(response, statusLineEnd);
+            return statusLineEnd > 1 && dateLineEnd != -1 && startsWith(response, DATE_PREFIX, statusLineEnd) ?
+                    dateLineEnd + 2 :
+                    -1;
+        }
+
+        boolean isTooLarge() {
+            return rest.length == 0 && blob.isEmpty();
+        }
+
+        boolean isSuccess() {
+            return blob.isDefined() ?
+                    Arrays.equals(statusLine, SUCCESS_STATUS_LINE) :
+                    startsWith(statusLine.length == 0 ? rest : statusLine, SUCCESS_STATUS_LINE, 0);
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+
+        /**
+         * @return how many bytes of the heap the entry takes up
+         */
+        long size() {
+            return statusLine.length + rest.length;
+        }
+
+        void discard() {
+            blob.forEach(BlobStore.Blob::discard);
+        }
+
+        /**
+         * @return the {@link Response} with the cached bytes or {@link Option#none()} if the blob store evicted them
+         */
+        Option<Response> toResponse() {
+            if (blob.isEmpty()) {
+                return Option.of(statusLine.length == 0 ?
+                        Response.prebuilt(rest) :
+                        Response.prebuilt(statusLine, ResponseWriter.getDateLine(), rest));
+            }
+            var cachedBlob = blob.get();
+            if (!cachedBlob.retain()) {
+                return Option.none();
+            }
+            return Option.of(fromBlob(cachedBlob, cachedBlob::release));
+        }
+
+        private Response fromBlob(BlobStore.Blob blob, Runnable whenSent) {
+            long length = blob.length();
+            if (statusLine.length == 0) {
+                return Response.streamed(new byte[0], length, out -> {
+                    try {
+                        blob.writeTo(out, 0, length);
+                    } finally {
+                        whenSent.run();
+                    }
+                });
+            }
+            byte[] dateLine = ResponseWriter.getDateLine();
+            return Response.streamed(statusLine, dateLine.length + length - dateLineEnd, out -> {
+                try {
+                    out.write(dateLine);
+                    blob.writeTo(out, dateLineEnd, length);
+                } finally {
+                    whenSent.run();
+                }
+            });
+        }
+    }
+
+    private static final class ResponseAndEntry {
+        private final Response response;
+        private final Option<Entry> entry;
+
+        private ResponseAndEntry(Response response, Option<Entry> entry) {
+            this.response = response;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Collects the bytes of a response, up to a limit. Small responses stay on the heap. If there's a
+     * {@link BlobStore}, larger responses move there.
+     */
+    private static final class Capture extends OutputStream {
+        // Responses up to this size stay on the heap even if there's a blob store
+        private static final int MAX_HEAP_BYTES = 16 * 1024;
+        // We look for the status line and the Date header in this many bytes at the start of the response
+        private static final int HEAD_BYTES = 512;
+
+        private final int limit;
+        private final Option<BlobStore> blobStore;
+        private final ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        private Option<BlobStore.BlobOutputStream> blob = Option.none();
+        private final byte[] head = new byte[HEAD_BYTES];
+        private int headLength = 0;
+
+        private Capture(int limit, Option<BlobStore> blobStore) {
+            this.limit = limit;
+            this.blobStore = blobStore;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            int headBytes = Math.min(length, HEAD_BYTES - headLength);
+            System.arraycopy(bytes, offset, head, headLength, headBytes);
+            headLength += headBytes;
+            if (blob.isDefined()) {
+                blob.get().write(bytes, offset, length);
+                return;
+            }
+            int newSize = heap.size() + length;
+            if (newSize > limit) {
+                throw new LimitExceededException();
+            }
+            if (newSize > MAX_HEAP_BYTES && blobStore.isDefined()) {
+                // The response is large, move it out of the heap
+                var blobStream = blobStore.get().newBlob(limit);
+                blob = Option.of(blobStream);
+                heap.writeTo(blobStream);
+                heap.reset();
+                blobStream.write(bytes, offset, length);
+                return;
+            }
+            heap.write(bytes, offset, length);
+        }
+
+        void abort() {
+            blob.forEach(BlobStore.BlobOutputStream::abort);
+        }
+
+        Entry toEntry(long expiresAt) {
+            return blob.isDefined() ?
+                    Entry.inBlob(blob.get().finish(), Arrays.copyOf(head, headLength), expiresAt) :
+                    Entry.onHeap(heap.toByteArray(), expiresAt);
+        }
+    }
+
+    private static final class LimitExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private LimitExceededException() {
+            super("Response is too large to cache", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.bullbytes.mayray.http.responses;
+
+import com.bullbytes.mayray.http.headers.HttpHeader;
+import com.bullbytes.mayray.utils.BufferPool;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes the status line, the headers, and the body of a response into a byte array without building strings first.
+ * <p>
+ * The bytes of status lines, header names, and content types are created once when this class is loaded. We write
+ * the response into a buffer from the {@link BufferPool} and encode a body to UTF-8 exactly once. The only allocation
+ * for a small response is the array we return.
+ * <p>
+ * Each response gets a Date header. Since it has a resolution of one second, we create it at most once per second.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class ResponseWriter {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] HEADER_SEPARATOR = {':', ' '};
+    private static final int MAX_DECIMAL_LENGTH = 20;
+    // A UTF-8 encoded char takes at most three bytes. Surrogate pairs take four bytes for two chars
+    private static final int MAX_BYTES_PER_CHAR = 3;
+
+    private static final byte[][] STATUS_LINES = createStatusLines();
+    private static final byte[][] HEADER_NAMES = createHeaderNames();
+    private static final byte[][] CONTENT_TYPE_LINES = createContentTypeLines();
+
+    // The format of dates in HTTP, for example "Sun, 06 Nov 1994 08:49:37 GMT"
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH)
+            .withZone(ZoneOffset.UTC);
+    private static volatile CachedDate cachedDate = CachedDate.at(currentEpochSecond());
+
+    private BufferPool.PooledBuffer pooledBuffer;
+    private byte[] buffer;
+    private int position = 0;
+
+    private ResponseWriter(BufferPool.PooledBuffer pooledBuffer) {
+        this.pooledBuffer = pooledBuffer;
+        this.buffer = pooledBuffer.array();
+    }
+
+    /**
+     * Starts a response by writing its status line and its Date header.
+     *
+     * @param code the {@link StatusCode} of the response
+     * @return a {@link ResponseWriter} to add headers and the body to
+     */
+    static ResponseWriter start(StatusCode code) {
+        var writer = new ResponseWriter(BufferPool.SHARED.acquire(BufferPool.getSmallBufferSize()));
+        writer.put(STATUS_LINES[code.ordinal()]);
+        writer.put(getDateLine());
+        return writer;
+    }
+
+    /**
+     * Starts the part of a response that comes after the status line and the Date header. Together with
+     * {@link #getStatusLine(StatusCode)} and {@link #getDateLine()}, this lets us create most of a response once and
+     * send it many times.
+     *
+     * @return a {@link ResponseWriter} to add headers and the body to
+     */
+    static ResponseWriter afterDate() {
+        return new ResponseWriter(BufferPool.SHARED.acquire(BufferPool.getSmallBufferSize()));
+    }
+
+    /**
+     * @return the status line with the {@code code}, including the line break. Don't modify the array
+     */
+    static byte[] getStatusLine(StatusCode code) {
+        return STATUS_LINES[code.ordinal()];
+    }
+
+    /**
+     * Adds a header. Values should consist of ASCII characters, others are encoded as UTF-8.
+     *
+     * @throws IllegalArgumentException if the {@code value} contains a line break or another control character.
+     *                                  Those would let the value end the header and add headers of its own
+     */
+    ResponseWriter header(HttpHeader header, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < ' ' && c != '\t') || c == 0x7F) {
+                release();
+                throw new IllegalArgumentException(
+                        String.format("Value of header %s contains control character 0x%02x", header, (int) c));
+            }
+        }
+        putHeaderName(header);
+        ensureRoom(value.length() * MAX_BYTES_PER_CHAR + CRLF.length);
+        position = putUtf8(value, buffer, position);
+        put(CRLF);
+        return this;
+    }
+
+    ResponseWriter header(HttpHeader header, long value) {
+        putHeaderName(header);
+        ensureRoom(MAX_DECIMAL_LENGTH + CRLF.length);
+        position = putDecimal(value, buffer, position);
+        put(CRLF);
+        return this;
+    }
+
+    /**
+     * Adds a header whose value is a point in time, such as Last-Modified.
+     */
+    ResponseWriter header(HttpHeader header, Instant time) {
+        return header(header, DATE_FORMAT.format(time));
+    }
+
+    /**
+     * Adds the Content-Type header with the {@code contentType} and the UTF-8 charset.
+     */
+    ResponseWriter contentType(ContentType contentType) {
+        put(CONTENT_TYPE_LINES[contentType.ordinal()]);
+        return this;
+    }
+
+    /**
+     * Ends the response after the headers. Use this for responses without a body and for the heads of streamed
+     * responses.
+     *
+     * @return the response's bytes
+     */
+    byte[] finish() {
+        put(CRLF);
+        var bytes = new byte[position];
+        System.arraycopy(buffer, 0, bytes, 0, position);
+        release();
+        return bytes;
+    }
+
+    /**
+     * Adds the Content-Length header and the {@code body} encoded as UTF-8.
+     *
+     * @param body the body of the response
+     * @return the response's bytes
+     */
+    byte[] body(String body) {
+        long maxBodyLength = (long) body.length() * MAX_BYTES_PER_CHAR;
+        if (maxBodyLength <= buffer.length - position) {
+            // We encode the body behind the head and copy both into the response
+            int bodyLength = putUtf8(body, buffer, position) - position;
+            return assemble(position, buffer, position, bodyLength);
+        }
+        if (maxBodyLength <= BufferPool.getLargeBufferSize()) {
+            try (var bodyBuffer = BufferPool.SHARED.acquire((int) maxBodyLength)) {
+                int bodyLength = putUtf8(body, bodyBuffer.array(), 0);
+                return assemble(position, bodyBuffer.array(), 0, bodyLength);
+            }
+        }
+        // The body is too large for the pooled buffers, encoding it on its own allocates a second array
+        return body(body.getBytes(UTF_8));
+    }
+
+    /**
+     * Adds the Content-Length header and the {@code body}.
+     *
+     * @param body the body of the response
+     * @return the response's bytes
+     */
+    byte[] body(byte[] body) {
+        return body(body, 0, body.length);
+    }
+
+    /**
+     * Adds the Content-Length header and the {@code length} bytes of the {@code body} starting at {@code start}.
+     *
+     * @return the response's bytes
+     */
+    byte[] body(byte[] body, int start, int length) {
+        return assemble(position, body, start, length);
+    }
+
+    private byte[] assemble(int headLength, byte[] body, int bodyStart, int bodyLength) {
+        byte[] name = HEADER_NAMES[HttpHeader.CONTENT_LENGTH.ordinal()];
+        int contentLengthLineLength = name.length + HEADER_SEPARATOR.length + decimalLength(bodyLength) + CRLF.length;
+
+        var bytes = new byte[headLength + contentLengthLineLength + CRLF.length + bodyLength];
+        System.arraycopy(buffer, 0, bytes, 0, headLength);
+        int offset = copy(name, bytes, headLength);
+        offset = copy(HEADER_SEPARATOR, bytes, offset);
+        offset = putDecimal(bodyLength, bytes, offset);
+        offset = copy(CRLF, bytes, offset);
+        offset = copy(CRLF, bytes, offset);
+        System.arraycopy(body, bodyStart, bytes, offset, bodyLength);
+        release();
+        return bytes;
+    }
+
+    private static int copy(byte[] source, byte[] destination, int offset) {
+        System.arraycopy(source, 0, destination, offset, source.length);
+        return offset + source.length;
+    }
+
+    private void putHeaderName(HttpHeader header) {
+        put(HEADER_NAMES[header.ordinal()]);
+        put(HEADER_SEPARATOR);
+    }
+
+    private void put(byte[] bytes) {
+        ensureRoom(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensureRoom(int byteCount) {
+        if (position + byteCount > buffer.length) {
+            // Only responses with very long headers get here
+            var larger = BufferPool.SHARED.acquire(Math.max(2 * buffer.length, position + byteCount));
+            System.arraycopy(buffer, 0, larger.array(), 0, position);
+            release();
+            pooledBuffer = larger;
+            buffer = larger.array();
+        }
+    }
+
+    private void release() {
+        pooledBuffer.close();
+    }
+
+    /**
+     * Writes the {@code value} as decimal digits into the {@code bytes}, starting at {@code offset}.
+     *
+     * @return the index after the last digit
+     */
+    private static int putDecimal(long value, byte[] bytes, int offset) {
+        if (value < 0) {
+            bytes[offset++] = '-';
+            value = -value;
+        }
+        int end = offset + decimalLength(value);
+        for (int i = end - 1; i >= offset; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * @return how many decimal digits a {@code value} of zero or more has
+     */
+    private static int decimalLength(long value) {
+        int digitCount = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digitCount++;
+        }
+        return digitCount;
+    }
+
+    /**
+     * Encodes the {@code text} as UTF-8 into the {@code bytes}, starting at {@code offset}. There must be room for
+     * three bytes per char.
+     *
+     * @return the index after the last encoded byte
+     */
+    private static int putUtf8(String text, byte[] bytes, int offset) {
+        int pos = offset;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[pos++] = (byte) (0xC0 | c >> 6);
+                bytes[pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() &&
+                    Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                bytes[pos++] = (byte) (0xF0 | codePoint >> 18);
+                bytes[pos++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                bytes[pos++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                bytes[pos++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // Like String.getBytes, we replace a surrogate without its partner with a question mark
+                bytes[pos++] = '?';
+            } else {
+                bytes[pos++] = (byte) (0xE0 | c >> 12);
+                bytes[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                bytes[pos++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * @return the Date header with the current time, including the line break. Don't modify the array
+     */
+    static byte[] getDateLine() {
+        long now = currentEpochSecond();
+        var date = cachedDate;
+        if (date.epochSecond != now) {
+            // Several threads may create the line for the same second. That's harmless
+            date = CachedDate.at(now);
+            cachedDate = date;
+        }
+        return date.line;
+    }
+
+    private static long currentEpochSecond() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private static byte[][] createStatusLines() {
+        var codes = StatusCode.values();
+        var lines = new byte[codes.length][];
+        for (var code : codes) {
+            lines[code.ordinal()] = ("HTTP/1.1 " + code + "\r\n").getBytes(US_ASCII);
+        }
+        return lines;
+    }
+
+    private static byte[][] createHeaderNames() {
+        var headers = HttpHeader.values();
+        var names = new byte[headers.length][];
+        for (var header : headers) {
+            names[header.ordinal()] = header.toString().getBytes(US_ASCII);
+        }
+        return names;
+    }
+
+    private static byte[][] createContentTypeLines() {
+        var types = ContentType.values();
+        var lines = new byte[types.length][];
+        for (var type : types) {
+            lines[type.ordinal()] = (HttpHeader.CONTENT_TYPE + ": " + type + "; charset=" + UTF_8.displayName() +
+                    "\r\n").getBytes(US_ASCII);
+        }
+        return lines;
+    }
+
+    /**
+     * The Date header line for one second.
+     */
+    private static final class CachedDate {
+        private final long epochSecond;
+        private final byte[] line;
+
+        private CachedDate(long epochSecond, byte[] line) {
+            this.epochSecond = epochSecond;
+            this.line = line;
+        }
+
+        private static CachedDate at(long epochSecond) {
+            var date = DATE_FORMAT.format(Instant.ofEpochSecond(epochSecond));
+            return new CachedDate(epochSecond, (HttpHeader.DATE + ": " + date + "\r\n").getBytes(US_ASCII));
+        }
+    }
+}
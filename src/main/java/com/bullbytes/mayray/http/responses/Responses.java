@@ -1,26 +1,38 @@
 package com.bullbytes.mayray.http.responses;
 
-import com.bullbytes.mayray.http.headers.HttpHeader;
+import com.bullbytes.mayray.fileaccess.HotFileTier;
+import com.bullbytes.mayray.fileaccess.OpenFileCache;
+import com.bullbytes.mayray.html.HtmlOutput;
+import com.bullbytes.mayray.html.HtmlPage;
+import com.bullbytes.mayray.http.headers.ByteRange;
 import com.bullbytes.mayray.http.headers.InlineOrAttachment;
 import com.bullbytes.mayray.http.requests.RequestMethod;
+import com.bullbytes.mayray.utils.CancellationToken;
+import com.bullbytes.mayray.utils.FileUtil;
 import io.vavr.collection.Seq;
-import j2html.tags.Renderable;
+import io.vavr.control.Either;
+import io.vavr.control.Option;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 
 import static com.bullbytes.mayray.http.headers.HttpHeader.*;
 import static com.bullbytes.mayray.http.responses.ContentType.TEXT_HTML;
 import static com.bullbytes.mayray.http.responses.ContentType.TEXT_PLAIN;
 import static com.bullbytes.mayray.http.responses.StatusCode.METHOD_NOT_ALLOWED;
+import static com.bullbytes.mayray.http.responses.StatusCode.PARTIAL_CONTENT;
+import static com.bullbytes.mayray.http.responses.StatusCode.RANGE_NOT_SATISFIABLE;
 import static com.bullbytes.mayray.http.responses.StatusCode.SUCCESS;
 import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.joining;
 
 /**
@@ -31,65 +43,234 @@ import static java.util.stream.Collectors.joining;
 public enum Responses {
     ;
 
-    private static final String HTTP_1_1 = "HTTP/1.1";
-    private static final Charset ENCODING = StandardCharsets.UTF_8;
     private static final Logger log = LoggerFactory.getLogger(Responses.class);
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
     public static byte[] plainText(String body, StatusCode code) {
+        return ResponseWriter.start(code)
+                .contentType(TEXT_PLAIN)
+                .body(body + "\r\n");
+    }
+
+    public static byte[] plainText(String body) {
+        return plainText(body, SUCCESS);
+    }
 
-        var bodyWithNewLine = body + "\r\n";
+    public static byte[] unsupportedMethod(Seq<RequestMethod> allowedMethods) {
 
-        String response = statusLine(code) +
-                contentLength(bodyWithNewLine) +
-                contentType(TEXT_PLAIN) +
-                "\r\n" +
-                bodyWithNewLine;
+        var writer = ResponseWriter.start(METHOD_NOT_ALLOWED);
+        if (!allowedMethods.isEmpty()) {
+            writer.header(ALLOW, allowedMethods.map(Enum::toString).collect(joining(", ")));
+        }
+        return writer.header(CONTENT_LENGTH, -1)
+                .finish();
+    }
 
-        return response.getBytes(ENCODING);
+    /**
+     * Creates a response with an HTML page. We write the page into a pooled buffer and copy it behind the head of
+     * the response.
+     *
+     * @param page the {@link HtmlPage} to send
+     * @return the response's bytes
+     */
+    public static byte[] html(HtmlPage page) {
+        try (var out = HtmlOutput.inMemory()) {
+            page.writeTo(out);
+            return ResponseWriter.start(SUCCESS)
+                    .contentType(TEXT_HTML)
+                    .body(out.getBuffer(), 0, out.getLength());
+        } catch (IOException e) {
+            // Only writing to a stream can fail
+            throw new UncheckedIOException("Could not write page in memory", e);
+        }
     }
 
-    private static String contentType(ContentType textPlain) {
-        return mkHeader(CONTENT_TYPE, format("%s; charset=%s", textPlain, ENCODING.displayName()));
+    /**
+     * Creates a {@link Response} that writes the HTML while sending it to the client. Use this for large pages
+     * which we don't want to keep in memory as a whole.
+     * <p>
+     * Since we don't know the length of the page in advance, we don't send a Content-Length header but close the
+     * connection after the page.
+     *
+     * @param page the {@link HtmlPage} we write into the client's output stream
+     * @return a streamed {@link Response} containing the HTML
+     */
+    public static Response streamedHtml(HtmlPage page) {
+        byte[] head = ResponseWriter.start(SUCCESS)
+                .contentType(TEXT_HTML)
+                .header(CONNECTION, "close")
+                .finish();
+
+        return Response.streamed(head, out -> {
+            // Closing the HtmlOutput gives back its buffer but doesn't close the client's output stream
+            try (var html = HtmlOutput.toStream(out)) {
+                page.writeTo(html);
+                html.flush();
+            }
+        });
     }
 
-    private static String statusLine(StatusCode code) {
-        return HTTP_1_1 + " " + code + "\r\n";
+    /**
+     * Creates a {@link Response} whose body is written to the client while it's created. Like
+     * {@link #streamedHtml(HtmlPage)}, we close the connection after the body.
+     *
+     * @param contentType the {@link ContentType} of the body
+     * @param entityTag   identifies this version of the body. Clients can send it in an If-None-Match header to
+     *                    get the body only if it changed
+     * @param bodyWriter  writes the body of the response
+     * @return a streamed {@link Response}
+     */
+    public static Response streamed(ContentType contentType, String entityTag, Response.BodyWriter bodyWriter) {
+        byte[] head = ResponseWriter.start(SUCCESS)
+                .contentType(contentType)
+                .header(ETAG, entityTag)
+                .header(CONNECTION, "close")
+                .finish();
+
+        return Response.streamed(head, bodyWriter);
     }
 
-    private static String mkHeader(HttpHeader header, Object value) {
-        return header + ": " + value + "\r\n";
+    /**
+     * Tells the client that the version of the resource it has is still current.
+     *
+     * @param entityTag the entity tag of the resource, which the client sent in its If-None-Match header
+     * @return a response with status code 304 and without body
+     */
+    public static byte[] notModified(String entityTag) {
+        return ResponseWriter.start(StatusCode.NOT_MODIFIED)
+                .header(ETAG, entityTag)
+                .finish();
     }
 
-    private static String contentLength(String content) {
-        return mkHeader(CONTENT_LENGTH, content.getBytes(ENCODING).length);
+    /**
+     * Tells the client that it made too many requests and when it may try again.
+     *
+     * @param retryAfter how long the client should wait before making the next request
+     * @return a response with status code 429
+     */
+    public static byte[] tooManyRequests(Duration retryAfter) {
+        return retryLater(StatusCode.TOO_MANY_REQUESTS, "Too many requests", retryAfter);
     }
 
-    public static byte[] plainText(String body) {
-        return plainText(body, SUCCESS);
+    /**
+     * Tells the client that the server is too busy at the moment.
+     *
+     * @param retryAfter how long the client should wait before trying again
+     * @return a response with status code 503
+     */
+    public static byte[] serviceUnavailable(Duration retryAfter) {
+        return retryLater(StatusCode.SERVICE_UNAVAILABLE, "The server is busy", retryAfter);
     }
 
-    public static byte[] unsupportedMethod(Seq<RequestMethod> allowedMethods) {
+    private static byte[] retryLater(StatusCode code, String reason, Duration retryAfter) {
+        // The Retry-After header contains whole seconds
+        long retryAfterSeconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+        return ResponseWriter.start(code)
+                .header(RETRY_AFTER, retryAfterSeconds)
+                .contentType(TEXT_PLAIN)
+                .body(reason + ", please try again in " + retryAfterSeconds + " s\r\n");
+    }
 
-        var allowHeader = allowedMethods.isEmpty() ?
-                "" :
-                mkHeader(ALLOW,
-                        allowedMethods.map(Enum::toString)
-                                .collect(joining(", ")));
+    /**
+     * Creates a {@link Response} that sends a temporary file, such as a zip archive we created for one request, and
+     * deletes the file afterwards. We read the file while sending it, so only a small buffer of it is in memory at
+     * any time, no matter how large the file is.
+     *
+     * @param file               the {@link Path} of the file to send. We delete it whether we send it or not
+     * @param downloadName       the name under which the client saves the file. The name of a temporary file is
+     *                           made unique and isn't meant for the client
+     * @param contentType        the {@link ContentType} of the file
+     * @param inlineOrAttachment whether the browser should show the file or offer to save it
+     * @param cancellation       we stop sending the file when this is cancelled
+     * @return a streamed {@link Response} with the file as its body
+     */
+    public static Response temporaryFile(Path file,
+                                         String downloadName,
+                                         ContentType contentType,
+                                         InlineOrAttachment inlineOrAttachment,
+                                         CancellationToken cancellation) {
+        FileChannel channel;
+        try {
+            // The file system deletes the file once we close the channel
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            FileUtil.deleteIfExists(file);
+            var msg = format("Could not read file '%s'", file.getFileName());
+            log.warn(msg, e);
+            return Response.of(plainText(msg, StatusCode.SERVER_ERROR));
+        }
+        try {
+            long size = channel.size();
+            byte[] head = ResponseWriter.start(SUCCESS)
+                    .header(CONTENT_LENGTH, size)
+                    .contentType(contentType)
+                    .header(CONTENT_DISPOSITION, contentDisposition(inlineOrAttachment, downloadName))
+                    .finish();
+            return Response.streamed(head, size, out -> FileUtil.copy(channel, out, cancellation),
+                    () -> close(channel, file));
+        } catch (IOException | RuntimeException e) {
+            close(channel, file);
+            var msg = format("Could not read file '%s'", file.getFileName());
+            log.warn(msg, e);
+            return Response.of(plainText(msg, StatusCode.SERVER_ERROR));
+        }
+    }
 
-        return (statusLine(METHOD_NOT_ALLOWED) +
-                allowHeader +
-                mkHeader(CONTENT_LENGTH, -1)
-        ).getBytes(ENCODING);
+    private static void close(FileChannel channel, Path file) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Could not close file {}", file, e);
+        }
     }
 
-    public static byte[] html(Renderable htmlToRender) {
-        String html = htmlToRender.render();
-        return (statusLine(SUCCESS) +
-                contentLength(html) +
-                contentType(TEXT_HTML) +
-                "\r\n" +
-                html
-        ).getBytes(ENCODING);
+    /**
+     * Creates a {@link Response} that sends a file we keep open, or the part of it the client asked for with the
+     * Range header. Sending or {@link Response#release() releasing} the response releases the {@code file}.
+     *
+     * @param file               the {@link OpenFileCache.OpenFile} to send. It must be retained
+     * @param mappedFile         the file mapped into memory if it's hot. Then we send the mapped bytes instead of
+     *                           reading the file
+     * @param rangeHeader        the value of the client's Range header, if there is one
+     * @param inlineOrAttachment whether the browser should show the file or offer to save it
+     * @param cancellation       we stop sending the file when this is cancelled
+     * @return a streamed {@link Response} with the file or a part of it as its body
+     */
+    public static Response openFile(OpenFileCache.OpenFile file,
+                                    Option<HotFileTier.MappedFile> mappedFile,
+                                    Option<String> rangeHeader,
+                                    InlineOrAttachment inlineOrAttachment,
+                                    CancellationToken cancellation) {
+        long size = file.getSize();
+        var fileName = file.getPath().getFileName().toString();
+        return rangeHeader
+                .map(header -> ByteRange.parse(header, size))
+                .getOrElse(Either.right(Option.none()))
+                .fold(unsatisfiable -> {
+                    file.release();
+                    return Response.of(ResponseWriter.start(RANGE_NOT_SATISFIABLE)
+                            .header(CONTENT_RANGE, ByteRange.unsatisfiedContentRange(size))
+                            .contentType(TEXT_PLAIN)
+                            .body(unsatisfiable + "\r\n"));
+                }, range -> {
+                    var head = ResponseWriter.start(range.isDefined() ? PARTIAL_CONTENT : SUCCESS)
+                            .header(CONTENT_LENGTH, range.map(ByteRange::getLength).getOrElse(size))
+                            .contentType(ContentType.ofFileName(fileName))
+                            .header(CONTENT_DISPOSITION, contentDisposition(inlineOrAttachment, fileName))
+                            .header(ACCEPT_RANGES, "bytes")
+                            .header(LAST_MODIFIED, file.getLastModified());
+                    range.forEach(byteRange -> head.header(CONTENT_RANGE, byteRange.toContentRange(size)));
+
+                    long start = range.map(ByteRange::getStart).getOrElse(0L);
+                    long end = range.map(ByteRange::getEnd).getOrElse(size);
+                    return Response.streamed(head.finish(), end - start, out -> {
+                        if (mappedFile.isDefined()) {
+                            mappedFile.get().writeTo(out, start, end, cancellation);
+                        } else {
+                            file.writeTo(out, start, end, cancellation);
+                        }
+                    }, file::release);
+                });
     }
 
     public static byte[] file(URL fileUrl,
@@ -101,15 +282,12 @@ public enum Responses {
             var bytesOfFile = fileStream.readAllBytes();
             var fileName = new File(fileUrl.getPath()).getName();
 
-            String header = statusLine(SUCCESS) +
-                    mkHeader(CONTENT_LENGTH, bytesOfFile.length) +
-                    contentType(contentType) +
-                    contentDisposition(inlineOrAttachment, fileName)
-                    + "\r\n";
-
-            log.info("Header for file response: '{}'", header);
+            log.info("Sending file '{}' of size {}", fileName, bytesOfFile.length);
 
-            response = concat(header.getBytes(ENCODING), bytesOfFile);
+            response = ResponseWriter.start(SUCCESS)
+                    .contentType(contentType)
+                    .header(CONTENT_DISPOSITION, contentDisposition(inlineOrAttachment, fileName))
+                    .body(bytesOfFile);
         } catch (IOException e) {
             var msg = format("Could not read file at URL '%s'", fileUrl);
             log.warn(msg, e);
@@ -118,18 +296,44 @@ public enum Responses {
         return response;
     }
 
-    private static byte[] concat(byte[] first, byte[] second) {
-        // New array with contents of first one, having the length of the two input arrays combined
-        byte[] result = Arrays.copyOf(first, first.length + second.length);
-        // Copy the second array into the result array starting at the end of the first array
-        System.arraycopy(second, 0, result, first.length, second.length);
-        return result;
-    }
-
-    private static String contentDisposition(InlineOrAttachment inlineOrAttachment, String fileName) {
+    /**
+     * Creates the value of the Content-Disposition header for a file. Clients that understand RFC 6266 use the
+     * percent-encoded UTF-8 name of the "filename*" parameter, others use the quoted "filename" that only contains
+     * printable ASCII characters. File names can contain characters like ';' and '"' and come from the file system
+     * or the request, so we never put them into the header as they are.
+     */
+    static String contentDisposition(InlineOrAttachment inlineOrAttachment, String fileName) {
+        var asciiName = new StringBuilder(fileName.length());
+        var encodedName = new StringBuilder(fileName.length());
+        for (int i = 0; i < fileName.length(); i++) {
+            char c = fileName.charAt(i);
+            if (c < ' ' || c > '~') {
+                asciiName.append('_');
+            } else {
+                if (c == '"' || c == '\\') {
+                    asciiName.append('\\');
+                }
+                asciiName.append(c);
+            }
+        }
+        for (byte b : fileName.getBytes(UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if (isAttributeChar(c)) {
+                encodedName.append(c);
+            } else {
+                encodedName.append('%').append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+            }
+        }
         // "inline" makes the browser try to show the file inside the browser (works for images, for example),
         // "attachment" causes browsers to display the "save as" dialog
-        return mkHeader(CONTENT_DISPOSITION,
-                format("%s; filename=%s", inlineOrAttachment, fileName));
+        return inlineOrAttachment + "; filename=\"" + asciiName + "\"; filename*=UTF-8''" + encodedName;
+    }
+
+    /**
+     * Checks whether {@code c} can be part of an RFC 5987 parameter value without percent-encoding it.
+     */
+    private static boolean isAttributeChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                "!#$&+-.^_`|~".indexOf(c) != -1;
     }
 }
@@ -0,0 +1,117 @@
+package com.bullbytes.mayray.http.responses;
+
+import com.bullbytes.mayray.fileaccess.DirectoryAccess;
+import com.bullbytes.mayray.fileindex.FileTreeIndex;
+import com.bullbytes.mayray.fileindex.PathQuery;
+import com.bullbytes.mayray.fileindex.TrigramIndex;
+import com.bullbytes.mayray.html.Pages;
+import com.bullbytes.mayray.http.requests.Parameters;
+import com.bullbytes.mayray.http.requests.Request;
+import com.bullbytes.mayray.utils.FailMessage;
+import io.vavr.collection.List;
+import io.vavr.control.Either;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+
+import static com.bullbytes.mayray.http.requests.RequestMethod.GET;
+
+/**
+ * Handles client requests to search for files by their paths.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public enum SearchResponses {
+    ;
+    // Expected parameter names in the URL, in addition to the directory and password of FileResponses
+    public static final String TEXT_KEY = "q";
+    public static final String MODE_KEY = "mode";
+    public static final String LIMIT_KEY = "limit";
+
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+
+    private static final Logger log = LoggerFactory.getLogger(SearchResponses.class);
+
+    /**
+     * Searches for files in the directory given in the request's query. The query contains the search text and,
+     * optionally, the {@link PathQuery.Mode} and how many paths we return at most. Paths are matched relative to the
+     * searched directory.
+     * <p>
+     * We cache the pages of found files. The cache key is the directory the user may search in and what the results
+     * depend on, never the query itself, since that contains the password.
+     *
+     * @param request      the client's {@link Request}
+     * @param trigramIndex contains the paths of all files the user can download
+     * @param fileIndex    the {@link FileTreeIndex} the {@code trigramIndex} was created from
+     * @param cache        keeps the pages of found files
+     * @param cacheTime    how long we send a cached page before searching again
+     * @return a page with the paths of the found files or an error message
+     */
+    public static Response search(Request request,
+                                  TrigramIndex trigramIndex,
+                                  FileTreeIndex fileIndex,
+                                  ResponseCache cache,
+                                  Duration cacheTime) {
+        if (request.getMethod() != GET) {
+            return Response.of(Responses.unsupportedMethod(List.of(GET)));
+        }
+        var parameters = Parameters.ofQuery(request.getResource());
+
+        var dirAccessEither = parameters.getPath(FileResponses.DIR_KEY).flatMap(dir -> dir
+                .flatMap(desiredDir -> parameters.get(FileResponses.PASSWORD_KEY)
+                        .map(password -> DirectoryAccess.create(desiredDir, password)))
+                .toEither(() -> FailMessage.formatted("Query must contain directory (key: '%s') and password (key: '%s')",
+                        FileResponses.DIR_KEY, FileResponses.PASSWORD_KEY)));
+
+        var modeEither = parameters.get(MODE_KEY)
+                .map(PathQuery.Mode::parse)
+                .getOrElse(Either.right(PathQuery.Mode.SUBSTRING));
+
+        var limitEither = parameters.getInt(LIMIT_KEY, DEFAULT_LIMIT)
+                .map(limit -> Math.max(1, Math.min(limit, MAX_LIMIT)));
+
+        var textEither = parameters.get(TEXT_KEY)
+                .toEither(() -> FailMessage.formatted("Query must contain the search text (key: '%s')", TEXT_KEY));
+
+        return dirAccessEither.flatMap(dirAccess -> modeEither.flatMap(mode -> limitEither.flatMap(limit ->
+                textEither.flatMap(text -> PathQuery.create(mode, text)
+                        .map(query -> {
+                            if (!dirAccess.isDownloadAllowed() || !dirAccess.passwordMatches()) {
+                                return Response.of(Responses.plainText("Can't search in directory: " +
+                                        "It doesn't exist or the password is incorrect", StatusCode.FORBIDDEN));
+                            }
+                            String relativeDir = fileIndex.relativePathOf(dirAccess.getNormalizedPathFromRoot());
+                            // The heading of the page shows the directory as the user wrote it
+                            var key = String.join("\n", relativeDir, dirAccess.getDesiredDir().toString(),
+                                    mode.name(), String.valueOf(limit), text);
+                            return cache.get(key, cacheTime, () -> Response.of(
+                                    search(dirAccess, relativeDir, query, text, limit, trigramIndex)));
+                        })))))
+                .getOrElseGet(error -> {
+                    log.info("Invalid search request: {}", error);
+                    return Response.of(Responses.plainText(error.toString(), StatusCode.BAD_REQUEST));
+                });
+    }
+
+    private static byte[] search(DirectoryAccess dirAccess,
+                                 String relativeDir,
+                                 PathQuery query,
+                                 String text,
+                                 int limit,
+                                 TrigramIndex trigramIndex) {
+        String dirPrefix = relativeDir.isEmpty() ? "" : relativeDir + "/";
+
+        var startTime = System.nanoTime();
+        // Get one more path than requested to know whether there are more results
+        var paths = trigramIndex.search(query.getRequiredParts(),
+                path -> path.startsWith(dirPrefix) && query.matches(path.substring(dirPrefix.length())),
+                limit + 1);
+        log.info("Found {} paths for '{}' in {} µs", paths.size(), text, (System.nanoTime() - startTime) / 1000);
+
+        boolean hasMore = paths.size() > limit;
+        return Responses.html(Pages.searchResults(dirAccess.getDesiredDir(), text,
+                List.ofAll(paths).take(limit), hasMore));
+    }
+}
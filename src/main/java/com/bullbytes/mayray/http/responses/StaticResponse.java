@@ -0,0 +1,236 @@
+package com.bullbytes.mayray.http.responses;
+
+import com.bullbytes.mayray.http.headers.ByteRange;
+import com.bullbytes.mayray.http.headers.HeaderUtil;
+import com.bullbytes.mayray.http.headers.Headers;
+import com.bullbytes.mayray.http.requests.Request;
+import io.vavr.collection.List;
+import io.vavr.control.Either;
+import io.vavr.control.Option;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import static com.bullbytes.mayray.http.headers.HttpHeader.ACCEPT_ENCODING;
+import static com.bullbytes.mayray.http.headers.HttpHeader.ACCEPT_RANGES;
+import static com.bullbytes.mayray.http.headers.HttpHeader.CONTENT_ENCODING;
+import static com.bullbytes.mayray.http.headers.HttpHeader.CONTENT_RANGE;
+import static com.bullbytes.mayray.http.headers.HttpHeader.ETAG;
+import static com.bullbytes.mayray.http.headers.HttpHeader.IF_NONE_MATCH;
+import static com.bullbytes.mayray.http.headers.HttpHeader.IF_RANGE;
+import static com.bullbytes.mayray.http.headers.HttpHeader.RANGE;
+import static com.bullbytes.mayray.http.headers.HttpHeader.VARY;
+import static com.bullbytes.mayray.http.responses.StatusCode.NOT_MODIFIED;
+import static com.bullbytes.mayray.http.responses.StatusCode.PARTIAL_CONTENT;
+import static com.bullbytes.mayray.http.responses.StatusCode.RANGE_NOT_SATISFIABLE;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A response that's the same for every request, such as a greeting. We create its bytes once, when the server
+ * starts, and send them without any work per request.
+ * <p>
+ * If the gzip-compressed body is smaller, we also keep a compressed variant for clients that accept it. The only
+ * part that changes between requests is the Date header, which the {@link ResponseWriter} caches for a second.
+ * <p>
+ * Responses with status code 200 have an entity tag: A client that already has the body gets status code 304 and
+ * a client that asks for a range of the body gets that range with status code 206. We send ranges of the
+ * uncompressed body.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class StaticResponse {
+    private static final String GZIP = "gzip";
+
+    private static final byte[] NOT_MODIFIED_LINE = ResponseWriter.getStatusLine(NOT_MODIFIED);
+
+    private final byte[] statusLine;
+    // The headers after the Date header and the body
+    private final byte[] rest;
+    private final Option<byte[]> gzippedRest;
+    // Without validators, the response has no entity tags and we ignore conditional and range requests
+    private final Option<Validators> validators;
+
+    private StaticResponse(byte[] statusLine, byte[] rest, Option<byte[]> gzippedRest, Option<Validators> validators) {
+        this.statusLine = statusLine;
+        this.rest = rest;
+        this.gzippedRest = gzippedRest;
+        this.validators = validators;
+    }
+
+    /**
+     * What we need to answer conditional and range requests: The entity tags of both variants, the rest of the 304
+     * responses after the Date header, and the uncompressed body to take ranges from.
+     */
+    private static final class Validators {
+        private final String entityTag;
+        private final String gzipEntityTag;
+        private final byte[] notModifiedRest;
+        private final byte[] gzipNotModifiedRest;
+        private final ContentType contentType;
+        private final byte[] body;
+
+        private Validators(String entityTag, String gzipEntityTag, boolean hasGzipVariant,
+                           ContentType contentType, byte[] body) {
+            this.entityTag = entityTag;
+            this.gzipEntityTag = gzipEntityTag;
+            this.notModifiedRest = notModifiedRest(entityTag, hasGzipVariant);
+            this.gzipNotModifiedRest = notModifiedRest(gzipEntityTag, hasGzipVariant);
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        private static byte[] notModifiedRest(String entityTag, boolean hasGzipVariant) {
+            var rest = ResponseWriter.afterDate()
+                    .header(ETAG, entityTag);
+            if (hasGzipVariant) {
+                rest.header(VARY, ACCEPT_ENCODING.toString());
+            }
+            return rest.finish();
+        }
+    }
+
+    /**
+     * Creates a {@link StaticResponse} with a plain text body.
+     *
+     * @param body the text we send to the client, followed by a line break
+     * @param code the {@link StatusCode} of the response
+     * @return a {@link StaticResponse} with the {@code body}
+     */
+    public static StaticResponse plainText(String body, StatusCode code) {
+        return create(code, ContentType.TEXT_PLAIN, (body + "\r\n").getBytes(UTF_8));
+    }
+
+    /**
+     * Creates a {@link StaticResponse} with status code 200 and a plain text body.
+     *
+     * @param body the text we send to the client, followed by a line break
+     * @return a {@link StaticResponse} with the {@code body}
+     */
+    public static StaticResponse plainText(String body) {
+        return plainText(body, StatusCode.SUCCESS);
+    }
+
+    private static StaticResponse create(StatusCode code, ContentType contentType, byte[] body) {
+        byte[] gzippedBody = gzip(body);
+        boolean isGzipSmaller = gzippedBody.length < body.length;
+        boolean hasValidators = code == StatusCode.SUCCESS;
+
+        // The variants have different bodies, so they need different entity tags
+        var entityTag = format("\"%08x\"", checksum(body));
+        var gzipEntityTag = format("\"%08x-gzip\"", checksum(body));
+
+        var rest = ResponseWriter.afterDate()
+                .contentType(contentType);
+        if (isGzipSmaller) {
+            // Caches have to know that the response depends on the request's Accept-Encoding header
+            rest.header(VARY, ACCEPT_ENCODING.toString());
+        }
+        if (hasValidators) {
+            rest.header(ETAG, entityTag)
+                    .header(ACCEPT_RANGES, "bytes");
+        }
+        Option<byte[]> gzippedRest = Option.none();
+        if (isGzipSmaller) {
+            var gzipped = ResponseWriter.afterDate()
+                    .contentType(contentType)
+                    .header(VARY, ACCEPT_ENCODING.toString())
+                    .header(CONTENT_ENCODING, GZIP);
+            if (hasValidators) {
+                gzipped.header(ETAG, gzipEntityTag)
+                        .header(ACCEPT_RANGES, "bytes");
+            }
+            gzippedRest = Option.of(gzipped.body(gzippedBody));
+        }
+        var validators = hasValidators ?
+                Option.of(new Validators(entityTag, gzipEntityTag, isGzipSmaller, contentType, body)) :
+                Option.<Validators>none();
+
+        return new StaticResponse(ResponseWriter.getStatusLine(code), rest.body(body), gzippedRest, validators);
+    }
+
+    private static long checksum(byte[] bytes) {
+        var crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        var compressed = new ByteArrayOutputStream();
+        try (var gzipStream = new GZIPOutputStream(compressed)) {
+            gzipStream.write(bytes);
+        } catch (IOException e) {
+            // We write to memory, this doesn't happen
+            throw new UncheckedIOException("Could not compress response body", e);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Gets the {@link Response} to send for the {@code request}: The compressed variant if the client accepts it,
+     * status code 304 if the client already has that variant, or a range of the body if the client asks for one.
+     *
+     * @param request the client's {@link Request}
+     * @return the {@link Response} for the {@code request}
+     */
+    public Response respond(Request request) {
+        var headers = request.getHeaders();
+        boolean sendGzipped = gzippedRest.isDefined() && HeaderUtil.acceptsEncoding(GZIP, headers);
+        if (validators.isDefined()) {
+            var v = validators.get();
+            var entityTag = sendGzipped ? v.gzipEntityTag : v.entityTag;
+            boolean clientHasBody = headers.get(IF_NONE_MATCH)
+                    .map(tags -> matchesAny(tags, entityTag))
+                    .getOrElse(false);
+            if (clientHasBody) {
+                return Response.prebuilt(NOT_MODIFIED_LINE, ResponseWriter.getDateLine(),
+                        sendGzipped ? v.gzipNotModifiedRest : v.notModifiedRest);
+            }
+            var rangeResponse = respondWithRange(headers, v);
+            if (rangeResponse.isDefined()) {
+                return rangeResponse.get();
+            }
+        }
+        return Response.prebuilt(statusLine, ResponseWriter.getDateLine(), sendGzipped ? gzippedRest.get() : rest);
+    }
+
+    /**
+     * Gets a range of the uncompressed body if the client asks for one. If the client's If-Range header doesn't match
+     * the entity tag, the body has changed since the client got its part and the client gets the whole body.
+     */
+    private static Option<Response> respondWithRange(Headers headers, Validators validators) {
+        boolean isRangeCurrent = headers.get(IF_RANGE)
+                .map(validators.entityTag::equals)
+                .getOrElse(true);
+        if (!isRangeCurrent) {
+            return Option.none();
+        }
+        long size = validators.body.length;
+        return headers.get(RANGE)
+                .map(header -> ByteRange.parse(header, size))
+                .getOrElse(Either.right(Option.none()))
+                .fold(unsatisfiable -> Option.of(Response.of(ResponseWriter.start(RANGE_NOT_SATISFIABLE)
+                                .header(CONTENT_RANGE, ByteRange.unsatisfiedContentRange(size))
+                                .contentType(ContentType.TEXT_PLAIN)
+                                .body(unsatisfiable + "\r\n"))),
+                        range -> range.map(byteRange -> Response.of(ResponseWriter.start(PARTIAL_CONTENT)
+                                .contentType(validators.contentType)
+                                .header(ETAG, validators.entityTag)
+                                .header(CONTENT_RANGE, byteRange.toContentRange(size))
+                                .body(validators.body, (int) byteRange.getStart(), (int) byteRange.getLength()))));
+    }
+
+    /**
+     * Checks whether an If-None-Match header like {@code "a", W/"b"} contains the {@code entityTag} or is "*".
+     * Like RFC 7232 says for If-None-Match, we ignore whether a tag is weak.
+     */
+    private static boolean matchesAny(String ifNoneMatch, String entityTag) {
+        return List.of(ifNoneMatch.split(","))
+                .map(String::strip)
+                .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                .exists(tag -> tag.equals("*") || tag.equals(entityTag));
+    }
+}
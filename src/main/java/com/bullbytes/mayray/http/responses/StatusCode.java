@@ -7,11 +7,23 @@ package com.bullbytes.mayray.http.responses;
  */
 public enum StatusCode {
     SUCCESS(200, "Success"),
+    CREATED(201, "Created"),
+    PARTIAL_CONTENT(206, "Partial Content"),
+    NOT_MODIFIED(304, "Not Modified"),
     BAD_REQUEST(400, "Bad Request"),
+    FORBIDDEN(403, "Forbidden"),
     NOT_FOUND(404, "Not Found"),
     METHOD_NOT_ALLOWED(405, "Method Not Allowed"),
+    CONFLICT(409, "Conflict"),
+    LENGTH_REQUIRED(411, "Length Required"),
+    PAYLOAD_TOO_LARGE(413, "Payload Too Large"),
+    RANGE_NOT_SATISFIABLE(416, "Range Not Satisfiable"),
     TEAPOT(418, "I'm a teapot"),
-    SERVER_ERROR(500, "Internal Server Error");
+    TOO_MANY_REQUESTS(429, "Too Many Requests"),
+    REQUEST_HEADER_FIELDS_TOO_LARGE(431, "Request Header Fields Too Large"),
+    SERVER_ERROR(500, "Internal Server Error"),
+    SERVICE_UNAVAILABLE(503, "Service Unavailable"),
+    INSUFFICIENT_STORAGE(507, "Insufficient Storage");
 
     private final int code;
     private final String text;
@@ -0,0 +1,273 @@
+package com.bullbytes.mayray.http.responses;
+
+import com.bullbytes.mayray.fileaccess.DirectoryAccess;
+import com.bullbytes.mayray.fileaccess.IncomingFile;
+import com.bullbytes.mayray.fileaccess.UploadQuota;
+import com.bullbytes.mayray.http.headers.HeaderUtil;
+import com.bullbytes.mayray.http.requests.MultipartReader;
+import com.bullbytes.mayray.http.requests.Parameters;
+import com.bullbytes.mayray.http.requests.Request;
+import com.bullbytes.mayray.metrics.Counter;
+import com.bullbytes.mayray.metrics.Metrics;
+import io.vavr.collection.List;
+import io.vavr.control.Either;
+import io.vavr.control.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Path;
+
+import static com.bullbytes.mayray.http.requests.RequestMethod.POST;
+import static com.bullbytes.mayray.http.requests.RequestMethod.PUT;
+import static java.lang.String.format;
+
+/**
+ * Handles client requests to upload files into downloadable directories.
+ * <p>
+ * Clients upload a single file with PUT, where the body is the file, or one or more files with a
+ * "multipart/form-data" POST, like a form in the browser does. The query must contain the password of the directory:
+ * Download tokens don't grant uploads. We write the body to the disk while we receive it, so uploads of any size need
+ * little memory.
+ * <p>
+ * We don't replace existing files unless the query asks for it. A checksum in the query applies to a single file, so
+ * a multipart upload with a checksum must contain exactly one file.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public enum UploadResponses {
+    ;
+    // The optional SHA-256 checksum of the uploaded file in hexadecimal digits
+    public static final String SHA256_KEY = "sha256";
+    // With "overwrite=true" in the query, uploaded files replace existing ones
+    public static final String OVERWRITE_KEY = "overwrite";
+    private static final Logger log = LoggerFactory.getLogger(UploadResponses.class);
+    private static final Counter UPLOADED_FILES = Metrics.counter("uploads.files");
+    private static final Counter UPLOADED_BYTES = Metrics.counter("uploads.bytes");
+    private static final Counter FAILED_UPLOADS = Metrics.counter("uploads.failures");
+
+    /**
+     * Saves the file or files in the body of the {@code request} to the directory in the query.
+     *
+     * @param request the client's {@link Request}
+     * @param quota   limits the size of uploads
+     * @return a {@link Response} telling the client which files we've saved or why we couldn't
+     */
+    public static Response upload(Request request, UploadQuota quota) {
+        return switch (request.getMethod()) {
+            case PUT, POST -> {
+                var query = Parameters.ofQuery(request.getResource());
+                yield FileResponses.getDirWithPassword(query).fold(error -> {
+                    log.info("Not accepting upload: {}", error);
+                    return Response.of(Responses.plainText(error.toString(), StatusCode.FORBIDDEN));
+                    // We've checked the password already
+                }, dir -> upload(request, DirectoryAccess.create(dir, ""), query, quota, IncomingFile.STAGING_DIR));
+            }
+            default -> Response.of(Responses.unsupportedMethod(List.of(PUT, POST)));
+        };
+    }
+
+    /**
+     * Saves the uploaded files to the directory of the {@code access}, which the client may access.
+     *
+     * @param stagingDir where we write the files while we receive them
+     */
+    static Response upload(Request request,
+                           DirectoryAccess access,
+                           Parameters query,
+                           UploadQuota quota,
+                           Path stagingDir) {
+        var contentLength = HeaderUtil.getLongContentLength(request.getHeaders());
+        if (contentLength.isLeft()) {
+            return Response.of(Responses.plainText("Please send the Content-Length header with the upload",
+                    StatusCode.LENGTH_REQUIRED));
+        }
+        long bodyLength = contentLength.get();
+        if (!access.isDownloadAllowed()) {
+            return Response.of(Responses.plainText(
+                    format("Can't upload to directory '%s'", access.getDesiredDir()), StatusCode.FORBIDDEN));
+        }
+        if (request.getMethod() == PUT && bodyLength > quota.getMaxFileBytes()) {
+            return tooLarge(quota);
+        }
+        // The body of a multipart upload is a bit larger than its files, which makes this reservation generous
+        var reservation = quota.reserve(access.getNormalizedPathFromRoot(), bodyLength);
+        if (reservation.isEmpty()) {
+            log.info("Not enough free space on the disk for upload of {} bytes", bodyLength);
+            return Response.of(Responses.plainText("Not enough free space on the server for the upload",
+                    StatusCode.INSUFFICIENT_STORAGE));
+        }
+        var upload = new Upload(request, access, quota, stagingDir,
+                query.get(SHA256_KEY), query.get(OVERWRITE_KEY).exists("true"::equalsIgnoreCase));
+        Either<Response, List<String>> result;
+        try {
+            result = request.getMethod() == PUT ?
+                    query.get(FileResponses.FILE_KEY)
+                            .toEither(() -> Response.of(Responses.plainText(
+                                    format("Please specify the name of the file with the key '%s'",
+                                            FileResponses.FILE_KEY), StatusCode.BAD_REQUEST)))
+                            .flatMap(fileName -> upload.receiveFile(request.getBodyStream(), fileName, bodyLength))
+                            .map(List::of) :
+                    upload.receiveParts();
+        } finally {
+            reservation.get().close();
+        }
+        return result.fold(error -> {
+            FAILED_UPLOADS.increment();
+            return error;
+        }, descriptions -> Response.of(Responses.plainText(
+                String.join("\r\n", descriptions), StatusCode.CREATED)));
+    }
+
+    /**
+     * The files of one request and what the client asked us to do with them.
+     */
+    private static final class Upload {
+        private final Request request;
+        private final DirectoryAccess access;
+        private final UploadQuota quota;
+        private final Path stagingDir;
+        private final Option<String> expectedSha256;
+        private final boolean overwrite;
+
+        private Upload(Request request, DirectoryAccess access, UploadQuota quota, Path stagingDir,
+                       Option<String> expectedSha256, boolean overwrite) {
+            this.request = request;
+            this.access = access;
+            this.quota = quota;
+            this.stagingDir = stagingDir;
+            this.expectedSha256 = expectedSha256;
+            this.overwrite = overwrite;
+        }
+
+        /**
+         * Receives the file in the body of a PUT request and moves it into the directory.
+         *
+         * @param expectedLength the number of bytes the file must have
+         * @return a description of the saved file or the {@link Response} telling the client why we didn't save it
+         */
+        Either<Response, String> receiveFile(InputStream in, String fileName, long expectedLength) {
+            var received = receive(in, fileName);
+            if (received.isLeft()) {
+                return Either.left(received.getLeft());
+            }
+            try (var file = received.get()) {
+                if (file.getSize() != expectedLength) {
+                    return Either.left(Response.of(Responses.plainText(format("Upload ended after %d of %d bytes",
+                            file.getSize(), expectedLength), StatusCode.BAD_REQUEST)));
+                }
+                return commit(file);
+            }
+        }
+
+        /**
+         * Receives all files of a multipart body before moving any of them into the directory, so we can check the
+         * checksum against the only file.
+         */
+        Either<Response, List<String>> receiveParts() {
+            return MultipartReader.create(request.getBodyStream(), request.getHeaders())
+                    .mapLeft(error -> Response.of(Responses.plainText(error.toString(), StatusCode.BAD_REQUEST)))
+                    .flatMap(reader -> {
+                        var files = List.<IncomingFile>empty();
+                        try (reader) {
+                            for (var part = reader.nextPart(); part.isDefined(); part = reader.nextPart()) {
+                                var fileName = part.get().getFileName();
+                                // Form fields other than files don't interest us
+                                if (fileName.isDefined()) {
+                                    var received = receive(part.get().getContent(), fileName.get());
+                                    if (received.isLeft()) {
+                                        return Either.left(received.getLeft());
+                                    }
+                                    files = files.append(received.get());
+                                }
+                            }
+                            if (files.isEmpty()) {
+                                return Either.left(Response.of(Responses.plainText("The request contains no files",
+                                        StatusCode.BAD_REQUEST)));
+                            }
+                            if (expectedSha256.isDefined() && files.size() > 1) {
+                                return Either.left(Response.of(Responses.plainText(format("The checksum (key: " +
+                                        "'%s') applies to a single file, but the request contains %d files",
+                                        SHA256_KEY, files.size()), StatusCode.BAD_REQUEST)));
+                            }
+                            var descriptions = List.<String>empty();
+                            for (var file : files) {
+                                var committed = commit(file);
+                                if (committed.isLeft()) {
+                                    return committed.map(List::of);
+                                }
+                                descriptions = descriptions.append(committed.get());
+                            }
+                            return Either.right(descriptions);
+                        } catch (IOException e) {
+                            log.info("Could not read multipart body of upload: {}", e.toString());
+                            return Either.left(Response.of(Responses.plainText("Could not read the uploaded files",
+                                    StatusCode.BAD_REQUEST)));
+                        } finally {
+                            // Deletes the files we haven't committed
+                            files.forEach(IncomingFile::close);
+                        }
+                    });
+        }
+
+        /**
+         * Receives a file into the staging directory. Close the {@link IncomingFile} to delete it unless it's
+         * committed.
+         */
+        private Either<Response, IncomingFile> receive(InputStream in, String fileName) {
+            if (!access.isFileUploadAllowed(fileName)) {
+                log.info("Not accepting upload of file '{}' to directory {}", fileName, access.getDesiredDir());
+                return Either.left(Response.of(Responses.plainText(format("Can't upload file '%s'", fileName),
+                        StatusCode.FORBIDDEN)));
+            }
+            var destination = access.getNormalizedFilePathFromRoot(fileName);
+            try {
+                return Either.right(IncomingFile.receive(in, destination, stagingDir, quota.getMaxFileBytes(),
+                        request.getCancellation()));
+            } catch (IncomingFile.FileTooLargeException e) {
+                return Either.left(tooLarge(quota));
+            } catch (IOException e) {
+                log.info("Could not receive file {}: {}", destination, e.toString());
+                return Either.left(Response.of(Responses.plainText(format("Could not receive file '%s'", fileName),
+                        StatusCode.BAD_REQUEST)));
+            }
+        }
+
+        /**
+         * Moves the received file into the directory if it has the expected checksum.
+         *
+         * @return a description of the saved file or the {@link Response} telling the client why we didn't save it
+         */
+        private Either<Response, String> commit(IncomingFile file) {
+            var destination = file.getDestination();
+            var fileName = destination.getFileName().toString();
+            if (expectedSha256.exists(expected -> !expected.equalsIgnoreCase(file.getSha256()))) {
+                return Either.left(Response.of(Responses.plainText(format("Checksum of '%s' doesn't match: " +
+                        "SHA-256 of the uploaded file is %s", fileName, file.getSha256()), StatusCode.BAD_REQUEST)));
+            }
+            try {
+                file.commit(overwrite);
+            } catch (FileAlreadyExistsException e) {
+                log.info("Not replacing existing file {} with upload", destination);
+                return Either.left(Response.of(Responses.plainText(format("File '%s' exists already. Add " +
+                        "'%s=true' to the query to replace it", fileName, OVERWRITE_KEY), StatusCode.CONFLICT)));
+            } catch (IOException e) {
+                log.info("Could not save file {}: {}", destination, e.toString());
+                return Either.left(Response.of(Responses.plainText(format("Could not save file '%s'", fileName),
+                        StatusCode.SERVER_ERROR)));
+            }
+            log.info("Received file {} of {} bytes", destination, file.getSize());
+            UPLOADED_FILES.increment();
+            UPLOADED_BYTES.add(file.getSize());
+            return Either.right(format("Uploaded '%s' (%d bytes, SHA-256: %s)", fileName, file.getSize(),
+                    file.getSha256()));
+        }
+    }
+
+    private static Response tooLarge(UploadQuota quota) {
+        return Response.of(Responses.plainText(format("Uploaded files can have at most %d bytes",
+                quota.getMaxFileBytes()), StatusCode.PAYLOAD_TOO_LARGE));
+    }
+}
@@ -0,0 +1,101 @@
+package com.bullbytes.mayray.http.server;
+
+import com.bullbytes.mayray.metrics.Counter;
+import com.bullbytes.mayray.metrics.Metrics;
+import io.vavr.control.Option;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the handlers of {@link com.bullbytes.mayray.http.Route}s with their own threads and queue, so that slow
+ * routes can only use up their own threads and not those of other routes.
+ * <p>
+ * The server reads a request's header on one of its connection threads. A route in an {@link #inline()} bulkhead
+ * creates and sends the response right there, which is the fastest way for routes that take microseconds. For other
+ * routes, the connection thread hands the request over to the route's bulkhead and is free again for the next
+ * client. If a bulkhead's threads are busy and its queue is full, the client gets status code 503.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class Bulkhead {
+    private static final Bulkhead INLINE = new Bulkhead("inline", Option.none());
+
+    private final String name;
+    // Runs the tasks or none if tasks run on the calling thread
+    private final Option<ThreadPoolExecutor> executor;
+    // Counts tasks that didn't fit into the bulkhead. Inline bulkheads don't reject tasks
+    private final Option<Counter> rejected;
+
+    private Bulkhead(String name, Option<ThreadPoolExecutor> executor) {
+        this.name = name;
+        this.executor = executor;
+        this.rejected = executor.map(pool -> Metrics.counter("bulkhead." + name + ".rejected"));
+    }
+
+    /**
+     * @return a {@link Bulkhead} that runs tasks on the connection thread that read the request
+     */
+    public static Bulkhead inline() {
+        return INLINE;
+    }
+
+    /**
+     * Creates a {@link Bulkhead} with its own threads.
+     *
+     * @param name          the name of the bulkhead, used for its threads and metrics, such as "download"
+     * @param maxConcurrent at most this many tasks run at the same time
+     * @param maxQueued     at most this many tasks wait for a thread. More tasks are rejected
+     * @return a new {@link Bulkhead}
+     */
+    public static Bulkhead create(String name, int maxConcurrent, int maxQueued) {
+        var threadCount = new AtomicInteger();
+        var executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent,
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxQueued),
+                task -> {
+                    var thread = new Thread(task, "bulkhead-" + name + "-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        // Threads of bulkheads that aren't used stop after a while
+        executor.allowCoreThreadTimeOut(true);
+        Metrics.gauge("bulkhead." + name + ".active", executor::getActiveCount);
+        Metrics.gauge("bulkhead." + name + ".queued", () -> executor.getQueue().size());
+        return new Bulkhead(name, Option.of(executor));
+    }
+
+    /**
+     * @return whether tasks run on the calling thread
+     */
+    boolean isInline() {
+        return executor.isEmpty();
+    }
+
+    /**
+     * Runs the {@code task} on a thread of this bulkhead or, if it's {@link #inline()}, on the calling thread.
+     *
+     * @param task the {@link Runnable} to run
+     * @return false if the bulkhead is full and won't run the {@code task}
+     */
+    boolean execute(Runnable task) {
+        if (executor.isEmpty()) {
+            task.run();
+            return true;
+        }
+        try {
+            executor.get().execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.forEach(Counter::increment);
+            return false;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,143 @@
+package com.bullbytes.mayray.http.server;
+
+import com.bullbytes.mayray.metrics.Counter;
+import com.bullbytes.mayray.metrics.Metrics;
+import io.vavr.control.Option;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how many requests the server handles at the same time and finds that limit by itself.
+ * <p>
+ * When the server has more requests than it can handle at once, for example because the disks are busy, requests
+ * take longer without more of them getting done. We compare the latency of each request with the long-term average:
+ * If requests become slower, we lower the limit in proportion. If they're as fast as usual, we raise it a bit. This
+ * is the gradient algorithm of Netflix's concurrency-limits library.
+ * <p>
+ * Requests over the limit are rejected right away instead of waiting, so the server stays responsive.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class ConcurrencyLimiter {
+    // Latencies up to this factor above the long-term average don't lower the limit
+    private static final double TOLERANCE = 1.5;
+    // How much a single sample counts for the long-term average latency
+    private static final double LONG_TERM_WEIGHT = 1.0 / 600;
+    // How much a single sample changes the limit
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter rejected = Metrics.counter("concurrency.rejected");
+
+    // Guarded by this. The limit is also read without the lock when acquiring
+    private volatile double limit;
+    private double longTermNanos = 0;
+
+    private ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Creates a {@link ConcurrencyLimiter} and registers its limit and the requests in flight as metrics.
+     *
+     * @param initialLimit how many requests may run at the same time before we know how long requests take
+     * @param minLimit     the limit never gets lower than this
+     * @param maxLimit     the limit never gets higher than this
+     * @return a new {@link ConcurrencyLimiter}
+     */
+    static ConcurrencyLimiter create(int initialLimit, int minLimit, int maxLimit) {
+        var limiter = new ConcurrencyLimiter(initialLimit, minLimit, maxLimit);
+        Metrics.gauge("concurrency.limit", limiter::getLimit);
+        Metrics.gauge("concurrency.inflight", limiter.inFlight::get);
+        return limiter;
+    }
+
+    /**
+     * Lets a request start if there are fewer requests in flight than the limit.
+     *
+     * @return a {@link Permit} to release when the request is done or {@link Option#none()} if there are too many
+     * requests
+     */
+    Option<Permit> tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= getLimit()) {
+                rejected.increment();
+                return Option.none();
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return Option.of(new Permit(System.nanoTime(), current + 1));
+            }
+        }
+    }
+
+    int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Updates the limit with the latency of a request.
+     *
+     * @param latencyNanos how long the request took
+     * @param inFlight     how many requests were in flight when the request started
+     */
+    synchronized void update(long latencyNanos, int inFlight) {
+        if (longTermNanos == 0) {
+            longTermNanos = latencyNanos;
+        } else {
+            longTermNanos += (latencyNanos - longTermNanos) * LONG_TERM_WEIGHT;
+        }
+        // After a period of slow requests, the long-term average is high and would let the limit grow even though
+        // the requests are only as fast as usual again. Let the average catch up faster
+        if (longTermNanos > 2 * latencyNanos) {
+            longTermNanos *= 0.95;
+        }
+        // If we're far from the limit, the latency doesn't tell us whether a higher limit would be too much
+        if (inFlight < limit / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longTermNanos / latencyNanos));
+        // The square root of the limit leaves room for requests that are waiting, so we notice when more
+        // concurrency would help
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    /**
+     * Allows a request to run. Release it once the handler has created the response: Writing the response can take
+     * much longer than creating it, for example for large files, and would hold the permit meanwhile. Only the first
+     * release counts.
+     */
+    final class Permit {
+        private final long startNanos;
+        private final int inFlightAtStart;
+        private final AtomicBoolean isReleased = new AtomicBoolean(false);
+
+        private Permit(long startNanos, int inFlightAtStart) {
+            this.startNanos = startNanos;
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        /**
+         * The handler of the request is done.
+         *
+         * @param isSuccess whether the handler created a response. Failed requests don't tell us anything about the
+         *                  latency
+         */
+        void release(boolean isSuccess) {
+            if (!isReleased.compareAndSet(false, true)) {
+                return;
+            }
+            inFlight.decrementAndGet();
+            if (isSuccess) {
+                update(System.nanoTime() - startNanos, inFlightAtStart);
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.bullbytes.mayray.http.server;
+
+import com.bullbytes.mayray.metrics.Counter;
+import com.bullbytes.mayray.metrics.Metrics;
+import com.bullbytes.mayray.utils.CancellationToken;
+import com.bullbytes.mayray.utils.HashedTimerWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Closes a client's connection if the client or the handler of its request take too long.
+ * <p>
+ * Handling a request goes through {@link Phase}s. Reading the header and running the handler have to finish within
+ * a fixed time. The time a request waits for a thread of its route's {@link Bulkhead} doesn't count: The bulkhead's
+ * queue is bounded and a {@link DisconnectWatcher} cancels requests whose client has left. While we read the request body or write the response, the client has to keep up a minimum transfer
+ * rate: We measure how long we're blocked waiting for the client and how many bytes get through meanwhile. This way,
+ * large uploads and downloads can take as long as they need while clients that send or receive a few bytes now and
+ * then, like in a slowloris attack, get disconnected.
+ * <p>
+ * The deadlines are checked by a {@link HashedTimerWheel} shared by all connections. When a deadline passes, we close
+ * the socket, which makes blocked reads and writes fail, and count the timeout in the {@link Metrics}. Closing a TLS
+ * socket can block, that's why we close sockets on other threads than the one of the wheel.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class ConnectionDeadlines {
+    private static final Logger log = LoggerFactory.getLogger(ConnectionDeadlines.class);
+
+    private static final HashedTimerWheel WHEEL =
+            HashedTimerWheel.start("connection-deadlines", 100, TimeUnit.MILLISECONDS, 512);
+
+    // Close the sockets of connections whose deadline passed
+    private static final AtomicInteger CLOSER_COUNT = new AtomicInteger();
+    private static final ExecutorService CLOSERS = Executors.newCachedThreadPool(task -> {
+        var thread = new Thread(task, "connection-closer-" + CLOSER_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Map<Phase, Counter> TIMEOUT_COUNTERS = new EnumMap<>(Phase.class);
+
+    static {
+        for (Phase phase : EnumSet.of(Phase.HEADER_READ, Phase.BODY_READ, Phase.HANDLER, Phase.RESPONSE_WRITE)) {
+            TIMEOUT_COUNTERS.put(phase, Metrics.counter("connections.timeouts." + phase.name().toLowerCase(Locale.ROOT)));
+        }
+    }
+
+    /**
+     * What we're doing with a connection. While {@link #WAITING} for a thread of the bulkhead, there's no deadline.
+     */
+    enum Phase {
+        HEADER_READ, WAITING, BODY_READ, HANDLER, RESPONSE_WRITE, FINISHED
+    }
+
+    // The client has to read or write within this time from the start of the connection
+    private static final long HEADER_READ_MILLIS = 10_000;
+    // The route's handler has to produce a response within this time
+    private static final long HANDLER_MILLIS = 60_000;
+    private static final long HANDLER_NANOS = TimeUnit.MILLISECONDS.toNanos(HANDLER_MILLIS);
+    // We check the transfer rate of the client this often
+    private static final long RATE_CHECK_MILLIS = 1_000;
+    // We judge the transfer rate once we waited for the client this long. Then we start measuring anew
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // Clients have to send or receive at least this many bytes per second while we wait for them
+    private static final int MIN_BYTES_PER_SECOND = 1024;
+
+    private final Socket socket;
+    private final CancellationToken cancellation;
+    // The thread working on the request or null while the request waits for a thread. Guarded by this
+    private Thread worker;
+    private Phase phase = Phase.HEADER_READ;
+    private HashedTimerWheel.Timeout phaseTimeout;
+    private HashedTimerWheel.Timeout rateCheck;
+    private boolean hasTimedOut = false;
+
+    // For measuring the transfer rate. Guarded by this
+    private long bytesInWindow = 0;
+    private long blockedNanosInWindow = 0;
+    // When the current read or write started or zero if we're not reading or writing
+    private long ioStartNanos = 0;
+    private long windowStartNanos = System.nanoTime();
+    // When the handler last got bytes of the request body. The handler's deadline counts from then
+    private long bodyReadNanos = 0;
+
+    private ConnectionDeadlines(Socket socket, CancellationToken cancellation, Thread worker) {
+        this.socket = socket;
+        this.cancellation = cancellation;
+        this.worker = worker;
+    }
+
+    /**
+     * Starts watching the {@code socket}, beginning with the {@link Phase#HEADER_READ} phase.
+     *
+     * @param socket       the connection to the client. We close it when a deadline passes
+     * @param cancellation we cancel the work on the request when a deadline passes
+     * @return the {@link ConnectionDeadlines} of the {@code socket}
+     */
+    static ConnectionDeadlines start(Socket socket, CancellationToken cancellation) {
+        var deadlines = new ConnectionDeadlines(socket, cancellation, Thread.currentThread());
+        synchronized (deadlines) {
+            deadlines.phaseTimeout = WHEEL.schedule(() -> deadlines.expire(Phase.HEADER_READ),
+                    HEADER_READ_MILLIS, TimeUnit.MILLISECONDS);
+            deadlines.scheduleRateCheck();
+        }
+        return deadlines;
+    }
+
+    /**
+     * The header is read, the request waits for a thread to run the route's handler.
+     */
+    synchronized void waitForHandler() {
+        enter(Phase.WAITING);
+    }
+
+    /**
+     * The route's handler starts to create the response. If it reads the request body, we're in
+     * {@link Phase#BODY_READ} until it writes the response. After the last read, the handler has
+     * {@value #HANDLER_MILLIS} milliseconds again.
+     */
+    synchronized void startHandler() {
+        enter(Phase.HANDLER);
+        phaseTimeout = WHEEL.schedule(() -> expire(Phase.HANDLER), HANDLER_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The current thread hands the request over to another thread, which will call {@link #takeOver()}.
+     */
+    synchronized void handOver() {
+        worker = null;
+    }
+
+    /**
+     * The current thread works on the request from now on.
+     */
+    synchronized void takeOver() {
+        worker = Thread.currentThread();
+    }
+
+    /**
+     * The response is written to the client. From now on, only the transfer rate counts.
+     */
+    synchronized void startResponseWrite() {
+        enter(Phase.RESPONSE_WRITE);
+    }
+
+    /**
+     * We're done with the connection: Stops watching it.
+     */
+    void finish() {
+        synchronized (this) {
+            enter(Phase.FINISHED);
+            rateCheck.cancel();
+        }
+        // In case the handler's deadline passed just before we finished, don't let the interrupt leak into the next
+        // task of the worker thread
+        Thread.interrupted();
+    }
+
+    private void enter(Phase newPhase) {
+        if (phase != Phase.FINISHED) {
+            phase = newPhase;
+            if (phaseTimeout != null) {
+                phaseTimeout.cancel();
+                phaseTimeout = null;
+            }
+        }
+    }
+
+    /**
+     * @return whether the connection was closed because of a deadline
+     */
+    synchronized boolean hasTimedOut() {
+        return hasTimedOut;
+    }
+
+    private synchronized void expire(Phase expiredPhase) {
+        if (phase != expiredPhase) {
+            // We moved on to the next phase just before the deadline passed
+            return;
+        }
+        log.info("Closing connection to {}: Deadline of phase {} passed", socket.getRemoteSocketAddress(), expiredPhase);
+        timeOut(expiredPhase);
+    }
+
+    private void timeOut(Phase expiredPhase) {
+        TIMEOUT_COUNTERS.get(expiredPhase).increment();
+        hasTimedOut = true;
+        enter(Phase.FINISHED);
+        rateCheck.cancel();
+        CLOSERS.execute(() -> {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.info("Could not close socket after timeout", e);
+            }
+        });
+        cancellation.cancel();
+        if (worker != null && (expiredPhase == Phase.HANDLER || expiredPhase == Phase.BODY_READ)) {
+            // Handlers that wait for something, like a lock or a file, can stop early
+            worker.interrupt();
+        }
+    }
+
+    private void scheduleRateCheck() {
+        rateCheck = WHEEL.schedule(this::checkRate, RATE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void checkRate() {
+        if (phase == Phase.FINISHED) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (phase == Phase.BODY_READ && ioStartNanos == 0 && now - bodyReadNanos >= HANDLER_NANOS) {
+            log.info("Closing connection to {}: Handler took too long after reading the request body",
+                    socket.getRemoteSocketAddress());
+            timeOut(Phase.HANDLER);
+            return;
+        }
+        long blockedNanos = blockedNanosInWindow;
+        if (ioStartNanos != 0) {
+            blockedNanos += now - Math.max(ioStartNanos, windowStartNanos);
+        }
+        if (blockedNanos >= RATE_WINDOW_NANOS) {
+            // Reading the header has its own deadline
+            boolean isTooSlow = bytesInWindow < MIN_BYTES_PER_SECOND * (blockedNanos / 1e9);
+            if (isTooSlow && phase != Phase.HEADER_READ) {
+                log.info("Closing connection to {} in phase {}: Transferred {} bytes in {} ms of waiting",
+                        socket.getRemoteSocketAddress(), phase, bytesInWindow, TimeUnit.NANOSECONDS.toMillis(blockedNanos));
+                timeOut(phase);
+                return;
+            }
+            bytesInWindow = 0;
+            blockedNanosInWindow = 0;
+            windowStartNanos = now;
+        }
+        scheduleRateCheck();
+    }
+
+    private synchronized void ioStarted(boolean isRead) {
+        if (isRead && phase == Phase.HANDLER) {
+            // Handlers read from the socket only to get the request body
+            phase = Phase.BODY_READ;
+        }
+        ioStartNanos = System.nanoTime();
+    }
+
+    private synchronized void ioFinished(long bytes) {
+        long now = System.nanoTime();
+        blockedNanosInWindow += now - Math.max(ioStartNanos, windowStartNanos);
+        ioStartNanos = 0;
+        if (phase == Phase.BODY_READ) {
+            bodyReadNanos = now;
+        }
+        bytesInWindow += Math.max(0, bytes);
+    }
+
+    /**
+     * @param in the {@link InputStream} of the socket
+     * @return an {@link InputStream} that measures how fast the client sends data
+     */
+    InputStream watch(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                ioStarted(true);
+                int result = -1;
+                try {
+                    result = super.read();
+                    return result;
+                } finally {
+                    ioFinished(result == -1 ? 0 : 1);
+                }
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                ioStarted(true);
+                int count = 0;
+                try {
+                    count = super.read(bytes, offset, length);
+                    return count;
+                } finally {
+                    ioFinished(count);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param out the {@link OutputStream} of the socket
+     * @return an {@link OutputStream} that measures how fast the client receives data
+     */
+    OutputStream watch(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                ioStarted(false);
+                try {
+                    out.write(b);
+                } finally {
+                    ioFinished(1);
+                }
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                // Write in small chunks to see the progress of large writes
+                for (int chunkStart = offset; chunkStart < offset + length; chunkStart += MIN_BYTES_PER_SECOND) {
+                    int chunkLength = Math.min(MIN_BYTES_PER_SECOND, offset + length - chunkStart);
+                    ioStarted(false);
+                    try {
+                        out.write(bytes, chunkStart, chunkLength);
+                    } finally {
+                        ioFinished(chunkLength);
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,89 @@
+package com.bullbytes.mayray.http.server;
+
+import com.bullbytes.mayray.metrics.Counter;
+import com.bullbytes.mayray.metrics.Metrics;
+import com.bullbytes.mayray.utils.CancellationToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Notices when a client closes its connection while we're still working on the response, so the work can stop.
+ * <p>
+ * Once we've read a request without a body, the client doesn't send anything else. A thread waits for more data from
+ * the client: When the read returns the end of the stream, the client has closed the connection and we cancel the
+ * request's {@link CancellationToken}. When we close the socket after sending the response, the read fails and the
+ * thread is free again.
+ * <p>
+ * Clients that shut down their side of the connection after sending the request while still waiting for the response
+ * look like they disconnected. Browsers and common HTTP clients don't do that.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+enum DisconnectWatcher {
+    ;
+
+    private static final Logger log = LoggerFactory.getLogger(DisconnectWatcher.class);
+
+    private static final Counter DISCONNECTS = Metrics.counter("connections.disconnected_early");
+
+    // The threads only wait for the sockets, so a thread per watched request is fine. There are at most as many as
+    // requests in flight
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService WATCHERS = Executors.newCachedThreadPool(task -> {
+        var thread = new Thread(task, "disconnect-watcher-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Starts watching the {@code socket} for the client disconnecting.
+     *
+     * @param socket       the connection to the client. We must have read the whole request from it
+     * @param cancellation cancelled if the client disconnects
+     */
+    static void watch(Socket socket, CancellationToken cancellation) {
+        WATCHERS.execute(() -> {
+            try {
+                if (hasDisconnected(socket)) {
+                    DISCONNECTS.increment();
+                    log.info("Client at {} disconnected before getting its response", socket.getRemoteSocketAddress());
+                    cancellation.cancel();
+                }
+            } catch (IOException e) {
+                // We closed the socket after sending the response
+                log.trace("Stopped watching socket", e);
+            }
+        });
+    }
+
+    /**
+     * Waits until the client closes the connection or we close the socket.
+     *
+     * @return true if the client closed the connection
+     */
+    private static boolean hasDisconnected(Socket socket) throws IOException {
+        // We read from the socket's stream directly so that the ConnectionDeadlines don't think we're waiting for a
+        // request body. We don't close the stream since that would close the socket
+        InputStream in = socket.getInputStream();
+        while (!socket.isClosed()) {
+            try {
+                if (in.read() == -1) {
+                    return !socket.isClosed();
+                }
+                // Ignore anything the client sends, such as the next request, which we wouldn't answer anyway
+            } catch (SocketTimeoutException e) {
+                // The socket has a read timeout, but the client doesn't have to send anything while waiting
+                log.trace("Client is still connected");
+            }
+        }
+        return false;
+    }
+}
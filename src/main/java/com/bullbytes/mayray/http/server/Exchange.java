@@ -0,0 +1,212 @@
+package com.bullbytes.mayray.http.server;
+
+import com.bullbytes.mayray.http.responses.Response;
+import com.bullbytes.mayray.utils.BufferPool;
+import com.bullbytes.mayray.utils.CancellationToken;
+import com.bullbytes.mayray.utils.FormattingUtil;
+import com.bullbytes.mayray.utils.MemoryBudget;
+import com.bullbytes.mayray.utils.PooledOutputStream;
+import io.vavr.collection.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * A client's connection while we read its request and send the response.
+ * <p>
+ * The thread that reads the request doesn't have to be the one sending the response: A {@link Bulkhead} can take
+ * over the exchange. Whoever sends the response closes the connection.
+ * <p>
+ * Request bodies and responses that are held in memory count against the server's {@link MemoryBudget} until the
+ * connection is closed.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class Exchange {
+    private static final Logger log = LoggerFactory.getLogger(Exchange.class);
+
+    private final Socket socket;
+    private final ConnectionDeadlines deadlines;
+    private final CancellationToken cancellation;
+    private final BufferedInputStream requestStream;
+    private final PooledOutputStream responseStream;
+    private final MemoryBudget memoryBudget;
+    // The parts of the memory budget this exchange uses. Only one thread at a time works on the exchange
+    private volatile List<MemoryBudget.Reservation> reservations = List.empty();
+
+    private Exchange(Socket socket,
+                     ConnectionDeadlines deadlines,
+                     CancellationToken cancellation,
+                     BufferedInputStream requestStream,
+                     PooledOutputStream responseStream,
+                     MemoryBudget memoryBudget) {
+        this.socket = socket;
+        this.deadlines = deadlines;
+        this.cancellation = cancellation;
+        this.requestStream = requestStream;
+        this.responseStream = responseStream;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Starts the exchange with the client, which includes watching the {@link ConnectionDeadlines}.
+     *
+     * @param socket       the connection to the client
+     * @param memoryBudget the request body and the response count against this while they're in memory
+     * @return a new {@link Exchange}
+     * @throws IOException if we can't get the socket's streams
+     */
+    static Exchange open(Socket socket, MemoryBudget memoryBudget) throws IOException {
+        var cancellation = CancellationToken.create();
+        var deadlines = ConnectionDeadlines.start(socket, cancellation);
+        try {
+            // Read the client's request from the socket. We read bytes, not characters, since request bodies can be
+            // binary, like uploaded files
+            var requestStream = new BufferedInputStream(deadlines.watch(socket.getInputStream()));
+            // The server writes its response to the socket's output stream
+            var responseStream = PooledOutputStream.create(deadlines.watch(socket.getOutputStream()), BufferPool.SHARED);
+            return new Exchange(socket, deadlines, cancellation, requestStream, responseStream, memoryBudget);
+        } catch (IOException e) {
+            deadlines.finish();
+            throw e;
+        }
+    }
+
+    BufferedInputStream getRequestStream() {
+        return requestStream;
+    }
+
+    Socket getSocket() {
+        return socket;
+    }
+
+    /**
+     * @return cancelled when we give up on the exchange, for example because the client disconnected
+     */
+    CancellationToken getCancellation() {
+        return cancellation;
+    }
+
+    /**
+     * Cancels the exchange if the client disconnects before getting the response. Call this only after reading the
+     * whole request.
+     */
+    void watchForDisconnect() {
+        DisconnectWatcher.watch(socket, cancellation);
+    }
+
+    /**
+     * Reserves room in the {@link MemoryBudget} for the request body, which the route reads into memory.
+     *
+     * @param bytes   how many bytes of memory the body takes up
+     * @param maxWait how long to wait for other requests to free up memory
+     * @return whether there was room for the body in time
+     */
+    boolean reserveForBody(long bytes, Duration maxWait) {
+        var reservation = memoryBudget.reserve(bytes, maxWait);
+        reservation.forEach(this::hold);
+        return reservation.isDefined();
+    }
+
+    private void hold(MemoryBudget.Reservation reservation) {
+        reservations = reservations.prepend(reservation);
+    }
+
+    /**
+     * The header is read, now the request waits for a thread that runs its route.
+     */
+    void waitForHandler() {
+        deadlines.waitForHandler();
+    }
+
+    /**
+     * The current thread lets another thread send the response.
+     */
+    void handOver() {
+        deadlines.handOver();
+    }
+
+    /**
+     * Creates the response on the current thread, sends it to the client, and closes the connection.
+     *
+     * @param createResponse creates the {@link Response}
+     * @return whether we sent the response
+     */
+    boolean respond(Supplier<Response> createResponse) {
+        deadlines.takeOver();
+        // The handler's deadline starts now, not while the request waited for a thread of the bulkhead
+        deadlines.startHandler();
+        boolean isSent = false;
+        try {
+            // The client may have disconnected while the request was waiting for a thread
+            cancellation.throwIfCancelled();
+            Response response = createResponse.get();
+            try {
+                log.info("About to send a response of size {}", response.getLength()
+                        .map(FormattingUtil::humanReadableBytes)
+                        .getOrElse("unknown since it's streamed"));
+                if (response.isBuffered()) {
+                    // The response is already in memory, so it's too late to wait for room in the budget. But other
+                    // requests will wait until we've sent it
+                    hold(memoryBudget.reserveNow(response.getLength().getOrElse(0L)));
+                }
+
+                deadlines.startResponseWrite();
+                response.writeTo(responseStream);
+
+                // It's important to flush the response stream before closing it to make sure any
+                // unsent bytes in the buffer are sent via the socket. Otherwise, the client gets an
+                // incomplete response
+                responseStream.flush();
+                isSent = true;
+            } finally {
+                // In case we couldn't start writing the response
+                response.release();
+            }
+        } catch (Exception e) {
+            logFailure(e);
+        } finally {
+            close();
+        }
+        return isSent;
+    }
+
+    /**
+     * Gives up on the exchange because of the {@code exception} and closes the connection.
+     *
+     * @param exception why we give up
+     */
+    void fail(Exception exception) {
+        logFailure(exception);
+        close();
+    }
+
+    private void logFailure(Exception exception) {
+        if (cancellation.isCancelled()) {
+            log.info("Stopped working on request that was cancelled: {}", exception.toString());
+        } else if (deadlines.hasTimedOut()) {
+            log.info("Gave up on connection after a timeout: {}", exception.toString());
+        } else {
+            log.warn("Exception while creating response", exception);
+        }
+    }
+
+    private void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.info("Could not close socket", e);
+        } finally {
+            // The socket is closed, so there's nothing left to send
+            responseStream.discard();
+            reservations.forEach(MemoryBudget.Reservation::close);
+            reservations = List.empty();
+            deadlines.finish();
+        }
+    }
+}
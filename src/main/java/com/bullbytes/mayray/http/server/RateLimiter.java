@@ -0,0 +1,120 @@
+package com.bullbytes.mayray.http.server;
+
+import com.bullbytes.mayray.config.RateLimitConfig;
+import com.bullbytes.mayray.http.RouteClass;
+import com.bullbytes.mayray.metrics.Counter;
+import com.bullbytes.mayray.metrics.Metrics;
+import io.vavr.control.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how often each client may connect and request routes of each {@link RouteClass}, so that a single client
+ * can't keep all threads and disks of the server busy.
+ * <p>
+ * Clients are identified by their IP address. Since providers usually give a whole /64 network to an IPv6 client, we
+ * treat all IPv6 addresses of such a network as one client.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class RateLimiter {
+    private static final Logger log = LoggerFactory.getLogger(RateLimiter.class);
+
+    private final long startNanos = System.nanoTime();
+    private final Option<TokenBucketTable> connectionBuckets;
+    private final Map<RouteClass, TokenBucketTable> requestBuckets = new EnumMap<>(RouteClass.class);
+    private final Counter rejectedConnections = Metrics.counter("ratelimit.rejected.connections");
+    private final Map<RouteClass, Counter> rejectedRequests = new EnumMap<>(RouteClass.class);
+    private final Counter evictions = Metrics.counter("ratelimit.evictions");
+
+    private RateLimiter(RateLimitConfig config) {
+        int maxClients = config.getMaxClients();
+        connectionBuckets = config.getConnectionRate().map(rate -> toTable(rate, maxClients));
+        for (RouteClass routeClass : RouteClass.values()) {
+            config.getRequestRate(routeClass)
+                    .forEach(rate -> requestBuckets.put(routeClass, toTable(rate, maxClients)));
+            rejectedRequests.put(routeClass, Metrics.counter("ratelimit.rejected." + routeClass.getKey()));
+            log.info("Limit of requests to {} routes per client: {}", routeClass.getKey(),
+                    describe(config.getRequestRate(routeClass)));
+        }
+        log.info("Limit of new connections per client: {}", describe(config.getConnectionRate()));
+    }
+
+    /**
+     * @param config the {@link RateLimitConfig} defines the limits
+     * @return a new {@link RateLimiter}
+     */
+    static RateLimiter create(RateLimitConfig config) {
+        return new RateLimiter(config);
+    }
+
+    private static String describe(Option<RateLimitConfig.Rate> rate) {
+        return rate.map(RateLimitConfig.Rate::toString).getOrElse("none");
+    }
+
+    private static TokenBucketTable toTable(RateLimitConfig.Rate rate, int maxClients) {
+        return TokenBucketTable.create(rate.getPerSecond(), rate.getBurst(), maxClients);
+    }
+
+    /**
+     * Checks whether the client may open another connection.
+     *
+     * @param client the address of the client
+     * @return whether the client is within its limit
+     */
+    boolean allowConnection(InetAddress client) {
+        boolean isAllowed = connectionBuckets
+                .map(buckets -> acquire(buckets, client) == 0)
+                .getOrElse(true);
+        if (!isAllowed) {
+            rejectedConnections.increment();
+        }
+        return isAllowed;
+    }
+
+    /**
+     * Checks whether the client may make another request to a route of the {@code routeClass}.
+     *
+     * @param client     the address of the client
+     * @param routeClass the {@link RouteClass} of the requested route
+     * @return how long the client has to wait before trying again or {@link Option#none()} if the client is within
+     * its limit
+     */
+    Option<Duration> acquire(InetAddress client, RouteClass routeClass) {
+        var buckets = requestBuckets.get(routeClass);
+        long waitMillis = buckets == null ? 0 : acquire(buckets, client);
+        if (waitMillis == 0) {
+            return Option.none();
+        }
+        rejectedRequests.get(routeClass).increment();
+        return Option.of(Duration.ofMillis(waitMillis));
+    }
+
+    private long acquire(TokenBucketTable buckets, InetAddress client) {
+        long nowMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        return buckets.acquire(keyOf(client), nowMillis, evictions::increment);
+    }
+
+    /**
+     * @return a key for the {@link TokenBucketTable} that's the same for all addresses we treat as one client
+     */
+    static long keyOf(InetAddress client) {
+        byte[] address = client.getAddress();
+        if (client instanceof Inet4Address) {
+            // The set bit above the address keeps the key from being zero and apart from IPv6 keys with the
+            // upper bits zeroed
+            return (1L << 32) | Integer.toUnsignedLong(ByteBuffer.wrap(address).getInt());
+        }
+        // The first eight bytes are the /64 network of an IPv6 address
+        long network = ByteBuffer.wrap(address).getLong();
+        return network == 0 ? 1 : network;
+    }
+}
@@ -0,0 +1,159 @@
+package com.bullbytes.mayray.http.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Token buckets for many clients, each identified by a {@code long} key, in a fixed amount of memory.
+ * <p>
+ * Each client's bucket holds up to {@code burst} tokens and gains {@code perSecond} tokens per second. A request
+ * takes one token. If the bucket is empty, the client has to wait.
+ * <p>
+ * The table is divided into stripes of {@link #SLOTS_PER_STRIPE} slots. A key always goes into the same stripe. When
+ * its stripe is full, the key replaces the client that was idle the longest, which gets a new, full bucket the next
+ * time it shows up. That way, the table never grows, no matter how many addresses clients use.
+ * <p>
+ * A bucket's state is a single {@code long} updated with compare-and-set, so threads never wait for each other. A
+ * client that just took over a slot may see the tokens of the evicted client for a moment. That only makes the limit
+ * slightly less exact.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class TokenBucketTable {
+    static final int SLOTS_PER_STRIPE = 8;
+    // We store tokens in thousandths to refill buckets precisely even if requests come in quick succession
+    private static final long MILLI_TOKENS_PER_TOKEN = 1000;
+    private static final int TOKEN_BITS = 24;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    /**
+     * The largest burst a bucket can hold, limited by the bits we have for the tokens in a bucket's state.
+     */
+    static final int MAX_BURST = (int) (TOKEN_MASK / MILLI_TOKENS_PER_TOKEN);
+    // Keys are never zero, so zero marks an empty slot
+    private static final long NO_KEY = 0;
+    // A state of zero means that the bucket is new and therefore full
+    private static final long NEW_BUCKET = 0;
+
+    private final long perSecond;
+    private final long capacity;
+    private final int stripeMask;
+    private final AtomicLongArray keys;
+    // The time in milliseconds (plus one) of the bucket's last update in the upper bits and its tokens in the lower
+    private final AtomicLongArray states;
+
+    private TokenBucketTable(long perSecond, int burst, int stripeCount) {
+        this.perSecond = perSecond;
+        this.capacity = burst * MILLI_TOKENS_PER_TOKEN;
+        this.stripeMask = stripeCount - 1;
+        this.keys = new AtomicLongArray(stripeCount * SLOTS_PER_STRIPE);
+        this.states = new AtomicLongArray(stripeCount * SLOTS_PER_STRIPE);
+    }
+
+    /**
+     * Creates a {@link TokenBucketTable}.
+     *
+     * @param perSecond  how many tokens each bucket gains per second
+     * @param burst      how many tokens a bucket can hold, at most {@link #MAX_BURST}. That's how many requests a
+     *                   client can make at once after being idle
+     * @param maxClients the table has room for at least this many clients
+     * @return a new {@link TokenBucketTable}
+     */
+    static TokenBucketTable create(int perSecond, int burst, int maxClients) {
+        if (perSecond <= 0 || burst <= 0 || burst > MAX_BURST) {
+            throw new IllegalArgumentException(String.format(
+                    "Rate of %d per second and burst of %d are not allowed", perSecond, burst));
+        }
+        int minStripes = Math.max(1, (maxClients + SLOTS_PER_STRIPE - 1) / SLOTS_PER_STRIPE);
+        // Round up to a power of two to get the stripe of a key with a mask
+        int stripeCount = Integer.highestOneBit(minStripes - 1) << 1;
+        return new TokenBucketTable(perSecond, burst, Math.max(1, stripeCount));
+    }
+
+    /**
+     * Takes a token from the bucket of the client with the {@code key}.
+     *
+     * @param key        identifies the client. Must not be zero
+     * @param nowMillis  the current time in milliseconds. Only differences between times matter
+     * @param onEviction called if the client took the slot of another client
+     * @return zero if there was a token, otherwise the milliseconds until the bucket has a token again
+     */
+    long acquire(long key, long nowMillis, Runnable onEviction) {
+        int slot = getSlot(key, onEviction);
+        while (true) {
+            long state = states.get(slot);
+            long tokens;
+            if (state == NEW_BUCKET) {
+                tokens = capacity;
+            } else {
+                long elapsedMillis = Math.max(0, nowMillis - timeOf(state));
+                // One token per second is one thousandth of a token per millisecond
+                tokens = Math.min(capacity, tokensOf(state) + elapsedMillis * perSecond);
+            }
+            boolean hasToken = tokens >= MILLI_TOKENS_PER_TOKEN;
+            long newTokens = hasToken ? tokens - MILLI_TOKENS_PER_TOKEN : tokens;
+            // We update the time of the bucket even if the client has to wait. Otherwise, a client that keeps
+            // trying would look idle and get evicted, giving it a full bucket
+            if (states.compareAndSet(slot, state, stateOf(nowMillis, newTokens))) {
+                return hasToken ? 0 : ceilDiv(MILLI_TOKENS_PER_TOKEN - tokens, perSecond);
+            }
+        }
+    }
+
+    private int getSlot(long key, Runnable onEviction) {
+        int stripeStart = stripeOf(key) * SLOTS_PER_STRIPE;
+        while (true) {
+            int emptySlot = -1;
+            int idlestSlot = stripeStart;
+            long idlestTime = Long.MAX_VALUE;
+            for (int slot = stripeStart; slot < stripeStart + SLOTS_PER_STRIPE; slot++) {
+                long slotKey = keys.get(slot);
+                if (slotKey == key) {
+                    return slot;
+                }
+                if (slotKey == NO_KEY) {
+                    if (emptySlot == -1) {
+                        emptySlot = slot;
+                    }
+                } else {
+                    long time = timeOf(states.get(slot));
+                    if (time < idlestTime) {
+                        idlestTime = time;
+                        idlestSlot = slot;
+                    }
+                }
+            }
+            int slot = emptySlot != -1 ? emptySlot : idlestSlot;
+            long oldKey = keys.get(slot);
+            // If another thread took the slot in the meantime, we look at the stripe again
+            if ((oldKey == NO_KEY || emptySlot == -1) && keys.compareAndSet(slot, oldKey, key)) {
+                states.set(slot, NEW_BUCKET);
+                if (oldKey != NO_KEY) {
+                    onEviction.run();
+                }
+                return slot;
+            }
+        }
+    }
+
+    private int stripeOf(long key) {
+        // Spread the bits of the key since addresses of clients often differ only in a few bits
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & stripeMask;
+    }
+
+    private static long stateOf(long nowMillis, long tokens) {
+        // We add one to the time so that no state equals NEW_BUCKET
+        return ((nowMillis + 1) << TOKEN_BITS) | tokens;
+    }
+
+    private static long timeOf(long state) {
+        return (state >>> TOKEN_BITS) - 1;
+    }
+
+    private static long tokensOf(long state) {
+        return state & TOKEN_MASK;
+    }
+
+    private static long ceilDiv(long dividend, long divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+}
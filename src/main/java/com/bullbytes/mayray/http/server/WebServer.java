@@ -2,27 +2,35 @@ package com.bullbytes.mayray.http.server;
 
 import com.bullbytes.mayray.config.ServerConfig;
 import com.bullbytes.mayray.http.Route;
+import com.bullbytes.mayray.http.headers.HeaderUtil;
+import com.bullbytes.mayray.http.headers.HttpHeader;
 import com.bullbytes.mayray.http.requests.Request;
+import com.bullbytes.mayray.http.responses.Response;
 import com.bullbytes.mayray.http.responses.Responses;
 import com.bullbytes.mayray.http.responses.StatusCode;
+import com.bullbytes.mayray.metrics.Counter;
+import com.bullbytes.mayray.metrics.Metrics;
 import com.bullbytes.mayray.tls.HttpsUtil;
 import com.bullbytes.mayray.tls.TlsStatus;
+import com.bullbytes.mayray.utils.MemoryBudget;
 import com.bullbytes.mayray.utils.ThreadUtil;
 import io.vavr.collection.List;
 import io.vavr.collection.Seq;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Pattern;
 
-import static com.bullbytes.mayray.utils.FormattingUtil.humanReadableBytes;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
@@ -35,6 +43,29 @@ public enum WebServer {
 
     private static final Logger log = LoggerFactory.getLogger(WebServer.class);
 
+    // Counts connections we closed right away because all threads were busy
+    private static final Counter REJECTED_CONNECTIONS = Metrics.counter("connections.rejected");
+
+    // Clients whose request we turned away because the server is busy should try again after this time
+    private static final Duration BUSY_RETRY_AFTER = Duration.ofSeconds(5);
+
+    // Threads that read requests and run the handlers of inline routes. Other routes run in their own bulkheads.
+    // How many requests are handled at once is up to the ConcurrencyLimiter, so this is only an upper bound for
+    // connections whose request we're still reading
+    private static final int CONNECTION_THREADS = 256;
+    private static final int INITIAL_CONCURRENCY_LIMIT = 20;
+    private static final int MIN_CONCURRENCY_LIMIT = 4;
+    private static final int MAX_CONCURRENCY_LIMIT = 1000;
+
+    // If ConnectionDeadlines fails to close a connection, reading from the socket stops after this time
+    private static final int SOCKET_READ_TIMEOUT_MILLIS = 30_000;
+    // How long a request waits for other requests to free up memory for its body before we answer with status 503
+    private static final Duration BODY_MEMORY_MAX_WAIT = Duration.ofSeconds(2);
+    // Longer header lines, more of them, or larger headers are an attack or a mistake
+    private static final int MAX_HEADER_LINE_LENGTH = 16 * 1024;
+    private static final int MAX_HEADER_LINES = 100;
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+
     /**
      * Starts the server.
      * <p>
@@ -59,16 +90,21 @@ public enum WebServer {
                 // Create a server socket without TLS
                 new ServerSocket(config.getPort(), 0, address.getAddress())) {
 
-            handleRequests(serverSocket, List.of(routes));
+            handleRequests(serverSocket, List.of(routes), RateLimiter.create(config.getRateLimits()),
+                    ConcurrencyLimiter.create(INITIAL_CONCURRENCY_LIMIT, MIN_CONCURRENCY_LIMIT, MAX_CONCURRENCY_LIMIT),
+                    MemoryBudget.create(config.getMemoryBudgetBytes()));
         } catch (Exception e) {
             log.warn("Could not start server at {}", address, e);
         }
     }
 
     private static void handleRequests(ServerSocket serverSocket,
-                                       Seq<Route> routes) {
+                                       Seq<Route> routes,
+                                       RateLimiter rateLimiter,
+                                       ConcurrencyLimiter concurrencyLimiter,
+                                       MemoryBudget memoryBudget) {
 
-        var threadPool = ThreadUtil.newCachedThreadPool(8);
+        var threadPool = ThreadUtil.newCachedThreadPool(CONNECTION_THREADS);
 
         // This endless loop is not CPU-intense since method "accept" blocks until a client has made a connection to
         // the socket
@@ -77,34 +113,62 @@ public enum WebServer {
                 // We'll close the socket inside the lambda passed to the thread pool. If we didn't close it,
                 // we'd leak file handles
                 var socket = serverSocket.accept();
+                // Closing the connection right away is the cheapest way to turn away a client that connects too
+                // often. We don't answer with an HTTP response since that would mean a TLS handshake on this thread
+                if (!rateLimiter.allowConnection(socket.getInetAddress())) {
+                    log.info("Client at {} connects too often, closing connection", socket.getRemoteSocketAddress());
+                    socket.close();
+                    continue;
+                }
                 // Create a response to the request on a separate thread to handle multiple requests simultaneously
-                threadPool.submit(() -> {
-                    try ( // Read the client's request from the socket
-                          var requestStream = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8.name()));
-                          // The server writes its response to the socket's output stream
-                          var responseStream = new BufferedOutputStream(socket.getOutputStream())
-                    ) {
-                        byte[] response = getResponse(requestStream, routes);
-                        log.info("About to send a response of size {}", humanReadableBytes(response.length));
-
-                        responseStream.write(response);
-
-                        // It's important to flush the response stream before closing it to make sure any
-                        // unsent bytes in the buffer are sent via the socket. Otherwise, the client gets an
-                        // incomplete response
-                        responseStream.flush();
-
-                        socket.close();
-                    } catch (Exception e) {
-                        log.warn("Exception while creating response", e);
-                    }
-                });
+                try {
+                    threadPool.submit(() -> respond(socket, routes, rateLimiter, concurrencyLimiter,
+                            memoryBudget));
+                } catch (RejectedExecutionException e) {
+                    REJECTED_CONNECTIONS.increment();
+                    log.warn("All threads are busy, closing connection to {}", socket.getRemoteSocketAddress());
+                    socket.close();
+                }
             } catch (IOException e) {
                 log.warn("Exception while waiting for a client connection", e);
             }
         }
     }
 
+    private static void respond(Socket socket,
+                                Seq<Route> routes,
+                                RateLimiter rateLimiter,
+                                ConcurrencyLimiter concurrencyLimiter,
+                                MemoryBudget memoryBudget) {
+        Exchange exchange;
+        try {
+            exchange = Exchange.open(socket, memoryBudget);
+        } catch (IOException e) {
+            log.warn("Could not open streams of socket", e);
+            closeQuietly(socket);
+            return;
+        }
+        try {
+            socket.setSoTimeout(SOCKET_READ_TIMEOUT_MILLIS);
+            var headerLines = getHeaderLines(exchange.getRequestStream());
+            exchange.waitForHandler();
+            dispatch(exchange, headerLines, routes, rateLimiter, concurrencyLimiter);
+        } catch (HeaderTooLargeException e) {
+            log.info("Not reading request from {}: {}", socket.getRemoteSocketAddress(), e.getMessage());
+            respondNow(exchange, Responses.plainText(e.getMessage(), StatusCode.REQUEST_HEADER_FIELDS_TOO_LARGE));
+        } catch (Exception e) {
+            exchange.fail(e);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.info("Could not close socket", e);
+        }
+    }
+
     private static ServerSocket getTlsServerSocket(ServerConfig config, InetSocketAddress address) throws IOException {
         char[] keyStorePassword = config.getKeyStorePassword()
                 .getOrElseThrow(() -> new IllegalArgumentException("Can't create server without key store password"));
@@ -120,51 +184,186 @@ public enum WebServer {
     }
 
     /**
-     * Produces a response to the client's request using one of the provided {@code routes}.
+     * Produces a response to the client's request using one of the provided {@code routes} and sends it.
      *
-     * @param requestStream this {@link BufferedReader} contains the client's request
-     * @param routes        when the {@link Pattern} of one of these {@link Route}s matches the requested resource (read
-     *                      from the {@code requestStream}), we use the route to produce a response
-     * @return the response for the request as an array of bytes
+     * @param exchange           the {@link Exchange} with the client whose request header we've read
+     * @param headerLines        the lines of the request's header
+     * @param routes             when the {@link Pattern} of one of these {@link Route}s matches the requested
+     *                           resource, we use the route to produce a response. The route's {@link Bulkhead}
+     *                           decides on which thread
+     * @param rateLimiter        before using the route, we check with this whether the client made too many
+     *                           requests
+     * @param concurrencyLimiter if the server is handling too many requests already, we answer with status code 503
+     */
+    private static void dispatch(Exchange exchange,
+                                 List<String> headerLines,
+                                 Seq<Route> routes,
+                                 RateLimiter rateLimiter,
+                                 ConcurrencyLimiter concurrencyLimiter) {
+
+        // The rest of the request stream contains the client's request body. We don't try to parse the body into
+        // another object like a list of strings here, instead the route can do that based on the request header
+        // (using Content-Length, for example)
+        var requestOrError = Request.create(headerLines, exchange.getRequestStream(), exchange.getCancellation());
+        if (requestOrError.isLeft()) {
+            log.info("Could not read request from socket: {}", requestOrError.getLeft());
+            respondNow(exchange, Responses.plainText("Did not understand request", StatusCode.BAD_REQUEST));
+            return;
+        }
+        var request = requestOrError.get();
+        // Get the first route that matches the requested resource to create a response
+        var routeOption = routes.find(route -> route.matches(request.getResource()));
+        if (routeOption.isEmpty()) {
+            log.info("No route for requested resource '{}'", request.getResource());
+            respondNow(exchange, Responses.plainText("Resource not found", StatusCode.NOT_FOUND));
+            return;
+        }
+        var route = routeOption.get();
+        log.info("Using route '{}' for resource '{}'", route.getName(), request.getResource());
+
+        var waitTime = rateLimiter.acquire(exchange.getSocket().getInetAddress(), route.getRouteClass());
+        if (waitTime.isDefined()) {
+            log.info("Client made too many requests to route '{}'", route.getName());
+            respondNow(exchange, Responses.tooManyRequests(waitTime.get()));
+            return;
+        }
+        var permit = concurrencyLimiter.tryAcquire();
+        if (permit.isEmpty()) {
+            log.info("Server is handling too many requests to run route '{}'", route.getName());
+            respondNow(exchange, Responses.serviceUnavailable(BUSY_RETRY_AFTER));
+            return;
+        }
+        if (route.readsBodyIntoMemory() && !reserveForBody(exchange, request)) {
+            permit.get().release(false);
+            log.info("Not enough memory for the body of the request to route '{}'", route.getName());
+            respondNow(exchange, Responses.serviceUnavailable(BUSY_RETRY_AFTER));
+            return;
+        }
+        runInBulkhead(exchange, route, request, permit.get());
+    }
+
+    private static void respondNow(Exchange exchange, byte[] response) {
+        exchange.respond(() -> Response.of(response));
+    }
+
+    private static void runInBulkhead(Exchange exchange,
+                                      Route route,
+                                      Request request,
+                                      ConcurrencyLimiter.Permit permit) {
+        var bulkhead = route.getBulkhead();
+        if (!bulkhead.isInline()) {
+            exchange.handOver();
+            // Routes that aren't inline can take a while. If the client leaves in the meantime, the route can stop
+            if (!hasBody(request)) {
+                exchange.watchForDisconnect();
+            }
+        }
+        // The time the request waits in the bulkhead's queue counts for the latency: It grows when the server is
+        // overloaded. The time we spend writing the response doesn't count, sending a large file to a slow client
+        // says nothing about how busy the server is. Deferred responses are different: They do their work, such as
+        // zipping a directory, while we write them. They hold the permit until they're sent
+        boolean isAccepted = bulkhead.execute(() -> {
+            boolean isSent = false;
+            try {
+                isSent = exchange.respond(() -> {
+                    var response = route.getResponse(request);
+                    if (!response.isDeferred()) {
+                        permit.release(true);
+                    }
+                    return response;
+                });
+            } finally {
+                // Releases the permit of a deferred response. Failed requests and those that were cancelled before
+                // the handler ran don't count for the latency
+                permit.release(isSent);
+            }
+        });
+        if (!isAccepted) {
+            permit.release(false);
+            log.info("Bulkhead '{}' of route '{}' is full", bulkhead.getName(), route.getName());
+            respondNow(exchange, Responses.serviceUnavailable(BUSY_RETRY_AFTER));
+        }
+    }
+
+    /**
+     * Routes read request bodies into memory. We make sure there's room for the body before running the route.
+     * We can't know the size of chunked bodies in advance, so they don't count against the budget.
      */
-    private static byte[] getResponse(BufferedReader requestStream,
-                                      Seq<Route> routes) {
-
-        // Read the header lines from the request stream. The rest of the stream contains the client's request body.
-        // We don't try to parse the body into another object like a list of strings here, instead the route
-        // can do that based on the request header (using Content-Length, for example)
-        return Request.create(getHeaderLines(requestStream), requestStream)
-                .fold(msg -> {
-                    log.info("Could not read request from socket: {}", msg);
-                    return Responses.plainText("Did not understand request", StatusCode.BAD_REQUEST);
-                }, request ->
-                        // Get the first route that matches the requested resource to create a response
-                        routes
-                                .find(route -> route.matches(request.getResource()))
-                                .peek(route -> log.info("Using route '{}' for resource '{}'", route.getName(), request.getResource()))
-                                .map(route -> route.getResponse(request))
-                                .getOrElse(() -> {
-                                    log.info("No route for requested resource '{}'", request.getResource());
-                                    return Responses.plainText("Resource not found", StatusCode.NOT_FOUND);
-                                }));
+    private static boolean reserveForBody(Exchange exchange, Request request) {
+        return HeaderUtil.getContentLength(request.getHeaders())
+                .toOption()
+                .filter(length -> length > 0)
+                // We store the body as characters of two bytes each
+                .map(length -> exchange.reserveForBody((long) length * Character.BYTES, BODY_MEMORY_MAX_WAIT))
+                .getOrElse(true);
     }
 
-    private static List<String> getHeaderLines(BufferedReader reader) {
+    private static boolean hasBody(Request request) {
+        var headers = request.getHeaders();
+        return headers.contains(HttpHeader.TRANSFER_ENCODING) ||
+                HeaderUtil.getLongContentLength(headers).map(length -> length > 0).getOrElse(false);
+    }
+
+    private static List<String> getHeaderLines(InputStream requestStream) throws HeaderTooLargeException {
 
         var headerLines = new ArrayList<String>();
         try {
-            var line = reader.readLine();
+            int remainingBytes = MAX_HEADER_BYTES;
+            var line = readLine(requestStream, remainingBytes);
             // The header is concluded when we see an empty line.
             // The line is null if the end of the stream was reached without reading
             // any characters. This can happen if the client tries to connect with
             // HTTPS while the server expects HTTP
-            while (line != null && !line.isEmpty()) {
-                headerLines.add(line);
-                line = reader.readLine();
+            while (line != null && line.length > 0) {
+                if (headerLines.size() == MAX_HEADER_LINES) {
+                    throw new HeaderTooLargeException("Header has more than " + MAX_HEADER_LINES + " lines");
+                }
+                headerLines.add(new String(line, UTF_8));
+                remainingBytes -= line.length;
+                line = readLine(requestStream, remainingBytes);
             }
         } catch (IOException e) {
             log.warn("Could not read all lines from request", e);
         }
         return List.ofAll(headerLines);
     }
+
+    /**
+     * Reads a line of the request header. We read byte by byte, so the stream is at the start of the request body
+     * once we've read the header.
+     *
+     * @param remainingBytes how many bytes the header may still have
+     * @return the UTF-8 bytes of the line without the line break or null if the stream ended before the line started
+     */
+    private static byte[] readLine(InputStream requestStream, int remainingBytes)
+            throws IOException, HeaderTooLargeException {
+        var line = new ByteArrayOutputStream();
+        int b = requestStream.read();
+        if (b == -1) {
+            return null;
+        }
+        while (b != -1 && b != '\n') {
+            if (line.size() == MAX_HEADER_LINE_LENGTH) {
+                throw new HeaderTooLargeException("Header line is longer than " + MAX_HEADER_LINE_LENGTH + " bytes");
+            }
+            if (line.size() >= remainingBytes) {
+                throw new HeaderTooLargeException("Header is larger than " + MAX_HEADER_BYTES + " bytes");
+            }
+            line.write(b);
+            b = requestStream.read();
+        }
+        var bytes = line.toByteArray();
+        return bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? Arrays.copyOf(bytes, bytes.length - 1) : bytes;
+    }
+
+    /**
+     * The request header is too large to read, which we answer with status code 431.
+     */
+    private static final class HeaderTooLargeException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private HeaderTooLargeException(String message) {
+            super(message, null, false, false);
+        }
+    }
 }
@@ -0,0 +1,27 @@
+package com.bullbytes.mayray.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A number that only goes up, such as the number of requests that timed out. Many threads can increase it at the
+ * same time without contending for a lock.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class Counter {
+    private final LongAdder count = new LongAdder();
+
+    Counter() {}
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+}
@@ -0,0 +1,62 @@
+package com.bullbytes.mayray.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the counters and gauges that describe what the server is doing, such as how many connections timed out.
+ * <p>
+ * Metrics have names like "connections.timeouts.header_read". Components get their counters once, usually when
+ * they're created, and increase them afterwards without looking them up again.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public enum Metrics {
+    ;
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the {@link Counter} with the {@code name}, creating it if it doesn't exist yet.
+     *
+     * @param name the name of the counter, such as "connections.rejected"
+     * @return the {@link Counter} with the {@code name}
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * Registers a gauge: A value that can go up and down, such as the number of open connections. We get the value
+     * only when someone asks for the metrics.
+     *
+     * @param name  the name of the gauge. If there is a gauge with this name already, we replace it
+     * @param value provides the current value of the gauge
+     */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * @return the current values of all counters and gauges, sorted by their names
+     */
+    public static SortedMap<String, Long> getValues() {
+        var values = new TreeMap<String, Long>();
+        counters.forEach((name, counter) -> values.put(name, counter.get()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    /**
+     * @return the metrics as lines of text, one metric per line: "connections.rejected 3"
+     */
+    public static String toText() {
+        var text = new StringBuilder();
+        getValues().forEach((name, value) -> text.append(name).append(' ').append(value).append('\n'));
+        return text.toString();
+    }
+}
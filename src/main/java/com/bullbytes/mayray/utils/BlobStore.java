@@ -0,0 +1,338 @@
+package com.bullbytes.mayray.utils;
+
+import com.bullbytes.mayray.metrics.Counter;
+import com.bullbytes.mayray.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps large blobs of bytes, such as cached response bodies, in direct memory outside the Java heap, so the garbage
+ * collector doesn't have to copy or scan them.
+ * <p>
+ * The memory is divided into segments of equal size. A blob consists of as many segments as it needs, which don't
+ * have to be next to each other. When there's no free segment for a new blob, we evict the least recently used blobs.
+ * Blobs that are being read when they're evicted keep their segments until the reading is done.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class BlobStore {
+
+    private final int segmentSize;
+    private final int maxSegments;
+    private final ReentrantLock lock = new ReentrantLock();
+    // All fields below are guarded by the lock
+    private final ArrayDeque<ByteBuffer> freeSegments = new ArrayDeque<>();
+    // The least recently used blob comes first
+    private final LinkedHashSet<Blob> blobs = new LinkedHashSet<>();
+    private int allocatedSegments = 0;
+    private long storedBytes = 0;
+
+    private final Counter evictions;
+
+    private BlobStore(String name, int segmentSize, int maxSegments) {
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        evictions = Metrics.counter("blobs." + name + ".evictions");
+    }
+
+    /**
+     * Creates a {@link BlobStore} and registers its metrics. We allocate the segments when we first need them.
+     *
+     * @param name        the name of the store in the metrics, such as "images"
+     * @param segmentSize the number of bytes in each segment
+     * @param maxSegments the store uses at most this many segments
+     * @return a new and empty {@link BlobStore}
+     */
+    public static BlobStore create(String name, int segmentSize, int maxSegments) {
+        var store = new BlobStore(name, segmentSize, maxSegments);
+        Metrics.gauge("blobs." + name + ".stored_bytes", store::getStoredBytes);
+        Metrics.gauge("blobs." + name + ".allocated_bytes", () -> (long) store.getAllocatedSegments() * segmentSize);
+        Metrics.gauge("blobs." + name + ".capacity_bytes", () -> (long) maxSegments * segmentSize);
+        return store;
+    }
+
+    /**
+     * Starts a new blob. Write its bytes to the returned {@link BlobOutputStream}, then call
+     * {@link BlobOutputStream#finish()} to get the {@link Blob}.
+     *
+     * @param maxBytes the blob may have at most this many bytes
+     * @return a {@link BlobOutputStream} to write the blob with
+     */
+    public BlobOutputStream newBlob(long maxBytes) {
+        return new BlobOutputStream(Math.min(maxBytes, (long) segmentSize * maxSegments));
+    }
+
+    private ByteBuffer takeSegment() throws StoreFullException {
+        lock.lock();
+        try {
+            var iterator = blobs.iterator();
+            while (freeSegments.isEmpty() && allocatedSegments == maxSegments && iterator.hasNext()) {
+                var leastRecentlyUsed = iterator.next();
+                iterator.remove();
+                evictions.increment();
+                leastRecentlyUsed.evict();
+            }
+            if (!freeSegments.isEmpty()) {
+                return freeSegments.pop();
+            }
+            if (allocatedSegments < maxSegments) {
+                allocatedSegments++;
+                return ByteBuffer.allocateDirect(segmentSize);
+            }
+            // All segments belong to blobs that are being written or read
+            throw new StoreFullException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void freeSegments(List<ByteBuffer> segments) {
+        lock.lock();
+        try {
+            for (var segment : segments) {
+                segment.clear();
+                freeSegments.push(segment);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long getStoredBytes() {
+        lock.lock();
+        try {
+            return storedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int getAllocatedSegments() {
+        lock.lock();
+        try {
+            return allocatedSegments;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bytes stored outside the heap. Call {@link #retain()} before reading them and {@link #release()} afterwards.
+     */
+    public final class Blob {
+        private final List<ByteBuffer> segments;
+        private final long length;
+        // Guarded by the store's lock
+        private int readers = 0;
+        private boolean isEvicted = false;
+
+        private Blob(List<ByteBuffer> segments, long length) {
+            this.segments = segments;
+            this.length = length;
+        }
+
+        public long length() {
+            return length;
+        }
+
+        /**
+         * Makes sure the blob's segments aren't reused while we read them. Also marks the blob as recently used.
+         *
+         * @return false if the blob was evicted. Then we must not read it
+         */
+        public boolean retain() {
+            lock.lock();
+            try {
+                if (isEvicted) {
+                    return false;
+                }
+                readers++;
+                // Move the blob to the end of the least recently used order
+                blobs.remove(this);
+                blobs.add(this);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * We're done reading the blob for now.
+         */
+        public void release() {
+            lock.lock();
+            try {
+                readers--;
+                if (isEvicted && readers == 0) {
+                    freeSegments(segments);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Removes the blob from the store. Its segments become free once nobody reads it anymore.
+         */
+        public void discard() {
+            lock.lock();
+            try {
+                if (blobs.remove(this)) {
+                    evict();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Call this only while holding the lock and after removing the blob from the blobs
+        private void evict() {
+            isEvicted = true;
+            storedBytes -= length;
+            if (readers == 0) {
+                freeSegments(segments);
+            }
+        }
+
+        /**
+         * Writes the bytes of the blob from {@code start} to {@code end} to the {@code out} stream. The blob must be
+         * {@link #retain() retained}.
+         *
+         * @param out   we write the bytes to this {@link OutputStream}
+         * @param start the index of the first byte to write
+         * @param end   the index after the last byte to write
+         * @throws IOException if we can't write to {@code out}
+         */
+        public void writeTo(OutputStream out, long start, long end) throws IOException {
+            try (var pooledBuffer = BufferPool.SHARED.acquire(BufferPool.getLargeBufferSize())) {
+                var buffer = pooledBuffer.array();
+                long position = start;
+                while (position < end) {
+                    // Each reader needs its own position in the segment
+                    var segment = segments.get((int) (position / segmentSize)).duplicate();
+                    int offsetInSegment = (int) (position % segmentSize);
+                    int count = (int) Math.min(Math.min(buffer.length, segmentSize - offsetInSegment), end - position);
+                    segment.position(offsetInSegment);
+                    segment.get(buffer, 0, count);
+                    out.write(buffer, 0, count);
+                    position += count;
+                }
+            }
+        }
+
+        /**
+         * Copies the first bytes of the blob to the heap, for example to look at a response's headers. The blob must
+         * be {@link #retain() retained}.
+         *
+         * @param count how many bytes to copy at most
+         * @return the first bytes of the blob
+         */
+        public byte[] head(int count) {
+            var head = new byte[(int) Math.min(count, length)];
+            int copied = 0;
+            for (var segment : segments) {
+                if (copied == head.length) {
+                    break;
+                }
+                int chunk = Math.min(segmentSize, head.length - copied);
+                segment.duplicate().position(0).get(head, copied, chunk);
+                copied += chunk;
+            }
+            return head;
+        }
+    }
+
+    /**
+     * Writes a new {@link Blob} into the store's segments.
+     */
+    public final class BlobOutputStream extends OutputStream {
+        private final long maxBytes;
+        private final List<ByteBuffer> segments = new ArrayList<>();
+        private long length = 0;
+        private boolean isDone = false;
+
+        private BlobOutputStream(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException {
+            if (isDone) {
+                throw new IOException("Blob is already finished");
+            }
+            if (length + count > maxBytes) {
+                abort();
+                throw new StoreFullException();
+            }
+            int written = 0;
+            while (written < count) {
+                int offsetInSegment = (int) (length % segmentSize);
+                if (offsetInSegment == 0 && length / segmentSize == segments.size()) {
+                    try {
+                        segments.add(takeSegment());
+                    } catch (StoreFullException e) {
+                        abort();
+                        throw e;
+                    }
+                }
+                var segment = segments.get(segments.size() - 1);
+                int chunk = Math.min(count - written, segmentSize - offsetInSegment);
+                segment.position(offsetInSegment);
+                segment.put(bytes, offset + written, chunk);
+                written += chunk;
+                length += chunk;
+            }
+        }
+
+        /**
+         * Adds the written bytes to the store as a {@link Blob}.
+         *
+         * @return the new {@link Blob}
+         */
+        public Blob finish() {
+            isDone = true;
+            var blob = new Blob(List.copyOf(segments), length);
+            lock.lock();
+            try {
+                blobs.add(blob);
+                storedBytes += length;
+            } finally {
+                lock.unlock();
+            }
+            return blob;
+        }
+
+        /**
+         * Gives back the segments written so far.
+         */
+        public void abort() {
+            if (!isDone) {
+                isDone = true;
+                freeSegments(segments);
+            }
+        }
+    }
+
+    /**
+     * Thrown when a blob doesn't fit into the store.
+     */
+    public static final class StoreFullException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private StoreFullException() {
+            super("Blob doesn't fit into the store", null);
+        }
+    }
+}
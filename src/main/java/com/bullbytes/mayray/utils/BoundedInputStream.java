@@ -0,0 +1,77 @@
+package com.bullbytes.mayray.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads at most a fixed number of bytes from another stream. We use it for request bodies: After the body, the
+ * client waits for our response, so reading further would block.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class BoundedInputStream extends FilterInputStream {
+    private long remaining;
+
+    private BoundedInputStream(InputStream in, long maxBytes) {
+        super(in);
+        this.remaining = maxBytes;
+    }
+
+    /**
+     * Creates a {@link BoundedInputStream}. Closing it doesn't close the {@code in} stream.
+     *
+     * @param in       we read from this stream
+     * @param maxBytes the returned stream ends after this many bytes
+     * @return a stream that reads at most {@code maxBytes} from {@code in}
+     */
+    public static BoundedInputStream of(InputStream in, long maxBytes) {
+        return new BoundedInputStream(in, maxBytes);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int b = in.read();
+        if (b != -1) {
+            remaining--;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int count = in.read(bytes, offset, (int) Math.min(length, remaining));
+        if (count > 0) {
+            remaining -= count;
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long skipped = in.skip(Math.min(count, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        // The client's connection stays open for the response
+    }
+}
@@ -0,0 +1,193 @@
+package com.bullbytes.mayray.utils;
+
+import com.bullbytes.mayray.metrics.Counter;
+import com.bullbytes.mayray.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lends out buffers for reading and writing, so that handling a request doesn't allocate new buffers every time.
+ * <p>
+ * Buffers come in a few size classes. Whoever acquires a buffer closes it when done, which puts it back into the
+ * pool. If the pool of a size class is empty, we allocate a new buffer. If it's full, we let the garbage collector
+ * take the returned buffer.
+ * <p>
+ * When debug logging is on for this class, we remember where each buffer was acquired and log a warning if a buffer
+ * is garbage collected without having been closed.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class BufferPool {
+    private static final Logger log = LoggerFactory.getLogger(BufferPool.class);
+
+    private static final int KIBIBYTE = 1024;
+    // The capacities of the buffers we pool, from small to large
+    private static final int[] SIZE_CLASSES = {8 * KIBIBYTE, 64 * KIBIBYTE};
+    // How many buffers of each size class we keep at most. That's four MiB in total
+    private static final int[] MAX_POOLED = {256, 32};
+
+    private static final Cleaner LEAK_DETECTOR = Cleaner.create();
+
+    /**
+     * The pool the server uses for connections and files.
+     */
+    public static final BufferPool SHARED = create("buffers");
+
+    // One pool per size class
+    private final List<ArrayBlockingQueue<ByteBuffer>> pools;
+    private final boolean detectsLeaks;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter leaks;
+
+    private BufferPool(String name, boolean detectsLeaks) {
+        this.detectsLeaks = detectsLeaks;
+        var poolsOfSizeClasses = new ArrayList<ArrayBlockingQueue<ByteBuffer>>(SIZE_CLASSES.length);
+        for (int maxPooled : MAX_POOLED) {
+            poolsOfSizeClasses.add(new ArrayBlockingQueue<>(maxPooled));
+        }
+        pools = List.copyOf(poolsOfSizeClasses);
+        hits = Metrics.counter(name + ".hits");
+        misses = Metrics.counter(name + ".misses");
+        leaks = Metrics.counter(name + ".leaks");
+    }
+
+    /**
+     * Creates a {@link BufferPool} and registers its metrics.
+     *
+     * @param name the prefix of the pool's metrics, such as "buffers"
+     * @return a new and empty {@link BufferPool}
+     */
+    public static BufferPool create(String name) {
+        var pool = new BufferPool(name, log.isDebugEnabled());
+        Metrics.gauge(name + ".pooled_bytes", pool::getPooledBytes);
+        Metrics.gauge(name + ".hit_rate_percent", pool::getHitRatePercent);
+        return pool;
+    }
+
+    /**
+     * Lends out a buffer with at least {@code minCapacity} bytes.
+     *
+     * @param minCapacity the buffer has at least this capacity. We don't pool buffers larger than the largest size
+     *                    class but still hand them out
+     * @return a {@link PooledBuffer} to close when it's no longer needed
+     */
+    public PooledBuffer acquire(int minCapacity) {
+        int sizeClass = getSizeClass(minCapacity);
+        if (sizeClass == -1) {
+            misses.increment();
+            return track(new PooledBuffer(ByteBuffer.allocate(minCapacity), -1));
+        }
+        var buffer = pools.get(sizeClass).poll();
+        if (buffer == null) {
+            misses.increment();
+            buffer = ByteBuffer.allocate(SIZE_CLASSES[sizeClass]);
+        } else {
+            hits.increment();
+            buffer.clear();
+        }
+        return track(new PooledBuffer(buffer, sizeClass));
+    }
+
+    /**
+     * @return the capacity of the smallest buffers this pool hands out
+     */
+    public static int getSmallBufferSize() {
+        return SIZE_CLASSES[0];
+    }
+
+    /**
+     * @return the capacity of the largest buffers this pool keeps
+     */
+    public static int getLargeBufferSize() {
+        return SIZE_CLASSES[SIZE_CLASSES.length - 1];
+    }
+
+    private static int getSizeClass(int minCapacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (minCapacity <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private PooledBuffer track(PooledBuffer buffer) {
+        if (detectsLeaks) {
+            // The cleaning action must not refer to the buffer, otherwise the buffer never becomes unreachable
+            var isReleased = buffer.isReleased;
+            var acquiredAt = new Exception("Buffer acquired here");
+            LEAK_DETECTOR.register(buffer, () -> {
+                if (!isReleased.get()) {
+                    leaks.increment();
+                    log.warn("A buffer was garbage collected without being closed", acquiredAt);
+                }
+            });
+        }
+        return buffer;
+    }
+
+    private void release(ByteBuffer buffer, int sizeClass) {
+        // If the pool is full, the buffer is garbage collected
+        if (sizeClass != -1) {
+            pools.get(sizeClass).offer(buffer);
+        }
+    }
+
+    private long getPooledBytes() {
+        long bytes = 0;
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            bytes += (long) pools.get(i).size() * SIZE_CLASSES[i];
+        }
+        return bytes;
+    }
+
+    private long getHitRatePercent() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : hitCount * 100 / total;
+    }
+
+    /**
+     * A buffer lent out by the {@link BufferPool}. Don't use it after closing it since someone else might be using it
+     * then. Closing it more than once has no further effect.
+     */
+    public final class PooledBuffer implements AutoCloseable {
+        private final ByteBuffer buffer;
+        private final int sizeClass;
+        private final AtomicBoolean isReleased = new AtomicBoolean(false);
+
+        private PooledBuffer(ByteBuffer buffer, int sizeClass) {
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+        }
+
+        /**
+         * @return the buffer, ready for putting bytes into it
+         */
+        public ByteBuffer buffer() {
+            return buffer;
+        }
+
+        /**
+         * @return the array backing the {@link #buffer()}, for reading and writing with streams
+         */
+        public byte[] array() {
+            return buffer.array();
+        }
+
+        @Override
+        public void close() {
+            if (isReleased.compareAndSet(false, true)) {
+                release(buffer, sizeClass);
+            }
+        }
+    }
+}
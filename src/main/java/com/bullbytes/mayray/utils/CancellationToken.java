@@ -0,0 +1,83 @@
+package com.bullbytes.mayray.utils;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tells long-running work that nobody needs its result anymore, for example because the client that requested it
+ * has disconnected.
+ * <p>
+ * The work checks {@link #isCancelled()} between steps, such as between two files it adds to an archive, and stops
+ * early. Work that waits for something else can register a callback with {@link #onCancel(Runnable)} instead.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class CancellationToken {
+
+    /**
+     * A token that is never cancelled, for work that should always run to completion.
+     */
+    public static final CancellationToken NONE = new CancellationToken();
+
+    private final List<Runnable> callbacks = new CopyOnWriteArrayList<>();
+    private volatile boolean isCancelled = false;
+
+    private CancellationToken() {}
+
+    /**
+     * @return a new {@link CancellationToken} that isn't cancelled yet
+     */
+    public static CancellationToken create() {
+        return new CancellationToken();
+    }
+
+    /**
+     * Cancels the work and runs the callbacks registered with {@link #onCancel(Runnable)}. Calling this more than
+     * once has no further effect.
+     */
+    public void cancel() {
+        if (this == NONE) {
+            throw new UnsupportedOperationException("Can't cancel the token that is never cancelled");
+        }
+        synchronized (this) {
+            if (isCancelled) {
+                return;
+            }
+            isCancelled = true;
+        }
+        callbacks.forEach(Runnable::run);
+    }
+
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    /**
+     * @throws CancellationException if the work was cancelled
+     */
+    public void throwIfCancelled() {
+        if (isCancelled) {
+            throw new CancellationException("Work was cancelled");
+        }
+    }
+
+    /**
+     * Runs the {@code callback} when the work is cancelled or right away if it's already cancelled.
+     *
+     * @param callback the {@link Runnable} to run on cancellation. It runs on the thread that cancels the work
+     */
+    public void onCancel(Runnable callback) {
+        if (this == NONE) {
+            return;
+        }
+        boolean runNow;
+        synchronized (this) {
+            callbacks.add(callback);
+            runNow = isCancelled;
+        }
+        if (runNow) {
+            callback.run();
+        }
+    }
+}
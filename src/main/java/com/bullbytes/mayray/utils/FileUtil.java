@@ -1,5 +1,6 @@
 package com.bullbytes.mayray.utils;
 
+import io.vavr.Tuple2;
 import io.vavr.collection.List;
 import io.vavr.control.Try;
 import org.slf4j.Logger;
@@ -8,12 +9,13 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Function;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -33,42 +35,115 @@ public enum FileUtil {
      *
      * @param dirToZip                   we zip all {@link Files#isRegularFile regular} files in this directory
      * @param zipFilePath                the location where we create the zip archive containing the file of the
-     *                                   {@code dirToZip}
+     *                                   {@code dirToZip}. We overwrite the file if it exists and delete it if zipping
+     *                                   fails, so it should belong to this call alone
      * @param modifyFilePathInZipArchive transforms the file path of a zipped file as it appears in the resulting zip
      *                                   file
-     * @return the {@link Path} of the created zip archive wrapped in a {@link Try} in case zipping failed
+     * @param cancellation               we stop zipping and delete the incomplete archive when this is cancelled
+     * @return the {@link Path} of the created zip archive wrapped in a {@link Try} in case zipping failed or was
+     * cancelled
      */
     public static Try<Path> zipAllFiles(Path dirToZip,
                                         Path zipFilePath,
-                                        Function<String, String> modifyFilePathInZipArchive) {
+                                        Function<String, String> modifyFilePathInZipArchive,
+                                        CancellationToken cancellation) {
 
         DirectoryUtil.createParentDirs(zipFilePath);
 
         // If we encounter an exception, we'll overwrite the value in the Try
         Try<Path> fileTry = Try.success(zipFilePath);
 
-        try (var zipOutputStream = new ZipOutputStream(new FileOutputStream(zipFilePath.toFile()))) {
-
-            List<Path> filesToZip = getFilesRecursively(dirToZip);
-
-            for (var file : filesToZip) {
-                if (Files.isRegularFile(file)) {
+        // The zip stream writes many small pieces of compressed data, the buffer collects them
+        try (var zipOutputStream = new ZipOutputStream(
+                PooledOutputStream.create(new FileOutputStream(zipFilePath.toFile()), BufferPool.SHARED));
+             // Other threads walk the directory while we write the files they've found so far to the archive
+             var filesToZip = ParallelFileWalker.streamFiles(dirToZip, cancellation)) {
+
+            for (var fileAndAttrs : (Iterable<Tuple2<Path, BasicFileAttributes>>) filesToZip::iterator) {
+                Path file = fileAndAttrs._1;
+                var attrs = fileAndAttrs._2;
+                // The walker doesn't follow symbolic links. We zip the files they point to but not directories
+                boolean isRegularFile = attrs.isRegularFile() || attrs.isSymbolicLink() && Files.isRegularFile(file);
+                if (isRegularFile) {
                     // This creates the file entry in the zip file but doesn't write any file contents into the zip file
                     zipOutputStream.putNextEntry(new ZipEntry(modifyFilePathInZipArchive.apply(file.toString())));
                     // Add the file contents to the zip file
-                    zipOutputStream.write(Files.readAllBytes(file));
+                    copy(file, zipOutputStream, cancellation);
                 } else {
                     // If the file is a directory (or a symlink to a directory), readAllBytes throws since it can't read bytes from a directory
                     log.info("Not writing contents of file {} to zip archive since it's not a regular file", file);
                 }
             }
+            // The stream of files ends early when the zipping is cancelled
+            cancellation.throwIfCancelled();
 
         } catch (Exception e) {
             fileTry = Try.failure(e);
         }
+        if (fileTry.isFailure()) {
+            deleteIfExists(zipFilePath);
+        }
         return fileTry;
     }
 
+    /**
+     * Copies the contents of the {@code file} to the {@code out} stream in chunks. Between the chunks, we check
+     * whether the copying was cancelled, so that copying even a large file stops quickly.
+     *
+     * @param file         we copy the bytes of this file
+     * @param out          we write the file's bytes to this {@link OutputStream} but don't close it
+     * @param cancellation we stop copying when this is cancelled
+     * @throws IOException if we can't read the file or write to {@code out}
+     */
+    public static void copy(Path file, OutputStream out, CancellationToken cancellation) throws IOException {
+        // The buffer is borrowed from the pool, so copying many files doesn't allocate a large array for each
+        try (var in = Files.newInputStream(file);
+             var pooledBuffer = BufferPool.SHARED.acquire(BufferPool.getLargeBufferSize())) {
+            var buffer = pooledBuffer.array();
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                cancellation.throwIfCancelled();
+                out.write(buffer, 0, count);
+            }
+        }
+    }
+
+    /**
+     * Copies the contents of the file behind the {@code channel} to the {@code out} stream in chunks, checking between
+     * the chunks whether the copying was cancelled. We read at explicit positions, so the channel's position doesn't
+     * change.
+     *
+     * @param channel      we copy the bytes of this {@link FileChannel}, starting at its first byte
+     * @param out          we write the file's bytes to this {@link OutputStream} but don't close it
+     * @param cancellation we stop copying when this is cancelled
+     * @throws IOException if we can't read the file or write to {@code out}
+     */
+    public static void copy(FileChannel channel, OutputStream out, CancellationToken cancellation) throws IOException {
+        try (var pooledBuffer = BufferPool.SHARED.acquire(BufferPool.getLargeBufferSize())) {
+            ByteBuffer buffer = pooledBuffer.buffer();
+            long position = 0;
+            int count;
+            while ((count = channel.read(buffer.clear(), position)) != -1) {
+                cancellation.throwIfCancelled();
+                out.write(buffer.array(), buffer.arrayOffset(), count);
+                position += count;
+            }
+        }
+    }
+
+    /**
+     * Deletes the {@code file} if it exists and logs a warning if we can't delete it.
+     *
+     * @param file the {@link Path} of the file to delete
+     */
+    public static void deleteIfExists(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete {}", file, e);
+        }
+    }
+
     /**
      * Determines whether a {@code file} can be created or, if it already exists, can be written to.
      *
@@ -102,20 +177,16 @@ public enum FileUtil {
         return canCreateOrIsWritable;
     }
 
+    /**
+     * Gets all files in a directory and its subdirectories. Includes symbolic links in the list but doesn't follow
+     * them.
+     *
+     * @param startDir we get the files in this directory and its subdirectories
+     * @return the files in the {@code startDir}, in no particular order
+     */
     public static List<Path> getFilesRecursively(Path startDir) {
-        var files = new ArrayList<Path>();
-        try {
-            // Includes symbolic links in the list but doesn't follow them
-            Files.walkFileTree(startDir, new SimpleFileVisitor<>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                    files.add(file);
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-        } catch (IOException e) {
-            log.warn("Could not walk file tree starting at {}", startDir, e);
-        }
+        var files = new ConcurrentLinkedQueue<Path>();
+        ParallelFileWalker.walk(startDir, (file, attrs) -> files.add(file));
         return List.ofAll(files);
     }
 }
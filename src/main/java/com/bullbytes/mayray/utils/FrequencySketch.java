@@ -0,0 +1,115 @@
+package com.bullbytes.mayray.utils;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Estimates how often we've seen a key recently, using little memory no matter how many different keys there are.
+ * <p>
+ * This is a count-min sketch: Each of the four rows has a counter for a hash of the key. Keys with the same hash share
+ * a counter, so we take the smallest of the four counters as the estimate. It can be too high, but never too low.
+ * To forget keys that were popular long ago, we halve all counters after a number of increments.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class FrequencySketch {
+    private static final int ROW_COUNT = 4;
+    // Counters stop at this value, we only need to tell popular keys from the others
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+
+    private final int indexMask;
+    private final int sampleSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by the lock
+    private final byte[][] rows;
+    private int incrementsSinceAging = 0;
+
+    private FrequencySketch(int width, int sampleSize) {
+        this.indexMask = width - 1;
+        this.sampleSize = sampleSize;
+        this.rows = new byte[ROW_COUNT][width];
+    }
+
+    /**
+     * Creates a {@link FrequencySketch}.
+     *
+     * @param expectedKeys about how many different keys we expect to see recently. The more counters per key, the
+     *                     fewer keys share a counter
+     * @return a new {@link FrequencySketch} where every key has the frequency zero
+     */
+    public static FrequencySketch create(int expectedKeys) {
+        // Use a power of two, so we can get the index of a counter with a bit mask
+        int width = Integer.highestOneBit(Math.max(16, expectedKeys) * 2 - 1);
+        return new FrequencySketch(width, 10 * width);
+    }
+
+    /**
+     * Records that we've seen the {@code key} once more.
+     *
+     * @param key the key we've seen, such as a file's path
+     */
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        lock.lock();
+        try {
+            for (int row = 0; row < ROW_COUNT; row++) {
+                int index = indexOf(hash, row);
+                if (rows[row][index] < MAX_COUNT) {
+                    rows[row][index]++;
+                }
+            }
+            incrementsSinceAging++;
+            if (incrementsSinceAging == sampleSize) {
+                halveCounters();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param key the key whose frequency we want to know
+     * @return about how often we've seen the {@code key} recently
+     */
+    public int estimate(Object key) {
+        int hash = spread(key.hashCode());
+        lock.lock();
+        try {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < ROW_COUNT; row++) {
+                frequency = Math.min(frequency, rows[row][indexOf(hash, row)]);
+            }
+            return frequency;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void halveCounters() {
+        for (var row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        incrementsSinceAging = 0;
+    }
+
+    private int indexOf(int hash, int row) {
+        // Mix the bits of the hash differently for each row, so keys that share a counter in one row likely don't in
+        // the others
+        long mixed = (hash + SEEDS[row]) * SEEDS[row];
+        mixed += mixed >>> 32;
+        return (int) mixed & indexMask;
+    }
+
+    /**
+     * Spreads the bits of a hash code, since many hash codes, like those of small integers, differ only in a few bits.
+     */
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        return hash ^ hash >>> 16;
+    }
+}
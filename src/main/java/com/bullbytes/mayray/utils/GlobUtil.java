@@ -0,0 +1,104 @@
+package com.bullbytes.mayray.utils;
+
+import io.vavr.control.Either;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Converts glob patterns such as "photos/**&#47;*.jpg" to regular expressions.
+ * <p>
+ * We match globs against strings instead of using {@link java.nio.file.PathMatcher} since the paths in the file index
+ * are strings already. Creating a {@link java.nio.file.Path} for each of them would be wasteful.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public enum GlobUtil {
+    ;
+
+    /**
+     * Converts a {@code glob} to a {@link Pattern}. The glob supports these special characters:
+     * <ul>
+     *     <li>{@code *} matches any number of characters except '/'</li>
+     *     <li>{@code **} matches any number of characters including '/'</li>
+     *     <li>{@code ?} matches a single character except '/'</li>
+     *     <li>{@code [abc]} and {@code [a-z]} match one of the characters in the brackets</li>
+     *     <li>{@code {jpg,png}} matches one of the comma-separated alternatives</li>
+     * </ul>
+     *
+     * @param glob the glob, such as "*.jpg" or "2019/**"
+     * @return a {@link Pattern} that matches the same strings as the {@code glob} or a {@link FailMessage} if the
+     * glob is malformed
+     */
+    public static Either<FailMessage, Pattern> toPattern(String glob) {
+        var regex = new StringBuilder();
+        boolean inGroup = false;
+        boolean inBrackets = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (inBrackets) {
+                if (c == ']') {
+                    inBrackets = false;
+                } else if (c == '\\' || c == '[' || c == '&') {
+                    // These have a special meaning in regex character classes
+                    regex.append('\\');
+                }
+                regex.append(c);
+                continue;
+            }
+            switch (c) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[':
+                    inBrackets = true;
+                    regex.append('[');
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '!') {
+                        regex.append('^');
+                        i++;
+                    }
+                    break;
+                case '{':
+                    if (inGroup) {
+                        return Either.left(FailMessage.formatted("Nested groups are not supported in glob '%s'", glob));
+                    }
+                    inGroup = true;
+                    regex.append("(?:");
+                    break;
+                case '}':
+                    if (inGroup) {
+                        inGroup = false;
+                        regex.append(')');
+                    } else {
+                        regex.append("\\}");
+                    }
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                default:
+                    // A backslash before a character that isn't a letter or digit makes the regex match it literally
+                    if (!Character.isLetterOrDigit(c)) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+            }
+        }
+        if (inGroup || inBrackets) {
+            return Either.left(FailMessage.formatted("Unclosed group or brackets in glob '%s'", glob));
+        }
+        try {
+            return Either.right(Pattern.compile(regex.toString()));
+        } catch (PatternSyntaxException e) {
+            return Either.left(FailMessage.formatted("Invalid glob '%s': %s", glob, e.getDescription()));
+        }
+    }
+}
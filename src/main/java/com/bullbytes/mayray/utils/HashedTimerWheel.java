@@ -0,0 +1,184 @@
+package com.bullbytes.mayray.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks after a delay, like a {@link java.util.concurrent.ScheduledExecutorService}, but scheduling and
+ * cancelling a task takes constant time regardless of how many tasks are scheduled.
+ * <p>
+ * The wheel is a ring of buckets. Each tick, a single thread moves to the next bucket and runs the tasks in it whose
+ * time has come. A task due in more ticks than there are buckets stays in its bucket for multiple rounds. Tasks run
+ * at most one tick late, so this is meant for many timeouts that don't need to be precise, like deadlines of
+ * connections.
+ * <p>
+ * Tasks run on the thread of the wheel. They should be short and must not block.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class HashedTimerWheel {
+    private static final Logger log = LoggerFactory.getLogger(HashedTimerWheel.class);
+
+    private final long tickNanos;
+    private final Bucket[] buckets;
+    // Other threads add new timeouts here and the wheel's thread moves them into the buckets
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    // Only changed by the wheel's thread
+    private long currentTick = 0;
+
+    private HashedTimerWheel(long tickNanos, int bucketCount) {
+        this.tickNanos = tickNanos;
+        this.buckets = new Bucket[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Creates a {@link HashedTimerWheel} and starts its daemon thread.
+     *
+     * @param name        the name of the wheel's thread
+     * @param tick        how often the wheel checks for tasks to run. Tasks run at most this much later than they
+     *                    were scheduled for
+     * @param tickUnit    the {@link TimeUnit} of the {@code tick}
+     * @param bucketCount the number of buckets in the wheel. Tasks due within {@code bucketCount} ticks are run
+     *                    without being looked at in earlier rounds
+     * @return a new, running {@link HashedTimerWheel}
+     */
+    public static HashedTimerWheel start(String name, long tick, TimeUnit tickUnit, int bucketCount) {
+        var wheel = new HashedTimerWheel(tickUnit.toNanos(tick), bucketCount);
+        var thread = new Thread(wheel::run, name);
+        thread.setDaemon(true);
+        thread.start();
+        return wheel;
+    }
+
+    /**
+     * Schedules a {@code task} to run after a {@code delay}.
+     *
+     * @param task  the {@link Runnable} to run on the wheel's thread
+     * @param delay how long to wait before running the {@code task}
+     * @param unit  the {@link TimeUnit} of the {@code delay}
+     * @return a {@link Timeout} that can be cancelled
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        var timeout = new Timeout(task, System.nanoTime() - startNanos + unit.toNanos(delay));
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (true) {
+            long deadlineOfTick = (currentTick + 1) * tickNanos;
+            long sleepNanos = deadlineOfTick - (System.nanoTime() - startNanos);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    log.info("Timer wheel was interrupted. Stopping it");
+                    return;
+                }
+            }
+            moveNewTimeoutsToBuckets();
+            buckets[(int) (currentTick % buckets.length)].expire(currentTick);
+            currentTick++;
+        }
+    }
+
+    private void moveNewTimeoutsToBuckets() {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            // Tasks whose time has already come go into the current bucket
+            long tick = Math.max(currentTick, timeout.deadlineNanos / tickNanos);
+            timeout.remainingRounds = (tick - currentTick) / buckets.length;
+            buckets[(int) (tick % buckets.length)].add(timeout);
+        }
+    }
+
+    /**
+     * A task scheduled on the {@link HashedTimerWheel}.
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadlineNanos;
+        private volatile boolean isCancelled = false;
+        // Only used by the wheel's thread
+        private long remainingRounds;
+        private Timeout next;
+        private Timeout previous;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Prevents the task from running if it hasn't run yet. The wheel removes cancelled timeouts when it comes
+         * across them.
+         */
+        public void cancel() {
+            isCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+    }
+
+    /**
+     * A doubly linked list of timeouts, so removing one takes constant time.
+     */
+    private static final class Bucket {
+        private Timeout head;
+
+        void add(Timeout timeout) {
+            timeout.next = head;
+            timeout.previous = null;
+            if (head != null) {
+                head.previous = timeout;
+            }
+            head = timeout;
+        }
+
+        void expire(long currentTick) {
+            var timeout = head;
+            while (timeout != null) {
+                var next = timeout.next;
+                if (timeout.isCancelled) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        log.warn("Task of timer wheel failed at tick {}", currentTick, e);
+                    }
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.next = null;
+            timeout.previous = null;
+        }
+    }
+}
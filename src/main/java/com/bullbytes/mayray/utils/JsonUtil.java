@@ -0,0 +1,43 @@
+package com.bullbytes.mayray.utils;
+
+import java.io.IOException;
+
+/**
+ * Helps with writing JSON.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public enum JsonUtil {
+    ;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Appends {@code str} as a JSON string, including the surrounding quotes, to {@code out}.
+     *
+     * @param str the string to append. Quotes, backslashes, and control characters are escaped
+     * @param out we append the JSON string to this
+     * @throws IOException if we can't append to {@code out}
+     */
+    public static void appendString(String str, Appendable out) throws IOException {
+        out.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+}
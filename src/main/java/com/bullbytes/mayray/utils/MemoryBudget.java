@@ -0,0 +1,151 @@
+package com.bullbytes.mayray.utils;
+
+import com.bullbytes.mayray.metrics.Counter;
+import com.bullbytes.mayray.metrics.Metrics;
+import io.vavr.control.Option;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps track of how many bytes the server holds in memory for requests and responses, so that many large requests
+ * at once can't use up the heap.
+ * <p>
+ * Before keeping something large in memory, code reserves its size. If that would exceed the budget, it can wait for
+ * other requests to finish, send the data in another way, for example by streaming it from disk, or turn the request
+ * away.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class MemoryBudget {
+    private final long limitBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Counter waits = Metrics.counter("memory.budget.waits");
+    private final Counter denials = Metrics.counter("memory.budget.denials");
+    // Guarded by the lock
+    private long usedBytes = 0;
+
+    private MemoryBudget(long limitBytes) {
+        this.limitBytes = limitBytes;
+    }
+
+    /**
+     * Creates a {@link MemoryBudget} and registers its usage as metrics.
+     *
+     * @param limitBytes reservations never exceed this many bytes in total, except the ones made with
+     *                   {@link #reserveNow(long)}
+     * @return a new {@link MemoryBudget}
+     */
+    public static MemoryBudget create(long limitBytes) {
+        var budget = new MemoryBudget(limitBytes);
+        Metrics.gauge("memory.budget.limit_bytes", () -> limitBytes);
+        Metrics.gauge("memory.budget.used_bytes", budget::getUsedBytes);
+        return budget;
+    }
+
+    /**
+     * Reserves {@code bytes} of the budget, waiting for other reservations to be released if necessary.
+     *
+     * @param bytes   how many bytes we want to keep in memory
+     * @param maxWait we wait at most this long for enough of the budget to be free
+     * @return the {@link Reservation} to close when the bytes are no longer in memory or {@link Option#none()} if
+     * there wasn't enough room in the budget in time
+     */
+    public Option<Reservation> reserve(long bytes, Duration maxWait) {
+        if (bytes > limitBytes) {
+            // We could wait forever
+            denials.increment();
+            return Option.none();
+        }
+        long remainingNanos = maxWait.toNanos();
+        lock.lock();
+        try {
+            if (usedBytes + bytes > limitBytes) {
+                waits.increment();
+            }
+            while (usedBytes + bytes > limitBytes) {
+                if (remainingNanos <= 0) {
+                    denials.increment();
+                    return Option.none();
+                }
+                remainingNanos = released.awaitNanos(remainingNanos);
+            }
+            usedBytes += bytes;
+            return Option.of(new Reservation(bytes));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            denials.increment();
+            return Option.none();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves {@code bytes} without waiting, even if that exceeds the budget. Use this for bytes that are already in
+     * memory: Other requests then wait until there's room again.
+     *
+     * @param bytes how many bytes we keep in memory
+     * @return the {@link Reservation} to close when the bytes are no longer in memory
+     */
+    public Reservation reserveNow(long bytes) {
+        lock.lock();
+        try {
+            usedBytes += bytes;
+            return new Reservation(bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long bytes) {
+        lock.lock();
+        try {
+            usedBytes -= bytes;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many bytes are reserved at the moment
+     */
+    public long getUsedBytes() {
+        lock.lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many bytes can be reserved in total
+     */
+    public long getLimitBytes() {
+        return limitBytes;
+    }
+
+    /**
+     * Part of the {@link MemoryBudget} that's in use. Closing it more than once has no further effect.
+     */
+    public final class Reservation implements AutoCloseable {
+        private final long bytes;
+        private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+        private Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            if (isClosed.compareAndSet(false, true)) {
+                release(bytes);
+            }
+        }
+    }
+}
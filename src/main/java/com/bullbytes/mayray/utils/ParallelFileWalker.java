@@ -0,0 +1,314 @@
+package com.bullbytes.mayray.utils;
+
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.control.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Walks directory trees using multiple threads.
+ * <p>
+ * Each directory becomes a task in a {@link ForkJoinPool}. A thread lists a directory, reports the entries, and forks
+ * a task for each subdirectory. Idle threads steal those tasks, so all threads stay busy even if the tree is
+ * unbalanced. This helps when reading the file system's metadata is slow, for example on network file systems or
+ * spinning disks, where a single thread spends most of its time waiting.
+ * <p>
+ * We read the {@link BasicFileAttributes} of each entry once and pass them on, so callers don't have to query the
+ * file system again to get a file's size or type. Like {@link Files#walkFileTree}, we don't follow symbolic links but
+ * report them as files.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public enum ParallelFileWalker {
+    ;
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelFileWalker.class);
+
+    // The threads of this pool mostly wait for the file system, that's why we use more threads than there are cores
+    private static final ForkJoinPool DEFAULT_POOL =
+            new ForkJoinPool(Math.max(8, 2 * Runtime.getRuntime().availableProcessors()));
+
+    // How many files streamFiles buffers before the walking threads wait for the consumer to catch up
+    private static final int STREAM_BUFFER_SIZE = 4096;
+
+    // Marks the end of the entries in the queue of streamFiles
+    private static final Tuple2<Path, BasicFileAttributes> END_OF_WALK = Tuple.of(null, null);
+
+    /**
+     * Gets notified about the entries of the walked directory tree. The methods are called from multiple threads at
+     * the same time, so implementations have to be thread-safe.
+     */
+    public interface Visitor {
+
+        /**
+         * Called for each directory, including the start directory, before its entries are visited.
+         */
+        default void visitDirectory(Path dir, BasicFileAttributes attrs) {}
+
+        /**
+         * Called for each entry that is not a directory, including symbolic links.
+         */
+        void visitFile(Path file, BasicFileAttributes attrs);
+
+        /**
+         * Called when we can't read a directory or the attributes of an entry.
+         */
+        default void visitFailed(Path path, IOException e) {
+            log.info("Could not visit {}", path, e);
+        }
+
+        /**
+         * @return true if we should stop walking the directory tree
+         */
+        default boolean isCancelled() {
+            return false;
+        }
+    }
+
+    /**
+     * Walks the directory tree starting at {@code startDir} and returns when all entries have been visited.
+     *
+     * @param startDir the directory whose entries we visit, including the entries in its subdirectories
+     * @param pool     the {@link ForkJoinPool} whose threads walk the tree
+     * @param visitor  the {@link Visitor} we call for each entry in the tree, possibly from multiple threads at once
+     */
+    public static void walk(Path startDir, ForkJoinPool pool, Visitor visitor) {
+        readAttributes(startDir, visitor).forEach(attrs -> {
+            if (attrs.isDirectory()) {
+                visitor.visitDirectory(startDir, attrs);
+                pool.invoke(new DirectoryTask(startDir, visitor));
+            } else {
+                visitor.visitFile(startDir, attrs);
+            }
+        });
+    }
+
+    /**
+     * Walks the directory tree starting at {@code startDir} using the default pool of walker threads.
+     *
+     * @param startDir the directory whose entries we visit, including the entries in its subdirectories
+     * @param visitor  the {@link Visitor} we call for each entry in the tree, possibly from multiple threads at once
+     */
+    public static void walk(Path startDir, Visitor visitor) {
+        walk(startDir, DEFAULT_POOL, visitor);
+    }
+
+    /**
+     * Walks the directory tree starting at {@code startDir} in the background and provides the files as soon as they
+     * are found. The files of a directory come in the order of their names, but since we walk directories in parallel, the
+     * files of different directories are interleaved.
+     * <p>
+     * Close the returned {@link Stream} to stop walking if you don't consume all of its elements.
+     *
+     * @param startDir the directory whose files we get, including the files in its subdirectories
+     * @return a {@link Stream} of the files that are not directories, together with their attributes
+     */
+    public static Stream<Tuple2<Path, BasicFileAttributes>> streamFiles(Path startDir) {
+        return streamFiles(startDir, CancellationToken.NONE);
+    }
+
+    /**
+     * Like {@link #streamFiles(Path)}, but the walk also stops when the {@code cancellation} is cancelled. The
+     * stream then ends early.
+     *
+     * @param startDir     the directory whose files we get, including the files in its subdirectories
+     * @param cancellation stops the walk when cancelled
+     * @return a {@link Stream} of the files that are not directories, together with their attributes
+     */
+    public static Stream<Tuple2<Path, BasicFileAttributes>> streamFiles(Path startDir,
+                                                                        CancellationToken cancellation) {
+        var queue = new LinkedBlockingQueue<Tuple2<Path, BasicFileAttributes>>(STREAM_BUFFER_SIZE);
+        var isClosed = new AtomicBoolean(false);
+        // The consumer may be waiting for the next file, so we end the stream instead of only stopping the walk
+        cancellation.onCancel(() -> {
+            isClosed.set(true);
+            queue.clear();
+            queue.offer(END_OF_WALK);
+        });
+
+        var visitor = new Visitor() {
+            @Override
+            public void visitFile(Path file, BasicFileAttributes attrs) {
+                putUnlessClosed(queue, Tuple.of(file, attrs), isClosed);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return isClosed.get();
+            }
+        };
+        DEFAULT_POOL.execute(() -> {
+            try {
+                walk(startDir, DEFAULT_POOL, visitor);
+            } finally {
+                putUnlessClosed(queue, END_OF_WALK, isClosed);
+            }
+        });
+
+        var iterator = new QueueIterator(queue);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false)
+                .onClose(() -> isClosed.set(true));
+    }
+
+    private static void putUnlessClosed(BlockingQueue<Tuple2<Path, BasicFileAttributes>> queue,
+                                        Tuple2<Path, BasicFileAttributes> element,
+                                        AtomicBoolean isClosed) {
+        try {
+            // The walking threads belong to a ForkJoinPool. Telling the pool that we block lets it start another
+            // thread, so a slow consumer doesn't starve the other walks
+            ForkJoinPool.managedBlock(new QueueOffer(queue, element, isClosed));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Puts an element into a full queue, waiting in short intervals to notice when the consumer has closed the
+     * stream.
+     */
+    private static final class QueueOffer implements ForkJoinPool.ManagedBlocker {
+        private final BlockingQueue<Tuple2<Path, BasicFileAttributes>> queue;
+        private final Tuple2<Path, BasicFileAttributes> element;
+        private final AtomicBoolean isClosed;
+        private boolean isDone = false;
+
+        QueueOffer(BlockingQueue<Tuple2<Path, BasicFileAttributes>> queue,
+                   Tuple2<Path, BasicFileAttributes> element,
+                   AtomicBoolean isClosed) {
+            this.queue = queue;
+            this.element = element;
+            this.isClosed = isClosed;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (!isDone) {
+                isDone = isClosed.get() || queue.offer(element, 100, TimeUnit.MILLISECONDS);
+                if (!isDone) {
+                    log.trace("Waiting for consumer to take files from the queue");
+                }
+            }
+            return isDone;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            if (!isDone) {
+                isDone = isClosed.get() || queue.offer(element);
+            }
+            return isDone;
+        }
+    }
+
+    /**
+     * Visits the entries of a directory and forks a task for each of its subdirectories.
+     */
+    private static final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final Visitor visitor;
+
+        DirectoryTask(Path dir, Visitor visitor) {
+            this.dir = dir;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            var entries = new ArrayList<Path>();
+            try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(dir)) {
+                dirStream.forEach(entries::add);
+            } catch (IOException e) {
+                visitor.visitFailed(dir, e);
+            }
+            // The file system lists the entries in no particular order. Sorting them means a directory's files are
+            // always visited in the same order, for example when we put them in a zip file
+            entries.sort(Comparator.naturalOrder());
+
+            var subdirTasks = new ArrayList<DirectoryTask>();
+            for (Path entry : entries) {
+                if (visitor.isCancelled()) {
+                    return;
+                }
+                readAttributes(entry, visitor).forEach(attrs -> {
+                    if (attrs.isDirectory()) {
+                        visitor.visitDirectory(entry, attrs);
+                        subdirTasks.add(new DirectoryTask(entry, visitor));
+                    } else {
+                        visitor.visitFile(entry, attrs);
+                    }
+                });
+            }
+            // Other threads can steal the tasks of the subdirectories while this thread works on one of them
+            ForkJoinTask.invokeAll(subdirTasks);
+        }
+    }
+
+    private static Option<BasicFileAttributes> readAttributes(Path path, Visitor visitor) {
+        try {
+            return Option.of(Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+        } catch (IOException e) {
+            visitor.visitFailed(path, e);
+            return Option.none();
+        }
+    }
+
+    /**
+     * Takes elements from a queue until it encounters {@link #END_OF_WALK}.
+     */
+    private static final class QueueIterator implements Iterator<Tuple2<Path, BasicFileAttributes>> {
+        private final BlockingQueue<Tuple2<Path, BasicFileAttributes>> queue;
+        private Tuple2<Path, BasicFileAttributes> next;
+
+        QueueIterator(BlockingQueue<Tuple2<Path, BasicFileAttributes>> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    next = END_OF_WALK;
+                }
+            }
+            return next != END_OF_WALK;
+        }
+
+        @Override
+        public Tuple2<Path, BasicFileAttributes> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Walked all files");
+            }
+            var current = next;
+            next = null;
+            return current;
+        }
+    }
+}
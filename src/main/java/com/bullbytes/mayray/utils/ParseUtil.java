@@ -30,6 +30,13 @@ public enum ParseUtil {
                 );
     }
 
+    public static Either<FailMessage, Long> parseLong(String str) {
+        return Try.of(() -> Long.parseLong(str))
+                .fold(error -> Either.left(FailMessage.formatted("Could not parse string '%s' to a long", str)),
+                        Either::right
+                );
+    }
+
     public static Map<String, String> getKeyValueMap(Traversable<String> lines,
                                                      String splitter,
                                                      Consumer<FailMessage> onParseError) {
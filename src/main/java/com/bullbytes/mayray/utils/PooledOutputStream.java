@@ -0,0 +1,108 @@
+package com.bullbytes.mayray.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffers what's written to it like a {@link java.io.BufferedOutputStream} but borrows its buffer from a
+ * {@link BufferPool} instead of allocating a new one.
+ * <p>
+ * The buffer goes back to the pool when the stream is closed or {@link #discard() discarded}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+public final class PooledOutputStream extends FilterOutputStream {
+    private BufferPool.PooledBuffer pooledBuffer;
+    private byte[] buffer;
+    // How many bytes of the buffer are waiting to be written
+    private int count = 0;
+
+    private PooledOutputStream(OutputStream out, BufferPool.PooledBuffer pooledBuffer) {
+        super(out);
+        this.pooledBuffer = pooledBuffer;
+        this.buffer = pooledBuffer.array();
+    }
+
+    /**
+     * Creates a {@link PooledOutputStream} with one of the pool's small buffers.
+     *
+     * @param out  the {@link OutputStream} to write the buffered bytes to
+     * @param pool we borrow the buffer from this {@link BufferPool}
+     * @return a new {@link PooledOutputStream}
+     */
+    public static PooledOutputStream create(OutputStream out, BufferPool pool) {
+        return new PooledOutputStream(out, pool.acquire(BufferPool.getSmallBufferSize()));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        if (length >= buffer.length) {
+            // Copying large arrays into the buffer wouldn't save any writes
+            flushBuffer();
+            out.write(bytes, offset, length);
+            return;
+        }
+        if (length > buffer.length - count) {
+            flushBuffer();
+        }
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (pooledBuffer == null) {
+            return;
+        }
+        try {
+            flushBuffer();
+            out.close();
+        } finally {
+            discard();
+        }
+    }
+
+    /**
+     * Puts the buffer back into the pool without writing the bytes in it. Use this when the underlying stream is
+     * already closed. Writing to this stream afterwards fails.
+     */
+    public void discard() {
+        if (pooledBuffer != null) {
+            pooledBuffer.close();
+            pooledBuffer = null;
+            buffer = null;
+            count = 0;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (pooledBuffer == null) {
+            throw new IOException("Stream is closed");
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.bullbytes.mayray.fileaccess;
+
+import io.vavr.control.Option;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link AccessIndex}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class AccessIndexTest {
+
+    private static AccessIndex createIndex(String... lines) throws IOException {
+        var dir = Files.createTempDirectory("access-index-test");
+        Files.write(dir.resolve(AccessFile.FILE_NAME), java.util.List.of(lines));
+        return AccessIndex.watch(dir);
+    }
+
+    @Test
+    void testPasswordOfParentAppliesToSubdirectories() throws IOException {
+        var index = createIndex("photos = secret", "photos/private = other");
+
+        assertTrue(index.passwordMatches(Path.of("photos"), "secret"));
+        assertTrue(index.passwordMatches(Path.of("./photos/2019/summer"), "secret"),
+                "The password of a directory should apply to its subdirectories");
+        assertFalse(index.passwordMatches(Path.of("photos/private"), "secret"),
+                "A subdirectory with its own password shouldn't accept the password of its parent");
+        assertTrue(index.passwordMatches(Path.of("photos/private/2019"), "other"));
+    }
+
+    @Test
+    void testDirectoriesWithoutPasswordCantBeAccessed() throws IOException {
+        var index = createIndex("photos = secret");
+
+        assertFalse(index.passwordMatches(Path.of("documents"), "secret"));
+        assertFalse(index.passwordMatches(Path.of("photos/../../photos"), "secret"),
+                "Paths leaving the root directory shouldn't match");
+        assertFalse(index.passwordMatches(Path.of("photos"), "secre"));
+    }
+
+    @Test
+    void testPasswordOwnerIsClosestDirWithPassword() throws IOException {
+        var index = createIndex("photos = secret", "photos/private = other");
+
+        assertEquals(Option.of(Path.of("photos")), index.passwordOwnerOf(Path.of("photos/2019/summer")));
+        assertEquals(Option.of(Path.of("photos/private")), index.passwordOwnerOf(Path.of("./photos/private/2019")),
+                "A subdirectory with its own password should own the password of its subdirectories");
+        assertEquals(Option.none(), index.passwordOwnerOf(Path.of("documents")));
+    }
+}
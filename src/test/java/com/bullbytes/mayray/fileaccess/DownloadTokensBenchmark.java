@@ -0,0 +1,70 @@
+package com.bullbytes.mayray.fileaccess;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Measures how long it takes to verify a {@link DownloadTokens download token} compared to checking a password with
+ * the {@link AccessIndex}.
+ * <p>
+ * This is not a unit test. Run it with:
+ * <pre>
+ * java -cp ... com.bullbytes.mayray.fileaccess.DownloadTokensBenchmark
+ * </pre>
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class DownloadTokensBenchmark {
+
+    private static final int ITERATIONS = 1_000_000;
+    private static final int REPETITIONS = 5;
+
+    public static void main(String... args) throws Exception {
+        var tokens = DownloadTokens.withRandomKey();
+        var now = Instant.now();
+        var token = tokens.issue(Path.of("photos/2019/summer"), now.plusSeconds(3600));
+
+        report("Verify valid token", () -> tokens.verify(token, now).isRight());
+
+        var forgedToken = token.substring(0, token.length() - 4) + "AAAA";
+        report("Verify forged token", () -> tokens.verify(forgedToken, now).isRight());
+
+        report("Issue token", () -> !tokens.issue(Path.of("photos/2019/summer"), now).isEmpty());
+
+        var accessFileDir = Files.createTempDirectory("token-benchmark");
+        Files.write(accessFileDir.resolve(AccessFile.FILE_NAME), List.of("photos = secret"));
+        var accessIndex = AccessIndex.watch(accessFileDir);
+        report("Check password with access index",
+                () -> accessIndex.passwordMatches(Path.of("photos/2019/summer"), "secret"));
+    }
+
+    private static void report(String name, Check check) {
+        // Warm up the JIT
+        int successes = run(check);
+        long bestNanos = Long.MAX_VALUE;
+        for (int i = 0; i < REPETITIONS; i++) {
+            long start = System.nanoTime();
+            successes = run(check);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+        }
+        System.out.printf("%-35s %,6d ns per operation (%,d of %,d succeeded)%n", name,
+                bestNanos / ITERATIONS, successes, ITERATIONS);
+    }
+
+    private static int run(Check check) {
+        int successes = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (check.isSuccess()) {
+                successes++;
+            }
+        }
+        return successes;
+    }
+
+    @FunctionalInterface
+    private interface Check {
+        boolean isSuccess();
+    }
+}
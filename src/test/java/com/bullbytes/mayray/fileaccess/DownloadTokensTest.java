@@ -0,0 +1,49 @@
+package com.bullbytes.mayray.fileaccess;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link DownloadTokens}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class DownloadTokensTest {
+
+    private static final Instant NOW = Instant.parse("2020-01-01T12:00:00Z");
+
+    @Test
+    void testValidTokenGrantsAccessToItsDirectory() {
+        var tokens = DownloadTokens.withRandomKey();
+        var token = tokens.issue(Path.of("./photos/2019"), NOW.plusSeconds(60));
+
+        assertEquals(Path.of("photos/2019"), tokens.verify(token, NOW).get());
+    }
+
+    @Test
+    void testExpiredTokenIsRejected() {
+        var tokens = DownloadTokens.withRandomKey();
+        var token = tokens.issue(Path.of("photos"), NOW.minusSeconds(1));
+
+        assertTrue(tokens.verify(token, NOW).isLeft(), "Tokens should be rejected after they expired");
+    }
+
+    @Test
+    void testTamperedTokenIsRejected() {
+        var tokens = DownloadTokens.withRandomKey();
+        var token = tokens.issue(Path.of("photos"), NOW.plusSeconds(60));
+        var signature = token.substring(token.indexOf('.'));
+        var otherPayload = tokens.issue(Path.of("documents"), NOW.plusSeconds(60)).split("\\.")[0];
+
+        assertTrue(tokens.verify(otherPayload + signature, NOW).isLeft(),
+                "Tokens whose payload doesn't match the signature should be rejected");
+        assertTrue(DownloadTokens.withRandomKey().verify(token, NOW).isLeft(),
+                "Tokens signed with another key should be rejected");
+        assertTrue(tokens.verify("not a token", NOW).isLeft());
+    }
+}
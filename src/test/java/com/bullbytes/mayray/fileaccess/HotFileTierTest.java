@@ -0,0 +1,109 @@
+package com.bullbytes.mayray.fileaccess;
+
+import com.bullbytes.mayray.utils.CancellationToken;
+import io.vavr.control.Option;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link HotFileTier}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class HotFileTierTest {
+
+    private static final Duration REVALIDATE_AFTER = Duration.ofMinutes(1);
+
+    @Test
+    void testFileIsMappedOnceItsHot(@TempDir Path dir) throws IOException {
+        var path = Files.writeString(dir.resolve("a.txt"), "hot file");
+        var files = OpenFileCache.create("test.hot.admission", 4, REVALIDATE_AFTER);
+        var tier = HotFileTier.create("test.hot.admission", 1024, 1024, 100);
+
+        assertTrue(get(tier, files, path).isEmpty(), "A file requested once isn't hot");
+        assertTrue(get(tier, files, path).isEmpty(), "A file requested twice isn't hot");
+        var mapped = get(tier, files, path);
+
+        assertTrue(mapped.isDefined(), "A file requested three times is hot");
+        assertEquals("file", read(mapped.get(), 4, 8));
+        assertSame(mapped.get(), get(tier, files, path).get());
+    }
+
+    @Test
+    void testLargeFileIsNotMapped(@TempDir Path dir) throws IOException {
+        var path = Files.writeString(dir.resolve("large.txt"), "x".repeat(100));
+        var files = OpenFileCache.create("test.hot.large", 4, REVALIDATE_AFTER);
+        var tier = HotFileTier.create("test.hot.large", 1024, 10, 100);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(get(tier, files, path).isEmpty());
+        }
+    }
+
+    @Test
+    void testMorePopularFileReplacesMappedFile(@TempDir Path dir) throws IOException {
+        var first = Files.writeString(dir.resolve("first.txt"), "0123456789");
+        var second = Files.writeString(dir.resolve("second.txt"), "abcdefghij");
+        var files = OpenFileCache.create("test.hot.eviction", 4, REVALIDATE_AFTER);
+        // The budget fits only one of the files
+        var tier = HotFileTier.create("test.hot.eviction", 10, 10, 100);
+
+        for (int i = 0; i < 3; i++) {
+            get(tier, files, first);
+        }
+        assertTrue(get(tier, files, first).isDefined());
+
+        // The first file was requested four times
+        for (int i = 0; i < 4; i++) {
+            assertTrue(get(tier, files, second).isEmpty(),
+                    "A file that's less popular than the mapped one shouldn't replace it");
+        }
+        var mappedSecond = get(tier, files, second);
+        assertTrue(mappedSecond.isDefined(), "A file that's more popular than the mapped one should replace it");
+        assertEquals("abcdefghij", read(mappedSecond.get(), 0, 10));
+        assertTrue(get(tier, files, first).isEmpty(), "The replaced file shouldn't be mapped anymore");
+    }
+
+    @Test
+    void testChangedFileIsMappedAgain(@TempDir Path dir) throws IOException {
+        var path = Files.writeString(dir.resolve("a.txt"), "old");
+        var files = OpenFileCache.create("test.hot.changed", 4, Duration.ZERO);
+        var tier = HotFileTier.create("test.hot.changed", 1024, 1024, 100);
+
+        for (int i = 0; i < 3; i++) {
+            get(tier, files, path);
+        }
+        assertEquals("old", read(get(tier, files, path).get(), 0, 3));
+
+        Files.writeString(path, "changed");
+        var mapped = get(tier, files, path);
+        assertTrue(mapped.isDefined());
+        assertEquals("changed", read(mapped.get(), 0, 7));
+    }
+
+    private static Option<HotFileTier.MappedFile> get(HotFileTier tier, OpenFileCache files, Path path) {
+        var file = files.open(path).get();
+        try {
+            return tier.get(file);
+        } finally {
+            file.release();
+        }
+    }
+
+    private static String read(HotFileTier.MappedFile file, long start, long end) throws IOException {
+        var out = new ByteArrayOutputStream();
+        file.writeTo(out, start, end, CancellationToken.NONE);
+        return out.toString(UTF_8);
+    }
+}
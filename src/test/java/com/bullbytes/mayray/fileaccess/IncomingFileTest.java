@@ -0,0 +1,105 @@
+package com.bullbytes.mayray.fileaccess;
+
+import com.bullbytes.mayray.utils.CancellationToken;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link IncomingFile}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class IncomingFileTest {
+
+    private static final long MAX_BYTES = 100;
+    // The SHA-256 checksum of "abc"
+    private static final String ABC_SHA256 = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @Test
+    void testFileIsStagedUntilCommitted(@TempDir Path dir) throws IOException {
+        var staging = dir.resolve("staging");
+        var destination = dir.resolve("abc.txt");
+
+        try (var file = receive("abc", destination, staging)) {
+            assertEquals(3, file.getSize());
+            assertEquals(ABC_SHA256, file.getSha256());
+            assertFalse(Files.exists(destination));
+            assertEquals(1, countFiles(staging));
+
+            assertEquals(destination, file.commit(false));
+        }
+        assertEquals("abc", Files.readString(destination));
+        assertEquals(0, countFiles(staging));
+    }
+
+    @Test
+    void testUncommittedFileIsDeleted(@TempDir Path dir) throws IOException {
+        var staging = dir.resolve("staging");
+
+        receive("abc", dir.resolve("abc.txt"), staging).close();
+
+        assertEquals(0, countFiles(staging));
+        assertFalse(Files.exists(dir.resolve("abc.txt")));
+    }
+
+    @Test
+    void testTooLargeFileIsRejected(@TempDir Path dir) throws IOException {
+        var staging = dir.resolve("staging");
+
+        assertThrows(IncomingFile.FileTooLargeException.class,
+                () -> receive("x".repeat((int) MAX_BYTES + 1), dir.resolve("large.txt"), staging));
+        assertEquals(0, countFiles(staging));
+    }
+
+    @Test
+    void testExistingFileIsOnlyReplacedOnRequest(@TempDir Path dir) throws IOException {
+        var staging = dir.resolve("staging");
+        var destination = Files.writeString(dir.resolve("abc.txt"), "existing");
+
+        try (var file = receive("abc", destination, staging)) {
+            assertThrows(FileAlreadyExistsException.class, () -> file.commit(false));
+        }
+        assertEquals("existing", Files.readString(destination));
+        assertEquals(0, countFiles(staging));
+
+        try (var file = receive("abc", destination, staging)) {
+            file.commit(true);
+        }
+        assertEquals("abc", Files.readString(destination));
+    }
+
+    @Test
+    void testLeftoversOfInterruptedUploadsAreDeleted(@TempDir Path dir) throws IOException {
+        var staging = Files.createDirectories(dir.resolve("staging"));
+        Files.writeString(staging.resolve("upload-123.part"), "interrupted");
+        Files.writeString(staging.resolve("other.txt"), "not ours");
+
+        IncomingFile.prepareStagingDir(staging, dir);
+
+        assertFalse(Files.exists(staging.resolve("upload-123.part")));
+        assertTrue(Files.exists(staging.resolve("other.txt")));
+    }
+
+    private static IncomingFile receive(String content, Path destination, Path staging) throws IOException {
+        return IncomingFile.receive(new ByteArrayInputStream(content.getBytes(UTF_8)), destination, staging,
+                MAX_BYTES, CancellationToken.NONE);
+    }
+
+    private static long countFiles(Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.bullbytes.mayray.fileaccess;
+
+import com.bullbytes.mayray.utils.CancellationToken;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests the {@link OpenFileCache}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class OpenFileCacheTest {
+
+    private static final Duration REVALIDATE_AFTER = Duration.ofMinutes(1);
+
+    @Test
+    void testOpenFileIsReused(@TempDir Path dir) throws IOException {
+        var path = Files.writeString(dir.resolve("a.txt"), "first file");
+        var cache = OpenFileCache.create("test.reuse", 4, REVALIDATE_AFTER);
+
+        var file = cache.open(path).get();
+        var again = cache.open(path).get();
+
+        assertSame(file, again);
+        assertEquals("file", read(again, 6, 10));
+        file.release();
+        again.release();
+    }
+
+    @Test
+    void testEvictedFileIsClosedAfterLastReader(@TempDir Path dir) throws IOException {
+        var first = Files.writeString(dir.resolve("a.txt"), "first file");
+        var second = Files.writeString(dir.resolve("b.txt"), "second file");
+        var cache = OpenFileCache.create("test.eviction", 1, REVALIDATE_AFTER);
+
+        var file = cache.open(first).get();
+        // Opening another file evicts the first one, which we're still reading
+        cache.open(second).get().release();
+        assertEquals("first file", read(file, 0, file.getSize()));
+
+        file.release();
+        assertThrows(ClosedChannelException.class, () -> read(file, 0, 1));
+    }
+
+    @Test
+    void testChangedFileIsOpenedAgain(@TempDir Path dir) throws IOException {
+        var path = Files.writeString(dir.resolve("a.txt"), "old");
+        var cache = OpenFileCache.create("test.revalidation", 4, Duration.ZERO);
+
+        var oldFile = cache.open(path).get();
+        oldFile.release();
+        Files.writeString(path, "changed");
+        var newFile = cache.open(path).get();
+
+        assertNotSame(oldFile, newFile);
+        assertEquals("changed".length(), newFile.getSize());
+        assertThrows(ClosedChannelException.class, () -> read(oldFile, 0, 1));
+        newFile.release();
+    }
+
+    @Test
+    void testDirectoryCantBeOpened(@TempDir Path dir) {
+        var cache = OpenFileCache.create("test.directory", 4, REVALIDATE_AFTER);
+
+        assertThrows(IOException.class, () -> cache.open(dir).get());
+    }
+
+    private static String read(OpenFileCache.OpenFile file, long start, long end) throws IOException {
+        var out = new ByteArrayOutputStream();
+        file.writeTo(out, start, end, CancellationToken.NONE);
+        return out.toString(UTF_8);
+    }
+}
@@ -0,0 +1,106 @@
+package com.bullbytes.mayray.fileindex;
+
+import com.bullbytes.mayray.utils.GlobUtil;
+import io.vavr.control.Option;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the {@link DirectoryListing}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class DirectoryListingTest {
+
+    private static FileTreeSnapshot getTestSnapshot() {
+        return FileTreeSnapshot.of(java.util.List.of(
+                FileEntry.create("photos/a.jpg", 300, 1),
+                FileEntry.create("photos/b.jpg", 100, 5),
+                FileEntry.create("photos/c.jpg", 200, 3),
+                FileEntry.create("photos/d.jpg", 100, 2),
+                FileEntry.create("photos/e.jpg", 50, 4),
+                FileEntry.create("docs/readme.txt", 10, 6)));
+    }
+
+    /**
+     * Follows the cursors from the first to the last page and collects the paths of all pages.
+     */
+    private static java.util.List<String> getAllPages(ListingOrder order, boolean descending, int limit) {
+        var snapshot = getTestSnapshot();
+        var paths = new ArrayList<String>();
+        Option<ListingCursor> cursor = Option.none();
+        do {
+            // Encode and decode the cursor like a client would
+            var query = ListingQuery.create(order, descending,
+                    cursor.map(c -> ListingCursor.decode(c.encode(), order).get()), limit);
+            var listing = DirectoryListing.page(snapshot, "photos", query);
+            for (int i = 0; i < listing.size(); i++) {
+                paths.add(listing.get(i).getRelativePath());
+            }
+            cursor = listing.getNextCursor();
+        } while (cursor.isDefined());
+        return paths;
+    }
+
+    @Test
+    void testPagesByName() {
+        assertEquals(java.util.List.of("photos/a.jpg", "photos/b.jpg", "photos/c.jpg", "photos/d.jpg", "photos/e.jpg"),
+                getAllPages(ListingOrder.NAME, false, 2));
+        assertEquals(java.util.List.of("photos/e.jpg", "photos/d.jpg", "photos/c.jpg", "photos/b.jpg", "photos/a.jpg"),
+                getAllPages(ListingOrder.NAME, true, 2));
+    }
+
+    @Test
+    void testPagesBySizeBreakTiesByPath() {
+        assertEquals(java.util.List.of("photos/e.jpg", "photos/b.jpg", "photos/d.jpg", "photos/c.jpg", "photos/a.jpg"),
+                getAllPages(ListingOrder.SIZE, false, 2),
+                "Files with the same size should be sorted by path, even across pages");
+        assertEquals(java.util.List.of("photos/a.jpg", "photos/c.jpg", "photos/d.jpg", "photos/b.jpg", "photos/e.jpg"),
+                getAllPages(ListingOrder.SIZE, true, 1));
+    }
+
+    @Test
+    void testPagesByModificationTime() {
+        assertEquals(java.util.List.of("photos/a.jpg", "photos/d.jpg", "photos/c.jpg", "photos/e.jpg", "photos/b.jpg"),
+                getAllPages(ListingOrder.MODIFIED, false, 3));
+    }
+
+    @Test
+    void testLastPageHasNoCursor() {
+        var listing = DirectoryListing.page(getTestSnapshot(), "photos",
+                ListingQuery.create(ListingOrder.NAME, false, Option.none(), 5));
+        assertEquals(5, listing.size());
+        assertEquals(Option.none(), listing.getNextCursor(), "There should be no next page if all files fit on the page");
+    }
+
+    @Test
+    void testFilterByPrefixGlobAndDepth() {
+        var snapshot = FileTreeSnapshot.of(java.util.List.of(
+                FileEntry.create("photos/2019/beach.jpg", 1, 1),
+                FileEntry.create("photos/2019/notes.txt", 1, 1),
+                FileEntry.create("photos/2019/deep/cat.jpg", 1, 1),
+                FileEntry.create("photos/2020/tree.jpg", 1, 1),
+                FileEntry.create("photos/cover.jpg", 1, 1)));
+        var query = ListingQuery.firstPage();
+
+        var byPrefixAndGlob = DirectoryListing.page(snapshot, "photos", query,
+                ListingFilter.create("2019/", GlobUtil.toPattern("**.jpg").toOption(), Option.none()));
+        assertEquals(java.util.List.of("photos/2019/beach.jpg", "photos/2019/deep/cat.jpg"), pathsOf(byPrefixAndGlob));
+
+        var byDepth = DirectoryListing.page(snapshot, "photos", query,
+                ListingFilter.create("", Option.none(), Option.of(2)));
+        assertEquals(java.util.List.of("photos/2019/beach.jpg", "photos/2019/notes.txt", "photos/2020/tree.jpg",
+                "photos/cover.jpg"), pathsOf(byDepth), "Files more than two levels below the directory should be left out");
+    }
+
+    private static java.util.List<String> pathsOf(DirectoryListing listing) {
+        var paths = new ArrayList<String>();
+        for (int i = 0; i < listing.size(); i++) {
+            paths.add(listing.get(i).getRelativePath());
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,78 @@
+package com.bullbytes.mayray.fileindex;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Tests the {@link FileTreeSnapshot}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class FileTreeSnapshotTest {
+
+    private static FileTreeSnapshot getTestSnapshot() {
+        return FileTreeSnapshot.of(java.util.List.of(
+                FileEntry.create("photos/beach.jpg", 300, 1),
+                FileEntry.create("docs/readme.txt", 10, 2),
+                FileEntry.create("photos-old/cat.jpg", 200, 3),
+                FileEntry.create("photos/2019/tree.jpg", 100, 4),
+                FileEntry.create("photos0.txt", 5, 5)));
+    }
+
+    @Test
+    void testEntriesInDirIncludeSubdirsButNotSiblingsWithSamePrefix() {
+        var paths = getTestSnapshot().entriesIn("photos").map(FileEntry::getRelativePath);
+
+        assertEquals(io.vavr.collection.List.of("photos/2019/tree.jpg", "photos/beach.jpg"), paths,
+                "Listing a directory should get the files in it and its subdirectories, sorted by path");
+    }
+
+    @Test
+    void testEmptyDirIsRoot() {
+        var snapshot = getTestSnapshot();
+        assertEquals(snapshot.size(), snapshot.entriesIn("").size(), "The empty path should stand for the root directory");
+        assertEquals(615, snapshot.totalSizeOf(""), "The total size of the root should be the size of all files");
+    }
+
+    @Test
+    void testWithChangesRemovesDirsAndReplacesFiles() {
+        var snapshot = getTestSnapshot();
+        var changed = snapshot.withChanges(
+                Map.of("docs/readme.txt", FileEntry.create("docs/readme.txt", 20, 6),
+                        "docs/new.txt", FileEntry.create("docs/new.txt", 1, 7)),
+                Set.of("photos"));
+
+        assertEquals(io.vavr.collection.List.of("docs/new.txt", "docs/readme.txt", "photos-old/cat.jpg", "photos0.txt"),
+                changed.entriesIn("").map(FileEntry::getRelativePath),
+                "Removing a directory should remove the files inside it but not its siblings");
+        assertEquals(21, changed.totalSizeOf("docs"), "Changed files should have their new size");
+        assertNotEquals(snapshot.fingerprintOf("docs"), changed.fingerprintOf("docs"),
+                "The fingerprint should change when a directory's files change");
+        assertEquals(snapshot.fingerprintOf("photos-old"), changed.fingerprintOf("photos-old"),
+                "The fingerprint of an unchanged directory should stay the same");
+    }
+
+    @Test
+    void testWithChangesRemovesNestedDirsAndFiles() {
+        var snapshot = FileTreeSnapshot.of(java.util.List.of(
+                FileEntry.create("a/1.txt", 1, 1),
+                FileEntry.create("a/b/2.txt", 1, 1),
+                FileEntry.create("a-b/3.txt", 1, 1),
+                FileEntry.create("a-b/c/4.txt", 1, 1),
+                FileEntry.create("a.txt", 1, 1),
+                FileEntry.create("b/5.txt", 1, 1),
+                FileEntry.create("c/6.txt", 1, 1)));
+
+        // "a/b" is inside the removed "a" and "a-b/c" sorts before "a/" by its bytes, but after "a"
+        var changed = snapshot.withChanges(Map.of(), Set.of("a", "a/b", "a-b/c", "b/5.txt", "missing"));
+
+        assertEquals(io.vavr.collection.List.of("a-b/3.txt", "a.txt", "c/6.txt"),
+                changed.entriesIn("").map(FileEntry::getRelativePath),
+                "Removing several paths should remove all entries in or at those paths and nothing else");
+    }
+}
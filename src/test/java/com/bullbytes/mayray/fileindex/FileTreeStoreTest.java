@@ -0,0 +1,60 @@
+package com.bullbytes.mayray.fileindex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link FileTreeStore}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class FileTreeStoreTest {
+
+    private static FileTreeSnapshot getTestSnapshot() {
+        return FileTreeSnapshot.of(java.util.List.of(
+                FileEntry.create("photos/beach.jpg", 300, 1),
+                FileEntry.create("docs/readme.txt", 10, 2),
+                FileEntry.create("photos/2019/tree.jpg", 100, 4),
+                FileEntry.create("photos/2019/café.jpg", 50, 5),
+                FileEntry.create("top.txt", 5, 6)));
+    }
+
+    private static io.vavr.collection.List<String> describe(FileTreeSnapshot snapshot, String dir) {
+        return snapshot.entriesIn(dir)
+                .map(entry -> entry.getRelativePath() + " " + entry.getSize() + " " + entry.getLastModified());
+    }
+
+    @Test
+    void testRestoredSnapshotHasSameEntries(@TempDir Path tempDir) {
+        var snapshot = getTestSnapshot();
+        var indexFile = tempDir.resolve("index/files.idx");
+
+        assertEquals(indexFile, FileTreeStore.write(snapshot, indexFile).get());
+        var restored = FileTreeStore.read(indexFile).get();
+
+        assertEquals(describe(snapshot, ""), describe(restored, ""),
+                "The restored snapshot should have the same files, sizes and modification times");
+        assertEquals(describe(snapshot, "photos/2019"), describe(restored, "photos/2019"),
+                "Looking up a directory in the restored snapshot should find the same files");
+        assertEquals(450, restored.totalSizeOf("photos"));
+        assertEquals(snapshot.fingerprintOf("docs"), restored.fingerprintOf("docs"),
+                "The fingerprint of a directory shouldn't depend on how the snapshot was stored");
+    }
+
+    @Test
+    void testTruncatedIndexIsRejected(@TempDir Path tempDir) throws IOException {
+        var indexFile = tempDir.resolve("files.idx");
+        FileTreeStore.write(getTestSnapshot(), indexFile).get();
+        var bytes = Files.readAllBytes(indexFile);
+        Files.write(indexFile, java.util.Arrays.copyOf(bytes, bytes.length - 1));
+
+        assertTrue(FileTreeStore.read(indexFile).isFailure(), "A truncated index file shouldn't be read");
+    }
+}
@@ -0,0 +1,58 @@
+package com.bullbytes.mayray.fileindex;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the {@link TrigramIndex}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class TrigramIndexTest {
+
+    private static List<String> search(TrigramIndex index, PathQuery.Mode mode, String text) {
+        var query = PathQuery.create(mode, text).get();
+        return index.search(query.getRequiredParts(), query::matches, 10);
+    }
+
+    @Test
+    void testSearchModes() {
+        var index = new TrigramIndex();
+        index.rebuilt(FileTreeSnapshot.of(List.of(
+                FileEntry.create("photos/Beach.jpg", 1, 1),
+                FileEntry.create("photos/2019/beach-party.png", 1, 1),
+                FileEntry.create("docs/beachvolleyball.txt", 1, 1))));
+
+        assertEquals(List.of("docs/beachvolleyball.txt", "photos/2019/beach-party.png", "photos/Beach.jpg"),
+                search(index, PathQuery.Mode.SUBSTRING, "BEACH"), "Substring search should ignore case");
+        assertEquals(List.of("photos/2019/beach-party.png"), search(index, PathQuery.Mode.PREFIX, "beach-"));
+        assertEquals(List.of(), search(index, PathQuery.Mode.PREFIX, "photos"),
+                "Prefix search should only match the start of file names, not of directories");
+        assertEquals(List.of("photos/2019/beach-party.png"),
+                search(index, PathQuery.Mode.GLOB, "photos/*/*.png"));
+        assertEquals(List.of("photos/2019/beach-party.png", "photos/Beach.jpg"),
+                search(index, PathQuery.Mode.GLOB, "ph**"), "Globs without trigrams should still work");
+    }
+
+    @Test
+    void testIncrementalChanges() {
+        var index = new TrigramIndex();
+        var previous = FileTreeSnapshot.of(List.of(
+                FileEntry.create("old/notes.txt", 1, 1),
+                FileEntry.create("old/more/notes.md", 1, 1),
+                FileEntry.create("kept/notes.txt", 1, 1)));
+        index.rebuilt(previous);
+
+        var current = previous.withChanges(Map.of("new/notes.txt", FileEntry.create("new/notes.txt", 1, 1)), Set.of("old"));
+        index.changed(previous, current, Set.of("new/notes.txt"), Set.of("old"));
+
+        assertEquals(List.of("kept/notes.txt", "new/notes.txt"), search(index, PathQuery.Mode.SUBSTRING, "notes"),
+                "Files in a removed directory should be removed and added files should be found");
+        assertEquals(2, index.size());
+    }
+}
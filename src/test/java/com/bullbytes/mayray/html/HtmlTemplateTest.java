@@ -0,0 +1,57 @@
+package com.bullbytes.mayray.html;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests the {@link HtmlTemplate}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class HtmlTemplateTest {
+
+    @Test
+    void testTextsAreEscapedAndSpliced() throws IOException {
+        var template = HtmlTemplate.compile("<p title=\"{}\">{} 🗝</p>{}");
+
+        assertEquals(3, template.getSlotCount());
+        assertEquals("<p title=\"&quot;x&quot;\">&lt;b&gt; &amp; café 😀 🗝</p>",
+                writeInMemory(template, "\"x\"", "<b> & café 😀", ""));
+    }
+
+    @Test
+    void testStreamedPageIsComplete() throws IOException {
+        var item = HtmlTemplate.compile("<li>{}</li>");
+        var stream = new ByteArrayOutputStream();
+        var expected = new StringBuilder();
+        // Many items don't fit into the buffer, so we send it several times
+        try (var out = HtmlOutput.toStream(stream)) {
+            for (int i = 0; i < 100_000; i++) {
+                item.write(out, "file " + i);
+                expected.append("<li>file ").append(i).append("</li>");
+            }
+            out.flush();
+        }
+        assertEquals(expected.toString(), stream.toString(UTF_8));
+    }
+
+    @Test
+    void testWrongNumberOfTextsIsRejected() {
+        var template = HtmlTemplate.compile("<p>{}</p>");
+
+        assertThrows(IllegalArgumentException.class, () -> writeInMemory(template));
+    }
+
+    private static String writeInMemory(HtmlTemplate template, String... texts) throws IOException {
+        try (var out = HtmlOutput.inMemory()) {
+            template.write(out, texts);
+            return new String(out.getBuffer(), 0, out.getLength(), UTF_8);
+        }
+    }
+}
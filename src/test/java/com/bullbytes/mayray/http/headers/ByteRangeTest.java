@@ -0,0 +1,58 @@
+package com.bullbytes.mayray.http.headers;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link ByteRange}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class ByteRangeTest {
+
+    private static final long FILE_SIZE = 1000;
+
+    @Test
+    void testRangesWithinFileAreParsed() {
+        assertRange("bytes=0-499", 0, 500);
+        assertRange("bytes=500-", 500, 1000);
+        assertRange("bytes=-100", 900, 1000);
+        // The end and the suffix may be larger than the file
+        assertRange("bytes=990-5000", 990, 1000);
+        assertRange("bytes=-5000", 0, 1000);
+    }
+
+    @Test
+    void testContentRangeContainsLastByte() {
+        var range = ByteRange.parse("bytes=0-499", FILE_SIZE).get().get();
+        assertEquals("bytes 0-499/1000", range.toContentRange(FILE_SIZE));
+    }
+
+    @Test
+    void testRangesOutsideFileAreUnsatisfiable() {
+        assertTrue(ByteRange.parse("bytes=1000-", FILE_SIZE).isLeft());
+        assertTrue(ByteRange.parse("bytes=-0", FILE_SIZE).isLeft());
+        assertTrue(ByteRange.parse("bytes=0-10", 0).isLeft());
+    }
+
+    @Test
+    void testInvalidAndMultipleRangesSendWholeFile() {
+        assertWholeFile("items=0-10");
+        assertWholeFile("bytes=10-5");
+        assertWholeFile("bytes=abc-");
+        assertWholeFile("bytes=-");
+        assertWholeFile("bytes=0-10,20-30");
+    }
+
+    private static void assertRange(String header, long start, long end) {
+        var range = ByteRange.parse(header, FILE_SIZE).get().get();
+        assertEquals(start, range.getStart(), header);
+        assertEquals(end, range.getEnd(), header);
+    }
+
+    private static void assertWholeFile(String header) {
+        assertTrue(ByteRange.parse(header, FILE_SIZE).get().isEmpty(), header);
+    }
+}
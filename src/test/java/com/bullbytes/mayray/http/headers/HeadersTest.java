@@ -0,0 +1,71 @@
+package com.bullbytes.mayray.http.headers;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link Headers}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class HeadersTest {
+
+    @Test
+    void testNamesAreCaseInsensitive() {
+        var headers = Headers.parse(List.of(
+                "content-TYPE:  text/plain ",
+                "X-Request-Id: 42",
+                "HOST: example.com"), error -> {});
+
+        assertEquals(Option.of("text/plain"), headers.get(HttpHeader.CONTENT_TYPE));
+        assertEquals(Option.of("text/plain"), headers.get("Content-Type"));
+        assertEquals(Option.of("42"), headers.get("x-request-id"));
+        assertEquals(Option.of("example.com"), headers.get("Host"));
+        assertTrue(headers.contains(HttpHeader.HOST));
+        assertFalse(headers.contains(HttpHeader.RANGE));
+        assertTrue(headers.get("X-Missing").isEmpty());
+    }
+
+    @Test
+    void testRepeatedHeadersAreJoined() {
+        var headers = Headers.parse(List.of(
+                "Accept-Encoding: gzip",
+                "accept-encoding: br",
+                "X-Tag: a",
+                "x-tag: b"), error -> {});
+
+        assertEquals(Option.of("gzip, br"), headers.get(HttpHeader.ACCEPT_ENCODING));
+        assertEquals(Option.of("a, b"), headers.get("X-TAG"));
+    }
+
+    @Test
+    void testManyOtherHeaders() {
+        var lines = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            lines.add("X-Header-" + i + ": " + i);
+        }
+        var headers = Headers.parse(lines, error -> {});
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Option.of(String.valueOf(i)), headers.get("x-header-" + i));
+        }
+        assertTrue(headers.get("X-Header-100").isEmpty());
+    }
+
+    @Test
+    void testInvalidLinesAreReported() {
+        var errors = new ArrayList<String>();
+        var headers = Headers.parse(List.of("no colon here", "Date: today"), error -> errors.add(error.toString()));
+
+        assertEquals(1, errors.size());
+        assertEquals(Option.of("today"), headers.get(HttpHeader.DATE));
+        assertTrue(Headers.empty().get("Date").isEmpty());
+    }
+}
@@ -0,0 +1,121 @@
+package com.bullbytes.mayray.http.requests;
+
+import com.bullbytes.mayray.http.headers.Headers;
+import io.vavr.collection.List;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link MultipartReader}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class MultipartReaderTest {
+
+    private static final String BOUNDARY = "----boundary42";
+    private static final Headers HEADERS = Headers.parse(
+            List.of("Content-Type: multipart/form-data; boundary=\"" + BOUNDARY + "\""), error -> {});
+
+    @Test
+    void testFieldsAndFilesAreRead() throws IOException {
+        var fileBytes = new byte[200_000];
+        new Random(1).nextBytes(fileBytes);
+        var body = concat(("preamble\r\n--" + BOUNDARY + "\r\n" +
+                        "Content-Disposition: form-data; name=\"note\"\r\n\r\n" +
+                        "hello\r\n--" + BOUNDARY + "\r\n" +
+                        "Content-Disposition: form-data; name=\"upload\"; filename=\"C:\\\\photos\\\\cat.jpg\"\r\n" +
+                        "Content-Type: image/jpeg\r\n\r\n").getBytes(UTF_8),
+                fileBytes,
+                ("\r\n--" + BOUNDARY + "--\r\n").getBytes(UTF_8));
+
+        try (var reader = MultipartReader.create(trickle(body), HEADERS).get()) {
+            var field = reader.nextPart().get();
+            assertEquals("note", field.getName().get());
+            assertTrue(field.getFileName().isEmpty());
+            assertEquals("hello", new String(field.getContent().readAllBytes(), UTF_8));
+
+            var file = reader.nextPart().get();
+            assertEquals("upload", file.getName().get());
+            assertEquals("cat.jpg", file.getFileName().get());
+            assertArrayEquals(fileBytes, file.getContent().readAllBytes());
+
+            assertTrue(reader.nextPart().isEmpty());
+        }
+    }
+
+    @Test
+    void testUnreadPartIsSkipped() throws IOException {
+        var body = ("--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"first\"\r\n\r\n" +
+                "not read\r\n--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"second\"\r\n\r\n" +
+                "read\r\n--" + BOUNDARY + "--").getBytes(UTF_8);
+
+        try (var reader = MultipartReader.create(new ByteArrayInputStream(body), HEADERS).get()) {
+            reader.nextPart();
+            var second = reader.nextPart().get();
+            assertEquals("second", second.getName().get());
+            assertEquals("read", new String(second.getContent().readAllBytes(), UTF_8));
+        }
+    }
+
+    @Test
+    void testBodyWithoutClosingBoundaryFails() {
+        var body = ("--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"cut\"\r\n\r\n" +
+                "the client disconnected").getBytes(UTF_8);
+
+        try (var reader = MultipartReader.create(new ByteArrayInputStream(body), HEADERS).get()) {
+            var part = reader.nextPart().get();
+            assertThrows(IOException.class, () -> part.getContent().readAllBytes());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    void testOtherContentTypeIsRejected() {
+        var headers = Headers.parse(List.of("Content-Type: application/json"), error -> {});
+        assertTrue(MultipartReader.create(new ByteArrayInputStream(new byte[0]), headers).isLeft());
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (var part : parts) {
+            length += part.length;
+        }
+        var bytes = new byte[length];
+        int offset = 0;
+        for (var part : parts) {
+            System.arraycopy(part, 0, bytes, offset, part.length);
+            offset += part.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a few bytes per read, like a slow network does, so boundaries are split across reads.
+     */
+    private static InputStream trickle(byte[] bytes) {
+        return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            private int readCount = 0;
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                readCount++;
+                return super.read(buffer, offset, Math.min(length, 1 + readCount % 7 * 1000));
+            }
+        };
+    }
+}
@@ -0,0 +1,89 @@
+package com.bullbytes.mayray.http.requests;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link Parameters}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class ParametersTest {
+
+    @Test
+    void testQueryIsDecoded() {
+        var parameters = Parameters.ofQuery("/list?dir=my%20photos&pass=a+b%26c&%C3%A4=%E2%82%AC#top");
+
+        assertEquals(Option.of("my photos"), parameters.get("dir"));
+        assertEquals(Option.of("a b&c"), parameters.get("pass"));
+        assertEquals(Option.of("€"), parameters.get("ä"));
+        assertEquals(3, parameters.size());
+    }
+
+    @Test
+    void testRepeatedAndEmptyParameters() {
+        var parameters = Parameters.ofQuery("/search?tag=a&&tag=b&flag&tag=&%zz=1%");
+
+        assertEquals(List.of("a", "b", ""), parameters.getAll("tag"));
+        assertEquals(Option.of("a"), parameters.get("tag"));
+        assertEquals(Option.of(""), parameters.get("flag"));
+        // Invalid escapes stay as they are
+        assertEquals(Option.of("1%"), parameters.get("%zz"));
+        assertFalse(parameters.contains("missing"));
+        assertTrue(Parameters.ofQuery("/search").get("tag").isEmpty());
+    }
+
+    @Test
+    void testTypedValues() {
+        var parameters = Parameters.ofQuery("/list?limit=20&size=5000000000&dir=a%2Fb&day=monday&bad=x");
+
+        assertEquals(20, parameters.getInt("limit", 10).get());
+        assertEquals(10, parameters.getInt("missing", 10).get());
+        assertTrue(parameters.getInt("bad").isLeft());
+        assertEquals(Option.of(5_000_000_000L), parameters.getLong("size").get());
+        assertEquals(Option.of(Path.of("a/b")), parameters.getPath("dir").get());
+        assertEquals(Option.of(DayOfWeek.MONDAY), parameters.getEnum("day", DayOfWeek.class).get());
+        assertTrue(parameters.getEnum("bad", DayOfWeek.class).isLeft());
+    }
+
+    @Test
+    void testFormIsReadInChunks() {
+        var body = "passwordInput=s%C3%A9cret+42&note=raw ü".getBytes(UTF_8);
+        var form = Parameters.ofForm(trickle(body), 1024);
+
+        assertEquals(Option.of("sécret 42"), form.get().get("passwordInput"));
+        // Browsers escape non-ASCII characters, but we also understand UTF-8 bytes that aren't escaped
+        assertEquals(Option.of("raw ü"), form.get().get("note"));
+    }
+
+    @Test
+    void testFormThatIsTooLargeIsRejected() {
+        var body = "passwordInput=0123456789".getBytes(UTF_8);
+
+        assertTrue(Parameters.ofForm(new ByteArrayInputStream(body), body.length - 1).isLeft());
+        assertTrue(Parameters.ofForm(new ByteArrayInputStream(body), body.length).isRight());
+    }
+
+    /**
+     * @return a stream that returns at most three bytes per read, like a slow client
+     */
+    private static InputStream trickle(byte[] bytes) {
+        return new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                return super.read(buffer, offset, Math.min(length, 3));
+            }
+        };
+    }
+}
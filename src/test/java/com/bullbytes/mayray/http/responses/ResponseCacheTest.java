@@ -0,0 +1,140 @@
+package com.bullbytes.mayray.http.responses;
+
+import com.bullbytes.mayray.utils.BlobStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link ResponseCache}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class ResponseCacheTest {
+
+    private static final Duration TIME_TO_LIVE = Duration.ofMinutes(1);
+
+    @Test
+    void testSuccessfulResponseIsCreatedOnce() throws IOException {
+        var cache = ResponseCache.create("test.success", 1024 * 1024, 1024);
+        var creations = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            var response = cache.get("key", TIME_TO_LIVE, () -> {
+                creations.incrementAndGet();
+                return Response.of(Responses.plainText("cached"));
+            });
+            var text = toText(response);
+            assertTrue(text.startsWith("HTTP/1.1 200 Success\r\nDate: "), text);
+            assertTrue(text.endsWith("\r\n\r\ncached\r\n"), text);
+        }
+        assertEquals(1, creations.get());
+    }
+
+    @Test
+    void testFailedAndTooLargeResponsesAreNotCached() {
+        var cache = ResponseCache.create("test.uncached", 1024 * 1024, 100);
+        var creations = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            cache.get("failure", TIME_TO_LIVE, () -> {
+                creations.incrementAndGet();
+                return Response.of(Responses.plainText("nope", StatusCode.NOT_FOUND));
+            });
+            cache.get("large", TIME_TO_LIVE, () -> {
+                creations.incrementAndGet();
+                return Response.of(Responses.plainText("x".repeat(200)));
+            });
+        }
+        assertEquals(4, creations.get());
+    }
+
+    @Test
+    void testLargeResponseIsCachedInBlobStore() throws IOException {
+        var blobStore = BlobStore.create("test.cache.blobs", 4096, 64);
+        var cache = ResponseCache.create("test.blobs", 1024, 100_000, blobStore);
+        var creations = new AtomicInteger();
+        var body = "y".repeat(50_000);
+
+        for (int i = 0; i < 3; i++) {
+            var text = toText(cache.get("key", TIME_TO_LIVE, () -> {
+                creations.incrementAndGet();
+                return Response.of(Responses.plainText(body));
+            }));
+            assertTrue(text.startsWith("HTTP/1.1 200 Success\r\nDate: "), text.substring(0, 40));
+            assertTrue(text.endsWith("\r\n\r\n" + body + "\r\n"));
+        }
+        assertEquals(1, creations.get());
+    }
+
+    @Test
+    void testStreamedResponsesAreNotCached() throws IOException {
+        var cache = ResponseCache.create("test.streamed", 1024 * 1024, 1024);
+        var creations = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            var response = cache.get("streamed", TIME_TO_LIVE, () -> {
+                creations.incrementAndGet();
+                return Response.streamed("HTTP/1.1 200 Success\r\n\r\n".getBytes(UTF_8),
+                        out -> out.write("streamed".getBytes(UTF_8)));
+            });
+            assertTrue(toText(response).endsWith("\r\n\r\nstreamed"));
+        }
+        assertEquals(2, creations.get());
+    }
+
+    @Test
+    void testConcurrentMissesCreateResponseOnce() throws InterruptedException {
+        var cache = ResponseCache.create("test.collapse", 1024 * 1024, 1024);
+        var creations = new AtomicInteger();
+        var isCreating = new CountDownLatch(1);
+        var mayFinish = new CountDownLatch(1);
+        int requestCount = 8;
+        var done = new CountDownLatch(requestCount);
+        var threads = Executors.newFixedThreadPool(requestCount);
+
+        for (int i = 0; i < requestCount; i++) {
+            threads.execute(() -> {
+                cache.get("key", TIME_TO_LIVE, () -> {
+                    creations.incrementAndGet();
+                    isCreating.countDown();
+                    await(mayFinish);
+                    return Response.of(Responses.plainText("slow"));
+                });
+                done.countDown();
+            });
+        }
+        isCreating.await();
+        // Give the other requests time to miss the cache and wait for the first one
+        Thread.sleep(100);
+        mayFinish.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        threads.shutdown();
+
+        assertEquals(1, creations.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String toText(Response response) throws IOException {
+        var out = new ByteArrayOutputStream();
+        response.writeTo(out);
+        return out.toString(UTF_8);
+    }
+}
@@ -0,0 +1,54 @@
+package com.bullbytes.mayray.http.responses;
+
+import com.bullbytes.mayray.http.headers.HttpHeader;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link ResponseWriter}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class ResponseWriterTest {
+
+    @Test
+    void testBodyIsEncodedAsUtf8WithMatchingContentLength() {
+        // Two bytes for "ä", three for "€", and four for the emoji
+        var body = "ä€😀";
+        var response = new String(ResponseWriter.start(StatusCode.SUCCESS)
+                .contentType(ContentType.TEXT_PLAIN)
+                .body(body), UTF_8);
+
+        assertTrue(response.startsWith("HTTP/1.1 200 Success\r\nDate: "), response);
+        assertTrue(response.contains("\r\nContent-Type: text/plain; charset=UTF-8\r\n"), response);
+        assertTrue(response.endsWith("\r\nContent-Length: 9\r\n\r\n" + body), response);
+    }
+
+    @Test
+    void testHeadersWithoutBody() {
+        var response = new String(ResponseWriter.start(StatusCode.NOT_MODIFIED)
+                .header(HttpHeader.ETAG, "\"abc\"")
+                .header(HttpHeader.RETRY_AFTER, 120)
+                .finish(), UTF_8);
+
+        var lines = response.split("\r\n", -1);
+        assertEquals("HTTP/1.1 304 Not Modified", lines[0]);
+        assertTrue(lines[1].matches("Date: \\w{3}, \\d{2} \\w{3} \\d{4} \\d{2}:\\d{2}:\\d{2} GMT"), lines[1]);
+        assertEquals("ETag: \"abc\"", lines[2]);
+        assertEquals("Retry-After: 120", lines[3]);
+        assertEquals("", lines[4]);
+        assertEquals("", lines[5]);
+    }
+
+    @Test
+    void testLineBreakInHeaderValueIsRejected() {
+        var writer = ResponseWriter.start(StatusCode.SUCCESS);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> writer.header(HttpHeader.CONTENT_DISPOSITION, "inline\r\nSet-Cookie: session=stolen"));
+    }
+}
@@ -0,0 +1,156 @@
+package com.bullbytes.mayray.http.responses;
+
+import com.bullbytes.mayray.fileaccess.OpenFileCache;
+import com.bullbytes.mayray.utils.CancellationToken;
+import io.vavr.control.Option;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static com.bullbytes.mayray.http.headers.InlineOrAttachment.ATTACHMENT;
+import static com.bullbytes.mayray.http.headers.InlineOrAttachment.INLINE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link Responses}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class ResponsesTest {
+
+    private static final String CONTENT = "0123456789";
+
+    @Test
+    void testOpenFileIsSentWhole(@TempDir Path dir) throws IOException {
+        var files = new TwoFiles(dir, "test.open.whole");
+        var file = files.openFirst();
+
+        var text = toText(Responses.openFile(file, Option.none(), Option.none(), ATTACHMENT, CancellationToken.NONE));
+
+        assertTrue(text.startsWith("HTTP/1.1 200 Success\r\n"), text);
+        assertTrue(text.contains("\r\nAccept-Ranges: bytes\r\n"), text);
+        assertTrue(text.endsWith("\r\n\r\n" + CONTENT), text);
+        files.assertClosedAfterEviction(file);
+    }
+
+    @Test
+    void testRangeOfOpenFileIsSent(@TempDir Path dir) throws IOException {
+        var files = new TwoFiles(dir, "test.open.range");
+        var file = files.openFirst();
+
+        var text = toText(Responses.openFile(file, Option.none(), Option.of("bytes=2-4"), ATTACHMENT,
+                CancellationToken.NONE));
+
+        assertTrue(text.startsWith("HTTP/1.1 206 Partial Content\r\n"), text);
+        assertTrue(text.contains("\r\nContent-Range: bytes 2-4/10\r\n"), text);
+        assertTrue(text.endsWith("\r\n\r\n234"), text);
+        files.assertClosedAfterEviction(file);
+    }
+
+    @Test
+    void testUnsatisfiableRangeReleasesFile(@TempDir Path dir) throws IOException {
+        var files = new TwoFiles(dir, "test.open.unsatisfiable");
+        var file = files.openFirst();
+
+        var text = toText(Responses.openFile(file, Option.none(), Option.of("bytes=20-"), ATTACHMENT,
+                CancellationToken.NONE));
+
+        assertTrue(text.startsWith("HTTP/1.1 416 Range Not Satisfiable\r\n"), text);
+        assertTrue(text.contains("\r\nContent-Range: bytes */10\r\n"), text);
+        files.assertClosedAfterEviction(file);
+    }
+
+    @Test
+    void testUnsentResponseReleasesFile(@TempDir Path dir) throws IOException {
+        var files = new TwoFiles(dir, "test.open.unsent");
+        var file = files.openFirst();
+
+        Responses.openFile(file, Option.none(), Option.none(), ATTACHMENT, CancellationToken.NONE).release();
+
+        files.assertClosedAfterEviction(file);
+    }
+
+    @Test
+    void testFailedWriteReleasesFile(@TempDir Path dir) throws IOException {
+        var files = new TwoFiles(dir, "test.open.failed");
+        var file = files.openFirst();
+        var response = Responses.openFile(file, Option.none(), Option.none(), ATTACHMENT, CancellationToken.NONE);
+
+        // The client is gone before we can send the head
+        var brokenOut = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Connection reset");
+            }
+        };
+        assertThrows(IOException.class, () -> response.writeTo(brokenOut));
+
+        files.assertClosedAfterEviction(file);
+    }
+
+    @Test
+    void testTemporaryFileIsSentUnderDownloadNameAndDeleted(@TempDir Path dir) throws IOException {
+        var file = Files.writeString(dir.resolve("photos-8374982734.zip"), CONTENT);
+
+        var text = toText(Responses.temporaryFile(file, "photos.zip", ContentType.ZIP, ATTACHMENT,
+                CancellationToken.NONE));
+
+        assertTrue(text.contains("\r\nContent-Disposition: attachment; filename=\"photos.zip\"; filename*=UTF-8''photos.zip\r\n"), text);
+        assertTrue(text.endsWith("\r\n\r\n" + CONTENT), text);
+        assertFalse(Files.exists(file), "The temporary file should be deleted after sending it");
+    }
+
+    @Test
+    void testFileNameInContentDispositionIsEscaped() {
+        assertEquals("inline; filename=\"a__b.txt\"; filename*=UTF-8''a%0D%0Ab.txt",
+                Responses.contentDisposition(INLINE, "a\r\nb.txt"));
+        assertEquals("attachment; filename=\"say \\\"hi\\\"; now.txt\"; filename*=UTF-8''say%20%22hi%22%3B%20now.txt",
+                Responses.contentDisposition(ATTACHMENT, "say \"hi\"; now.txt"));
+        assertEquals("attachment; filename=\"K_se.txt\"; filename*=UTF-8''K%C3%A4se.txt",
+                Responses.contentDisposition(ATTACHMENT, "Käse.txt"));
+    }
+
+    private static String toText(Response response) throws IOException {
+        var out = new ByteArrayOutputStream();
+        response.writeTo(out);
+        return out.toString(UTF_8);
+    }
+
+    /**
+     * Two files in an {@link OpenFileCache} that keeps only one of them open. Opening the second file evicts the
+     * first, which closes it if nobody reads it anymore.
+     */
+    private static final class TwoFiles {
+        private final OpenFileCache cache;
+        private final Path first;
+        private final Path second;
+
+        private TwoFiles(Path dir, String cacheName) throws IOException {
+            cache = OpenFileCache.create(cacheName, 1, Duration.ofMinutes(1));
+            first = Files.writeString(dir.resolve("first.txt"), CONTENT);
+            second = Files.writeString(dir.resolve("second.txt"), CONTENT);
+        }
+
+        OpenFileCache.OpenFile openFirst() {
+            return cache.open(first).get();
+        }
+
+        void assertClosedAfterEviction(OpenFileCache.OpenFile file) {
+            cache.open(second).get().release();
+            assertThrows(ClosedChannelException.class,
+                    () -> file.writeTo(OutputStream.nullOutputStream(), 0, 1, CancellationToken.NONE),
+                    "The response should have released the file");
+        }
+    }
+}
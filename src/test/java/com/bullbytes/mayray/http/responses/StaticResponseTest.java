@@ -0,0 +1,120 @@
+package com.bullbytes.mayray.http.responses;
+
+import com.bullbytes.mayray.http.requests.Request;
+import io.vavr.collection.List;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link StaticResponse}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class StaticResponseTest {
+
+    private static final Pattern ENTITY_TAG = Pattern.compile("\r\nETag: (\"[^\"]+\")\r\n");
+    // Long and repetitive, so the compressed variant is smaller
+    private static final String BODY = "coffee ".repeat(50);
+    private static final StaticResponse RESPONSE = StaticResponse.plainText(BODY);
+
+    @Test
+    void testFullResponseHasEntityTag() throws IOException {
+        var text = respond(RESPONSE);
+
+        assertTrue(text.startsWith("HTTP/1.1 200 Success\r\n"), text);
+        assertTrue(text.contains("\r\nAccept-Ranges: bytes\r\n"), text);
+        assertTrue(text.endsWith("\r\n\r\n" + BODY + "\r\n"), text);
+        assertTrue(ENTITY_TAG.matcher(text).find(), text);
+    }
+
+    @Test
+    void testCompressedVariantHasItsOwnEntityTag() throws IOException {
+        var plain = respond(RESPONSE);
+        var gzipped = respond(RESPONSE, "Accept-Encoding: gzip");
+
+        assertTrue(gzipped.contains("\r\nContent-Encoding: gzip\r\n"), gzipped);
+        assertNotEquals(entityTagOf(plain), entityTagOf(gzipped));
+    }
+
+    @Test
+    void testClientWithCurrentBodyGetsNotModified() throws IOException {
+        var entityTag = entityTagOf(respond(RESPONSE));
+
+        var text = respond(RESPONSE, "If-None-Match: \"other\", " + entityTag);
+        assertTrue(text.startsWith("HTTP/1.1 304 Not Modified\r\n"), text);
+        assertTrue(text.contains("\r\nETag: " + entityTag + "\r\n"), text);
+        assertTrue(text.endsWith("\r\n\r\n"), text);
+
+        // The tag of the uncompressed variant doesn't match the compressed one
+        var gzipped = respond(RESPONSE, "If-None-Match: " + entityTag, "Accept-Encoding: gzip");
+        assertTrue(gzipped.startsWith("HTTP/1.1 200 Success\r\n"), gzipped);
+
+        var anyTag = respond(RESPONSE, "If-None-Match: *");
+        assertTrue(anyTag.startsWith("HTTP/1.1 304 Not Modified\r\n"), anyTag);
+    }
+
+    @Test
+    void testRangeOfBodyIsSent() throws IOException {
+        var text = respond(RESPONSE, "Range: bytes=7-12", "Accept-Encoding: gzip");
+
+        assertTrue(text.startsWith("HTTP/1.1 206 Partial Content\r\n"), text);
+        assertTrue(text.contains("\r\nContent-Range: bytes 7-12/" + (BODY.length() + 2) + "\r\n"), text);
+        assertTrue(text.contains("\r\nContent-Length: 6\r\n"), text);
+        assertFalse(text.contains("Content-Encoding"), text);
+        assertTrue(text.endsWith("\r\n\r\ncoffee"), text);
+
+        var suffix = respond(RESPONSE, "Range: bytes=-2");
+        assertTrue(suffix.endsWith("\r\n\r\n\r\n"), suffix);
+    }
+
+    @Test
+    void testUnsatisfiableRangeIsRejected() throws IOException {
+        var text = respond(RESPONSE, "Range: bytes=10000-");
+
+        assertTrue(text.startsWith("HTTP/1.1 416 Range Not Satisfiable\r\n"), text);
+        assertTrue(text.contains("\r\nContent-Range: bytes */" + (BODY.length() + 2) + "\r\n"), text);
+    }
+
+    @Test
+    void testOutdatedIfRangeGetsWholeBody() throws IOException {
+        var text = respond(RESPONSE, "Range: bytes=0-5", "If-Range: \"outdated\"");
+
+        assertTrue(text.startsWith("HTTP/1.1 200 Success\r\n"), text);
+        assertTrue(text.endsWith("\r\n\r\n" + BODY + "\r\n"), text);
+    }
+
+    @Test
+    void testErrorResponsesIgnoreConditionsAndRanges() throws IOException {
+        var teapot = StaticResponse.plainText("I'm a teapot", StatusCode.TEAPOT);
+
+        var text = respond(teapot, "If-None-Match: *", "Range: bytes=0-1");
+        assertTrue(text.startsWith("HTTP/1.1 418 "), text);
+        assertFalse(text.contains("ETag"), text);
+        assertTrue(text.endsWith("\r\n\r\nI'm a teapot\r\n"), text);
+    }
+
+    private static String entityTagOf(String response) {
+        var matcher = ENTITY_TAG.matcher(response);
+        assertTrue(matcher.find(), response);
+        return matcher.group(1);
+    }
+
+    private static String respond(StaticResponse staticResponse, String... headerLines) throws IOException {
+        var request = Request.create(List.of("GET /coffee HTTP/1.1").appendAll(List.of(headerLines)),
+                new ByteArrayInputStream(new byte[0]))
+                .getOrElseThrow(failMessage -> new AssertionError(failMessage.toString()));
+        var out = new ByteArrayOutputStream();
+        staticResponse.respond(request).writeTo(out);
+        // The compressed body isn't text, but every byte stays one char in ISO 8859-1
+        return out.toString(ISO_8859_1);
+    }
+}
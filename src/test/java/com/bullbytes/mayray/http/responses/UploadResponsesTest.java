@@ -0,0 +1,202 @@
+package com.bullbytes.mayray.http.responses;
+
+import com.bullbytes.mayray.fileaccess.DirectoryAccess;
+import com.bullbytes.mayray.fileaccess.UploadQuota;
+import com.bullbytes.mayray.http.requests.Parameters;
+import com.bullbytes.mayray.http.requests.Request;
+import io.vavr.collection.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link UploadResponses}.
+ * <p>
+ * Uploads go to directories inside {@link DirectoryAccess#DOWNLOAD_ROOT_DIR}, so each test creates its own directory
+ * there and deletes it afterwards.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class UploadResponsesTest {
+
+    private static final String BOUNDARY = "----boundary42";
+    // The SHA-256 checksum of "abc"
+    private static final String ABC_SHA256 = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+    private static final UploadQuota QUOTA = UploadQuota.create(100, 0);
+
+    private boolean isRootCreated;
+    private Path testDir;
+    private Path uploadDir;
+    private Path stagingDir;
+
+    @BeforeEach
+    void createDirectories() throws IOException {
+        isRootCreated = !Files.exists(DirectoryAccess.DOWNLOAD_ROOT_DIR);
+        Files.createDirectories(DirectoryAccess.DOWNLOAD_ROOT_DIR);
+        testDir = Files.createTempDirectory(DirectoryAccess.DOWNLOAD_ROOT_DIR, "upload-test-");
+        uploadDir = Files.createDirectory(testDir.resolve("files"));
+        // On the same file system as the upload directory
+        stagingDir = testDir.resolve("staging");
+    }
+
+    @AfterEach
+    void deleteDirectories() throws IOException {
+        try (var paths = Files.walk(testDir)) {
+            for (var path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+        if (isRootCreated) {
+            try {
+                Files.delete(DirectoryAccess.DOWNLOAD_ROOT_DIR);
+            } catch (DirectoryNotEmptyException e) {
+                // Another test uses the directory as well
+            }
+        }
+    }
+
+    @Test
+    void testStreamedFileIsSaved() throws IOException {
+        var text = put("file=abc.txt", "abc");
+
+        assertTrue(text.startsWith("HTTP/1.1 201 Created\r\n"), text);
+        assertTrue(text.contains(ABC_SHA256), text);
+        assertEquals("abc", Files.readString(uploadDir.resolve("abc.txt")));
+        try (var stagedFiles = Files.list(stagingDir)) {
+            assertFalse(stagedFiles.findAny().isPresent(), "Staged files should be gone");
+        }
+    }
+
+    @Test
+    void testFilesOfMultipartBodyAreSaved() throws IOException {
+        var text = post("", multipartBody("first.txt", "abc", "second.txt", "defg"));
+
+        assertTrue(text.startsWith("HTTP/1.1 201 Created\r\n"), text);
+        assertEquals("abc", Files.readString(uploadDir.resolve("first.txt")));
+        assertEquals("defg", Files.readString(uploadDir.resolve("second.txt")));
+    }
+
+    @Test
+    void testFileWithWrongChecksumIsRejected() throws IOException {
+        var text = put("file=abc.txt&sha256=" + "0".repeat(64), "abc");
+
+        assertTrue(text.startsWith("HTTP/1.1 400 Bad Request\r\n"), text);
+        assertFalse(Files.exists(uploadDir.resolve("abc.txt")));
+
+        var correct = put("file=abc.txt&sha256=" + ABC_SHA256.toUpperCase(), "abc");
+        assertTrue(correct.startsWith("HTTP/1.1 201 Created\r\n"), correct);
+    }
+
+    @Test
+    void testChecksumNeedsSingleFile() throws IOException {
+        var text = post("sha256=" + ABC_SHA256, multipartBody("first.txt", "abc", "second.txt", "abc"));
+
+        assertTrue(text.startsWith("HTTP/1.1 400 Bad Request\r\n"), text);
+        assertFalse(Files.exists(uploadDir.resolve("first.txt")));
+        assertFalse(Files.exists(uploadDir.resolve("second.txt")));
+    }
+
+    @Test
+    void testTooLargeFileIsRejected() throws IOException {
+        var text = put("file=large.txt", "x".repeat(101));
+        assertTrue(text.startsWith("HTTP/1.1 413 Payload Too Large\r\n"), text);
+
+        var multipartText = post("", multipartBody("large.txt", "x".repeat(101)));
+        assertTrue(multipartText.startsWith("HTTP/1.1 413 Payload Too Large\r\n"), multipartText);
+        assertFalse(Files.exists(uploadDir.resolve("large.txt")));
+    }
+
+    @Test
+    void testExistingFileIsOnlyReplacedOnRequest() throws IOException {
+        Files.writeString(uploadDir.resolve("abc.txt"), "existing");
+
+        var text = put("file=abc.txt", "abc");
+        assertTrue(text.startsWith("HTTP/1.1 409 Conflict\r\n"), text);
+        assertEquals("existing", Files.readString(uploadDir.resolve("abc.txt")));
+
+        var replaced = put("file=abc.txt&overwrite=true", "abc");
+        assertTrue(replaced.startsWith("HTTP/1.1 201 Created\r\n"), replaced);
+        assertEquals("abc", Files.readString(uploadDir.resolve("abc.txt")));
+    }
+
+    @Test
+    void testDownloadTokenDoesNotGrantUpload() throws IOException {
+        var dir = DirectoryAccess.DOWNLOAD_ROOT_DIR.relativize(uploadDir);
+        var request = request(List.of("PUT /upload?dir=" + dir + "&token=anyToken&file=abc.txt HTTP/1.1",
+                "Content-Length: 3"), "abc".getBytes(UTF_8));
+
+        var text = toText(UploadResponses.upload(request, QUOTA));
+
+        assertTrue(text.startsWith("HTTP/1.1 403 Forbidden\r\n"), text);
+        assertFalse(Files.exists(uploadDir.resolve("abc.txt")));
+    }
+
+    @Test
+    void testFileNameMustBePlain() throws IOException {
+        for (var fileName : List.of("a%0D%0ASet-Cookie:%20x.txt", "a%00.txt", "say%22hi%22.txt", "a;b.txt",
+                "sub%2Fabc.txt", "..%5Cabc.txt", ".hidden")) {
+            var text = put("file=" + fileName, "abc");
+            assertTrue(text.startsWith("HTTP/1.1 403 Forbidden\r\n"), fileName + ": " + text);
+        }
+        try (var files = Files.list(uploadDir)) {
+            assertFalse(files.findAny().isPresent(), "No file should have been saved");
+        }
+    }
+
+    private String put(String query, String body) throws IOException {
+        return upload(List.of("PUT /upload?" + query + " HTTP/1.1",
+                "Content-Length: " + body.length()), body.getBytes(UTF_8));
+    }
+
+    private String post(String query, byte[] body) throws IOException {
+        return upload(List.of("POST /upload?" + query + " HTTP/1.1",
+                "Content-Type: multipart/form-data; boundary=" + BOUNDARY,
+                "Content-Length: " + body.length), body);
+    }
+
+    private String upload(List<String> headerLines, byte[] body) throws IOException {
+        var request = request(headerLines, body);
+        var access = DirectoryAccess.create(DirectoryAccess.DOWNLOAD_ROOT_DIR.relativize(uploadDir), "");
+        return toText(UploadResponses.upload(request, access, Parameters.ofQuery(request.getResource()), QUOTA,
+                stagingDir));
+    }
+
+    private static Request request(List<String> headerLines, byte[] body) {
+        return Request.create(headerLines, new ByteArrayInputStream(body))
+                .getOrElseThrow(failMessage -> new AssertionError(failMessage.toString()));
+    }
+
+    private static String toText(Response response) throws IOException {
+        var out = new ByteArrayOutputStream();
+        response.writeTo(out);
+        return out.toString(UTF_8);
+    }
+
+    /**
+     * Creates a multipart body with a file for each pair of file name and content.
+     */
+    private static byte[] multipartBody(String... fileNamesAndContents) {
+        var body = new StringBuilder();
+        for (int i = 0; i < fileNamesAndContents.length; i += 2) {
+            body.append("--").append(BOUNDARY).append("\r\n")
+                    .append("Content-Disposition: form-data; name=\"upload\"; filename=\"")
+                    .append(fileNamesAndContents[i]).append("\"\r\n\r\n")
+                    .append(fileNamesAndContents[i + 1]).append("\r\n");
+        }
+        body.append("--").append(BOUNDARY).append("--\r\n");
+        return body.toString().getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,64 @@
+package com.bullbytes.mayray.http.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link Bulkhead}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class BulkheadTest {
+
+    @Test
+    void testTasksBeyondThreadsAndQueueAreRejected() throws InterruptedException {
+        var bulkhead = Bulkhead.create("test-full", 1, 2);
+        var running = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var finished = new CountDownLatch(3);
+        Runnable blockingTask = () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                finished.countDown();
+            }
+        };
+
+        assertTrue(bulkhead.execute(blockingTask));
+        assertTrue(running.await(5, TimeUnit.SECONDS), "The first task should get the bulkhead's thread");
+        assertTrue(bulkhead.execute(blockingTask), "The second task should wait in the queue");
+        assertTrue(bulkhead.execute(blockingTask), "The third task should wait in the queue");
+        assertFalse(bulkhead.execute(blockingTask), "The fourth task doesn't fit into the queue anymore");
+
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS), "The accepted tasks should run once the thread is free");
+        assertTrue(bulkhead.execute(() -> {}), "Once the queue is empty, the bulkhead should accept tasks again");
+    }
+
+    @Test
+    void testInlineBulkheadRunsTasksOnCallingThread() {
+        var bulkhead = Bulkhead.inline();
+        var caller = Thread.currentThread();
+        var runsOnCaller = new AtomicInteger();
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(bulkhead.execute(() -> {
+                if (Thread.currentThread() == caller) {
+                    runsOnCaller.incrementAndGet();
+                }
+            }), "The inline bulkhead shouldn't reject tasks");
+        }
+        assertTrue(bulkhead.isInline());
+        assertEquals(100, runsOnCaller.get());
+    }
+}
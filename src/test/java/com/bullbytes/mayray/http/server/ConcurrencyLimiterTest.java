@@ -0,0 +1,65 @@
+package com.bullbytes.mayray.http.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link ConcurrencyLimiter}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class ConcurrencyLimiterTest {
+
+    private static final long MILLI = 1_000_000;
+
+    @Test
+    void testLimitGrowsWhileLatencyIsSteady() {
+        var limiter = ConcurrencyLimiter.create(10, 2, 100);
+        for (int i = 0; i < 50; i++) {
+            limiter.update(10 * MILLI, limiter.getLimit());
+        }
+        assertTrue(limiter.getLimit() > 10, "Limit should have grown but is " + limiter.getLimit());
+        assertTrue(limiter.getLimit() <= 100, "Limit should stay below maximum");
+    }
+
+    @Test
+    void testLimitShrinksWhenLatencyRises() {
+        var limiter = ConcurrencyLimiter.create(50, 2, 100);
+        for (int i = 0; i < 20; i++) {
+            limiter.update(10 * MILLI, limiter.getLimit());
+        }
+        int limitBefore = limiter.getLimit();
+        for (int i = 0; i < 20; i++) {
+            limiter.update(100 * MILLI, limiter.getLimit());
+        }
+        assertTrue(limiter.getLimit() < limitBefore,
+                "Limit should have shrunk from " + limitBefore + " but is " + limiter.getLimit());
+    }
+
+    @Test
+    void testRequestsOverTheLimitAreRejected() {
+        var limiter = ConcurrencyLimiter.create(2, 2, 2);
+        var first = limiter.tryAcquire();
+        var second = limiter.tryAcquire();
+        assertTrue(first.isDefined() && second.isDefined());
+        assertTrue(limiter.tryAcquire().isEmpty(), "Third request should be rejected");
+
+        first.get().release(true);
+        assertTrue(limiter.tryAcquire().isDefined(), "Released permit should make room for another request");
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    void testReleasingPermitAgainHasNoEffect() {
+        var limiter = ConcurrencyLimiter.create(1, 1, 1);
+        var permit = limiter.tryAcquire().get();
+
+        permit.release(true);
+        permit.release(false);
+        assertTrue(limiter.tryAcquire().isDefined());
+        assertTrue(limiter.tryAcquire().isEmpty(),
+                "Releasing a permit twice shouldn't let more requests run than the limit allows");
+    }
+}
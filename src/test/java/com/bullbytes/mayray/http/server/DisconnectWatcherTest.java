@@ -0,0 +1,59 @@
+package com.bullbytes.mayray.http.server;
+
+import com.bullbytes.mayray.utils.CancellationToken;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link DisconnectWatcher}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class DisconnectWatcherTest {
+
+    @Test
+    void testClientClosingConnectionCancelsWork() throws IOException, InterruptedException {
+        try (var serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             var client = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+             var server = serverSocket.accept()) {
+            var cancellation = CancellationToken.create();
+            var cancelled = new CountDownLatch(1);
+            cancellation.onCancel(cancelled::countDown);
+
+            DisconnectWatcher.watch(server, cancellation);
+            assertFalse(cancelled.await(200, TimeUnit.MILLISECONDS),
+                    "Work shouldn't be cancelled while the client is connected");
+
+            // The client won't send anything else, like a client that has closed the connection
+            client.shutdownOutput();
+            assertTrue(cancelled.await(5, TimeUnit.SECONDS), "The client has left, so its work should be cancelled");
+        }
+    }
+
+    @Test
+    void testServerClosingConnectionDoesNotCancelWork() throws IOException, InterruptedException {
+        try (var serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             var client = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort())) {
+            var server = serverSocket.accept();
+            var cancellation = CancellationToken.create();
+
+            DisconnectWatcher.watch(server, cancellation);
+            // Like after sending the response
+            server.close();
+            Thread.sleep(200);
+
+            assertFalse(cancellation.isCancelled(), "Closing the connection ourselves shouldn't cancel the work");
+            assertEquals(-1, client.getInputStream().read(), "The client should see that we closed the connection");
+        }
+    }
+}
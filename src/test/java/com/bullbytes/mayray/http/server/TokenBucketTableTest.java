@@ -0,0 +1,58 @@
+package com.bullbytes.mayray.http.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link TokenBucketTable}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class TokenBucketTableTest {
+
+    private static final Runnable NO_OP = () -> {};
+
+    @Test
+    void testBurstThenWait() {
+        var table = TokenBucketTable.create(2, 3, 100);
+        long client = 42;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, table.acquire(client, 0, NO_OP), "Burst should allow request " + i);
+        }
+        // With two tokens per second, the next token is there after half a second
+        assertEquals(500, table.acquire(client, 0, NO_OP));
+        assertEquals(100, table.acquire(client, 400, NO_OP));
+        assertEquals(0, table.acquire(client, 500, NO_OP));
+    }
+
+    @Test
+    void testClientsHaveTheirOwnBuckets() {
+        var table = TokenBucketTable.create(1, 1, 100);
+        assertEquals(0, table.acquire(1, 0, NO_OP));
+        assertTrue(table.acquire(1, 0, NO_OP) > 0, "First client's bucket should be empty");
+        assertEquals(0, table.acquire(2, 0, NO_OP), "Second client should have a full bucket");
+    }
+
+    @Test
+    void testIdlestClientIsEvictedWhenFull() {
+        // The table has a single stripe
+        var table = TokenBucketTable.create(1, 1, 1);
+        var evictions = new AtomicInteger();
+        int clients = TokenBucketTable.SLOTS_PER_STRIPE;
+        for (int client = 1; client <= clients; client++) {
+            table.acquire(client, client, evictions::incrementAndGet);
+        }
+        assertEquals(0, evictions.get());
+
+        // Client 1 was idle the longest, so the new client takes its place
+        table.acquire(clients + 1, clients + 1, evictions::incrementAndGet);
+        assertEquals(1, evictions.get());
+        // The other clients are still known and have empty buckets
+        assertTrue(table.acquire(2, clients + 1, evictions::incrementAndGet) > 0);
+        assertEquals(1, evictions.get());
+    }
+}
@@ -0,0 +1,92 @@
+package com.bullbytes.mayray.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link BlobStore}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class BlobStoreTest {
+
+    private static final int SEGMENT_SIZE = 100;
+
+    @Test
+    void testBlobSpanningSegmentsIsReadBack() throws IOException {
+        var store = BlobStore.create("test.read", SEGMENT_SIZE, 10);
+        byte[] bytes = randomBytes(450);
+
+        var blob = write(store, bytes);
+
+        assertTrue(blob.retain());
+        var out = new ByteArrayOutputStream();
+        blob.writeTo(out, 0, bytes.length);
+        assertArrayEquals(bytes, out.toByteArray());
+
+        out.reset();
+        blob.writeTo(out, 95, 305);
+        assertArrayEquals(Arrays.copyOfRange(bytes, 95, 305), out.toByteArray());
+        assertArrayEquals(Arrays.copyOf(bytes, 150), blob.head(150));
+        blob.release();
+    }
+
+    @Test
+    void testLeastRecentlyUsedBlobIsEvicted() throws IOException {
+        var store = BlobStore.create("test.evict", SEGMENT_SIZE, 4);
+        var first = write(store, randomBytes(200));
+        var second = write(store, randomBytes(200));
+        // Reading the first blob makes the second one the least recently used
+        assertTrue(first.retain());
+        first.release();
+
+        var third = write(store, randomBytes(150));
+
+        assertFalse(second.retain());
+        assertTrue(first.retain());
+        assertTrue(third.retain());
+    }
+
+    @Test
+    void testBlobsBeingReadAreNotOverwritten() throws IOException {
+        var store = BlobStore.create("test.readers", SEGMENT_SIZE, 2);
+        byte[] bytes = randomBytes(200);
+        var blob = write(store, bytes);
+        assertTrue(blob.retain());
+
+        // The new blob evicts the one we're reading, but it can't have its segments yet
+        assertThrows(BlobStore.StoreFullException.class, () -> write(store, randomBytes(10)));
+
+        var out = new ByteArrayOutputStream();
+        blob.writeTo(out, 0, bytes.length);
+        assertArrayEquals(bytes, out.toByteArray());
+        blob.release();
+
+        // Now the segments are free again
+        assertTrue(write(store, randomBytes(200)).retain());
+    }
+
+    private static BlobStore.Blob write(BlobStore store, byte[] bytes) throws IOException {
+        var out = store.newBlob(Long.MAX_VALUE);
+        // Write in pieces that don't line up with the segments
+        for (int start = 0; start < bytes.length; start += 33) {
+            out.write(bytes, start, Math.min(33, bytes.length - start));
+        }
+        return out.finish();
+    }
+
+    private static byte[] randomBytes(int count) {
+        var bytes = new byte[count];
+        new Random(count).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,41 @@
+package com.bullbytes.mayray.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link BufferPool}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class BufferPoolTest {
+
+    @Test
+    void testClosedBufferIsReused() {
+        var pool = BufferPool.create("test.buffers.reuse");
+        var first = pool.acquire(100);
+        byte[] array = first.array();
+        first.close();
+        // Closing twice must not put the buffer into the pool twice
+        first.close();
+
+        var second = pool.acquire(BufferPool.getSmallBufferSize());
+        var third = pool.acquire(BufferPool.getSmallBufferSize());
+        assertSame(array, second.array());
+        assertNotSame(array, third.array());
+    }
+
+    @Test
+    void testBufferHasAtLeastRequestedCapacity() {
+        var pool = BufferPool.create("test.buffers.capacity");
+        int largerThanSmall = BufferPool.getSmallBufferSize() + 1;
+        assertTrue(pool.acquire(largerThanSmall).buffer().capacity() >= largerThanSmall);
+
+        int largerThanLarge = BufferPool.getLargeBufferSize() + 1;
+        assertEquals(largerThanLarge, pool.acquire(largerThanLarge).buffer().capacity());
+    }
+}
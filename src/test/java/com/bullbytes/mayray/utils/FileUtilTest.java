@@ -0,0 +1,48 @@
+package com.bullbytes.mayray.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the {@link FileUtil}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class FileUtilTest {
+
+    @Test
+    void testZipContainsFilesAndLinkedFiles(@TempDir Path dir) throws IOException {
+        var target = Files.createDirectory(dir.resolve("target"));
+        Files.writeString(target.resolve("linked.txt"), "linked");
+        var dirToZip = Files.createDirectory(dir.resolve("toZip"));
+        Files.writeString(dirToZip.resolve("file.txt"), "file");
+        Files.createSymbolicLink(dirToZip.resolve("linkToFile.txt"), target.resolve("linked.txt"));
+        // We don't follow links to directories
+        Files.createSymbolicLink(dirToZip.resolve("linkToDir"), target);
+
+        var zipFile = FileUtil.zipAllFiles(dirToZip, dir.resolve("files.zip"),
+                path -> dirToZip.relativize(Path.of(path)).toString(), CancellationToken.NONE).get();
+
+        assertEquals(Map.of("file.txt", "file", "linkToFile.txt", "linked"), readZip(zipFile));
+    }
+
+    private static Map<String, String> readZip(Path zipFile) throws IOException {
+        var entries = new HashMap<String, String>();
+        try (var in = new ZipInputStream(Files.newInputStream(zipFile))) {
+            for (var entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                entries.put(entry.getName(), new String(in.readAllBytes(), UTF_8));
+            }
+        }
+        return entries;
+    }
+}
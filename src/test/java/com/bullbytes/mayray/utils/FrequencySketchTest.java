@@ -0,0 +1,41 @@
+package com.bullbytes.mayray.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link FrequencySketch}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class FrequencySketchTest {
+
+    @Test
+    void testFrequentKeyHasHigherEstimate() {
+        var sketch = FrequencySketch.create(1000);
+        for (int i = 0; i < 1000; i++) {
+            sketch.increment("rare-" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            sketch.increment("popular");
+        }
+        assertTrue(sketch.estimate("popular") >= 10);
+        assertTrue(sketch.estimate("rare-1") < sketch.estimate("popular"));
+        assertEquals(0, sketch.estimate("never seen"), "Estimate of unseen key");
+    }
+
+    @Test
+    void testOldIncrementsAreForgotten() {
+        var sketch = FrequencySketch.create(1000);
+        for (int i = 0; i < 8; i++) {
+            sketch.increment("once popular");
+        }
+        // Enough increments of other keys make the sketch halve its counters several times
+        for (int i = 0; i < 100_000; i++) {
+            sketch.increment(i % 100);
+        }
+        assertTrue(sketch.estimate("once popular") <= 1);
+    }
+}
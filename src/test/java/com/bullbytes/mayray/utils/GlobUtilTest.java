@@ -0,0 +1,45 @@
+package com.bullbytes.mayray.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link GlobUtil}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class GlobUtilTest {
+
+    private static boolean matches(String glob, String path) {
+        return GlobUtil.toPattern(glob).get().matcher(path).matches();
+    }
+
+    @Test
+    void testSingleStarDoesNotCrossDirectories() {
+        assertTrue(matches("*.jpg", "beach.jpg"));
+        assertFalse(matches("*.jpg", "2019/beach.jpg"), "A single star shouldn't match '/'");
+        assertTrue(matches("**.jpg", "2019/beach.jpg"), "Two stars should match '/'");
+    }
+
+    @Test
+    void testSpecialCharactersOfRegexesAreLiteral() {
+        assertTrue(matches("a+b(1).txt", "a+b(1).txt"));
+        assertFalse(matches("a.txt", "abtxt"), "A dot in a glob should only match a dot");
+    }
+
+    @Test
+    void testGroupsAndBrackets() {
+        assertTrue(matches("*.{jpg,png}", "cat.png"));
+        assertFalse(matches("*.{jpg,png}", "cat.gif"));
+        assertTrue(matches("IMG_[0-9]?.jpg", "IMG_12.jpg"));
+        assertFalse(matches("[!a]*", "abc"), "An exclamation mark should negate the brackets");
+    }
+
+    @Test
+    void testUnclosedGroupIsAnError() {
+        assertTrue(GlobUtil.toPattern("*.{jpg").isLeft());
+        assertTrue(GlobUtil.toPattern("[abc").isLeft());
+    }
+}
@@ -0,0 +1,44 @@
+package com.bullbytes.mayray.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link HashedTimerWheel}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class HashedTimerWheelTest {
+
+    @Test
+    void testTasksRunAfterMoreRoundsThanBuckets() throws InterruptedException {
+        // With four buckets of 5 ms, a delay of 50 ms takes more than two rounds
+        var wheel = HashedTimerWheel.start("test-wheel", 5, TimeUnit.MILLISECONDS, 4);
+        var hasRun = new CountDownLatch(1);
+        long start = System.nanoTime();
+        wheel.schedule(hasRun::countDown, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(hasRun.await(5, TimeUnit.SECONDS), "Task should have run");
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis >= 45, "Task ran too early, after " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void testCancelledTasksDontRun() throws InterruptedException {
+        var wheel = HashedTimerWheel.start("test-wheel", 5, TimeUnit.MILLISECONDS, 4);
+        var cancelledHasRun = new AtomicBoolean(false);
+        var laterHasRun = new CountDownLatch(1);
+
+        wheel.schedule(() -> cancelledHasRun.set(true), 20, TimeUnit.MILLISECONDS).cancel();
+        wheel.schedule(laterHasRun::countDown, 40, TimeUnit.MILLISECONDS);
+
+        assertTrue(laterHasRun.await(5, TimeUnit.SECONDS), "Task scheduled after the cancelled one should have run");
+        assertFalse(cancelledHasRun.get(), "Cancelled task shouldn't run");
+    }
+}
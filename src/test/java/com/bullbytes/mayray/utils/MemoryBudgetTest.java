@@ -0,0 +1,59 @@
+package com.bullbytes.mayray.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link MemoryBudget}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class MemoryBudgetTest {
+
+    @Test
+    void testReservationsOverTheLimitAreDenied() {
+        var budget = MemoryBudget.create(100);
+        var first = budget.reserve(60, Duration.ZERO);
+
+        assertTrue(first.isDefined());
+        assertTrue(budget.reserve(50, Duration.ofMillis(10)).isEmpty(), "There are only 40 bytes left");
+        assertTrue(budget.reserve(101, Duration.ofSeconds(10)).isEmpty(),
+                "Reservations larger than the whole budget should be denied right away");
+
+        first.get().close();
+        first.get().close();
+        assertEquals(0, budget.getUsedBytes(), "Closing a reservation twice should release its bytes once");
+    }
+
+    @Test
+    void testWaitingReservationGetsReleasedBytes() throws Exception {
+        var budget = MemoryBudget.create(100);
+        var first = budget.reserveNow(80);
+        var waiting = CompletableFuture.supplyAsync(() -> budget.reserve(50, Duration.ofSeconds(10)));
+
+        Thread.sleep(50);
+        assertEquals(80, budget.getUsedBytes(), "The second reservation should wait for room in the budget");
+        first.close();
+
+        assertTrue(waiting.get(5, TimeUnit.SECONDS).isDefined(),
+                "Releasing the first reservation should let the second one through");
+        assertEquals(50, budget.getUsedBytes());
+    }
+
+    @Test
+    void testReserveNowCanExceedTheLimit() {
+        var budget = MemoryBudget.create(100);
+        var inMemory = budget.reserveNow(150);
+
+        assertEquals(150, budget.getUsedBytes());
+        assertTrue(budget.reserve(1, Duration.ZERO).isEmpty(), "Nothing is left while the budget is exceeded");
+        inMemory.close();
+        assertTrue(budget.reserve(100, Duration.ZERO).isDefined());
+    }
+}
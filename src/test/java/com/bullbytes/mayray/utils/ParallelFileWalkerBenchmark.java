@@ -0,0 +1,94 @@
+package com.bullbytes.mayray.utils;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares walking a deep directory tree with {@link Files#walkFileTree} and with the {@link ParallelFileWalker} using
+ * different numbers of threads.
+ * <p>
+ * This is not a unit test. Run it with the path of a directory tree to walk, for example one on a network file
+ * system. Without arguments, it creates a deep tree in the temporary directory:
+ * <pre>
+ * java -cp ... com.bullbytes.mayray.utils.ParallelFileWalkerBenchmark /mnt/nfs/photos
+ * </pre>
+ * Note that the operating system caches file metadata, so the first run over a tree is usually the slowest.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class ParallelFileWalkerBenchmark {
+
+    private static final int REPETITIONS = 5;
+
+    public static void main(String... args) throws IOException {
+        Path treeRoot = args.length > 0 ?
+                Path.of(args[0]) :
+                createTree(Files.createTempDirectory("walker-benchmark"), 7, 4, 5);
+
+        System.out.printf("Walking %s%n", treeRoot);
+
+        report("Files.walkFileTree", () -> walkSequentially(treeRoot));
+
+        for (int threads = 1; threads <= 4 * Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            var pool = new ForkJoinPool(threads);
+            report(String.format("ParallelFileWalker, %2d threads", threads), () -> {
+                var files = new AtomicLong();
+                ParallelFileWalker.walk(treeRoot, pool, (file, attrs) -> files.incrementAndGet());
+                return files.get();
+            });
+            pool.shutdown();
+        }
+    }
+
+    private static void report(String name, FileCounter walk) throws IOException {
+        // Warm up the JIT and the file system cache
+        long files = walk.countFiles();
+        long bestNanos = Long.MAX_VALUE;
+        for (int i = 0; i < REPETITIONS; i++) {
+            long start = System.nanoTime();
+            walk.countFiles();
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+        }
+        System.out.printf("%-35s %,d files in %,d ms%n", name, files, TimeUnit.NANOSECONDS.toMillis(bestNanos));
+    }
+
+    private static long walkSequentially(Path treeRoot) throws IOException {
+        var files = new AtomicLong();
+        Files.walkFileTree(treeRoot, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.incrementAndGet();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files.get();
+    }
+
+    /**
+     * Creates a tree of directories where each directory has {@code subdirsPerDir} subdirectories and
+     * {@code filesPerDir} empty files, down to a depth of {@code depth}.
+     */
+    private static Path createTree(Path dir, int depth, int subdirsPerDir, int filesPerDir) throws IOException {
+        for (int i = 0; i < filesPerDir; i++) {
+            Files.createFile(dir.resolve("file" + i));
+        }
+        if (depth > 1) {
+            for (int i = 0; i < subdirsPerDir; i++) {
+                createTree(Files.createDirectory(dir.resolve("dir" + i)), depth - 1, subdirsPerDir, filesPerDir);
+            }
+        }
+        return dir;
+    }
+
+    @FunctionalInterface
+    private interface FileCounter {
+        long countFiles() throws IOException;
+    }
+}
@@ -0,0 +1,187 @@
+package com.bullbytes.mayray.utils;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the {@link ParallelFileWalker}.
+ * <p>
+ * Person of contact: Matthias Braun
+ */
+final class ParallelFileWalkerTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @AfterAll
+    static void shutDownPool() {
+        POOL.shutdown();
+    }
+
+    @Test
+    void testAllEntriesAreVisitedOnce(@TempDir Path dir) throws IOException {
+        var expectedFiles = createTree(dir);
+        var visitedFiles = new ConcurrentHashMap<Path, AtomicInteger>();
+        var visitedDirs = ConcurrentHashMap.<Path>newKeySet();
+
+        ParallelFileWalker.walk(dir, POOL, new ParallelFileWalker.Visitor() {
+            @Override
+            public void visitDirectory(Path visitedDir, BasicFileAttributes attrs) {
+                assertTrue(attrs.isDirectory());
+                visitedDirs.add(visitedDir);
+            }
+
+            @Override
+            public void visitFile(Path file, BasicFileAttributes attrs) {
+                visitedFiles.computeIfAbsent(file, f -> new AtomicInteger()).incrementAndGet();
+            }
+        });
+
+        assertEquals(expectedFiles, visitedFiles.keySet());
+        assertTrue(visitedFiles.values().stream().allMatch(count -> count.get() == 1),
+                "Each file should be visited once");
+        assertEquals(Set.of(dir, dir.resolve("a"), dir.resolve("a/b"), dir.resolve("c")), visitedDirs);
+    }
+
+    @Test
+    void testAttributesAreThoseOfTheEntry(@TempDir Path dir) throws IOException {
+        Files.writeString(dir.resolve("five.txt"), "12345");
+        Files.createDirectory(dir.resolve("sub"));
+        Files.writeString(dir.resolve("sub/three.txt"), "123");
+        var sizes = new ConcurrentHashMap<Path, Long>();
+
+        ParallelFileWalker.walk(dir, POOL, (file, attrs) -> {
+            assertTrue(attrs.isRegularFile());
+            sizes.put(file, attrs.size());
+        });
+
+        assertEquals(Map.of(dir.resolve("five.txt"), 5L, dir.resolve("sub/three.txt"), 3L), sizes);
+    }
+
+    @Test
+    void testSymbolicLinksAreReportedButNotFollowed(@TempDir Path dir) throws IOException {
+        var target = Files.createDirectory(dir.resolve("target"));
+        Files.writeString(target.resolve("file.txt"), "content");
+        var walkedDir = Files.createDirectory(dir.resolve("walked"));
+        Files.createSymbolicLink(walkedDir.resolve("linkToDir"), target);
+        Files.createSymbolicLink(walkedDir.resolve("linkToFile"), target.resolve("file.txt"));
+        var visited = new ConcurrentHashMap<Path, BasicFileAttributes>();
+
+        ParallelFileWalker.walk(walkedDir, POOL, visited::put);
+
+        assertEquals(Set.of(walkedDir.resolve("linkToDir"), walkedDir.resolve("linkToFile")), visited.keySet());
+        assertTrue(visited.values().stream().allMatch(BasicFileAttributes::isSymbolicLink));
+    }
+
+    @Test
+    void testStreamedFilesOfADirectoryAreSorted(@TempDir Path dir) throws IOException {
+        var expectedFiles = createTree(dir);
+
+        List<Path> streamed;
+        try (var files = ParallelFileWalker.streamFiles(dir)) {
+            streamed = files.map(fileAndAttrs -> fileAndAttrs._1).collect(Collectors.toList());
+        }
+
+        assertEquals(expectedFiles, Set.copyOf(streamed));
+        assertEquals(expectedFiles.size(), streamed.size(), "Each file should be streamed once");
+        var filesByDir = streamed.stream().collect(Collectors.groupingBy(Path::getParent));
+        filesByDir.forEach((parent, files) -> {
+            var sorted = new ArrayList<>(files);
+            Collections.sort(sorted);
+            assertEquals(sorted, files, "The files of " + parent + " should come in the order of their names");
+        });
+    }
+
+    @Test
+    void testCancelledVisitorStopsWalk(@TempDir Path dir) throws IOException {
+        for (int i = 0; i < 100; i++) {
+            Files.createFile(dir.resolve("file" + i));
+        }
+        var visitedCount = new AtomicInteger();
+
+        ParallelFileWalker.walk(dir, POOL, new ParallelFileWalker.Visitor() {
+            @Override
+            public void visitFile(Path file, BasicFileAttributes attrs) {
+                visitedCount.incrementAndGet();
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return visitedCount.get() >= 10;
+            }
+        });
+
+        assertEquals(10, visitedCount.get());
+    }
+
+    @Test
+    void testCancellationEndsStream(@TempDir Path dir) throws IOException {
+        createTree(dir);
+        var cancellation = CancellationToken.create();
+        cancellation.cancel();
+
+        try (var files = ParallelFileWalker.streamFiles(dir, cancellation)) {
+            assertEquals(0, files.count(), "A cancelled walk shouldn't provide files");
+        }
+    }
+
+    @Test
+    void testFailureIsReportedToVisitor(@TempDir Path dir) {
+        var missing = dir.resolve("missing");
+        var failures = new ConcurrentHashMap<Path, IOException>();
+
+        ParallelFileWalker.walk(missing, POOL, new ParallelFileWalker.Visitor() {
+            @Override
+            public void visitFile(Path file, BasicFileAttributes attrs) {
+                throw new AssertionError("There are no files to visit");
+            }
+
+            @Override
+            public void visitFailed(Path path, IOException e) {
+                failures.put(path, e);
+            }
+        });
+
+        assertEquals(Set.of(missing), failures.keySet());
+        assertTrue(failures.get(missing) instanceof NoSuchFileException);
+        try (var files = ParallelFileWalker.streamFiles(missing)) {
+            assertFalse(files.findAny().isPresent(), "Walking a missing directory should end the stream");
+        }
+    }
+
+    /**
+     * Creates files in nested directories.
+     *
+     * @return the created files
+     */
+    private static Set<Path> createTree(Path dir) throws IOException {
+        var files = new HashSet<Path>();
+        for (var subdir : List.of("", "a", "a/b", "c")) {
+            Files.createDirectories(dir.resolve(subdir));
+            for (var name : List.of("3.txt", "1.txt", "2.txt")) {
+                files.add(Files.writeString(dir.resolve(subdir).resolve(name), subdir + name));
+            }
+        }
+        return files;
+    }
+}